@@ -27,11 +27,14 @@ import org.jpos.util.LogEvent;
 import org.jpos.util.LogSource;
 import org.jpos.util.Logger;
 import org.jpos.util.NameRegistrar;
+import org.jpos.util.Span;
+import org.jpos.util.Tracer;
 
 import javax.net.ssl.SSLSocket;
 import java.io.*;
 import java.net.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Observable;
@@ -80,6 +83,8 @@ public abstract class BaseChannel extends Observable
     private boolean expectKeepAlive;
     private boolean soLingerOn = true;
     private int soLingerSeconds = 5;
+    private boolean reuseReceiveBuffer;
+    private byte[] receiveBuffer;
     private Configuration cfg;
     protected boolean usable;
     protected boolean overrideHeader;
@@ -559,6 +564,23 @@ public abstract class BaseChannel extends Observable
     protected byte[] streamReceive() throws IOException {
         return new byte[0];
     }
+
+    /**
+     * Returns this channel's receive buffer, growing it if it can't
+     * hold <code>len</code> bytes.
+     * <p>
+     * The buffer is reused across calls, so callers must hold
+     * <code>serverInLock</code> and must not keep a reference to it
+     * once the message has been unpacked.
+     *
+     * @param len minimum buffer length
+     * @return a buffer of at least <code>len</code> bytes
+     */
+    protected byte[] getReceiveBuffer (int len) {
+        if (receiveBuffer == null || receiveBuffer.length < len)
+            receiveBuffer = new byte[Math.max(len, 1024)];
+        return receiveBuffer;
+    }
     protected void sendMessage (byte[] b, int offset, int len) 
         throws IOException
     {
@@ -575,6 +597,7 @@ public abstract class BaseChannel extends Observable
         throws IOException, ISOException
     {
         LogEvent evt = new LogEvent (this, "send");
+        Span span = m.getSpan() != null ? m.getSpan().child (spanName ("send")) : null;
         try {
             if (!isConnected())
                 throw new IOException ("unconnected ISOChannel");
@@ -611,6 +634,8 @@ public abstract class BaseChannel extends Observable
             evt.addMessage (e);
             throw new IOException ("unexpected exception", e);
         } finally {
+            if (span != null)
+                span.finish();
             Logger.log (evt);
         }
     }
@@ -691,7 +716,9 @@ public abstract class BaseChannel extends Observable
      */
     public ISOMsg receive() throws IOException, ISOException {
         byte[] b=null;
+        int bLen = 0;
         byte[] header=null;
+        long start = 0L;
         LogEvent evt = new LogEvent (this, "receive");
         ISOMsg m = createMsg ();  // call createMsg instead of createISOMsg for 
                                   // backward compatibility
@@ -709,6 +736,8 @@ public abstract class BaseChannel extends Observable
                         len  = getMessageLength();
                     }
                 }
+                if (Tracer.isEnabled())
+                    start = System.nanoTime();
                 int hLen = getHeaderLength();
 
                 if (len == -1) {
@@ -716,6 +745,7 @@ public abstract class BaseChannel extends Observable
                         header = readHeader(hLen);
                     }
                     b = streamReceive();
+                    bLen = b.length;
                 }
                 else if (len > 0 && len <= getMaxPacketLength()) {
                     if (hLen > 0) {
@@ -724,7 +754,8 @@ public abstract class BaseChannel extends Observable
                         header = readHeader(hLen);
                         len -= header.length;
                     }
-                    b = new byte[len];
+                    b = reuseReceiveBuffer ? getReceiveBuffer(len) : new byte[len];
+                    bLen = len;
                     getMessage (b, 0, len);
                     getMessageTrailer(m);
                 }
@@ -734,12 +765,19 @@ public abstract class BaseChannel extends Observable
             }
             m.setPackager (getDynamicPackager(header, b));
             m.setHeader (getDynamicHeader(header));
-            if (b.length > 0 && !shouldIgnore (header))  // Ignore NULL messages
-                unpack (m, b);
+            if (bLen > 0 && !shouldIgnore (header))  // Ignore NULL messages
+                unpack (m, b, bLen);
             m.setDirection(ISOMsg.INCOMING);
             evt.addMessage (m);
-            m = applyIncomingFilters (m, header, b, evt);
+            m = applyIncomingFilters (m, header, b, bLen, evt);
             m.setDirection(ISOMsg.INCOMING);
+            if (start != 0L) {
+                Span span = Tracer.startTrace (spanName ("receive"), start);
+                if (span != null) {
+                    m.setSpan (span);
+                    span.finish();
+                }
+            }
             cnt[RX]++;
             setChanged();
             notifyObservers(m);
@@ -751,7 +789,7 @@ public abstract class BaseChannel extends Observable
             }
             if (b != null) {
                 evt.addMessage ("--- data ---");
-                evt.addMessage (ISOUtil.hexdump (b));
+                evt.addMessage (ISOUtil.hexdump (b, 0, bLen));
             }
             throw e;
         } catch (EOFException e) {
@@ -867,6 +905,9 @@ public abstract class BaseChannel extends Observable
     public String getName() {
         return this.name;
     }
+    private String spanName (String op) {
+        return name != null ? op + " " + name : op;
+    }
     /**
      * @param filter filter to add
      * @param direction ISOMsg.INCOMING, ISOMsg.OUTGOING, 0 for both
@@ -953,6 +994,27 @@ public abstract class BaseChannel extends Observable
     {
         return applyIncomingFilters (m, null, null, evt);
     }
+    /**
+     * Same as {@link #applyIncomingFilters(ISOMsg, byte[], byte[], LogEvent)},
+     * but <code>image</code> may be a reusable buffer holding <code>len</code>
+     * valid bytes. An exact copy is handed to the filters only if there is
+     * a {@link RawIncomingFilter} that needs it.
+     */
+    protected ISOMsg applyIncomingFilters (ISOMsg m, byte[] header, byte[] image, int len, LogEvent evt)
+        throws VetoException
+    {
+        if (image != null && image.length != len) {
+            boolean raw = false;
+            for (ISOFilter f : incomingFilters) {
+                if (f instanceof RawIncomingFilter) {
+                    raw = true;
+                    break;
+                }
+            }
+            image = raw ? Arrays.copyOf (image, len) : null;
+        }
+        return applyIncomingFilters (m, header, image, evt);
+    }
     protected ISOMsg applyIncomingFilters (ISOMsg m, byte[] header, byte[] image, LogEvent evt) 
         throws VetoException
     {
@@ -967,6 +1029,53 @@ public abstract class BaseChannel extends Observable
     protected void unpack (ISOMsg m, byte[] b) throws ISOException {
         m.unpack (b);
     }
+    /**
+     * Unpacks the first <code>len</code> bytes of <code>b</code>.
+     * <p>
+     * ISOBasePackager based packagers unpack straight from the buffer, unless
+     * the packager, the message or this channel override the plain
+     * <code>unpack</code> method; those get an exact copy through
+     * {@link #unpack(ISOMsg, byte[])}.
+     * @param m message to unpack into
+     * @param b buffer holding the message image
+     * @param len image length
+     * @throws ISOException on error
+     */
+    protected void unpack (ISOMsg m, byte[] b, int len) throws ISOException {
+        ISOPackager p = m.getPackager();
+        if (b.length == len)
+            unpack (m, b);
+        else if (p instanceof ISOBasePackager
+          && !packagerUnpackOverridden.get (p.getClass())
+          && !msgUnpackOverridden.get (m.getClass())
+          && !channelUnpackOverridden.get (getClass()))
+            ((ISOBasePackager) p).unpack (m, b, len);
+        else
+            unpack (m, Arrays.copyOf (b, len));
+    }
+    private static final ClassValue<Boolean> packagerUnpackOverridden =
+      overridden (ISOBasePackager.class, "unpack", ISOComponent.class, byte[].class);
+    private static final ClassValue<Boolean> msgUnpackOverridden =
+      overridden (ISOMsg.class, "unpack", byte[].class);
+    private static final ClassValue<Boolean> channelUnpackOverridden =
+      overridden (BaseChannel.class, "unpack", ISOMsg.class, byte[].class);
+
+    private static ClassValue<Boolean> overridden (final Class<?> base, final String name, final Class<?>... params) {
+        return new ClassValue<Boolean>() {
+            @Override
+            protected Boolean computeValue (Class<?> type) {
+                for (Class<?> c = type; c != null && c != base; c = c.getSuperclass()) {
+                    try {
+                        c.getDeclaredMethod (name, params);
+                        return Boolean.TRUE;
+                    } catch (NoSuchMethodException ignored) {
+                        // look in the superclass
+                    }
+                }
+                return Boolean.FALSE;
+            }
+        };
+    }
    /**
     * Implements Configurable<br>
     * Properties:<br>
@@ -975,6 +1084,10 @@ public abstract class BaseChannel extends Observable
     * <li>port - port number      (if ClientChannel)
     * <li>local-iface - local interfase to use (if ClientChannel)
     * <li>local-port - local port to bind (if ClientChannel)
+    * <li>reuse-receive-buffer - read incoming messages into a per-channel
+    *     buffer instead of allocating one per message (default false).
+    *     Overrides of <code>getDynamicPackager(byte[],byte[])</code> then
+    *     receive that buffer, which may be longer than the message image.
     * </ul>
     * (host not present indicates a ServerChannel)
     *
@@ -1012,6 +1125,7 @@ public abstract class BaseChannel extends Observable
         keepAlive = cfg.getBoolean ("keep-alive", false);
         expectKeepAlive = cfg.getBoolean ("expect-keep-alive", false);
         roundRobin = cfg.getBoolean ("round-robin", false);
+        reuseReceiveBuffer = cfg.getBoolean ("reuse-receive-buffer", false);
         if (socketFactory != this && socketFactory instanceof Configurable)
             ((Configurable)socketFactory).setConfiguration (cfg);
         try {
@@ -1080,6 +1194,14 @@ public abstract class BaseChannel extends Observable
     public void setSocketFactory(ISOClientSocketFactory socketFactory) {
         this.socketFactory = socketFactory;
     }
+    public void setReuseReceiveBuffer (boolean reuseReceiveBuffer) {
+        this.reuseReceiveBuffer = reuseReceiveBuffer;
+        if (!reuseReceiveBuffer)
+            receiveBuffer = null;
+    }
+    public boolean isReuseReceiveBuffer () {
+        return reuseReceiveBuffer;
+    }
     public int getMaxPacketLength() {
         return maxPacketLength;
     }
@@ -1127,6 +1249,7 @@ public abstract class BaseChannel extends Observable
             channel.serverOut = null;
             channel.usable = false;
             channel.socket = null;
+            channel.receiveBuffer = null;
             return channel;
         } catch (CloneNotSupportedException e) {
             throw new InternalError();
@@ -62,6 +62,10 @@ public class GenericSSLSocketFactory
     private boolean serverAuthNeeded=false;
     private String[] enabledCipherSuites;
     private String[] enabledProtocols;
+    private String protocol = "SSL";
+    private int sessionCacheSize = -1;
+    private int sessionTimeout = -1;
+    private int handshakeTimeout;
 
     private Configuration cfg;
 
@@ -134,8 +138,10 @@ public class GenericSSLSocketFactory
             km.init( ks, keyPassword.toCharArray() );
             KeyManager[] kma = km.getKeyManagers();
             TrustManager[] tma = getTrustManagers( ks );
-            SSLContext sslc = SSLContext.getInstance( "SSL" ); 
+            SSLContext sslc = SSLContext.getInstance( protocol );
             sslc.init( kma, tma, SecureRandom.getInstance( "SHA1PRNG" ) ); 
+            configureSessionContext(sslc.getClientSessionContext());
+            configureSessionContext(sslc.getServerSessionContext());
             return sslc;
         } catch(Exception e) {
             throw new ISOException (e);
@@ -145,6 +151,21 @@ public class GenericSSLSocketFactory
         }
     }
 
+    /**
+     * Applies session-cache-size and session-timeout (if configured).
+     * Cached sessions let reconnecting peers resume instead of going
+     * through a full handshake.
+     * @param ctx client or server session context
+     */
+    private void configureSessionContext(SSLSessionContext ctx) {
+        if (ctx == null)
+            return;
+        if (sessionCacheSize >= 0)
+            ctx.setSessionCacheSize(sessionCacheSize);
+        if (sessionTimeout >= 0)
+            ctx.setSessionTimeout(sessionTimeout);
+    }
+
     /**
      * Create a socket factory
      * @return the socket factory
@@ -209,10 +230,69 @@ public class GenericSSLSocketFactory
     {
         if(socketFactory==null) socketFactory=createSocketFactory();
         SSLSocket s = (SSLSocket) socketFactory.createSocket(host,port);
+        if (enabledCipherSuites != null && enabledCipherSuites.length > 0) {
+            s.setEnabledCipherSuites(enabledCipherSuites);
+        }
+        if (enabledProtocols != null && enabledProtocols.length > 0) {
+            s.setEnabledProtocols(enabledProtocols);
+        }
+        if (handshakeTimeout > 0) {
+            handshake(s, handshakeTimeout);
+        }
         verifyHostname(s);
         return s;
     }
 
+    /**
+     * Creates an SSLEngine sharing this factory's SSLContext (and so its
+     * session cache), suitable for non-blocking servers and clients.
+     *
+     * @param peerHost peer host name (null if unknown)
+     * @param peerPort peer port (-1 if unknown)
+     * @param clientMode true for client side engines
+     * @return a configured SSLEngine
+     * @exception ISOException if the SSLContext can't be created
+     */
+    public SSLEngine createSSLEngine(String peerHost, int peerPort, boolean clientMode)
+        throws ISOException
+    {
+        if(sslc==null) sslc=getSSLContext();
+        SSLEngine engine = peerHost != null ?
+            sslc.createSSLEngine(peerHost, peerPort) : sslc.createSSLEngine();
+        engine.setUseClientMode(clientMode);
+        if (!clientMode)
+            engine.setNeedClientAuth(clientAuthNeeded);
+        if (enabledCipherSuites != null && enabledCipherSuites.length > 0) {
+            engine.setEnabledCipherSuites(enabledCipherSuites);
+        }
+        if (enabledProtocols != null && enabledProtocols.length > 0) {
+            engine.setEnabledProtocols(enabledProtocols);
+        }
+        return engine;
+    }
+
+    /**
+     * Performs the TLS handshake on <code>socket</code> bounded by
+     * <code>timeout</code>, restoring the socket's original SO_TIMEOUT.
+     * <p>
+     * Used by ISOServer sessions so that a slow or stalled peer fails
+     * fast instead of holding a session thread until the first read
+     * times out.
+     *
+     * @param socket an SSLSocket
+     * @param timeout handshake timeout in millis
+     * @exception IOException on handshake failure or timeout
+     */
+    public static void handshake(SSLSocket socket, int timeout) throws IOException {
+        int soTimeout = socket.getSoTimeout();
+        socket.setSoTimeout(timeout);
+        try {
+            socket.startHandshake();
+        } finally {
+            socket.setSoTimeout(soTimeout);
+        }
+    }
+
     /**
      * Verify that serverName and CN equals.
      *
@@ -334,7 +414,64 @@ public class GenericSSLSocketFactory
         return enabledCipherSuites;
     }
 
+    public void setEnabledProtocols(String[] enabledProtocols) {
+        this.enabledProtocols = enabledProtocols;
+    }
+
+    public String[] getEnabledProtocols() {
+        return enabledProtocols;
+    }
+
+    public void setProtocol(String protocol) {
+        this.protocol = protocol;
+    }
+
+    public String getProtocol() {
+        return protocol;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public void setHandshakeTimeout(int handshakeTimeout) {
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
 
+
+    /**
+     * Properties:<br>
+     * <ul>
+     * <li>keystore, storepassword, keypassword - key material
+     * <li>clientauth, serverauth, servername - peer authentication
+     * <li>addEnabledCipherSuite, addEnabledProtocol - e.g. TLSv1.3, TLSv1.2
+     * <li>protocol - SSLContext protocol (default "SSL")
+     * <li>session-cache-size - SSL session cache size, 0 for no limit
+     *     (defaults to the JSSE setting)
+     * <li>session-timeout - cached session lifetime in seconds
+     *     (defaults to the JSSE setting)
+     * <li>handshake-timeout - client side, handshake eagerly on connect
+     *     bounded by this many millis (default 0, lazy handshake)
+     * </ul>
+     * @param cfg Configuration
+     * @throws ConfigurationException
+     */
     public void setConfiguration(Configuration cfg) throws ConfigurationException {
         this.cfg = cfg;
         keyStore = cfg.get("keystore");
@@ -345,6 +482,10 @@ public class GenericSSLSocketFactory
         keyPassword = cfg.get("keypassword", null);
         enabledCipherSuites = cfg.getAll("addEnabledCipherSuite");
         enabledProtocols = cfg.getAll("addEnabledProtocol");
+        protocol = cfg.get("protocol", "SSL");
+        sessionCacheSize = cfg.getInt("session-cache-size", -1);
+        sessionTimeout = cfg.getInt("session-timeout", -1);
+        handshakeTimeout = cfg.getInt("handshake-timeout", 0);
     }
     public Configuration getConfiguration() {
         return cfg;
@@ -187,6 +187,25 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
      * @exception ISOException
      */
     public int unpack (ISOComponent m, byte[] b) throws ISOException {
+        return unpack (m, b, b.length);
+    }
+
+    /**
+     * Unpacks the first <code>len</code> bytes of <code>b</code>.
+     * <p>
+     * Allows callers to unpack straight out of a reusable (and possibly
+     * larger) buffer, as done by {@link BaseChannel} when configured with
+     * <code>reuse-receive-buffer</code>. Field packagers copy the bytes
+     * they keep, so the buffer is not retained by <code>m</code>.
+     *
+     * @param   m   the Container of this message
+     * @param   b   buffer holding the ISO message image
+     * @param   len image length
+     * @return      consumed bytes
+     * @exception ISOException if the image can't be unpacked or fields
+     *            extend past <code>len</code>
+     */
+    public int unpack (ISOComponent m, byte[] b, int len) throws ISOException {
         LogEvent evt = logger != null ?  new LogEvent (this, "unpack") : null;
         int consumed = 0;
 
@@ -194,7 +213,7 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
             if (m.getComposite() != m) 
                 throw new ISOException ("Can't call packager on non Composite");
             if (evt != null)  // save a few CPU cycle if no logger available
-                evt.addMessage (ISOUtil.hexString (b));
+                evt.addMessage (ISOUtil.hexString (b, 0, len));
 
             
             // if ISOMsg and headerLength defined 
@@ -271,9 +290,14 @@ public abstract class ISOBasePackager implements ISOPackager, LogSource {
                     throw e;
                 }
             }
-            if (evt != null && b.length != consumed) {
+            if (consumed > len) {
+                throw new ISOException (
+                    "unpack overrun len=" + len + " consumed=" + consumed
+                );
+            }
+            if (evt != null && len != consumed) {
                 evt.addMessage (
-                    "WARNING: unpack len=" +b.length +" consumed=" +consumed
+                    "WARNING: unpack len=" +len +" consumed=" +consumed
                 );
             }
             return consumed;
@@ -21,6 +21,7 @@ package org.jpos.iso;
 import org.jpos.iso.header.BaseHeader;
 import org.jpos.iso.packager.XMLPackager;
 import org.jpos.util.Loggeable;
+import org.jpos.util.Span;
 
 import java.io.*;
 import java.lang.ref.WeakReference;
@@ -51,6 +52,7 @@ public class ISOMsg extends ISOComponent
     public static final int OUTGOING = 2;
     private static final long serialVersionUID = 4306251831901413975L;
     private WeakReference sourceRef;
+    private transient Span span;
 
     /**
      * Creates an ISOMsg
@@ -1062,6 +1064,19 @@ public class ISOMsg extends ISOComponent
     public ISOSource getSource () {
         return sourceRef != null ? (ISOSource) sourceRef.get () : null;
     }
+    /**
+     * @param span trace span this message belongs to, may be null
+     * @see org.jpos.util.Tracer
+     */
+    public void setSpan (Span span) {
+        this.span = span;
+    }
+    /**
+     * @return trace span, null if this message is not being traced
+     */
+    public Span getSpan () {
+        return span;
+    }
     private void writeExternal (ObjectOutput out, char b, ISOComponent c) throws IOException {
         out.writeByte (b);
         ((Externalizable) c).writeExternal (out);
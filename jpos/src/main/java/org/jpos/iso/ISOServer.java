@@ -51,6 +51,8 @@ import org.jpos.util.Logger;
 import org.jpos.util.NameRegistrar;
 import org.jpos.util.ThreadPool;
 
+import javax.net.ssl.SSLSocket;
+
 /**
  * Accept ServerChannel sessions and forwards them to ISORequestListeners
  * @author Alejandro P. Revilla
@@ -92,6 +94,7 @@ public class ISOServer extends Observable
     private int[] cnt;
 
     private int backlog;
+    private int handshakeTimeout;
     protected Configuration cfg;
     private boolean shutdown = false;
     private ServerSocket serverSocket;
@@ -129,6 +132,7 @@ public class ISOServer extends Observable
         this.cfg = cfg;
         configureConnectionPerms();
         backlog = cfg.getInt ("backlog", 0);
+        handshakeTimeout = cfg.getInt ("handshake-timeout", 0);
         ignoreISOExceptions = cfg.getBoolean("ignore-iso-exceptions");
         String ip = cfg.get ("bind-address", null);
         if (ip != null) {
@@ -339,6 +343,7 @@ public class ISOServer extends Observable
                 }
             }
             try {
+                handshake();
                 for (;;) {
                     try {
                         ISOMsg m = channel.receive();
@@ -385,6 +390,18 @@ public class ISOServer extends Observable
             }
             Logger.log (new LogEvent (this, "session-end"));
         }
+        /**
+         * If handshake-timeout is configured, completes the TLS handshake
+         * on this session's thread (never on the accept loop) so that slow
+         * peers fail fast instead of stalling the first receive.
+         */
+        protected void handshake () throws IOException {
+            if (handshakeTimeout > 0 && channel instanceof BaseChannel) {
+                Socket socket = ((BaseChannel)channel).getSocket ();
+                if (socket instanceof SSLSocket)
+                    GenericSSLSocketFactory.handshake ((SSLSocket) socket, handshakeTimeout);
+            }
+        }
         @Override
         public void setLogger (Logger logger, String realm) {
         }
@@ -0,0 +1,266 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.channel;
+
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressing ISOChannel that keeps a single zlib stream per direction
+ * for the whole life of the connection.
+ * <p>
+ * Unlike {@link GZIPChannel}, which starts a new GZIP stream on every
+ * message, the Deflater/Inflater state (and so the compression window)
+ * is carried over from one message to the next, and each message is
+ * terminated with a sync flush. Small, repetitive ISO-8583 messages
+ * compress much better that way, and native zlib state is allocated
+ * once per connection instead of once per message.
+ * <p>
+ * Sends [LEN][HEADER][CLEN][DEFLATED-ISOMSG]
+ * (LEN = uncompressed length, CLEN = compressed length,
+ * both 2 bytes network byte order)
+ * <p>
+ * Both ends may share a preset dictionary (e.g. a handful of packed
+ * messages representative of the traffic) that primes the compressor
+ * so even the first messages on a connection compress well.
+ *
+ * @author apr@jpos.org
+ * @version $Revision$ $Date$
+ * @see GZIPChannel
+ * @see ISOMsg
+ * @see ISOException
+ * @see ISOChannel
+ */
+public class DeflateChannel extends BaseChannel {
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private byte[] dictionary;
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] deflateBuffer;
+    private byte[] inflateBuffer;
+    private byte[] overrun;
+
+    public DeflateChannel () {
+        super();
+    }
+    /**
+     * Construct client ISOChannel
+     * @param host  server TCP Address
+     * @param port  server port number
+     * @param p     an ISOPackager
+     * @see ISOPackager
+     */
+    public DeflateChannel (String host, int port, ISOPackager p) {
+        super(host, port, p);
+    }
+    /**
+     * Construct server ISOChannel
+     * @param p     an ISOPackager
+     * @exception IOException
+     * @see ISOPackager
+     */
+    public DeflateChannel (ISOPackager p) throws IOException {
+        super(p);
+    }
+    /**
+     * constructs a server ISOChannel associated with a Server Socket
+     * @param p     an ISOPackager
+     * @param serverSocket where to accept a connection
+     * @exception IOException
+     * @see ISOPackager
+     */
+    public DeflateChannel (ISOPackager p, ServerSocket serverSocket)
+        throws IOException
+    {
+        super(p, serverSocket);
+    }
+
+    /**
+     * @param level compression level (0-9, or -1 for zlib's default)
+     */
+    public void setLevel (int level) {
+        this.level = level;
+    }
+    public int getLevel () {
+        return level;
+    }
+    /**
+     * @param dictionary preset dictionary, must be the same on both ends
+     */
+    public void setDictionary (byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+    public byte[] getDictionary () {
+        return dictionary;
+    }
+
+    /**
+     * Starts fresh compression contexts for the new connection.
+     */
+    @Override
+    protected void postConnectHook() throws IOException {
+        super.postConnectHook();
+        synchronized (serverOutLock) {
+            if (deflater != null)
+                deflater.end();
+            deflater = new Deflater (level);
+            if (dictionary != null)
+                deflater.setDictionary (dictionary);
+            deflateBuffer = new byte[1024];
+        }
+        synchronized (serverInLock) {
+            if (inflater != null)
+                inflater.end();
+            inflater = new Inflater();
+            inflateBuffer = new byte[1024];
+            overrun = new byte[1];
+        }
+    }
+
+    /**
+     * Releases native zlib state once the socket is closed.
+     */
+    @Override
+    public void disconnect () throws IOException {
+        try {
+            super.disconnect();
+        } finally {
+            synchronized (serverOutLock) {
+                if (deflater != null) {
+                    deflater.end();
+                    deflater = null;
+                }
+            }
+            synchronized (serverInLock) {
+                if (inflater != null) {
+                    inflater.end();
+                    inflater = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param len the packed Message len
+     * @exception IOException
+     */
+    @Override
+    protected void sendMessageLength(int len) throws IOException {
+        serverOut.write (len >> 8);
+        serverOut.write (len);
+    }
+    /**
+     * @return the Message len
+     * @exception IOException, ISOException
+     */
+    @Override
+    protected int getMessageLength() throws IOException, ISOException {
+        return serverIn.readUnsignedShort();
+    }
+
+    @Override
+    protected void sendMessage (byte[] b, int offset, int len)
+        throws IOException
+    {
+        if (deflater == null)
+            throw new IOException ("unconnected ISOChannel");
+        deflater.setInput (b, offset, len);
+        int clen = 0;
+        for (;;) {
+            clen += deflater.deflate (
+                deflateBuffer, clen, deflateBuffer.length - clen, Deflater.SYNC_FLUSH
+            );
+            if (clen < deflateBuffer.length)
+                break;
+            byte[] buf = new byte[deflateBuffer.length * 2];
+            System.arraycopy (deflateBuffer, 0, buf, 0, clen);
+            deflateBuffer = buf;
+        }
+        if (clen > 0xFFFF)
+            throw new IOException ("compressed length " + clen + " too long");
+        serverOut.write (clen >> 8);
+        serverOut.write (clen);
+        serverOut.write (deflateBuffer, 0, clen);
+    }
+
+    @Override
+    protected void getMessage (byte[] b, int offset, int len) throws IOException, ISOException {
+        if (inflater == null)
+            throw new IOException ("unconnected ISOChannel");
+        int clen = serverIn.readUnsignedShort();
+        if (inflateBuffer.length < clen)
+            inflateBuffer = new byte[clen];
+        serverIn.readFully (inflateBuffer, 0, clen);
+        inflater.setInput (inflateBuffer, 0, clen);
+        try {
+            int total = 0;
+            while (total < len) {
+                int n = inflater.inflate (b, offset + total, len - total);
+                if (n == 0) {
+                    if (inflater.needsDictionary() && dictionary != null)
+                        inflater.setDictionary (dictionary);
+                    else if (inflater.needsInput() || inflater.finished() || inflater.needsDictionary())
+                        throw new ISOException (
+                            "compressed frame too short, got " + total + " of " + len + " bytes"
+                        );
+                }
+                total += n;
+            }
+            // consume the sync flush marker, nothing else should be left
+            if (inflater.getRemaining() > 0 && inflater.inflate (overrun) > 0)
+                throw new ISOException ("compressed frame longer than " + len + " bytes");
+        } catch (DataFormatException e) {
+            throw new ISOException ("invalid compressed frame", e);
+        }
+    }
+
+    /**
+     * Properties:<br>
+     * <ul>
+     * <li>compression-level - 0-9, -1 for zlib's default
+     * <li>dictionary-file - optional preset dictionary, must be the same on both ends
+     * </ul>
+     * @param cfg Configuration
+     * @throws ConfigurationException
+     */
+    @Override
+    public void setConfiguration (Configuration cfg)
+        throws ConfigurationException
+    {
+        super.setConfiguration (cfg);
+        level = cfg.getInt ("compression-level", Deflater.DEFAULT_COMPRESSION);
+        String dictionaryFile = cfg.get ("dictionary-file", null);
+        if (dictionaryFile != null) {
+            try {
+                dictionary = Files.readAllBytes (new File (dictionaryFile).toPath());
+            } catch (IOException e) {
+                throw new ConfigurationException ("Can't read dictionary-file " + dictionaryFile, e);
+            }
+        }
+    }
+}
@@ -83,12 +83,10 @@ public class GZIPChannel extends BaseChannel {
      */
     protected int getMessageLength() throws IOException, ISOException {
         int l = 0;
-        byte[] b = new byte[4];
         while (l == 0) {
-            serverIn.readFully(b,0,2);
-            l = ((int)b[0] &0xFF) << 8 | (int)b[1] &0xFF;
+            l = serverIn.readUnsignedShort();
             if (l == 0) {
-                serverOut.write(b);
+                serverOut.writeInt(0);
                 serverOut.flush();
             }
         }
@@ -0,0 +1,451 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.channel;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.FilteredBase;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.util.LogEvent;
+import org.jpos.util.LogSource;
+import org.jpos.util.Logger;
+import org.jpos.util.NameRegistrar;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-JVM ISOChannel that hands ISOMsg instances over to a peer
+ * PipeChannel living in the same JVM, with no packing, unpacking
+ * or socket I/O involved.
+ * <p>
+ * Every PipeChannel owns an inbox, identified by its <code>endpoint</code>
+ * name, and sends to the inbox of its <code>peer</code>. Inboxes are
+ * bounded queues (<code>max-pending</code> messages, as set by the first
+ * channel connecting to them), several channels may send to the same
+ * endpoint. A send fails with an ISOException when the peer's inbox is
+ * full or no channel is connected to receive from it, and an inbox is
+ * dropped, along with any message still queued, once every channel
+ * using it (as endpoint or peer) has disconnected.
+ * Typical use is a pair of ChannelAdaptors (front-end and authorizer)
+ * deployed in the same Q2, each one with a QMUX on top:
+ * <pre>
+ *  &lt;channel class="org.jpos.iso.channel.PipeChannel"&gt;
+ *   &lt;property name="endpoint" value="front-end" /&gt;
+ *   &lt;property name="peer" value="authorizer" /&gt;
+ *  &lt;/channel&gt;
+ * </pre>
+ * Unlike {@link LoopbackChannel}, log events are only built when a
+ * logger is set or filters are present, and the defensive copy of
+ * outgoing messages can be turned off (<code>copy=false</code>) when
+ * the sender won't touch a message after sending it.
+ *
+ * @author apr@jpos.org
+ * @version $Revision$ $Date$
+ * @see LoopbackChannel
+ */
+public class PipeChannel extends FilteredBase implements LogSource, Configurable {
+    private static final ConcurrentMap<String,Inbox> inboxes
+      = new ConcurrentHashMap<String,Inbox>();
+    private static final long POLL_INTERVAL = 1000L;
+    public static final int DEFAULT_MAX_PENDING = 10000;
+
+    volatile boolean usable;
+    private int[] cnt;
+    private String name;
+    private String endpoint;
+    private String peer;
+    private boolean copy = true;
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private Inbox in;
+    private Inbox out;
+    private Configuration cfg;
+    Logger logger;
+    String realm;
+
+    public PipeChannel () {
+        super();
+        cnt = new int[SIZEOF_CNT];
+    }
+
+    /**
+     * @param endpoint this channel's inbox name
+     * @param peer peer's inbox name
+     */
+    public PipeChannel (String endpoint, String peer) {
+        this();
+        this.endpoint = endpoint;
+        this.peer = peer;
+    }
+
+   /**
+    * PipeChannel doesn't pack messages, packager is ignored.
+    */
+    public void setPackager(ISOPackager packager) {
+        // N/A
+    }
+    public ISOPackager getPackager() {
+        return null;
+    }
+
+    public void connect () throws IOException {
+        if (endpoint == null || peer == null)
+            throw new IOException ("endpoint/peer not configured");
+        synchronized (inboxes) {
+            if (in == null) {
+                in = attach (endpoint, maxPending);
+                in.receivers++;
+            }
+            if (out == null)
+                out = attach (peer, maxPending);
+        }
+        cnt[CONNECT]++;
+        usable = true;
+        setChanged();
+        notifyObservers();
+    }
+
+    /**
+     * disconnects ISOChannel, messages already queued to this endpoint
+     * are kept for the next connection as long as some other channel
+     * still uses the inbox.
+     */
+    public void disconnect () {
+        usable = false;
+        synchronized (inboxes) {
+            if (in != null) {
+                in.receivers--;
+                in.wakeup();
+                detach (endpoint, in);
+                in = null;
+            }
+            if (out != null) {
+                detach (peer, out);
+                out = null;
+            }
+        }
+        setChanged();
+        notifyObservers();
+    }
+
+    public void reconnect() throws IOException {
+        disconnect();
+        connect();
+    }
+
+    public boolean isConnected() {
+        return usable;
+    }
+
+    public void send (ISOMsg m) throws IOException, ISOException {
+        if (!isConnected())
+            throw new ISOException ("unconnected ISOChannel");
+        LogEvent evt = createLogEvent ("pipe-send", outgoingFilters.isEmpty());
+        if (copy)
+            m = (ISOMsg) m.clone();
+        m.setDirection(ISOMsg.OUTGOING);
+        if (evt != null) {
+            m = applyOutgoingFilters (m, evt);
+            evt.addMessage (m);
+        }
+        Inbox q = out;
+        if (q == null || q.receivers == 0)
+            throw new ISOException ("no receiver connected to '" + peer + "'");
+        if (!q.offer (m))
+            throw new ISOException ("'" + peer + "' inbox full");
+        cnt[TX]++;
+        if (evt != null)
+            Logger.log (evt);
+    }
+
+    public void send (byte[] b) throws IOException, ISOException {
+        throw new ISOException ("PipeChannel can't send raw images");
+    }
+
+    public ISOMsg receive() throws IOException, ISOException {
+        ISOMsg m;
+        try {
+            do {
+                Inbox q = in;
+                if (!isConnected() || q == null)
+                    throw new IOException ("unconnected ISOChannel");
+                m = q.poll (POLL_INTERVAL);
+            } while (m == null);
+        } catch (InterruptedException e) {
+            throw new IOException (e.toString());
+        }
+        m.setDirection(ISOMsg.INCOMING);
+        m.setSource (this);
+        LogEvent evt = createLogEvent ("pipe-receive", incomingFilters.isEmpty());
+        if (evt != null) {
+            m = applyIncomingFilters (m, evt);
+            evt.addMessage (m);
+            Logger.log (evt);
+        }
+        cnt[RX]++;
+        return m;
+    }
+
+    public void setUsable(boolean usable) {
+        this.usable = usable;
+        setChanged();
+        notifyObservers();
+    }
+
+    public int[] getCounters() {
+        return cnt;
+    }
+
+    public void resetCounters() {
+        for (int i=0; i<SIZEOF_CNT; i++)
+            cnt[i] = 0;
+    }
+
+    public void setName (String name) {
+        this.name = name;
+        NameRegistrar.register ("channel."+name, this);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public String getPeer() {
+        return peer;
+    }
+
+    public boolean isCopy() {
+        return copy;
+    }
+
+    /**
+     * @param copy true (default) to send a clone of the message, false to
+     * hand over the very same instance
+     */
+    public void setCopy(boolean copy) {
+        this.copy = copy;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * @param maxPending capacity of the inboxes created by this channel
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+   /**
+    * Properties:<br>
+    * <ul>
+    * <li>endpoint - this channel's inbox name
+    * <li>peer - inbox name messages are sent to
+    * <li>copy - clone outgoing messages (default true)
+    * <li>max-pending - inbox capacity (default 10000)
+    * </ul>
+    * @param cfg Configuration
+    * @throws ConfigurationException
+    */
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        this.cfg = cfg;
+        endpoint = cfg.get ("endpoint", null);
+        peer = cfg.get ("peer", null);
+        if (endpoint == null || peer == null)
+            throw new ConfigurationException ("endpoint and peer properties are required");
+        copy = cfg.getBoolean ("copy", true);
+        maxPending = cfg.getInt ("max-pending", DEFAULT_MAX_PENDING);
+        if (maxPending <= 0)
+            throw new ConfigurationException ("Invalid max-pending " + maxPending);
+    }
+
+    public Configuration getConfiguration() {
+        return cfg;
+    }
+
+    public void setLogger (Logger logger, String realm) {
+        this.logger = logger;
+        this.realm  = realm;
+    }
+    public String getRealm () {
+        return realm;
+    }
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * @return number of messages waiting on this channel's endpoint
+     */
+    public int getPendingCount() {
+        Inbox q = endpoint != null ? inboxes.get (endpoint) : null;
+        return q != null ? q.size() : 0;
+    }
+
+    private LogEvent createLogEvent (String tag, boolean noFilters) {
+        return logger == null && noFilters ? null : new LogEvent (this, tag);
+    }
+
+    // callers hold the inboxes lock
+    private static Inbox attach (String name, int capacity) {
+        Inbox q = inboxes.get (name);
+        if (q == null) {
+            q = new Inbox (capacity);
+            inboxes.put (name, q);
+        }
+        q.refs++;
+        return q;
+    }
+    private static void detach (String name, Inbox q) {
+        if (--q.refs == 0)
+            inboxes.remove (name, q);
+    }
+
+    /**
+     * Bounded lock-free queue (Vyukov's array based MPMC queue, since
+     * several channels may receive from the same endpoint): producers and
+     * consumers claim a slot with a CAS on their position, and every slot
+     * carries a sequence number telling whether it's ready to be written
+     * or read. Receivers with nothing to read park, a send unparks the
+     * first one waiting, so waking up a receiver takes no lock on either
+     * side.
+     */
+    private static final class Inbox {
+        private final int capacity;
+        private final ISOMsg[] items;
+        private final AtomicLongArray seqs;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final Queue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+        int refs;
+        volatile int receivers;
+
+        Inbox (int capacity) {
+            this.capacity = capacity;
+            items = new ISOMsg[capacity];
+            seqs = new AtomicLongArray (capacity);
+            for (int i=0; i<capacity; i++)
+                seqs.set (i, i);
+        }
+
+        /**
+         * @return false if the inbox is full
+         */
+        boolean offer (ISOMsg m) {
+            for (;;) {
+                long pos = tail.get();
+                int i = (int) (pos % capacity);
+                long dif = seqs.get (i) - pos;
+                if (dif == 0L) {
+                    if (tail.compareAndSet (pos, pos + 1)) {
+                        items[i] = m;
+                        seqs.set (i, pos + 1); // publishes the item
+                        signal();
+                        return true;
+                    }
+                } else if (dif < 0L) {
+                    return false; // slot not read yet, full
+                }
+            }
+        }
+
+        /**
+         * @return next message, null if the inbox is empty
+         */
+        ISOMsg poll () {
+            for (;;) {
+                long pos = head.get();
+                int i = (int) (pos % capacity);
+                long dif = seqs.get (i) - (pos + 1);
+                if (dif == 0L) {
+                    if (head.compareAndSet (pos, pos + 1)) {
+                        ISOMsg m = items[i];
+                        items[i] = null;
+                        seqs.set (i, pos + capacity); // slot free for the next lap
+                        return m;
+                    }
+                } else if (dif < 0L) {
+                    return null; // slot not written yet, empty
+                }
+            }
+        }
+
+        /**
+         * @param timeout max time to park, in millis
+         * @return next message, null if none arrived in time or the
+         * caller was woken up without one (i.e. on disconnect)
+         */
+        ISOMsg poll (long timeout) throws InterruptedException {
+            ISOMsg m = poll();
+            if (m != null)
+                return m;
+            Thread t = Thread.currentThread();
+            waiters.add (t);
+            try {
+                // registered before polling again, so a concurrent offer
+                // either gets polled here or finds us waiting
+                m = poll();
+                if (m == null) {
+                    LockSupport.parkNanos (this, TimeUnit.MILLISECONDS.toNanos (timeout));
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                    m = poll();
+                }
+            } finally {
+                waiters.remove (t);
+            }
+            if (m != null && size() > 0)
+                signal(); // we may have been signaled for another message
+            return m;
+        }
+
+        int size () {
+            return (int) Math.max (0L, tail.get() - head.get());
+        }
+
+        private void signal () {
+            Thread t = waiters.peek();
+            if (t != null)
+                LockSupport.unpark (t);
+        }
+
+        /**
+         * Unparks every waiting receiver, so they can notice a disconnect
+         */
+        void wakeup () {
+            for (Thread t : waiters)
+                LockSupport.unpark (t);
+        }
+    }
+}
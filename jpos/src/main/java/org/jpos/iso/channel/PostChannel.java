@@ -77,10 +77,7 @@ public class PostChannel extends BaseChannel {
         serverOut.write (len);
     }
     protected int getMessageLength() throws IOException, ISOException {
-        byte[] b = new byte[2];
-        serverIn.readFully(b,0,2);
-        return ((int)b[0] &0xFF) << 8 |
-                (int)b[1] &0xFF;
+        return serverIn.readUnsignedShort();
     }
    /**
     *      * @param header Hex representation of header
@@ -0,0 +1,98 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.filter;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOChannel;
+import org.jpos.iso.ISOFilter;
+import org.jpos.iso.ISOMsg;
+import org.jpos.util.LogEvent;
+import org.jpos.util.RateLimiter;
+
+/**
+ * Non-blocking alternative to {@link ThroughputControlFilter}.
+ * <p>
+ * Messages over the configured rate are vetoed right away (the default),
+ * or, with <code>on-limit=delay</code>, held for the (bounded) time needed
+ * to get back within the rate.
+ * <p>
+ * Note that <code>on-limit=delay</code> blocks the calling channel thread
+ * for up to <code>max-delay</code> millis; use the
+ * {@link org.jpos.transaction.participant.RateLimit} participant, which
+ * PAUSEs the transaction instead, when that is not acceptable.
+ *
+ * @see RateLimiter
+ */
+public class RateLimitFilter implements ISOFilter, Configurable {
+    RateLimiter limiter;
+    int[] keyFields;
+    int keyLength;
+    boolean delay;
+    long maxDelay;
+
+   /**
+    * @param cfg
+    * <ul>
+    *  <li>rate - transactions per period</li>
+    *  <li>period - in millis, defaults to 1000</li>
+    *  <li>burst - defaults to rate</li>
+    *  <li>key-fields - field making up the key (e.g. 41, or 0 for MTI), may be repeated, global limit if not present</li>
+    *  <li>key-length - max length of every key field (e.g. 6 with key-fields=2 limits per BIN)</li>
+    *  <li>on-limit - reject (default) or delay</li>
+    *  <li>max-delay - longest acceptable delay in millis, when on-limit=delay (blocks the channel thread)</li>
+    *  <li>max-keys - number of keys that triggers a purge of idle ones, defaults to 10000</li>
+    * </ul>
+    */
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        int rate = cfg.getInt ("rate");
+        if (rate <= 0)
+            throw new ConfigurationException ("Invalid rate " + rate);
+        limiter = new RateLimiter (
+            rate, cfg.getLong ("period", 1000L), cfg.getInt ("burst", rate), cfg.getInt ("max-keys", 10000)
+        );
+        keyFields = cfg.getInts ("key-fields");
+        keyLength = cfg.getInt ("key-length");
+        delay = "delay".equals (cfg.get ("on-limit", "reject"));
+        maxDelay = delay ? cfg.getLong ("max-delay", 1000L) : 0L;
+    }
+
+    public ISOMsg filter (ISOChannel channel, ISOMsg m, LogEvent evt)
+        throws VetoException
+    {
+        if (limiter != null) {
+            String key = RateLimiter.getKey (m, keyFields, keyLength);
+            long wait = limiter.reserve (key, maxDelay);
+            if (wait < 0L) {
+                evt.addMessage ("<rate-limit key=\"" + key + "\"/>");
+                throw new VetoException ("rate limit exceeded");
+            }
+            if (wait > 0L) {
+                evt.addMessage ("<rate-limit key=\"" + key + "\" delay=\"" + wait + "\"/>");
+                try {
+                    Thread.sleep (wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return m;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.cli;
+
+import org.jpos.q2.CLICommand;
+import org.jpos.q2.CLIContext;
+import org.jpos.q2.iso.Replay;
+import org.jpos.iso.MUX;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.NameRegistrar;
+
+import java.io.FileReader;
+import java.io.Reader;
+
+/**
+ * Replays the requests received in a jPOS log file through a deployed MUX,
+ * or queues them to a TransactionManager (<code>queue:name</code>, in the
+ * default space), and prints a throughput and latency report.
+ */
+public class REPLAY implements CLICommand
+{
+    static final String QUEUE_PREFIX = "queue:";
+
+    public void exec(CLIContext cli, String[] args) throws Exception
+    {
+        if (args.length < 3)
+        {
+            cli.println("Usage: replay log-file mux-name|queue:queue-name [streams] [speed] [repeat]");
+            cli.println("       speed: 1 = original rate, 2 = twice as fast, 0 = max rate");
+            return;
+        }
+        Replay replay = new Replay();
+        if (args[2].startsWith(QUEUE_PREFIX))
+        {
+            replay.setQueue(SpaceFactory.getSpace(), args[2].substring(QUEUE_PREFIX.length()));
+        }
+        else
+        {
+            try
+            {
+                replay.setMUX((MUX) NameRegistrar.get("mux." + args[2]));
+            }
+            catch (NameRegistrar.NotFoundException e)
+            {
+                cli.println("MUX '" + args[2] + "' not found, use " + QUEUE_PREFIX + args[2]
+                  + " to queue to a TransactionManager");
+                return;
+            }
+        }
+        Reader r = new FileReader(args[1]);
+        try
+        {
+            replay.setMessages(Replay.readLog(r, "receive", true));
+        }
+        finally
+        {
+            r.close();
+        }
+        if (args.length > 3)
+            replay.setStreams(Integer.parseInt(args[3]));
+        if (args.length > 4)
+            replay.setSpeed(Double.parseDouble(args[4]));
+        if (args.length > 5)
+            replay.setRepeat(Integer.parseInt(args[5]));
+        cli.println("replaying " + replay.getMessages().size() + " messages");
+        replay.run().dump(cli.getOutputStream(), "");
+    }
+}
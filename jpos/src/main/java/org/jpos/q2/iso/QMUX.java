@@ -24,12 +24,16 @@ import org.jpos.iso.*;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.q2.QFactory;
 import org.jpos.space.*;
+import org.jpos.util.ConcurrentUtil;
 import org.jpos.util.Loggeable;
 import org.jpos.util.NameRegistrar;
+import org.jpos.util.Span;
+import org.jpos.util.Tracer;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
@@ -51,6 +55,7 @@ public class QMUX
     protected String[] mtiMapping;
     private boolean headerIsKey;
     private LocalSpace isp; // internal space
+    private ExecutorService notifier;
 
     List<ISORequestListener> listeners;
     int rx, tx, rxExpired, txExpired, rxPending, rxUnhandled, rxForwarded;
@@ -82,7 +87,12 @@ public class QMUX
             // Handle messages that could be in the in queue at start time
             synchronized (sp) {
                 Object[] pending = SpaceUtil.inpAll(sp, in);
-                sp.addListener (in, this);
+                if (sp instanceof TSpace && cfg.getBoolean ("async-notify")) {
+                    // responses are matched on our own thread, not the channel's receiver
+                    notifier = ConcurrentUtil.newSingleThreadExecutor ("qmux-" + getName() + "-notify");
+                    ((TSpace) sp).addListener (in, this, notifier);
+                } else
+                    sp.addListener (in, this);
                 for (Object o : pending)
                     sp.out(in, o);
             }
@@ -91,6 +101,10 @@ public class QMUX
     public void stopService () {
         listenerRegistered = false;
         sp.removeListener (in, this);
+        if (notifier != null) {
+            notifier.shutdown();
+            notifier = null;
+        }
     }
     public void destroyService () {
         NameRegistrar.unregister ("mux."+getName ());
@@ -113,6 +127,22 @@ public class QMUX
      * @return response or null
      */
     public ISOMsg request (ISOMsg m, long timeout) throws ISOException {
+        Span parent = Tracer.isEnabled() ? Tracer.current() : null;
+        if (parent == null)
+            parent = m.getSpan();
+        if (parent == null)
+            return request0 (m, timeout);
+        Span span = parent.child ("mux " + getName());
+        Span previous = m.getSpan();
+        m.setSpan (span);
+        try {
+            return request0 (m, timeout);
+        } finally {
+            m.setSpan (previous);
+            span.finish();
+        }
+    }
+    private ISOMsg request0 (ISOMsg m, long timeout) throws ISOException {
         String key = getKey (m);
         String req = key + ".req";
         if (isp.rdp (req) != null)
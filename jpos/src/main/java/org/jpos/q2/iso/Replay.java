@@ -0,0 +1,391 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.iso;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.MUX;
+import org.jpos.iso.packager.XMLPackager;
+import org.jpos.space.Space;
+import org.jpos.transaction.Context;
+import org.jpos.util.Loggeable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays captured traffic.
+ * <p>
+ * Messages are read from a standard jPOS log (i.e. the log of the channel
+ * that received them) and sent either through a {@link MUX} or queued to a
+ * TransactionManager as a {@link Context}, using a number of concurrent
+ * streams. Message <i>i</i> goes to stream <i>i % streams</i>, and each
+ * stream waits for a response before sending its next message.
+ * <p>
+ * With a <code>speed</code> of 1 messages are sent at their original
+ * times, 2 sends them twice as fast, and 0 sends them as fast as possible.
+ *
+ * @see ReplayAdaptor
+ */
+public class Replay {
+    private List<Message> messages = new ArrayList<Message>();
+    private MUX mux;
+    private Space sp;
+    private String queue;
+    private String requestName = "REQUEST";
+    private String responseName;
+    private int streams = 1;
+    private double speed = 1.0;
+    private int repeat = 1;
+    private long timeout = 30000L;
+    private int stanField;
+    private volatile boolean running;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong stan = new AtomicLong();
+
+    private static final Pattern logPattern = Pattern.compile("<log realm=\"[^\"]*\"\\sat=\"([^\"]*)\"");
+
+    /**
+     * A captured message
+     */
+    public static class Message {
+        final long at;
+        final ISOMsg m;
+
+        /**
+         * @param at capture time in millis, or -1 if unknown
+         * @param m captured message
+         */
+        public Message (long at, ISOMsg m) {
+            this.at = at;
+            this.m = m;
+        }
+        public long getAt() {
+            return at;
+        }
+        public ISOMsg getISOMsg() {
+            return m;
+        }
+    }
+
+    /**
+     * Extracts messages from a jPOS log.
+     *
+     * @param r log reader
+     * @param direction <code>receive</code>, <code>send</code> or null for both
+     * @param requestsOnly skip responses
+     * @return captured messages
+     * @throws IOException on read error
+     * @throws ISOException if a message can't be parsed
+     */
+    public static List<Message> readLog (Reader r, String direction, boolean requestsOnly)
+        throws IOException, ISOException
+    {
+        List<Message> l = new ArrayList<Message>();
+        BufferedReader reader = new BufferedReader (r);
+        DateFormat df = new SimpleDateFormat ("EEE MMM dd HH:mm:ss.SSS z yyyy", Locale.US);
+        XMLPackager packager = new XMLPackager();
+        StringBuilder sb = new StringBuilder();
+        String open = direction != null ? "<" + direction + ">" : null;
+        String close = direction != null ? "</" + direction + ">" : null;
+        boolean inDirection = direction == null;
+        long at = -1L;
+        int inMsg = 0;
+        for (String s; (s = reader.readLine()) != null; ) {
+            if (s.contains ("<log ")) {
+                Matcher matcher = logPattern.matcher (s);
+                at = -1L;
+                if (matcher.find()) {
+                    try {
+                        at = df.parse (matcher.group (1)).getTime();
+                    } catch (ParseException ignored) {
+                        // no timing information
+                    }
+                }
+            }
+            if (open != null && s.contains (open))
+                inDirection = true;
+            if (inDirection && s.contains ("<isomsg"))
+                inMsg++;
+            if (inMsg > 0)
+                sb.append (s).append ('\n');
+            if (inMsg > 0 && s.contains ("</isomsg>") && --inMsg == 0) {
+                ISOMsg m = new ISOMsg();
+                m.setPackager (packager);
+                m.unpack (sb.toString().getBytes());
+                m.setPackager (null);
+                m.setDirection (0);
+                if (!requestsOnly || !m.hasField (0) || m.isRequest())
+                    l.add (new Message (at, m));
+                sb.setLength (0);
+            }
+            if (close != null && s.contains (close))
+                inDirection = false;
+        }
+        return l;
+    }
+
+    public void setMessages (List<Message> messages) {
+        this.messages = messages;
+    }
+    public List<Message> getMessages() {
+        return messages;
+    }
+    /**
+     * @param mux send messages through this MUX
+     */
+    public void setMUX (MUX mux) {
+        this.mux = mux;
+    }
+    /**
+     * @param sp space where the TransactionManager listens
+     * @param queue TransactionManager's queue
+     */
+    public void setQueue (Space sp, String queue) {
+        this.sp = sp;
+        this.queue = queue;
+    }
+    /**
+     * @param requestName Context entry used to place the request (defaults to REQUEST)
+     * @param responseName Context entry to wait for, may be null
+     */
+    public void setContextNames (String requestName, String responseName) {
+        this.requestName = requestName;
+        this.responseName = responseName;
+    }
+    public void setStreams (int streams) {
+        this.streams = Math.max (1, streams);
+    }
+    public void setSpeed (double speed) {
+        this.speed = speed;
+    }
+    public void setRepeat (int repeat) {
+        this.repeat = repeat;
+    }
+    public void setTimeout (long timeout) {
+        this.timeout = timeout;
+    }
+    /**
+     * @param stanField if greater than zero, this field gets a new 6 digit
+     *        sequence number on every message sent
+     */
+    public void setStanField (int stanField) {
+        this.stanField = stanField;
+    }
+    public long getSent() {
+        return sent.get();
+    }
+    public long getReceived() {
+        return received.get();
+    }
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+    public long getErrors() {
+        return errors.get();
+    }
+    public boolean isRunning() {
+        return running;
+    }
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Replays the messages and waits for all streams to finish.
+     * @return run report
+     * @throws InterruptedException if interrupted
+     */
+    public Report run() throws InterruptedException {
+        if (mux == null && (sp == null || queue == null))
+            throw new IllegalStateException ("no mux nor queue");
+        final long[] offsets = new long[messages.size()];
+        long first = -1L;
+        long span = 0L;
+        for (int i=0; i<offsets.length; i++) {
+            long at = messages.get(i).at;
+            if (at >= 0 && first < 0)
+                first = at;
+            offsets[i] = at >= 0 && first >= 0 ? Math.max (0L, at - first) : 0L;
+            span = Math.max (span, offsets[i]);
+        }
+        final long period = span + 1L;
+        final long[][] latencies = new long[streams][];
+        final int[] counts = new int[streams];
+        Thread[] threads = new Thread[streams];
+        running = true;
+        final long start = System.nanoTime();
+        for (int s=0; s<streams; s++) {
+            final int stream = s;
+            latencies[s] = new long[(messages.size() / streams + 1) * Math.max (1, repeat)];
+            threads[s] = new Thread ("replay-" + s) {
+                @Override
+                public void run() {
+                    for (int r=0; r<repeat && running; r++) {
+                        for (int i=stream; i<messages.size() && running; i+=streams) {
+                            if (speed > 0) {
+                                long due = start + (long) ((r * period + offsets[i]) * 1000000L / speed);
+                                for (long w; running && (w = due - System.nanoTime()) > 0L; )
+                                    LockSupport.parkNanos (w);
+                            }
+                            long elapsed = send (messages.get(i).m);
+                            if (elapsed >= 0)
+                                latencies[stream][counts[stream]++] = elapsed;
+                        }
+                    }
+                }
+            };
+            threads[s].start();
+        }
+        try {
+            for (Thread t : threads)
+                t.join();
+        } finally {
+            running = false;
+        }
+        long elapsed = System.nanoTime() - start;
+        int n = 0;
+        for (int c : counts)
+            n += c;
+        long[] all = new long[n];
+        n = 0;
+        for (int s=0; s<streams; s++) {
+            System.arraycopy (latencies[s], 0, all, n, counts[s]);
+            n += counts[s];
+        }
+        Arrays.sort (all);
+        return new Report (sent.get(), received.get(), timeouts.get(), errors.get(), elapsed, all);
+    }
+
+    /**
+     * @return response latency in nanos, -1 if there's no response
+     */
+    private long send (ISOMsg msg) {
+        ISOMsg m = (ISOMsg) msg.clone();
+        try {
+            if (stanField > 0)
+                m.set (stanField, ISOUtil.zeropad (stan.incrementAndGet() % 1000000L, 6));
+            long t0 = System.nanoTime();
+            sent.incrementAndGet();
+            Object response;
+            if (mux != null) {
+                response = mux.request (m, timeout);
+            } else {
+                Context ctx = new Context();
+                ctx.put (requestName, m);
+                sp.out (queue, ctx);
+                response = responseName != null ? ctx.get (responseName, timeout) : Boolean.TRUE;
+            }
+            if (response == null) {
+                timeouts.incrementAndGet();
+                return -1L;
+            }
+            received.incrementAndGet();
+            return System.nanoTime() - t0;
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            return -1L;
+        }
+    }
+
+    /**
+     * Throughput and latency figures of a replay run
+     */
+    public static class Report implements Loggeable {
+        private final long sent, received, timeouts, errors, elapsed;
+        private final long[] latencies;
+
+        Report (long sent, long received, long timeouts, long errors, long elapsed, long[] latencies) {
+            this.sent = sent;
+            this.received = received;
+            this.timeouts = timeouts;
+            this.errors = errors;
+            this.elapsed = elapsed;
+            this.latencies = latencies;
+        }
+        public long getSent() {
+            return sent;
+        }
+        public long getReceived() {
+            return received;
+        }
+        public long getTimeouts() {
+            return timeouts;
+        }
+        public long getErrors() {
+            return errors;
+        }
+        /**
+         * @return elapsed time in millis
+         */
+        public long getElapsed() {
+            return elapsed / 1000000L;
+        }
+        /**
+         * @return messages sent per second
+         */
+        public double getTPS() {
+            return elapsed > 0L ? sent * 1e9 / elapsed : 0.0;
+        }
+        /**
+         * @param p percentile, from 0 to 100
+         * @return response latency in millis
+         */
+        public double getPercentile (double p) {
+            if (latencies.length == 0)
+                return 0.0;
+            int i = (int) Math.ceil (p / 100.0 * latencies.length) - 1;
+            return latencies[Math.max (0, Math.min (i, latencies.length - 1))] / 1e6;
+        }
+        public double getAverage() {
+            long sum = 0L;
+            for (long l : latencies)
+                sum += l;
+            return latencies.length > 0 ? sum / 1e6 / latencies.length : 0.0;
+        }
+        public void dump (PrintStream p, String indent) {
+            String inner = indent + "  ";
+            p.println (indent + "<replay>");
+            p.printf ("%ssent=%d, received=%d, timeouts=%d, errors=%d%n",
+              inner, sent, received, timeouts, errors);
+            p.printf (Locale.US, "%selapsed=%dms, tps=%.2f%n", inner, getElapsed(), getTPS());
+            p.printf (Locale.US, "%slatency min=%.3f avg=%.3f p50=%.3f p90=%.3f p95=%.3f p99=%.3f p99.9=%.3f max=%.3f (ms)%n",
+              inner, getPercentile (0), getAverage(), getPercentile (50), getPercentile (90),
+              getPercentile (95), getPercentile (99), getPercentile (99.9), getPercentile (100));
+            p.println (indent + "</replay>");
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.iso;
+
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.MUX;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.NameRegistrar;
+
+import java.io.FileReader;
+import java.io.Reader;
+
+/**
+ * Replays traffic captured in a jPOS log through a MUX or into a
+ * TransactionManager's queue, and logs a throughput and latency report.
+ * <pre>
+ * &lt;replay class="org.jpos.q2.iso.ReplayAdaptor" logger="Q2"&gt;
+ *   &lt;property name="file" value="log/capture.log" /&gt;
+ *   &lt;property name="mux" value="staging" /&gt;
+ *   &lt;property name="streams" value="8" /&gt;
+ *   &lt;property name="speed" value="2" /&gt;
+ * &lt;/replay&gt;
+ * </pre>
+ *
+ * @see Replay
+ */
+public class ReplayAdaptor extends QBeanSupport implements ReplayAdaptorMBean, Runnable {
+    private Replay replay;
+    private String muxName;
+    private long timeout;
+
+    @Override
+    public void initService () throws ConfigurationException {
+        String file = cfg.get ("file", null);
+        if (file == null)
+            throw new ConfigurationException ("file property not specified");
+        muxName = cfg.get ("mux", null);
+        String queue = cfg.get ("queue", null);
+        if (muxName == null && queue == null)
+            throw new ConfigurationException ("either mux or queue has to be specified");
+        timeout = cfg.getLong ("timeout", 30000L);
+        String direction = cfg.get ("direction", "receive");
+        replay = new Replay();
+        try {
+            Reader r = new FileReader (file);
+            try {
+                replay.setMessages (Replay.readLog (r,
+                  "any".equals (direction) ? null : direction,
+                  cfg.getBoolean ("requests-only", true))
+                );
+            } finally {
+                r.close();
+            }
+        } catch (Exception e) {
+            throw new ConfigurationException (file, e);
+        }
+        if (queue != null)
+            replay.setQueue (SpaceFactory.getSpace (cfg.get ("space", "")), queue);
+        replay.setContextNames (cfg.get ("request", "REQUEST"), cfg.get ("response", null));
+        replay.setStreams (cfg.getInt ("streams", 1));
+        replay.setSpeed (cfg.getDouble ("speed", 1.0));
+        replay.setRepeat (cfg.getInt ("repeat", 1));
+        replay.setTimeout (timeout);
+        replay.setStanField (cfg.getInt ("stan-field", 0));
+    }
+
+    @Override
+    public void startService () {
+        new Thread (this, getName()).start();
+    }
+
+    @Override
+    public void stopService () {
+        if (replay != null)
+            replay.stop();
+    }
+
+    public void run () {
+        try {
+            if (muxName != null) {
+                MUX mux = (MUX) NameRegistrar.get ("mux." + muxName);
+                for (long end = System.currentTimeMillis() + timeout;
+                     !mux.isConnected() && running() && System.currentTimeMillis() < end; )
+                    ISOUtil.sleep (100L);
+                replay.setMUX (mux);
+            }
+            getLog().info ("replaying " + replay.getMessages().size() + " messages");
+            getLog().info ("replay", replay.run());
+        } catch (Exception e) {
+            getLog().warn (e);
+        }
+        if (cfg.getBoolean ("shutdown", false))
+            shutdownQ2();
+    }
+
+    public long getSent() {
+        return replay != null ? replay.getSent() : 0L;
+    }
+    public long getReceived() {
+        return replay != null ? replay.getReceived() : 0L;
+    }
+    public long getTimeouts() {
+        return replay != null ? replay.getTimeouts() : 0L;
+    }
+    public long getErrors() {
+        return replay != null ? replay.getErrors() : 0L;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import org.jpos.core.ConfigurationException;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.LocalSpace;
+import org.jpos.space.ReplicatedSpace;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.NameRegistrar;
+
+/**
+ * Runs a {@link ReplicatedSpace} and registers it so that it can be obtained
+ * through the {@link SpaceFactory} (i.e. <code>replicated:saf</code>).
+ * <pre>
+ *  &lt;replicated-space class="org.jpos.q2.qbean.ReplicatedSpaceAdaptor" logger="Q2"&gt;
+ *   &lt;property name="space" value="replicated:saf" /&gt;
+ *   &lt;property name="local-space" value="mmap:saf:data/saf" /&gt;
+ *   &lt;property name="role" value="primary" /&gt;   &lt;!-- or follower --&gt;
+ *   &lt;property name="port" value="9500" /&gt;
+ *   &lt;property name="primary" value="localhost:9500" /&gt; &lt;!-- followers --&gt;
+ *   &lt;property name="ack" value="sync-one" /&gt;
+ *   &lt;property name="ack-timeout" value="5000" /&gt;
+ *  &lt;/replicated-space&gt;
+ * </pre>
+ */
+@SuppressWarnings("unchecked")
+public class ReplicatedSpaceAdaptor extends QBeanSupport implements ReplicatedSpaceAdaptorMBean {
+    private ReplicatedSpace sp;
+    private String spaceName;
+
+    @Override
+    protected void startService () throws Exception {
+        spaceName = cfg.get ("space", "replicated:" + getName());
+        Space local = SpaceFactory.getSpace (cfg.get ("local-space", "tspace:" + getName()));
+        if (!(local instanceof LocalSpace))
+            throw new ConfigurationException ("local-space has to be a LocalSpace");
+        sp = new ReplicatedSpace ((LocalSpace) local);
+        sp.setLogger (getLog().getLogger(), getLog().getRealm());
+        sp.setAck (
+            ReplicatedSpace.Ack.valueOf (cfg.get ("ack", "async").toUpperCase().replace ('-', '_')),
+            cfg.getLong ("ack-timeout", 5000L)
+        );
+        sp.setQueueLimits (cfg.getInt ("batch-size", 1000), cfg.getInt ("max-queue", 100000));
+        if ("follower".equals (cfg.get ("role", "primary"))) {
+            String primary = cfg.get ("primary", null);
+            int i = primary != null ? primary.lastIndexOf (':') : -1;
+            if (i < 0)
+                throw new ConfigurationException ("primary (host:port) is required");
+            sp.startFollower (primary.substring (0, i), Integer.parseInt (primary.substring (i+1)));
+        } else {
+            sp.startPrimary (cfg.getInt ("port"));
+        }
+        NameRegistrar.register (spaceName, sp);
+    }
+
+    @Override
+    protected void stopService () {
+        NameRegistrar.unregister (spaceName);
+        if (sp != null)
+            sp.stop();
+    }
+
+    public void promote () throws Exception {
+        sp.promote (cfg.getInt ("port"));
+    }
+    public String getRole () {
+        return sp != null && sp.isPrimary() ? "primary" : "follower";
+    }
+    public long getSeq () {
+        return sp != null ? sp.getSeq() : 0L;
+    }
+    public int getFollowers () {
+        return sp != null ? sp.getFollowerCount() : 0;
+    }
+    public long getAckTimeouts () {
+        return sp != null ? sp.getAckTimeouts() : 0L;
+    }
+}
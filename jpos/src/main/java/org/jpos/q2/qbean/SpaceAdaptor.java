@@ -21,14 +21,31 @@ package org.jpos.q2.qbean;
 import org.jpos.q2.Q2;
 import org.jpos.q2.QBeanSupport;
 import org.jpos.space.LocalSpace;
+import org.jpos.space.MMapSpace;
 import org.jpos.space.Space;
 import org.jpos.space.SpaceFactory;
+import org.jpos.space.TSpace;
 
+import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * Space Adaptor
+ * <p>
+ * A TSpace can be bounded using the following properties:
+ * <ul>
+ *  <li><code>max-entries</code> - max number of entries in the space
+ *  <li><code>max-entries-per-key</code> - max number of entries under a single key
+ *  <li><code>max-bytes</code> - max estimated size of the entries
+ *  <li><code>eviction</code> - <code>oldest</code> (default), <code>reject</code> or <code>spill</code>
+ *  <li><code>spill-space</code> - where evicted entries go with <code>spill</code> eviction
+ * </ul>
+ * An MMapSpace takes a <code>sync</code> property (<code>always</code>,
+ * <code>interval</code> or <code>never</code>) and a <code>sync-interval</code>
+ * in millis.
  *
  * @author Alejandro Revilla
  * @version $Revision$ $Date$
@@ -56,11 +73,36 @@ public class SpaceAdaptor
             getName() + ",space=" +
             (spaceName != null ? spaceName : "default")
         );
-        getServer().getMBeanServer().registerMBean (sp, objectName);
+
+        if (sp instanceof TSpace)
+            setLimits ((TSpace) sp);
+        else if (sp instanceof MMapSpace)
+            ((MMapSpace) sp).setSyncPolicy (
+                MMapSpace.SyncPolicy.valueOf (cfg.get ("sync", "interval").toUpperCase()),
+                cfg.getLong ("sync-interval", MMapSpace.DEFAULT_SYNC_INTERVAL)
+            );
+        try {
+            getServer().getMBeanServer().registerMBean (sp, objectName);
+        } catch (NotCompliantMBeanException e) {
+            // space is exposed through this adaptor's attributes
+            objectName = null;
+        }
     }
 
     protected void stopService () throws Exception {
-        getServer().getMBeanServer().unregisterMBean (objectName);
+        if (objectName != null)
+            getServer().getMBeanServer().unregisterMBean (objectName);
+    }
+
+    private void setLimits (TSpace tsp) {
+        String spill = cfg.get ("spill-space", null);
+        tsp.setLimits (
+            cfg.getInt ("max-entries", 0),
+            cfg.getInt ("max-entries-per-key", 0),
+            cfg.getLong ("max-bytes", 0L),
+            TSpace.Eviction.valueOf (cfg.get ("eviction", "oldest").toUpperCase()),
+            spill != null ? SpaceFactory.getSpace (spill) : null
+        );
     }
 
     public synchronized void setSpaceName (String spaceName) {
@@ -78,5 +120,25 @@ public class SpaceAdaptor
             return ((LocalSpace)sp).getKeySet ();
         return null;
     }
+
+    public int getSize () {
+        return sp instanceof TSpace ? ((TSpace) sp).size() : -1;
+    }
+
+    public long getBytes () {
+        return sp instanceof TSpace ? ((TSpace) sp).getBytes() : -1L;
+    }
+
+    public long getEvicted () {
+        return sp instanceof TSpace ? ((TSpace) sp).getEvicted() : 0L;
+    }
+
+    public long getRejected () {
+        return sp instanceof TSpace ? ((TSpace) sp).getRejected() : 0L;
+    }
+
+    public Map getKeySizes () {
+        return sp instanceof TSpace ? ((TSpace) sp).getKeySizes() : Collections.emptyMap();
+    }
 }
 
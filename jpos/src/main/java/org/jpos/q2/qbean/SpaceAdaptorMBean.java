@@ -31,4 +31,14 @@ public interface SpaceAdaptorMBean extends org.jpos.q2.QBeanSupportMBean {
 
   java.util.Set getKeys() ;
 
+  int getSize() ;
+
+  long getBytes() ;
+
+  long getEvicted() ;
+
+  long getRejected() ;
+
+  java.util.Map getKeySizes() ;
+
 }
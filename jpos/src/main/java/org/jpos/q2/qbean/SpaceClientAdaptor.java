@@ -0,0 +1,67 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.SpaceClient;
+import org.jpos.space.SpaceCodec;
+import org.jpos.space.SpaceFactory;
+import org.jpos.util.NameRegistrar;
+
+/**
+ * Registers a {@link SpaceClient} so that the remote space can be obtained
+ * through the {@link SpaceFactory} (i.e. <code>remote:central</code>).
+ * <pre>
+ *  &lt;space-client class="org.jpos.q2.qbean.SpaceClientAdaptor" logger="Q2"&gt;
+ *   &lt;property name="space" value="remote:central" /&gt;
+ *   &lt;property name="host" value="10.0.0.1" /&gt;
+ *   &lt;property name="port" value="9600" /&gt;
+ *   &lt;property name="timeout" value="30000" /&gt;
+ *  &lt;/space-client&gt;
+ * </pre>
+ *
+ * @see SpaceServerAdaptor
+ */
+public class SpaceClientAdaptor extends QBeanSupport implements SpaceClientAdaptorMBean {
+    private SpaceClient sp;
+    private String spaceName;
+
+    @Override
+    protected void startService () throws Exception {
+        spaceName = cfg.get ("space", "remote:" + getName());
+        sp = new SpaceClient (cfg.get ("host", "localhost"), cfg.getInt ("port"));
+        sp.setLogger (getLog().getLogger(), getLog().getRealm());
+        sp.setTimeout (cfg.getLong ("timeout", 30000L));
+        String codec = cfg.get ("codec", null);
+        if (codec != null)
+            sp.setCodec ((SpaceCodec) getFactory().newInstance (codec));
+        NameRegistrar.register (spaceName, sp);
+    }
+
+    @Override
+    protected void stopService () {
+        NameRegistrar.unregister (spaceName);
+        if (sp != null)
+            sp.close();
+    }
+
+    public String getSpaceName () {
+        return spaceName;
+    }
+}
@@ -26,14 +26,45 @@ import org.jpos.q2.QBeanSupport;
 import org.jpos.space.Space;
 import org.jpos.space.SpaceError;
 import org.jpos.space.SpaceFactory;
+import org.jpos.space.SpaceInterceptor;
 import org.jpos.util.NameRegistrar;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Iterator;
 
+/**
+ * Space whose operations can be handled by scripts.
+ * <p>
+ * By default the <code>out</code>, <code>push</code>, <code>put</code>,
+ * <code>in</code> and <code>rd</code> scripts are interpreted by BeanShell
+ * on every operation, holding the space's lock.
+ * <p>
+ * When an <code>&lt;engine&gt;</code> element names a JSR-223 script engine
+ * able to compile (i.e. <code>javascript</code>, <code>groovy</code>), the
+ * scripts are compiled once at init time and operations run concurrently,
+ * each one with its own bindings; scripts are serialized only if the engine
+ * is not thread safe. Engines that can't compile, such as BeanShell's, are
+ * rejected at init time.
+ * An <code>&lt;interceptor class="..."&gt;</code> element places a
+ * {@link SpaceInterceptor} (which needs a constructor taking the
+ * {@link Space}) between the scripts and the space, so the hot path can be
+ * plain Java; without an engine, no scripts may be configured along with it.
+ */
 @SuppressWarnings("unchecked")
 public class SpaceLet extends QBeanSupport implements Space {
     Space sp;
+    Space target;
+    boolean compiled;
+    Script out, push, in, rd, put;
     String uri;
     String outScript, outSource;
     String pushScript, pushSource;
@@ -45,6 +76,7 @@ public class SpaceLet extends QBeanSupport implements Space {
         Element config = getPersist ();
         grabSpace (config.getChild ("space"));
         initSpace (config.getChild ("init"));
+        target = sp;
 
         String name = getName();
         if ("spacelet".equals (name))
@@ -76,6 +108,10 @@ public class SpaceLet extends QBeanSupport implements Space {
         if (e != null)
             putSource = e.getAttributeValue ("source");
 
+        Element engine = config.getChild ("engine");
+        Element interceptor = config.getChild ("interceptor");
+        if (engine != null || interceptor != null)
+            initCompiled (config, engine != null ? engine.getTextTrim() : null, interceptor);
     }
     public void startService() {
         NameRegistrar.register (uri, this);
@@ -89,6 +125,11 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public void out (Object key, Object value) {
         try {
+            if (compiled) {
+                if (eval (out, key, value, null, false) == null)
+                    target.out (key, value);
+                return;
+            }
             Interpreter bsh = initInterpreter (key, value);
             synchronized (sp) {
                 if (!eval (bsh, outScript, outSource))
@@ -100,6 +141,11 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public void out (Object key, Object value, long timeout) {
         try {
+            if (compiled) {
+                if (eval (out, key, value, timeout, false) == null)
+                    target.out (key, value, timeout);
+                return;
+            }
             Interpreter bsh = initInterpreter (key, value, timeout);
             synchronized (sp) {
                 if (!eval (bsh, outScript, outSource))
@@ -111,6 +157,11 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public void push (Object key, Object value) {
         try {
+            if (compiled) {
+                if (eval (push, key, value, null, false) == null)
+                    target.push (key, value);
+                return;
+            }
             Interpreter bsh = initInterpreter (key, value);
             synchronized (sp) {
                 if (!eval (bsh, pushScript, pushSource))
@@ -122,6 +173,11 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public void push (Object key, Object value, long timeout) {
         try {
+            if (compiled) {
+                if (eval (push, key, value, timeout, false) == null)
+                    target.push (key, value, timeout);
+                return;
+            }
             Interpreter bsh = initInterpreter (key, value, timeout);
             synchronized (sp) {
                 if (!eval (bsh, pushScript, pushSource))
@@ -133,6 +189,11 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public void put (Object key, Object value) {
         try {
+            if (compiled) {
+                if (eval (put, key, value, null, false) == null)
+                    target.put (key, value);
+                return;
+            }
             Interpreter bsh = initInterpreter (key, value);
             synchronized (sp) {
                 if (!eval (bsh, putScript, putSource))
@@ -144,6 +205,11 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public void put (Object key, Object value, long timeout) {
         try {
+            if (compiled) {
+                if (eval (put, key, value, timeout, false) == null)
+                    target.put (key, value, timeout);
+                return;
+            }
             Interpreter bsh = initInterpreter (key, value, timeout);
             synchronized (sp) {
                 if (!eval (bsh, putScript, putSource))
@@ -157,6 +223,10 @@ public class SpaceLet extends QBeanSupport implements Space {
 
     public Object in  (Object key) {
         try {
+            if (compiled) {
+                Bindings b = eval (in, key, null, null, false);
+                return b != null ? b.get ("value") : target.in (key);
+            }
             Interpreter bsh = initInterpreter (key);
             synchronized (sp) {
                 if (eval (bsh, inScript, inSource)) {
@@ -171,6 +241,10 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public Object rd  (Object key) {
         try {
+            if (compiled) {
+                Bindings b = eval (rd, key, null, null, false);
+                return b != null ? b.get ("value") : target.rd (key);
+            }
             Interpreter bsh = initInterpreter (key);
             synchronized (sp) {
                 if (eval (bsh, rdScript, rdSource)) {
@@ -185,6 +259,10 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public Object in  (Object key, long timeout) {
         try {
+            if (compiled) {
+                Bindings b = eval (in, key, null, timeout, false);
+                return b != null ? b.get ("value") : target.in (key, timeout);
+            }
             Interpreter bsh = initInterpreter (key, timeout);
             synchronized (sp) {
                 if (eval (bsh, inScript, inSource)) {
@@ -199,6 +277,10 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public Object rd  (Object key, long timeout) {
         try {
+            if (compiled) {
+                Bindings b = eval (rd, key, null, timeout, false);
+                return b != null ? b.get ("value") : target.rd (key, timeout);
+            }
             Interpreter bsh = initInterpreter (key, timeout);
             synchronized (sp) {
                 if (eval (bsh, rdScript, rdSource)) {
@@ -213,6 +295,10 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public Object inp (Object key) {
         try {
+            if (compiled) {
+                Bindings b = eval (in, key, null, null, true);
+                return b != null ? b.get ("value") : target.inp (key);
+            }
             Interpreter bsh = initInterpreter (key);
             bsh.set ("probe", true);
             synchronized (sp) {
@@ -228,6 +314,10 @@ public class SpaceLet extends QBeanSupport implements Space {
     }
     public Object rdp (Object key) {
         try {
+            if (compiled) {
+                Bindings b = eval (rd, key, null, null, true);
+                return b != null ? b.get ("value") : target.rdp (key);
+            }
             Interpreter bsh = initInterpreter (key);
             bsh.set ("probe", true);
             synchronized (sp) {
@@ -242,10 +332,10 @@ public class SpaceLet extends QBeanSupport implements Space {
         }
     }
     public boolean existAny (Object[] keys) {
-        return sp.existAny (keys);
+        return target.existAny (keys);
     }
     public boolean existAny (Object[] keys, long timeout) {
-        return sp.existAny (keys, timeout);
+        return target.existAny (keys, timeout);
     }
     private void grabSpace (Element e) {
         sp = SpaceFactory.getSpace (e != null ? e.getText() : "");
@@ -254,10 +344,10 @@ public class SpaceLet extends QBeanSupport implements Space {
         return e == null ? null : e.getText();
     }
     public void nrd (Object key) {
-         sp.nrd(key);
+         target.nrd(key);
     }
     public Object nrd (Object key, long timeout) {
-        return sp.nrd(key, timeout);
+        return target.nrd(key, timeout);
     }
     private void launch (Element e) {
         // final Interpreter bsh = initInterpreter ();
@@ -336,5 +426,119 @@ public class SpaceLet extends QBeanSupport implements Space {
         }
         return rc;
     }
-}
+    private void initCompiled (Element config, String engineName, Element interceptor)
+        throws ConfigurationException
+    {
+        if (engineName == null) {
+            for (String op : new String[] { "out", "push", "in", "rd", "put" }) {
+                if (config.getChild (op) != null)
+                    throw new ConfigurationException ("'" + op + "' script along with an interceptor requires an engine");
+            }
+        }
+        ScriptEngine engine = engineName != null ? new ScriptEngineManager (
+          Thread.currentThread().getContextClassLoader()
+        ).getEngineByName (engineName) : null;
+        if (engine == null && engineName != null)
+            throw new ConfigurationException ("script engine '" + engineName + "' not available");
+        out  = compile (engine, config.getChild ("out"));
+        push = compile (engine, config.getChild ("push"));
+        in   = compile (engine, config.getChild ("in"));
+        rd   = compile (engine, config.getChild ("rd"));
+        put  = compile (engine, config.getChild ("put"));
+        if (interceptor != null)
+            target = createInterceptor (interceptor);
+        compiled = true;
+    }
+    private Script compile (ScriptEngine engine, Element e) throws ConfigurationException {
+        if (e == null || engine == null)
+            return null;
+        StringBuilder sb = new StringBuilder (e.getText());
+        String source = e.getAttributeValue ("source");
+        try {
+            if (source != null) {
+                sb.append ('\n').append (
+                  new String (Files.readAllBytes (new File (source).toPath()), StandardCharsets.UTF_8)
+                );
+            }
+            return new Script (engine, sb.toString());
+        } catch (IOException | ScriptException ex) {
+            throw new ConfigurationException (e.getName(), ex);
+        }
+    }
+    private Space createInterceptor (Element e) throws ConfigurationException {
+        String clazz = e.getAttributeValue ("class");
+        try {
+            Object obj = Class.forName (
+              clazz, true, Thread.currentThread().getContextClassLoader()
+            ).getConstructor (Space.class).newInstance (sp);
+            getFactory().setLogger (obj, e);
+            getFactory().setConfiguration (obj, e);
+            return (Space) obj;
+        } catch (ConfigurationException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ConfigurationException (clazz, ex);
+        }
+    }
+    /**
+     * @return script bindings (the result is in <code>value</code>) or null if the operation was not handled
+     */
+    private Bindings eval (Script script, Object key, Object value, Long timeout, boolean probe)
+        throws ScriptException
+    {
+        if (script == null)
+            return null;
+        Bindings b = script.engine.createBindings();
+        b.put ("sp", sp);
+        b.put ("spacelet", this);
+        b.put ("log", getLog());
+        b.put ("key", key);
+        if (value != null)
+            b.put ("value", value);
+        if (timeout != null)
+            b.put ("timeout", timeout);
+        if (probe)
+            b.put ("probe", Boolean.TRUE);
+        return Boolean.TRUE.equals (script.eval (b)) ? b : null;
+    }
 
+    /**
+     * A script compiled once, evaluated with per operation bindings
+     */
+    static class Script {
+        final ScriptEngine engine;
+        final CompiledScript compiled;
+        final boolean threadSafe;
+
+        /**
+         * @throws ScriptException if the script doesn't compile, or the engine can't compile scripts
+         */
+        Script (ScriptEngine engine, String text) throws ScriptException {
+            this.engine = engine;
+            this.compiled = compile (engine, text);
+            this.threadSafe = engine.getFactory() != null
+              && engine.getFactory().getParameter ("THREADING") != null;
+        }
+        private static CompiledScript compile (ScriptEngine engine, String text) throws ScriptException {
+            if (!(engine instanceof Compilable))
+                throw new ScriptException ("script engine can't compile scripts");
+            try {
+                return ((Compilable) engine).compile (text);
+            } catch (UnsupportedOperationException e) {
+                throw new ScriptException ("script engine can't compile scripts");
+            } catch (Error e) {
+                // BeanShell's engine is Compilable but throws a plain Error ("unimplemented")
+                if (e.getClass() == Error.class && "unimplemented".equals (e.getMessage()))
+                    throw new ScriptException ("script engine can't compile scripts");
+                throw e;
+            }
+        }
+        Object eval (Bindings b) throws ScriptException {
+            if (threadSafe)
+                return compiled.eval (b);
+            synchronized (this) {
+                return compiled.eval (b);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import org.jpos.core.ConfigurationException;
+import org.jpos.q2.QBeanSupport;
+import org.jpos.space.LocalSpace;
+import org.jpos.space.Space;
+import org.jpos.space.SpaceCodec;
+import org.jpos.space.SpaceFactory;
+import org.jpos.space.SpaceServer;
+
+/**
+ * Serves a local space to remote {@link org.jpos.space.SpaceClient}s.
+ * <pre>
+ *  &lt;space-server class="org.jpos.q2.qbean.SpaceServerAdaptor" logger="Q2"&gt;
+ *   &lt;property name="space" value="tspace:default" /&gt;
+ *   &lt;property name="port" value="9600" /&gt;
+ *  &lt;/space-server&gt;
+ * </pre>
+ *
+ * @see SpaceClientAdaptor
+ */
+public class SpaceServerAdaptor extends QBeanSupport implements SpaceServerAdaptorMBean {
+    private SpaceServer server;
+
+    @Override
+    protected void startService () throws Exception {
+        Space sp = SpaceFactory.getSpace (cfg.get ("space", ""));
+        if (!(sp instanceof LocalSpace))
+            throw new ConfigurationException ("space has to be a LocalSpace");
+        server = new SpaceServer ((LocalSpace) sp);
+        server.setLogger (getLog().getLogger(), getLog().getRealm());
+        String codec = cfg.get ("codec", null);
+        if (codec != null)
+            server.setCodec ((SpaceCodec) getFactory().newInstance (codec));
+        server.start (cfg.getInt ("port"));
+    }
+
+    @Override
+    protected void stopService () {
+        if (server != null)
+            server.stop();
+    }
+
+    public int getPort () {
+        return server != null ? server.getPort() : -1;
+    }
+    public int getConnections () {
+        return server != null ? server.getConnectionCount() : 0;
+    }
+    public long getRequests () {
+        return server != null ? server.getRequestCount() : 0L;
+    }
+    public long getErrors () {
+        return server != null ? server.getErrorCount() : 0L;
+    }
+    public int getWaiters () {
+        return server != null ? server.getWaiterCount() : 0;
+    }
+}
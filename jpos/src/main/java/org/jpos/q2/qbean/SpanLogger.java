@@ -0,0 +1,112 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.qbean;
+
+import org.jpos.q2.QBeanSupport;
+import org.jpos.util.DefaultTimer;
+import org.jpos.util.LogEvent;
+import org.jpos.util.Logger;
+import org.jpos.util.Span;
+import org.jpos.util.SpanExporter;
+import org.jpos.util.Tracer;
+
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enables tracing and logs finished spans in batches.
+ * <pre>
+ * &lt;span-logger class="org.jpos.q2.qbean.SpanLogger" logger="Q2"&gt;
+ *   &lt;property name="sample-rate" value="0.01" /&gt;
+ *   &lt;property name="flush-interval" value="1000" /&gt;
+ *   &lt;property name="max-spans" value="10000" /&gt;
+ * &lt;/span-logger&gt;
+ * </pre>
+ * Spans are buffered and logged every <code>flush-interval</code> millis
+ * as a single <code>trace</code> event. If more than <code>max-spans</code>
+ * are waiting, new ones are discarded (and counted) rather than slowing
+ * down the traced threads.
+ *
+ * @see Tracer
+ */
+public class SpanLogger extends QBeanSupport implements SpanExporter, SpanLoggerMBean {
+    private final ConcurrentLinkedQueue<Span> spans = new ConcurrentLinkedQueue<Span>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong discarded = new AtomicLong();
+    private int maxSpans;
+    private TimerTask flusher;
+
+    @Override
+    protected void startService () {
+        maxSpans = cfg.getInt ("max-spans", 10000);
+        long interval = cfg.getLong ("flush-interval", 1000L);
+        flusher = new TimerTask() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        DefaultTimer.getTimer().schedule (flusher, interval, interval);
+        Tracer.setExporter (this);
+        Tracer.setSampleRate (cfg.getDouble ("sample-rate", 1.0));
+    }
+
+    @Override
+    protected void stopService () {
+        Tracer.setSampleRate (0.0);
+        if (Tracer.getExporter() == this)
+            Tracer.setExporter (null);
+        if (flusher != null)
+            flusher.cancel();
+        flush();
+    }
+
+    public void export (Span span) {
+        if (pending.incrementAndGet() > maxSpans) {
+            pending.decrementAndGet();
+            discarded.incrementAndGet();
+        } else {
+            spans.add (span);
+        }
+    }
+
+    public void setSampleRate (double rate) {
+        Tracer.setSampleRate (rate);
+    }
+    public double getSampleRate () {
+        return Tracer.getSampleRate();
+    }
+    public long getDiscardedSpans () {
+        return discarded.get();
+    }
+
+    protected void flush () {
+        LogEvent evt = null;
+        for (Span span; (span = spans.poll()) != null; ) {
+            pending.decrementAndGet();
+            if (evt == null)
+                evt = getLog().createLogEvent ("trace");
+            evt.addMessage (span);
+        }
+        if (evt != null)
+            Logger.log (evt);
+    }
+}
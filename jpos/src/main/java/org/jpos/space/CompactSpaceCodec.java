@@ -0,0 +1,35 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.CompactSerializer;
+
+import java.io.IOException;
+
+/**
+ * Default {@link SpaceCodec}, based on {@link CompactSerializer}
+ */
+public class CompactSpaceCodec implements SpaceCodec {
+    public byte[] encode (Object obj) throws IOException {
+        return CompactSerializer.serialize (obj);
+    }
+    public Object decode (byte[] b) throws IOException {
+        return CompactSerializer.deserialize (b);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSequentialList;
+import java.util.ConcurrentModificationException;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Doubly linked list holding the entries of a {@link TSpace} key
+ * (or the record locations of a {@link MMapSpace} key).
+ * <p>
+ * Unlike {@link java.util.LinkedList}, its nodes are exposed, so that
+ * the spaces can use them as index handles and unlink an entry found
+ * through an index (or the expiration wheel) without scanning the key.
+ * <p>
+ * Not thread safe, spaces call it while holding their monitor.
+ */
+class EntryList extends AbstractSequentialList<Object> implements Serializable {
+    private transient Node first;
+    private transient Node last;
+    private transient int size;
+
+    static final class Node {
+        final Object value;
+        Node prev, next;
+        EntryList list;
+        Object key;           // set by TSpace while the entry is accounted for
+        Node older, newer;    // TSpace's space wide insertion order
+
+        Node (Object value) {
+            this.value = value;
+        }
+    }
+
+    Node first() {
+        return first;
+    }
+
+    Node addFirst (Object value) {
+        Node n = new Node (value);
+        link (n, first);
+        return n;
+    }
+
+    Node addLast (Object value) {
+        Node n = new Node (value);
+        link (n, null);
+        return n;
+    }
+
+    /**
+     * @param n node
+     * @return true if the node is still linked to this list
+     */
+    boolean contains (Node n) {
+        return n != null && n.list == this;
+    }
+
+    /**
+     * Unlinks a node, its <code>next</code> reference is kept so that
+     * an iteration can go on past it.
+     * @param n node, has to be linked to this list
+     */
+    void unlink (Node n) {
+        if (n.prev == null)
+            first = n.next;
+        else
+            n.prev.next = n.next;
+        if (n.next == null)
+            last = n.prev;
+        else
+            n.next.prev = n.prev;
+        n.prev = null;
+        n.list = null;
+        size--;
+        modCount++;
+    }
+
+    private void link (Node n, Node succ) {
+        n.list = this;
+        n.next = succ;
+        n.prev = succ == null ? last : succ.prev;
+        if (n.prev == null)
+            first = n;
+        else
+            n.prev.next = n;
+        if (succ == null)
+            last = n;
+        else
+            succ.prev = n;
+        size++;
+        modCount++;
+    }
+
+    private Node node (int index) {
+        Node n;
+        if (index < size >> 1) {
+            n = first;
+            for (int i = 0; i < index; i++)
+                n = n.next;
+        } else {
+            n = last;
+            for (int i = size - 1; i > index; i--)
+                n = n.prev;
+        }
+        return n;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public ListIterator<Object> listIterator (final int index) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException ("Index: " + index + ", Size: " + size);
+        return new ListIterator<Object>() {
+            Node next = index == size ? null : node (index);
+            Node lastReturned;
+            int nextIndex = index;
+            int expectedModCount = modCount;
+
+            public boolean hasNext() {
+                return nextIndex < size;
+            }
+            public Object next() {
+                check();
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                lastReturned = next;
+                next = next.next;
+                nextIndex++;
+                return lastReturned.value;
+            }
+            public boolean hasPrevious() {
+                return nextIndex > 0;
+            }
+            public Object previous() {
+                check();
+                if (!hasPrevious())
+                    throw new NoSuchElementException();
+                lastReturned = next = next == null ? last : next.prev;
+                nextIndex--;
+                return lastReturned.value;
+            }
+            public int nextIndex() {
+                return nextIndex;
+            }
+            public int previousIndex() {
+                return nextIndex - 1;
+            }
+            public void remove() {
+                check();
+                if (lastReturned == null)
+                    throw new IllegalStateException();
+                if (next == lastReturned)
+                    next = lastReturned.next;
+                else
+                    nextIndex--;
+                unlink (lastReturned);
+                lastReturned = null;
+                expectedModCount = modCount;
+            }
+            public void set (Object o) {
+                if (lastReturned == null)
+                    throw new IllegalStateException();
+                check();
+                Node n = new Node (o);
+                link (n, lastReturned);
+                unlink (lastReturned);
+                if (next == lastReturned)
+                    next = n;
+                lastReturned = n;
+                expectedModCount = modCount;
+            }
+            public void add (Object o) {
+                check();
+                lastReturned = null;
+                link (new Node (o), next);
+                nextIndex++;
+                expectedModCount = modCount;
+            }
+            private void check() {
+                if (modCount != expectedModCount)
+                    throw new ConcurrentModificationException();
+            }
+        };
+    }
+
+    private void writeObject (ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt (size);
+        for (Node n = first; n != null; n = n.next)
+            out.writeObject (n.value);
+    }
+
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++)
+            addLast (in.readObject());
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,152 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel used by {@link TSpace} to find expired entries.
+ * <p>
+ * There are four levels of 64 slots each. Level 0 slots cover one
+ * <code>resolution</code> tick each, level 1 slots cover 64 ticks, and so
+ * on. Entries are linked into the slot of their expiration tick at the
+ * lowest level that can hold them, and move down a level each time the
+ * wheel below completes a turn. Finding the expired entries costs time
+ * proportional to the number of entries that expire; entries that are
+ * still alive are only touched when they move down a level. Slots are
+ * doubly linked, so entries taken from the space are unlinked right away.
+ * <p>
+ * Not thread safe, TSpace calls it while holding its monitor.
+ */
+class ExpirationWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << BITS * LEVELS) - 1;
+    private final TSpace.Expirable[][] slots = new TSpace.Expirable[LEVELS][SLOTS];
+    private final long resolution;
+    private long current;   // tick being filled, not yet fully expired
+    private int size;
+
+    /**
+     * @param resolution tick duration in millis
+     * @param now current time in millis
+     */
+    ExpirationWheel (long resolution, long now) {
+        this.resolution = resolution;
+        this.current = now / resolution;
+    }
+
+    void add (TSpace.Expirable e) {
+        size++;
+        place (e);
+    }
+
+    /**
+     * Unlinks an entry no longer in the space.
+     * @param e entry
+     */
+    void remove (TSpace.Expirable e) {
+        if (e.slot < 0)
+            return;
+        if (e.prev != null)
+            e.prev.next = e.next;
+        else
+            slots[e.slot >>> BITS][e.slot & MASK] = e.next;
+        if (e.next != null)
+            e.next.prev = e.prev;
+        unlinked (e);
+    }
+
+    /**
+     * @return number of entries in the wheel
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Unlinks every entry that expired before <code>now</code>.
+     * @param now current time in millis
+     * @param expired expired entries are added here
+     */
+    void expire (long now, List<TSpace.Expirable> expired) {
+        long target = now / resolution;
+        while (current < target) {
+            // every entry in this slot expires before (current+1) * resolution <= now
+            int slot = (int) (current & MASK);
+            TSpace.Expirable e = slots[0][slot];
+            slots[0][slot] = null;
+            while (e != null) {
+                TSpace.Expirable next = e.next;
+                unlinked (e);
+                expired.add (e);
+                e = next;
+            }
+            current++;
+            for (int level = LEVELS-1; level > 0; level--) {
+                if ((current & (1L << BITS * level) - 1) == 0)
+                    cascade (level, (int) (current >>> BITS * level) & MASK);
+            }
+        }
+        int slot = (int) (current & MASK);
+        for (TSpace.Expirable e = slots[0][slot]; e != null; ) {
+            TSpace.Expirable next = e.next;
+            if (e.expires < now) {
+                remove (e);
+                expired.add (e);
+            }
+            e = next;
+        }
+    }
+
+    private void cascade (int level, int slot) {
+        TSpace.Expirable e = slots[level][slot];
+        slots[level][slot] = null;
+        while (e != null) {
+            TSpace.Expirable next = e.next;
+            place (e);
+            e = next;
+        }
+    }
+
+    private void place (TSpace.Expirable e) {
+        long t = Math.max (e.expires / resolution, current);
+        long delta = Math.min (t - current, MAX_DELTA);
+        t = current + delta;  // far away entries are placed again when they cascade
+        int level = 0;
+        while (delta >= 1L << BITS * (level+1))
+            level++;
+        int slot = (int) (t >>> BITS * level) & MASK;
+        TSpace.Expirable head = slots[level][slot];
+        e.prev = null;
+        e.next = head;
+        if (head != null)
+            head.prev = e;
+        slots[level][slot] = e;
+        e.slot = level << BITS | slot;
+    }
+
+    private void unlinked (TSpace.Expirable e) {
+        e.next = e.prev = null;
+        e.slot = -1;
+        size--;
+    }
+}
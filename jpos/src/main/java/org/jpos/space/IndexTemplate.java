@@ -0,0 +1,82 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.util.function.Function;
+
+/**
+ * Matches the entries whose indexer yields a given value, i.e.
+ * SAF entries by STAN:
+ * <pre>
+ *   Function&lt;Object,?&gt; stan = new Function&lt;Object,Object&gt;() {
+ *       public Object apply (Object o) {
+ *           return ((ISOMsg) o).getString (11);
+ *       }
+ *   };
+ *   sp.addIndex ("SAF", stan);
+ *   ...
+ *   ISOMsg m = (ISOMsg) sp.inp (new IndexTemplate ("SAF", stan, "000123"));
+ * </pre>
+ * Spaces without an index for the key (and indexer) scan the key's
+ * entries instead.
+ *
+ * @since 2.0.3
+ */
+public class IndexTemplate implements IndexedTemplate {
+    private final Object key;
+    private final Function<Object,?> indexer;
+    private final Object value;
+
+    /**
+     * @param key entries' key
+     * @param indexer index key extractor, has to be the one used to declare the index
+     * @param value index key to look for
+     */
+    public IndexTemplate (Object key, Function<Object,?> indexer, Object value) {
+        super();
+        this.key = key;
+        this.indexer = indexer;
+        this.value = value;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+    public Function<Object,?> getIndexer() {
+        return indexer;
+    }
+    public Object getIndexKey() {
+        return value;
+    }
+
+    @Override
+    public boolean equals (Object obj) {
+        return value.equals (SpaceIndex.indexKey (indexer, obj));
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "IndexTemplate [key=" + key + ", value=" + value + "]";
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.util.function.Function;
+
+/**
+ * A {@link Template} that can be resolved through a space index.
+ * <p>
+ * Spaces holding an index declared with {@link LocalSpace#addIndex}
+ * for the template's key and indexer look its index key up instead of
+ * comparing the template against every entry under the key.
+ *
+ * @since 2.0.3
+ */
+public interface IndexedTemplate extends Template {
+    /**
+     * @return function computing the index key of an entry's value
+     */
+    Function<Object,?> getIndexer();
+
+    /**
+     * @return index key of the entries matched by this template
+     */
+    Object getIndexKey();
+}
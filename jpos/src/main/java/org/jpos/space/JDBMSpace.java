@@ -150,6 +150,25 @@ public class JDBMSpace<K,V> extends TimerTask implements Space<K,V> {
             throw new SpaceError (e);
         }
     }
+    /**
+     * Runs the batch in a single JDBM transaction
+     * @param batch operations
+     */
+    public void execute (SpaceBatch<K,V> batch) {
+        synchronized (this) {
+            boolean b = autoCommit;
+            autoCommit = false;
+            try {
+                batch.apply (this);
+                commit ();
+            } catch (RuntimeException e) {
+                rollback ();
+                throw e;
+            } finally {
+                autoCommit = b;
+            }
+        }
+    }
     /**
      * close this space - use with care
      */
@@ -38,6 +38,7 @@ import com.sleepycat.persist.model.SecondaryKey;
 import com.sleepycat.persist.model.Relationship;
 import java.util.HashSet;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.jpos.util.Log;
 import org.jpos.util.Loggeable;
@@ -61,6 +62,8 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
     private static final long NRD_RESOLUTION = 500L;
     public static final long GC_DELAY = 60*1000L;
     private Future gcTask;
+    private final ThreadLocal<Transaction> batch = new ThreadLocal<Transaction>();
+    private final SpaceIndex indexes = new SpaceIndex();
 
     static final Map<String,Space> spaceRegistrar = 
         new HashMap<String,Space> ();
@@ -99,20 +102,23 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
     public void out (K key, V value, long timeout) {
         Transaction txn = null;
         try {
-            txn = dbe.beginTransaction (null, null);
+            txn = begin();
             Ref ref = new Ref(key.toString(), value, timeout);
-            pIndex.put (ref);
+            pIndex.put (txn, ref);
+            if (!indexes.isEmpty())
+                indexes.added (ref.getKey(), ref.getId(), value, false);
             if (timeout > 0L)
-                gcpIndex.putNoReturn (
+                gcpIndex.putNoReturn (txn,
                     new GCRef (ref.getId(), ref.getExpiration())
                 );
-            txn.commit();
-            txn = null;
-            synchronized (this) {
-                notifyAll ();
+            if (commit (txn)) {
+                synchronized (this) {
+                    notifyAll ();
+                }
+                if (sl != null)
+                    notifyListeners(key, value);
             }
-            if (sl != null)
-                notifyListeners(key, value);
+            txn = null;
         } catch (Exception e) {
             throw new SpaceError (e);
         } finally {
@@ -123,19 +129,22 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
     public void push (K key, V value, long timeout) {
         Transaction txn = null;
         try {
-            txn = dbe.beginTransaction (null, null);
+            txn = begin();
             Ref ref = new Ref(key.toString(), value, timeout);
-            pIndex.put (ref);
-            pIndex.delete (ref.getId());
+            pIndex.put (txn, ref);
+            pIndex.delete (txn, ref.getId());
             ref.reverseId();
-            pIndex.put (ref);
-            txn.commit();
-            txn = null;
-            synchronized (this) {
-                notifyAll ();
+            pIndex.put (txn, ref);
+            if (!indexes.isEmpty())
+                indexes.added (ref.getKey(), ref.getId(), value, true);
+            if (commit (txn)) {
+                synchronized (this) {
+                    notifyAll ();
+                }
+                if (sl != null)
+                    notifyListeners(key, value);
             }
-            if (sl != null)
-                notifyListeners(key, value);
+            txn = null;
         } catch (Exception e) {
             throw new SpaceError (e);
         } finally {
@@ -276,6 +285,8 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
                 txn, 0L, true, System.currentTimeMillis(), false, null
             );
             for (GCRef gcRef: cursor) {
+                if (!indexes.isEmpty())
+                    unindex (pIndex.get (null, gcRef.getId(), LockMode.READ_UNCOMMITTED));
                 pIndex.delete (gcRef.getId());
                 cursor.delete ();
             }
@@ -336,8 +347,13 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
             tmpl = (Template) key;
             key  = tmpl.getKey();
         }
+        if (tmpl instanceof IndexedTemplate && !indexes.isEmpty()) {
+            Object[] handles = indexes.find (key.toString(), (IndexedTemplate) tmpl);
+            if (handles != null)
+                return getIndexed (key.toString(), (IndexedTemplate) tmpl, handles, remove);
+        }
         try {
-            txn = dbe.beginTransaction (null, null);
+            txn = begin();
             cursor = sIndex.subIndex(key.toString()).entities(txn, null);
             for (Ref ref : cursor) {
                 if (ref.isActive()) {
@@ -347,30 +363,168 @@ public class JESpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable, Run
                         cursor.delete();
                         if (ref.hasExpiration()) 
                             gcpIndex.delete (txn, ref.getId());
+                        unindex (ref);
                     }
                     cursor.close(); cursor = null;
-                    txn.commit(); txn = null;
+                    commit (txn); txn = null;
                     return ref.getValue();
                 }
                 else {
                     cursor.delete();
                     if (ref.hasExpiration()) 
                         gcpIndex.delete (txn, ref.getId());
+                    unindex (ref);
                 }
             }
             cursor.close(); cursor = null;
-            txn.commit(); txn = null;
+            commit (txn); txn = null;
             return null;
         } finally {
             if (cursor != null)
                 cursor.close ();
+            if (txn != null && txn != batch.get())
+                abort (txn);
+        }
+    }
+    /**
+     * Resolves a template through an index. Handles whose entry is gone
+     * (i.e. taken within a transaction that was later rolled back) are dropped.
+     */
+    private Object getIndexed (String key, IndexedTemplate tmpl, Object[] handles, boolean remove)
+        throws DatabaseException
+    {
+        Transaction txn = null;
+        try {
+            txn = begin();
+            Object obj = null;
+            for (Object h : handles) {
+                Ref ref = pIndex.get (txn, (Long) h, remove ? LockMode.RMW : LockMode.DEFAULT);
+                if (ref == null) {
+                    indexes.discard (key, tmpl, h);
+                    continue;
+                }
+                if (ref.isActive()) {
+                    obj = ref.getValue();
+                    if (!remove)
+                        break;
+                }
+                pIndex.delete (txn, ref.getId());
+                if (ref.hasExpiration())
+                    gcpIndex.delete (txn, ref.getId());
+                unindex (ref);
+                if (obj != null)
+                    break;
+            }
+            commit (txn); txn = null;
+            return obj;
+        } finally {
+            if (txn != null && txn != batch.get())
+                abort (txn);
+        }
+    }
+    /**
+     * Drops a deleted entry from its key's indexes
+     */
+    private void unindex (Ref ref) {
+        if (ref != null && !indexes.isEmpty() && indexes.isIndexed (ref.getKey()))
+            indexes.removed (ref.getKey(), ref.getId(), ref.getValue());
+    }
+    /**
+     * Reindexes the entries of an indexed key
+     */
+    private void reindex (String key) throws DatabaseException {
+        EntityCursor<Ref> cursor = sIndex.subIndex (key).entities (null, CursorConfig.READ_COMMITTED);
+        try {
+            for (Ref ref : cursor) {
+                if (ref.isActive())
+                    indexes.added (key, ref.getId(), ref.getValue(), false);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+    /**
+     * Rebuilds the indexes after a rollback, which may have undone
+     * writes and takes they had already seen
+     */
+    private void rebuildIndexes () throws DatabaseException {
+        synchronized (indexes) {
+            for (Object key : indexes.clear())
+                reindex ((String) key);
+        }
+    }
+    /**
+     * Declares a secondary index on the entries under a key. The index
+     * lives in memory; it's built from the key's current entries.
+     * @param key Entry's key
+     * @param indexer function computing the index key of an entry's value
+     */
+    public void addIndex (K key, Function<Object,?> indexer) {
+        try {
+            synchronized (indexes) {
+                if (indexes.add (key.toString(), indexer))
+                    reindex (key.toString());
+            }
+        } catch (DatabaseException e) {
+            throw new SpaceError (e);
+        }
+    }
+    public void removeIndex (K key, Function<Object,?> indexer) {
+        indexes.remove (key.toString(), indexer);
+    }
+    /**
+     * Runs the batch in a single JE transaction
+     * @param b operations
+     */
+    public void execute (SpaceBatch<K,V> b) {
+        Transaction txn = null;
+        try {
+            txn = dbe.beginTransaction (null, null);
+            batch.set (txn);
+            b.apply (this);
+            batch.remove();
+            txn.commit();
+            txn = null;
+        } catch (DatabaseException e) {
+            throw new SpaceError (e);
+        } finally {
+            batch.remove();
             if (txn != null)
-                txn.abort();
+                abort (txn);
         }
+        synchronized (this) {
+            notifyAll ();
+        }
+        if (sl != null) {
+            for (Object[] w : b.getWrites())
+                notifyListeners (w[0], w[1]);
+        }
+    }
+    /**
+     * @return the current batch transaction, or a new one
+     */
+    private Transaction begin () throws DatabaseException {
+        Transaction txn = batch.get();
+        return txn != null ? txn : dbe.beginTransaction (null, null);
+    }
+    /**
+     * Commits txn, unless it belongs to a batch
+     * @return true if committed
+     */
+    private boolean commit (Transaction txn) throws DatabaseException {
+        if (txn == batch.get())
+            return false;
+        txn.commit();
+        return true;
     }
     private void abort (Transaction txn) throws SpaceError {
+        if (txn == batch.get())
+            return; // batch aborts as a whole
+
         try {
             txn.abort();
+            if (!indexes.isEmpty())
+                rebuildIndexes();
         } catch (DatabaseException e) {
             throw new SpaceError (e);
         }
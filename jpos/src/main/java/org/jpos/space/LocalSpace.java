@@ -19,6 +19,7 @@
 package org.jpos.space;
 
 import java.util.Set;
+import java.util.function.Function;
 
 /**
  * @author Kris, Bharavi, Alejandro
@@ -49,6 +50,24 @@ public interface LocalSpace<K,V> extends Space<K,V> {
      */
     void removeListener(K key, SpaceListener<K, V> listener);
 
+    /**
+     * Declares a secondary index on the entries under a key, used to resolve
+     * {@link IndexedTemplate}s (i.e. {@link IndexTemplate}, {@link ObjectTemplate})
+     * with a hash lookup instead of a scan.
+     * <p>
+     * The default implementation ignores it; templates are then matched
+     * by scanning the key.
+     * @param key Entry's key
+     * @param indexer function computing the index key of an entry's value
+     */
+    default void addIndex(K key, Function<Object,?> indexer) { }
+
+    /**
+     * @param key Entry's key
+     * @param indexer indexer used to declare the index
+     */
+    default void removeIndex(K key, Function<Object,?> indexer) { }
+
     /**
      * @return Set containing all keys in Space
      */
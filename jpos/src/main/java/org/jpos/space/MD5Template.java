@@ -24,11 +24,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectOutputStream;
 import java.security.MessageDigest;
 import java.util.Arrays;
+import java.util.function.Function;
 
 import org.jpos.iso.ISOUtil;
 
-public class MD5Template implements Template, Serializable  {
+public class MD5Template implements IndexedTemplate, Serializable  {
     private static final long serialVersionUID = -1204861759575740048L;
+    /**
+     * Indexes entries by the hex string of their MD5 digest, so that MD5Templates
+     * can be resolved without a scan: <code>sp.addIndex (key, MD5Template.DIGEST)</code>
+     */
+    public static final Function<Object,?> DIGEST = new Function<Object,Object>() {
+        public Object apply (Object obj) {
+            return ISOUtil.hexString (new MD5Template (null, obj).digest);
+        }
+    };
     byte[] digest;
     Object key;
 
@@ -68,6 +78,12 @@ public class MD5Template implements Template, Serializable  {
     public String getDigestAsString () {
         return ISOUtil.hexString (digest);
     }
+    public Function<Object,?> getIndexer () {
+        return DIGEST;
+    }
+    public Object getIndexKey () {
+        return getDigestAsString ();
+    }
     public String toString () {
         StringBuilder sb = new StringBuilder();
         sb.append ("key='");
@@ -0,0 +1,827 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.CompactSerializer;
+import org.jpos.util.Loggeable;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent space backed by memory-mapped, append-only log segments.
+ * <p>
+ * Every <code>out</code> and <code>push</code> appends a record holding the
+ * serialized key and value (see {@link CompactSerializer}) to the active
+ * segment, and every <code>inp</code> appends a small record naming the
+ * consumed entry. Values stay in the mapped segments, off-heap; the heap
+ * only holds an index of key to list of record locations, rebuilt from
+ * the segments on startup.
+ * <p>
+ * Segments are removed in order, once all their entries have been
+ * consumed. A mostly consumed oldest segment is compacted by copying its
+ * remaining entries to the active segment, so that a long-lived entry
+ * can't pin the log.
+ * <p>
+ * Records are written to the page cache, so they survive a process crash
+ * right away; the {@link SyncPolicy} controls when they are forced to the
+ * storage device.
+ *
+ * @since 2.0.3
+ * @see SpaceFactory
+ */
+@SuppressWarnings("unchecked")
+public class MMapSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
+    public static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+    public static final long GC_DELAY = 60*1000L;
+    public static final long DEFAULT_SYNC_INTERVAL = 1000L;
+    private static final long NRD_RESOLUTION = 500L;
+    private static final double COMPACT_RATIO = 0.5;
+    private static final String SUFFIX = ".seg";
+
+    // record: length(4) type(1) id(8) [expires(8) keylen(4) key value] crc(4)
+    private static final byte OUT  = 1;
+    private static final byte TAKE = 2;
+    private static final int HEADER = 4;
+    private static final int TRAILER = 4;
+    private static final int TAKE_LENGTH = 9;
+    private static final int OUT_OVERHEAD = 21;
+
+    static final Map<String,Space> spaceRegistrar = new HashMap<String,Space> ();
+
+    private final String name;
+    private final File dir;
+    private final int segmentSize;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final Map<Object,EntryList> entries = new HashMap<Object,EntryList>();
+    private final CRC32 crc = new CRC32();
+    private Segment active;
+    private long lastOut;   // out ids grow from 1
+    private long lastPush;  // push ids go down from -1, so they sort before outs
+    private SyncPolicy syncPolicy = SyncPolicy.INTERVAL;
+    private boolean dirty;
+    private boolean batching;
+    private final SpaceListeners sl = new SpaceListeners();
+    private final SpaceIndex indexes = new SpaceIndex();
+    private Future gcTask;
+    private Future syncTask;
+
+    /**
+     * When records are forced to the storage device
+     */
+    public enum SyncPolicy {
+        /** on every operation */
+        ALWAYS,
+        /** periodically */
+        INTERVAL,
+        /** left to the operating system (and on close) */
+        NEVER
+    }
+
+    /**
+     * @param name space name
+     * @param path directory holding the segments
+     * @param segmentSize segment size in bytes
+     */
+    public MMapSpace (String name, String path, int segmentSize) throws SpaceError {
+        super();
+        this.name = name;
+        this.dir = new File (path);
+        this.segmentSize = segmentSize;
+        dir.mkdirs();
+        try {
+            recover();
+            compact();
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+        gcTask = SpaceFactory.getGCExecutor().scheduleAtFixedRate(this, GC_DELAY, GC_DELAY, TimeUnit.MILLISECONDS);
+        setSyncPolicy (SyncPolicy.INTERVAL, DEFAULT_SYNC_INTERVAL);
+    }
+
+    public synchronized static MMapSpace getSpace (String name, String path) {
+        MMapSpace sp = (MMapSpace) spaceRegistrar.get (name);
+        if (sp == null) {
+            sp = new MMapSpace (name, path, DEFAULT_SEGMENT_SIZE);
+            spaceRegistrar.put (name, sp);
+        }
+        return sp;
+    }
+    public static MMapSpace getSpace (String name) {
+        return getSpace (name, name);
+    }
+
+    /**
+     * @param policy sync policy
+     * @param interval sync interval in millis, used by {@link SyncPolicy#INTERVAL}
+     */
+    public synchronized void setSyncPolicy (SyncPolicy policy, long interval) {
+        if (syncTask != null) {
+            syncTask.cancel (false);
+            syncTask = null;
+        }
+        this.syncPolicy = policy;
+        if (policy == SyncPolicy.INTERVAL) {
+            syncTask = SpaceFactory.getGCExecutor().scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    sync();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+    public SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    public void out (K key, V value) {
+        out (key, value, 0L);
+    }
+    public void out (K key, V value, long timeout) {
+        write (key, value, timeout, false);
+    }
+    public void push (K key, V value) {
+        push (key, value, 0L);
+    }
+    public void push (K key, V value, long timeout) {
+        write (key, value, timeout, true);
+    }
+    public synchronized void put (K key, V value) {
+        put (key, value, 0L);
+    }
+    public synchronized void put (K key, V value, long timeout) {
+        while (inp (key) != null)
+            ; // NOPMD
+        out (key, value, timeout);
+    }
+    /**
+     * Runs the batch while holding this space's lock; with
+     * {@link SyncPolicy#ALWAYS} records are forced once, at the end
+     * @param batch operations
+     */
+    public synchronized void execute (SpaceBatch<K,V> batch) {
+        batching = true;
+        try {
+            batch.apply (this);
+        } finally {
+            batching = false;
+            if (syncPolicy == SyncPolicy.ALWAYS)
+                sync();
+        }
+    }
+    public synchronized V rdp (Object key) {
+        return (V) (key instanceof Template ? getObject ((Template) key, false) : getHead (key, false));
+    }
+    public synchronized V inp (Object key) {
+        return (V) (key instanceof Template ? getObject ((Template) key, true) : getHead (key, true));
+    }
+    public synchronized V in (Object key) {
+        Object obj;
+        while ((obj = inp (key)) == null) {
+            try {
+                this.wait ();
+            } catch (InterruptedException ignored) { }
+        }
+        return (V) obj;
+    }
+    public synchronized V in (Object key, long timeout) {
+        Object obj;
+        long now = System.currentTimeMillis();
+        long end = now + timeout;
+        while ((obj = inp (key)) == null &&
+                (now = System.currentTimeMillis()) < end)
+        {
+            try {
+                this.wait (end - now);
+            } catch (InterruptedException ignored) { }
+        }
+        return (V) obj;
+    }
+    public synchronized V rd (Object key) {
+        Object obj;
+        while ((obj = rdp (key)) == null) {
+            try {
+                this.wait ();
+            } catch (InterruptedException ignored) { }
+        }
+        return (V) obj;
+    }
+    public synchronized V rd (Object key, long timeout) {
+        Object obj;
+        long now = System.currentTimeMillis();
+        long end = now + timeout;
+        while ((obj = rdp (key)) == null &&
+                (now = System.currentTimeMillis()) < end)
+        {
+            try {
+                this.wait (end - now);
+            } catch (InterruptedException ignored) { }
+        }
+        return (V) obj;
+    }
+    public synchronized void nrd (Object key) {
+        while (rdp (key) != null) {
+            try {
+                this.wait (NRD_RESOLUTION);
+            } catch (InterruptedException ignored) { }
+        }
+    }
+    public synchronized V nrd (Object key, long timeout) {
+        Object obj;
+        long now = System.currentTimeMillis();
+        long end = now + timeout;
+        while ((obj = rdp (key)) != null &&
+                (now = System.currentTimeMillis()) < end)
+        {
+            try {
+                this.wait (Math.min(NRD_RESOLUTION, end - now));
+            } catch (InterruptedException ignored) { }
+        }
+        return (V) obj;
+    }
+    public boolean existAny (K[] keys) {
+        for (K key : keys) {
+            if (rdp (key) != null)
+                return true;
+        }
+        return false;
+    }
+    public boolean existAny (K[] keys, long timeout) {
+        long now = System.currentTimeMillis();
+        long end = now + timeout;
+        while ((now = System.currentTimeMillis()) < end) {
+            if (existAny (keys))
+                return true;
+            synchronized (this) {
+                try {
+                    wait (end - now);
+                } catch (InterruptedException ignored) { }
+            }
+        }
+        return false;
+    }
+    public synchronized Set<K> getKeySet() {
+        return new HashSet<K> ((Set<K>) entries.keySet());
+    }
+    public synchronized int size (Object key) {
+        EntryList q = entries.get (key);
+        return q != null ? q.size() : 0;
+    }
+    public void addListener (Object key, SpaceListener listener) {
+        sl.add (key, listener, 0L, null);
+    }
+    public void addListener (Object key, SpaceListener listener, long timeout) {
+        sl.add (key, listener, timeout, null);
+    }
+    /**
+     * Registers a listener that is notified by <code>executor</code>,
+     * in write order, instead of the writer's thread
+     * @param key key to listen to
+     * @param listener listener
+     * @param executor executor delivering the notifications
+     */
+    public void addListener (Object key, SpaceListener listener, Executor executor) {
+        sl.add (key, listener, 0L, executor);
+    }
+    public void removeListener (Object key, SpaceListener listener) {
+        sl.remove (key, listener);
+    }
+    /**
+     * Declares a secondary index on the entries under a key. The index lives
+     * in memory, the key's current entries are read from the log to build it.
+     * @param key Entry's key
+     * @param indexer function computing the index key of an entry's value
+     */
+    public synchronized void addIndex (K key, Function<Object,?> indexer) {
+        if (indexes.add (key, indexer)) {
+            EntryList q = entries.get (key);
+            if (q != null) {
+                for (EntryList.Node n = q.first(); n != null; n = n.next)
+                    indexes.added (key, n.value, read ((Entry) n.value), false);
+            }
+        }
+    }
+    public synchronized void removeIndex (K key, Function<Object,?> indexer) {
+        indexes.remove (key, indexer);
+    }
+
+    /**
+     * Reads the entries under a key without taking them
+     * @param key Entry's key
+     * @return value and expiration time (0 if none) of each entry
+     */
+    synchronized List<Object[]> read (Object key) {
+        List<Object[]> l = new ArrayList<Object[]>();
+        EntryList q = entries.get (key);
+        if (q != null) {
+            long now = System.currentTimeMillis();
+            for (EntryList.Node n = q.first(); n != null; n = n.next) {
+                Entry e = (Entry) n.value;
+                if (!e.isExpired (now))
+                    l.add (new Object[] { read (e), e.expires });
+            }
+        }
+        return l;
+    }
+
+    /**
+     * Removes expired entries and consumed segments
+     */
+    public void gc () {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<EntryList> iter = entries.values().iterator();
+            while (iter.hasNext()) {
+                EntryList q = iter.next();
+                for (EntryList.Node n = q.first(); n != null; n = n.next) {
+                    Entry e = (Entry) n.value;
+                    if (e.isExpired (now)) {
+                        q.unlink (n);
+                        unindex (e, null);
+                        release (e);
+                    }
+                }
+                if (q.isEmpty())
+                    iter.remove();
+            }
+            try {
+                compact();
+            } catch (IOException e) {
+                throw new SpaceError (e);
+            }
+            sl.gc();
+        }
+    }
+    public void run () {
+        try {
+            gc();
+        } catch (Exception e) {
+            e.printStackTrace(); // this should never happen
+        }
+    }
+
+    /**
+     * Forces pending records to the storage device
+     */
+    public synchronized void sync () {
+        if (dirty && active != null) {
+            active.buffer.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * close this space - use with care
+     */
+    public void close () {
+        synchronized (MMapSpace.class) {
+            spaceRegistrar.remove (name);
+        }
+        gcTask.cancel (false);
+        synchronized (this) {
+            if (syncTask != null)
+                syncTask.cancel (false);
+            for (Segment s : segments) {
+                s.buffer.force();
+                s.close();
+            }
+            segments.clear();
+            entries.clear();
+            indexes.clear();
+            active = null;
+        }
+    }
+
+    public void dump (PrintStream p, String indent) {
+        String inner = indent + "  ";
+        synchronized (this) {
+            for (Map.Entry<Object,EntryList> entry : entries.entrySet())
+                p.printf ("%s<key size='%d'>%s</key>%n", indent, entry.getValue().size(), entry.getKey());
+            p.println (indent + "<keycount>" + entries.size() + "</keycount>");
+            p.println (indent + "<segments sync='" + syncPolicy + "'>");
+            for (Segment s : segments) {
+                p.printf ("%s<segment file='%s' size='%d' used='%d' live='%d' live-bytes='%d'/>%n",
+                  inner, s.file.getName(), s.buffer.capacity(), s.position, s.live, s.liveBytes);
+            }
+            p.println (indent + "</segments>");
+        }
+    }
+
+    private void write (Object key, Object value, long timeout, boolean head) {
+        if (key == null || value == null)
+            throw new NullPointerException ("key=" + key + ", value=" + value);
+        byte[] k, v;
+        try {
+            k = CompactSerializer.serialize (key);
+            v = CompactSerializer.serialize (value);
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+        long expires = timeout > 0L ? System.currentTimeMillis() + timeout : 0L;
+        synchronized (this) {
+            long id = head ? --lastPush : ++lastOut;
+            Entry e = append (id, key, expires, k, v);
+            EntryList q = entries.get (key);
+            if (q == null)
+                entries.put (key, q = new EntryList());
+            e.node = head ? q.addFirst (e) : q.addLast (e);
+            if (!indexes.isEmpty())
+                indexes.added (key, e, value, head);
+            if (q.size() == 1)
+                this.notifyAll();
+        }
+        if (!sl.isEmpty())
+            sl.notify (key, value);
+    }
+
+    private Object getHead (Object key, boolean remove) {
+        EntryList q = entries.get (key);
+        if (q == null)
+            return null;
+        long now = System.currentTimeMillis();
+        Object obj = null;
+        while (obj == null && !q.isEmpty()) {
+            Entry e = (Entry) q.first().value;
+            if (e.isExpired (now)) {
+                q.unlink (e.node);
+                unindex (e, null);
+                release (e);
+                continue;
+            }
+            obj = read (e);
+            if (remove) {
+                q.unlink (e.node);
+                unindex (e, obj);
+                take (e);
+            }
+        }
+        if (q.isEmpty())
+            entries.remove (key);
+        return obj;
+    }
+
+    private Object getObject (Template tmpl, boolean remove) {
+        EntryList q = entries.get (tmpl.getKey());
+        if (q == null)
+            return null;
+        long now = System.currentTimeMillis();
+        Object obj = null;
+        if (tmpl instanceof IndexedTemplate && !indexes.isEmpty()) {
+            Object[] handles = indexes.find ((IndexedTemplate) tmpl);
+            if (handles != null) {
+                for (int i=0; obj == null && i<handles.length; i++) {
+                    Entry e = (Entry) handles[i];
+                    if (!q.contains (e.node)) {
+                        indexes.discard ((IndexedTemplate) tmpl, e);
+                        continue;
+                    }
+                    if (e.isExpired (now)) {
+                        q.unlink (e.node);
+                        unindex (e, null);
+                        release (e);
+                        continue;
+                    }
+                    obj = read (e);
+                    if (remove) {
+                        q.unlink (e.node);
+                        unindex (e, obj);
+                        take (e);
+                    }
+                }
+                if (q.isEmpty())
+                    entries.remove (tmpl.getKey());
+                return obj;
+            }
+        }
+        for (EntryList.Node n = q.first(); obj == null && n != null; n = n.next) {
+            Entry e = (Entry) n.value;
+            if (e.isExpired (now)) {
+                q.unlink (n);
+                unindex (e, null);
+                release (e);
+                continue;
+            }
+            Object o = read (e);
+            if (tmpl.equals (o)) {
+                obj = o;
+                if (remove) {
+                    q.unlink (n);
+                    unindex (e, o);
+                    take (e);
+                }
+            }
+        }
+        if (q.isEmpty())
+            entries.remove (tmpl.getKey());
+        return obj;
+    }
+
+    /**
+     * Drops a removed entry from the key's indexes
+     * @param value entry's value, read from the log if null
+     */
+    private void unindex (Entry e, Object value) {
+        if (!indexes.isEmpty() && indexes.isIndexed (e.key))
+            indexes.removed (e.key, e, value != null ? value : read (e));
+    }
+
+    private Object read (Entry e) {
+        ByteBuffer b = e.segment.buffer.duplicate();
+        b.position (e.valueOffset);
+        byte[] v = new byte[e.valueLength];
+        b.get (v);
+        try {
+            return CompactSerializer.deserialize (v);
+        } catch (IOException ex) {
+            throw new SpaceError (ex);
+        }
+    }
+
+    private void take (Entry e) {
+        ByteBuffer b = reserve (HEADER + TAKE_LENGTH + TRAILER);
+        b.put (TAKE);
+        b.putLong (e.id);
+        seal (b, TAKE_LENGTH);
+        release (e);
+    }
+
+    private Entry append (long id, Object key, long expires, byte[] k, byte[] v) {
+        int length = OUT_OVERHEAD + k.length + v.length;
+        ByteBuffer b = reserve (HEADER + length + TRAILER);
+        int offset = b.position() - HEADER;
+        b.put (OUT);
+        b.putLong (id);
+        b.putLong (expires);
+        b.putInt (k.length);
+        b.put (k);
+        int valueOffset = b.position();
+        b.put (v);
+        seal (b, length);
+        Entry e = new Entry (id, key, expires);
+        e.locate (active, offset, HEADER + length + TRAILER, valueOffset, v.length);
+        return e;
+    }
+
+    /**
+     * @return buffer positioned after the length of a new record of the given size
+     */
+    private ByteBuffer reserve (int size) {
+        if (active == null || active.position + size > active.buffer.capacity()) {
+            try {
+                if (active != null)
+                    active.buffer.force();
+                active = Segment.create (dir, active != null ? active.number + 1 : 0, Math.max (segmentSize, size));
+                segments.add (active);
+            } catch (IOException e) {
+                throw new SpaceError (e);
+            }
+        }
+        ByteBuffer b = active.buffer.duplicate();
+        b.position (active.position + HEADER);
+        return b;
+    }
+
+    /**
+     * Writes the crc and then the length, which makes the record valid
+     */
+    private void seal (ByteBuffer b, int length) {
+        int offset = active.position;
+        ByteBuffer d = b.duplicate();
+        d.position (offset + HEADER);
+        d.limit (offset + HEADER + length);
+        crc.reset();
+        crc.update (d);
+        b.putInt (offset + HEADER + length, (int) crc.getValue());
+        b.putInt (offset, length);
+        active.position = offset + HEADER + length + TRAILER;
+        if (syncPolicy == SyncPolicy.ALWAYS && !batching)
+            active.buffer.force();
+        else
+            dirty = true;
+    }
+
+    private void release (Entry e) {
+        e.segment.live--;
+        e.segment.liveBytes -= e.length;
+    }
+
+    /**
+     * Drops consumed segments from the head of the log, compacting
+     * the oldest one if it's mostly consumed
+     */
+    private void compact () throws IOException {
+        while (segments.size() > 1) {
+            Segment s = segments.getFirst();
+            if (s.live > 0 && s.liveBytes >= s.position * COMPACT_RATIO)
+                break;
+            if (s.live > 0)
+                relocate (s);
+            segments.removeFirst();
+            s.close();
+            if (!s.file.delete())
+                throw new IOException ("unable to delete " + s.file);
+        }
+    }
+
+    /**
+     * Copies the entries of a segment to the active segment
+     */
+    private void relocate (Segment s) {
+        List<Entry> l = new ArrayList<Entry>();
+        for (EntryList q : entries.values()) {
+            for (EntryList.Node n = q.first(); n != null; n = n.next) {
+                Entry e = (Entry) n.value;
+                if (e.segment == s)
+                    l.add (e);
+            }
+        }
+        Collections.sort (l);
+        ByteBuffer src = s.buffer.duplicate();
+        for (Entry e : l) {
+            byte[] record = new byte[e.length];
+            src.position (e.offset);
+            src.get (record);
+            ByteBuffer b = reserve (e.length);
+            int offset = b.position() - HEADER;
+            b.position (offset);
+            b.put (record);
+            release (e);
+            e.locate (active, offset, e.length, offset + (e.valueOffset - e.offset), e.valueLength);
+            active.position = offset + e.length;
+        }
+        if (!l.isEmpty()) {
+            active.buffer.force();
+            dirty = false;
+        }
+    }
+
+    private void recover () throws IOException {
+        File[] files = dir.listFiles (new FilenameFilter() {
+            public boolean accept (File d, String n) {
+                return n.endsWith (SUFFIX);
+            }
+        });
+        Arrays.sort (files);
+        Map<Long,Entry> live = new HashMap<Long,Entry>();
+        for (File f : files) {
+            Segment s = Segment.open (f);
+            segments.add (s);
+            active = s;
+            scan (s, live);
+        }
+        long now = System.currentTimeMillis();
+        List<Entry> l = new ArrayList<Entry> (live.values());
+        Collections.sort (l);
+        for (Entry e : l) {
+            if (e.isExpired (now)) {
+                release (e);
+                continue;
+            }
+            EntryList q = entries.get (e.key);
+            if (q == null)
+                entries.put (e.key, q = new EntryList());
+            e.node = q.addLast (e);
+        }
+    }
+
+    private void scan (Segment s, Map<Long,Entry> live) throws IOException {
+        ByteBuffer b = s.buffer.duplicate();
+        int capacity = b.capacity();
+        int pos = 0;
+        while (pos + HEADER + TAKE_LENGTH + TRAILER <= capacity) {
+            int length = b.getInt (pos);
+            if (length < TAKE_LENGTH || pos + HEADER + length + TRAILER > capacity)
+                break;
+            ByteBuffer d = b.duplicate();
+            d.position (pos + HEADER);
+            d.limit (pos + HEADER + length);
+            crc.reset();
+            crc.update (d);
+            if ((int) crc.getValue() != b.getInt (pos + HEADER + length))
+                break; // torn write
+            int p = pos + HEADER;
+            byte type = b.get (p);
+            long id = b.getLong (p + 1);
+            if (id > 0L)
+                lastOut = Math.max (lastOut, id);
+            else
+                lastPush = Math.min (lastPush, id);
+            if (type == OUT) {
+                long expires = b.getLong (p + 9);
+                byte[] k = new byte[b.getInt (p + 17)];
+                d.limit (capacity);
+                d.position (p + OUT_OVERHEAD);
+                d.get (k);
+                Entry e = new Entry (id, CompactSerializer.deserialize (k), expires);
+                e.locate (s, pos, HEADER + length + TRAILER, p + OUT_OVERHEAD + k.length,
+                  length - OUT_OVERHEAD - k.length);
+                Entry old = live.put (id, e);
+                if (old != null)
+                    release (old); // compacted copy
+            } else if (type == TAKE) {
+                Entry e = live.remove (id);
+                if (e != null)
+                    release (e);
+            }
+            pos += HEADER + length + TRAILER;
+        }
+        s.position = pos;
+        if (pos + HEADER <= capacity)
+            b.putInt (pos, 0);
+    }
+
+    static class Entry implements Comparable<Entry> {
+        final long id;
+        final Object key;
+        final long expires;
+        EntryList.Node node;   // node holding this entry in its key's list
+        Segment segment;
+        int offset;
+        int length;
+        int valueOffset;
+        int valueLength;
+
+        Entry (long id, Object key, long expires) {
+            this.id = id;
+            this.key = key;
+            this.expires = expires;
+        }
+        void locate (Segment segment, int offset, int length, int valueOffset, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+            segment.live++;
+            segment.liveBytes += length;
+        }
+        boolean isExpired (long now) {
+            return expires > 0L && expires < now;
+        }
+        public int compareTo (Entry o) {
+            return id < o.id ? -1 : id == o.id ? 0 : 1;
+        }
+    }
+
+    static class Segment {
+        final int number;
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        int position;
+        int live;
+        long liveBytes;
+
+        private Segment (int number, File file, RandomAccessFile raf) throws IOException {
+            this.number = number;
+            this.file = file;
+            this.raf = raf;
+            this.buffer = raf.getChannel().map (FileChannel.MapMode.READ_WRITE, 0L, raf.length());
+        }
+        static Segment create (File dir, int number, int size) throws IOException {
+            File f = new File (dir, String.format ("%010d%s", number, SUFFIX));
+            RandomAccessFile raf = new RandomAccessFile (f, "rw");
+            raf.setLength (size);
+            return new Segment (number, f, raf);
+        }
+        static Segment open (File f) throws IOException {
+            String n = f.getName();
+            return new Segment (
+              Integer.parseInt (n.substring (0, n.length() - SUFFIX.length())),
+              f, new RandomAccessFile (f, "rw")
+            );
+        }
+        void close () {
+            try {
+                raf.close();
+            } catch (IOException ignored) { }
+        }
+    }
+}
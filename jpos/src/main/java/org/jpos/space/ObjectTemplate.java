@@ -18,8 +18,19 @@
 
 package org.jpos.space;
 
-public class ObjectTemplate implements Template {
-  
+import java.util.function.Function;
+
+public class ObjectTemplate implements IndexedTemplate {
+    /**
+     * Indexes entries by their own value, so that ObjectTemplates can
+     * be resolved without a scan: <code>sp.addIndex (key, ObjectTemplate.VALUE)</code>
+     */
+    public static final Function<Object,?> VALUE = new Function<Object,Object>() {
+        public Object apply (Object obj) {
+            return obj;
+        }
+    };
+
     Object key;
     Object value;
 
@@ -33,6 +44,14 @@ public class ObjectTemplate implements Template {
         return key;
     }
 
+    public Function<Object,?> getIndexer() {
+        return VALUE;
+    }
+
+    public Object getIndexKey() {
+        return value;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return value.equals(obj);
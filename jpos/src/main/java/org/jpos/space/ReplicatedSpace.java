@@ -0,0 +1,735 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.CompactSerializer;
+import org.jpos.util.Log;
+import org.jpos.util.Loggeable;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Space replicated from a primary node to one or more followers.
+ * <p>
+ * The primary applies every operation to its local space and streams it,
+ * in order, to the followers connected to its replication port. Followers
+ * connect to the primary, receive a snapshot of the local space followed by
+ * the stream of operations, apply them to their own local space (i.e. an
+ * {@link MMapSpace} for store-and-forward queues) and acknowledge them. A
+ * follower is read-only until it is {@link #promote promoted}, at which
+ * point it starts accepting followers itself.
+ * <p>
+ * With {@link Ack#ASYNC} operations return once applied locally; with
+ * {@link Ack#SYNC_ONE} they wait (up to the ack timeout) until at least
+ * one follower has acknowledged them (they don't wait if no follower
+ * is connected). Pending operations are sent to each
+ * follower in batches, and a follower that falls too far behind is
+ * disconnected; it gets a new snapshot when it reconnects.
+ *
+ * @since 2.0.3
+ */
+@SuppressWarnings("unchecked")
+public class ReplicatedSpace<K,V> extends Log implements LocalSpace<K,V>, Loggeable {
+    private static final byte SNAPSHOT = 0;
+    private static final byte OUT  = 1;
+    private static final byte PUSH = 2;
+    private static final byte PUT  = 3;
+    private static final byte INP  = 4;
+    private static final long RECONNECT_DELAY = 1000L;
+
+    private final LocalSpace<K,V> sp;
+    private final List<Follower> followers = new CopyOnWriteArrayList<Follower>();
+    private final Object ackLock = new Object();
+    private volatile boolean primary;
+    private volatile boolean running;
+    private Ack ack = Ack.ASYNC;
+    private long ackTimeout = 5000L;
+    private int batchSize = 1000;
+    private int maxQueue = 100000;
+    private long seq;
+    private long acked;
+    private volatile long applied;
+    private long ackTimeouts;
+    private ServerSocket server;
+    private volatile Thread receiver;
+    private volatile Socket upstream;
+
+    /**
+     * Acknowledgement mode
+     */
+    public enum Ack {
+        /** don't wait for followers */
+        ASYNC,
+        /** wait until one follower has applied the operation */
+        SYNC_ONE
+    }
+
+    /**
+     * @param sp local space holding the entries
+     */
+    public ReplicatedSpace (LocalSpace<K,V> sp) {
+        super();
+        this.sp = sp;
+    }
+
+    /**
+     * @param ack acknowledgement mode
+     * @param ackTimeout max time to wait for an acknowledgement, in millis
+     */
+    public void setAck (Ack ack, long ackTimeout) {
+        this.ack = ack;
+        this.ackTimeout = ackTimeout;
+    }
+    /**
+     * @param batchSize max number of operations sent to a follower in one write
+     * @param maxQueue max number of operations pending for a follower before it's dropped
+     */
+    public void setQueueLimits (int batchSize, int maxQueue) {
+        this.batchSize = batchSize;
+        this.maxQueue = maxQueue;
+    }
+
+    /**
+     * Starts accepting followers
+     * @param port replication port, 0 for an ephemeral one
+     * @throws IOException if the port can't be bound
+     */
+    public synchronized void startPrimary (int port) throws IOException {
+        server = new ServerSocket();
+        server.setReuseAddress (true);
+        server.bind (new InetSocketAddress (port));
+        primary = running = true;
+        Thread t = new Thread ("replicated-space-acceptor-" + server.getLocalPort()) {
+            @Override
+            public void run() {
+                accept (server);
+            }
+        };
+        t.setDaemon (true);
+        t.start();
+    }
+
+    /**
+     * Starts following a primary
+     * @param host primary's host
+     * @param port primary's replication port
+     */
+    public synchronized void startFollower (final String host, final int port) {
+        primary = false;
+        running = true;
+        receiver = new Thread ("replicated-space-follower") {
+            @Override
+            public void run() {
+                follow (host, port);
+            }
+        };
+        receiver.setDaemon (true);
+        receiver.start();
+    }
+
+    /**
+     * Turns a follower into the primary
+     * @param port replication port
+     * @throws IOException if the port can't be bound
+     */
+    public void promote (int port) throws IOException {
+        if (primary)
+            return;
+        stopFollower();
+        synchronized (this) {
+            seq = applied;
+        }
+        startPrimary (port);
+        info ("promoted to primary at seq " + applied);
+    }
+
+    public void stop () {
+        running = false;
+        stopFollower();
+        ServerSocket s = server;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) { }
+        }
+        for (Follower f : followers)
+            f.close();
+        followers.clear();
+    }
+
+    public boolean isPrimary() {
+        return primary;
+    }
+    /**
+     * @return replication port, -1 if not listening
+     */
+    public int getPort() {
+        ServerSocket s = server;
+        return s != null ? s.getLocalPort() : -1;
+    }
+    /**
+     * @return sequence number of the last operation (applied, on a follower)
+     */
+    public synchronized long getSeq() {
+        return primary ? seq : applied;
+    }
+    public int getFollowerCount() {
+        return followers.size();
+    }
+    public long getAckTimeouts() {
+        synchronized (ackLock) {
+            return ackTimeouts;
+        }
+    }
+    /**
+     * @return the local space
+     */
+    public LocalSpace<K,V> getLocalSpace() {
+        return sp;
+    }
+
+    public void out (K key, V value) {
+        out (key, value, 0L);
+    }
+    public void out (K key, V value, long timeout) {
+        write (OUT, key, value, timeout);
+    }
+    public void push (K key, V value) {
+        push (key, value, 0L);
+    }
+    public void push (K key, V value, long timeout) {
+        write (PUSH, key, value, timeout);
+    }
+    public void put (K key, V value) {
+        put (key, value, 0L);
+    }
+    public void put (K key, V value, long timeout) {
+        write (PUT, key, value, timeout);
+    }
+    public V inp (Object key) {
+        checkPrimary();
+        long s;
+        V v;
+        synchronized (this) {
+            v = sp.inp ((K) key);
+            if (v == null)
+                return null;
+            s = ++seq;
+            if (!followers.isEmpty()) {
+                // the taken value tells followers which entry to remove, the head may differ
+                Object k = key instanceof Template ? ((Template) key).getKey() : key;
+                send (frame (INP, s, encode (k, v, 0L)));
+            }
+        }
+        waitAck (s);
+        return v;
+    }
+    public V in (Object key) {
+        V v;
+        while ((v = inp (key)) == null)
+            sp.rd ((K) key);
+        return v;
+    }
+    public V in (Object key, long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        V v;
+        while ((v = inp (key)) == null) {
+            long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0L || sp.rd ((K) key, remaining) == null)
+                return inp (key);
+        }
+        return v;
+    }
+    public V rdp (Object key) {
+        return sp.rdp ((K) key);
+    }
+    public V rd (Object key) {
+        return sp.rd ((K) key);
+    }
+    public V rd (Object key, long timeout) {
+        return sp.rd ((K) key, timeout);
+    }
+    public void nrd (Object key) {
+        sp.nrd ((K) key);
+    }
+    public V nrd (Object key, long timeout) {
+        return sp.nrd ((K) key, timeout);
+    }
+    public boolean existAny (K[] keys) {
+        return sp.existAny (keys);
+    }
+    public boolean existAny (K[] keys, long timeout) {
+        return sp.existAny (keys, timeout);
+    }
+    /**
+     * Runs the batch while holding the replication lock, waiting for a
+     * single acknowledgement at the end
+     * @param batch operations
+     */
+    public void execute (SpaceBatch<K,V> batch) {
+        long s;
+        synchronized (this) {
+            batch.apply (this);
+            s = seq;
+        }
+        waitAck (s);
+    }
+    public void addListener (K key, SpaceListener<K,V> listener) {
+        sp.addListener (key, listener);
+    }
+    public void addListener (K key, SpaceListener<K,V> listener, long timeout) {
+        sp.addListener (key, listener, timeout);
+    }
+    public void removeListener (K key, SpaceListener<K,V> listener) {
+        sp.removeListener (key, listener);
+    }
+    public void addIndex (K key, Function<Object,?> indexer) {
+        sp.addIndex (key, indexer);
+    }
+    public void removeIndex (K key, Function<Object,?> indexer) {
+        sp.removeIndex (key, indexer);
+    }
+    public Set<K> getKeySet() {
+        return sp.getKeySet();
+    }
+    public int size (K key) {
+        return sp.size (key);
+    }
+
+    public void dump (PrintStream p, String indent) {
+        String inner = indent + "  ";
+        p.printf ("%s<replicated-space role='%s' seq='%d' ack='%s' ack-timeouts='%d'>%n",
+          indent, primary ? "primary" : "follower", getSeq(), ack, getAckTimeouts());
+        for (Follower f : followers)
+            p.printf ("%s<follower address='%s' acked='%d' pending='%d'/>%n", inner, f.address, f.acked, f.queue.size());
+        if (!primary && upstream != null)
+            p.printf ("%s<primary address='%s'/>%n", inner, upstream.getRemoteSocketAddress());
+        if (sp instanceof Loggeable)
+            ((Loggeable) sp).dump (p, inner);
+        p.println (indent + "</replicated-space>");
+    }
+
+    private void write (byte type, K key, V value, long timeout) {
+        if (key == null || value == null)
+            throw new NullPointerException ("key=" + key + ", value=" + value);
+        checkPrimary();
+        byte[] body = followers.isEmpty() ? null : encode (key, value, timeout);
+        long s;
+        synchronized (this) {
+            switch (type) {
+                case OUT:
+                    if (timeout > 0L)
+                        sp.out (key, value, timeout);
+                    else
+                        sp.out (key, value);
+                    break;
+                case PUSH:
+                    if (timeout > 0L)
+                        sp.push (key, value, timeout);
+                    else
+                        sp.push (key, value);
+                    break;
+                case PUT:
+                    if (timeout > 0L)
+                        sp.put (key, value, timeout);
+                    else
+                        sp.put (key, value);
+                    break;
+            }
+            s = ++seq;
+            if (!followers.isEmpty())
+                send (frame (type, s, body != null ? body : encode (key, value, timeout)));
+        }
+        waitAck (s);
+    }
+
+    private void checkPrimary() {
+        if (!primary)
+            throw new SpaceError ("read-only follower space");
+    }
+
+    private void send (byte[] frame) {
+        for (Follower f : followers) {
+            if (f.queue.size() >= maxQueue) {
+                warn ("follower " + f.address + " too far behind, disconnecting");
+                f.close();
+            } else {
+                f.queue.add (frame);
+            }
+        }
+    }
+
+    private void waitAck (long s) {
+        if (ack != Ack.SYNC_ONE || followers.isEmpty() || Thread.holdsLock (this))
+            return;
+        long end = System.currentTimeMillis() + ackTimeout;
+        synchronized (ackLock) {
+            while (acked < s) {
+                long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0L || followers.isEmpty()) {
+                    ackTimeouts++;
+                    return;
+                }
+                try {
+                    ackLock.wait (remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void accept (ServerSocket ss) {
+        while (running && primary) {
+            try {
+                Socket s = ss.accept();
+                s.setTcpNoDelay (true);
+                s.setKeepAlive (true);
+                Follower f = new Follower (s);
+                try {
+                    synchronized (this) {
+                        f.queue.add (frame (SNAPSHOT, seq, encode (null, null, 0L)));
+                        snapshot (f);
+                        followers.add (f);
+                    }
+                } catch (RuntimeException | SpaceError e) {
+                    // i.e. an entry that can't be serialized, keep accepting
+                    warn ("snapshot for follower " + f.address + " failed", e);
+                    f.close();
+                    continue;
+                }
+                info ("follower " + f.address + " connected");
+                f.start();
+            } catch (IOException e) {
+                if (running && primary)
+                    warn ("accept", e);
+            }
+        }
+    }
+
+    /**
+     * Queues the local space's entries, holding its lock so that the
+     * gc and writers don't change them while they're read
+     */
+    private void snapshot (Follower f) {
+        if (sp instanceof TSpace || sp instanceof MMapSpace) {
+            synchronized (sp) {
+                queueEntries (f);
+            }
+        } else {
+            queueEntries (f);
+        }
+    }
+
+    private void queueEntries (Follower f) {
+        for (K key : sp.getKeySet()) {
+            for (Object[] entry : snapshot (key)) {
+                long expires = (Long) entry[1];
+                long timeout = expires > 0L ? Math.max (1L, expires - System.currentTimeMillis()) : 0L;
+                f.queue.add (frame (OUT, seq, encode (key, entry[0], timeout)));
+            }
+        }
+    }
+
+    /**
+     * @return value and expiration time of the entries under key
+     */
+    private List<Object[]> snapshot (K key) {
+        if (sp instanceof MMapSpace)
+            return ((MMapSpace) sp).read (key);
+        List<Object[]> l = new ArrayList<Object[]>();
+        if (sp instanceof TSpace) {
+            List entries = (List) ((TSpace) sp).getEntries().get (key);
+            if (entries != null) {
+                for (Object o : entries) {
+                    if (o instanceof TSpace.Expirable) {
+                        TSpace.Expirable e = (TSpace.Expirable) o;
+                        if (!e.isExpired())
+                            l.add (new Object[] { e.value, e.expires });
+                    } else {
+                        l.add (new Object[] { o, 0L });
+                    }
+                }
+            }
+        } else {
+            // no way to peek at every entry, take them and put them back (timeouts are lost)
+            List<V> values = sp.inpAll (key, Integer.MAX_VALUE);
+            sp.outAll (key, values);
+            for (V v : values)
+                l.add (new Object[] { v, 0L });
+        }
+        return l;
+    }
+
+    private void follow (String host, int port) {
+        while (isFollowing()) {
+            Socket s = null;
+            try {
+                s = new Socket (host, port);
+                s.setTcpNoDelay (true);
+                s.setKeepAlive (true);
+                upstream = s;
+                info ("following " + host + ":" + port);
+                DataInputStream in = new DataInputStream (new BufferedInputStream (s.getInputStream(), 65536));
+                DataOutputStream out = new DataOutputStream (s.getOutputStream());
+                while (isFollowing()) {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully (b);
+                    apply (b);
+                    if (in.available() == 0) {
+                        out.writeLong (applied);
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                if (isFollowing()) {
+                    warn ("replication from " + host + ":" + port + " - " + e);
+                    try {
+                        Thread.sleep (RECONNECT_DELAY);
+                    } catch (InterruptedException ignored) { }
+                }
+            } finally {
+                upstream = null;
+                if (s != null) {
+                    try {
+                        s.close();
+                    } catch (IOException ignored) { }
+                }
+            }
+        }
+    }
+
+    private void stopFollower() {
+        Thread t = receiver;
+        receiver = null;
+        Socket s = upstream;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) { }
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join (RECONNECT_DELAY * 2);
+            } catch (InterruptedException ignored) { }
+        }
+    }
+
+    private boolean isFollowing() {
+        return running && !primary && receiver == Thread.currentThread();
+    }
+
+    private void apply (byte[] b) throws IOException {
+        DataInputStream in = new DataInputStream (new ByteArrayInputStream (b));
+        byte type = in.readByte();
+        long s = in.readLong();
+        K key = (K) CompactSerializer.readObject (in);
+        V value = (V) CompactSerializer.readObject (in);
+        long timeout = CompactSerializer.readVarLong (in);
+        switch (type) {
+            case SNAPSHOT:
+                for (K k : sp.getKeySet())
+                    sp.inpAll (k, Integer.MAX_VALUE);
+                break;
+            case OUT:
+                if (timeout > 0L)
+                    sp.out (key, value, timeout);
+                else
+                    sp.out (key, value);
+                break;
+            case PUSH:
+                if (timeout > 0L)
+                    sp.push (key, value, timeout);
+                else
+                    sp.push (key, value);
+                break;
+            case PUT:
+                if (timeout > 0L)
+                    sp.put (key, value, timeout);
+                else
+                    sp.put (key, value);
+                break;
+            case INP:
+                sp.inp ((K) new ImageTemplate (key, value));
+                break;
+        }
+        applied = s;
+    }
+
+    private byte[] encode (Object key, Object value, long timeout) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream (baos);
+            CompactSerializer.writeObject (out, key);
+            CompactSerializer.writeObject (out, value);
+            CompactSerializer.writeVarLong (out, timeout);
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+    }
+
+    private static byte[] frame (byte type, long seq, byte[] body) {
+        byte[] b = new byte[9 + body.length];
+        b[0] = type;
+        for (int i=0; i<8; i++)
+            b[1+i] = (byte) (seq >>> (56 - 8*i));
+        System.arraycopy (body, 0, b, 9, body.length);
+        return b;
+    }
+
+    /**
+     * A connected follower, as seen from the primary
+     */
+    private class Follower extends Thread {
+        final Socket socket;
+        final String address;
+        final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+        volatile long acked;
+        volatile boolean closed;
+
+        Follower (Socket socket) {
+            super ("replicated-space-" + socket.getRemoteSocketAddress());
+            this.socket = socket;
+            this.address = String.valueOf (socket.getRemoteSocketAddress());
+            setDaemon (true);
+        }
+
+        @Override
+        public void run() {
+            Thread acker = new Thread (getName() + "-ack") {
+                @Override
+                public void run() {
+                    readAcks();
+                }
+            };
+            acker.setDaemon (true);
+            acker.start();
+            List<byte[]> l = new ArrayList<byte[]>();
+            try {
+                DataOutputStream out = new DataOutputStream (
+                  new BufferedOutputStream (socket.getOutputStream(), 65536)
+                );
+                while (!closed) {
+                    byte[] b = queue.poll (1L, TimeUnit.SECONDS);
+                    if (b == null)
+                        continue;
+                    l.add (b);
+                    queue.drainTo (l, batchSize - 1);
+                    for (byte[] frame : l) {
+                        out.writeInt (frame.length);
+                        out.write (frame);
+                    }
+                    out.flush();
+                    l.clear();
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    warn ("follower " + address + " - " + e);
+            } catch (InterruptedException ignored) {
+            } finally {
+                close();
+            }
+        }
+
+        private void readAcks() {
+            try {
+                DataInputStream in = new DataInputStream (socket.getInputStream());
+                while (!closed) {
+                    long s = in.readLong();
+                    acked = s;
+                    synchronized (ackLock) {
+                        if (s > ReplicatedSpace.this.acked)
+                            ReplicatedSpace.this.acked = s;
+                        ackLock.notifyAll();
+                    }
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                followers.remove (this);
+                queue.clear();
+                try {
+                    socket.close();
+                } catch (IOException ignored) { }
+                synchronized (ackLock) {
+                    ackLock.notifyAll();
+                }
+                info ("follower " + address + " disconnected");
+            }
+        }
+    }
+
+    /**
+     * Matches the entry whose serialized image equals the one of the entry
+     * taken on the primary, as values don't necessarily implement equals
+     */
+    private static class ImageTemplate implements Template {
+        final Object key;
+        final byte[] image;
+
+        ImageTemplate (Object key, Object value) throws IOException {
+            this.key = key;
+            this.image = image (value);
+        }
+        public Object getKey() {
+            return key;
+        }
+        @Override
+        public boolean equals (Object obj) {
+            try {
+                return obj != null && Arrays.equals (image, image (obj));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode (image);
+        }
+        private static byte[] image (Object value) throws IOException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream (baos);
+            CompactSerializer.writeObject (out, value);
+            out.flush();
+            return baos.toByteArray();
+        }
+    }
+}
@@ -18,6 +18,8 @@
 
 package org.jpos.space;
 
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p><b>Space</b> uses concepts described in the Linda Coordination Language 
@@ -165,4 +167,36 @@ public interface Space<K,V> {
      * @param timeout timeout value in millis
      */
     void put(K key, V value, long timeout);
+
+    /**
+     * Write several entries into the Space under the same key
+     * @param key Entry's key
+     * @param values Object values
+     */
+    default void outAll(K key, Collection<? extends V> values) {
+        execute(new SpaceBatch<K,V>().outAll(key, values));
+    }
+
+    /**
+     * Take up to <code>max</code> entries from the space
+     * @param key Entry's key
+     * @param max max number of entries to take
+     * @return entries taken, possibly empty
+     */
+    @SuppressWarnings("unchecked")
+    default List<V> inpAll(K key, int max) {
+        SpaceBatch<K,V> batch = new SpaceBatch<K,V>().inpAll(key, max);
+        execute(batch);
+        return (List<V>) batch.getResult(0);
+    }
+
+    /**
+     * Execute a group of operations.
+     * The default implementation runs them one by one, persistent spaces
+     * override it to run them in a single transaction.
+     * @param batch operations
+     */
+    default void execute(SpaceBatch<K,V> batch) {
+        batch.apply(this);
+    }
 }
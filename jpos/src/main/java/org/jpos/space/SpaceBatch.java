@@ -0,0 +1,186 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Group of Space operations executed as a unit.
+ * <pre>
+ *   SpaceBatch&lt;String,Object&gt; batch = new SpaceBatch&lt;String,Object&gt;()
+ *     .inpAll ("CONTEXT.1", Integer.MAX_VALUE)
+ *     .out ("CONTEXT.1", context)
+ *     .put ("STATE.1", state);
+ *   sp.execute (batch);
+ * </pre>
+ * Spaces that support it run the whole batch in a single transaction
+ * (JDBMSpace, JESpace) or while holding their lock (TSpace, MMapSpace), so
+ * locking and commit costs are paid once per batch. Other spaces run the
+ * operations one by one.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ * @see Space#execute(SpaceBatch)
+ */
+@SuppressWarnings("unchecked")
+public class SpaceBatch<K,V> {
+    private static final int OUT     = 0;
+    private static final int PUSH    = 1;
+    private static final int PUT     = 2;
+    private static final int INP     = 3;
+    private static final int INP_ALL = 4;
+
+    private final List<Op> ops = new ArrayList<Op>();
+    private Object[] results;
+
+    public SpaceBatch<K,V> out (K key, V value) {
+        return add (OUT, key, value, 0L);
+    }
+    public SpaceBatch<K,V> out (K key, V value, long timeout) {
+        return add (OUT, key, value, timeout);
+    }
+    public SpaceBatch<K,V> outAll (K key, Collection<? extends V> values) {
+        for (V value : values)
+            add (OUT, key, value, 0L);
+        return this;
+    }
+    public SpaceBatch<K,V> push (K key, V value) {
+        return add (PUSH, key, value, 0L);
+    }
+    public SpaceBatch<K,V> push (K key, V value, long timeout) {
+        return add (PUSH, key, value, timeout);
+    }
+    public SpaceBatch<K,V> put (K key, V value) {
+        return add (PUT, key, value, 0L);
+    }
+    public SpaceBatch<K,V> put (K key, V value, long timeout) {
+        return add (PUT, key, value, timeout);
+    }
+    /**
+     * Takes an entry, if one exists.
+     * @param key Entry's key
+     * @return this batch
+     */
+    public SpaceBatch<K,V> inp (K key) {
+        return add (INP, key, null, 0L);
+    }
+    /**
+     * Takes up to <code>max</code> entries.
+     * @param key Entry's key
+     * @param max max number of entries to take
+     * @return this batch
+     */
+    public SpaceBatch<K,V> inpAll (K key, int max) {
+        return add (INP_ALL, key, null, max);
+    }
+
+    /**
+     * @return number of operations
+     */
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * @param index operation index, in the order they were added
+     * @return value taken by an <code>inp</code>, list of values taken by an
+     *         <code>inpAll</code>, null for other operations or if the
+     *         batch has not been executed
+     */
+    public Object getResult (int index) {
+        return results != null ? results[index] : null;
+    }
+
+    /**
+     * Runs the operations against a space, one by one.
+     * @param sp the space
+     */
+    void apply (Space<K,V> sp) {
+        Object[] r = new Object[ops.size()];
+        for (int i=0; i<r.length; i++) {
+            Op op = ops.get (i);
+            switch (op.type) {
+                case OUT:
+                    if (op.timeout > 0L)
+                        sp.out (op.key, op.value, op.timeout);
+                    else
+                        sp.out (op.key, op.value);
+                    break;
+                case PUSH:
+                    if (op.timeout > 0L)
+                        sp.push (op.key, op.value, op.timeout);
+                    else
+                        sp.push (op.key, op.value);
+                    break;
+                case PUT:
+                    if (op.timeout > 0L)
+                        sp.put (op.key, op.value, op.timeout);
+                    else
+                        sp.put (op.key, op.value);
+                    break;
+                case INP:
+                    r[i] = sp.inp (op.key);
+                    break;
+                case INP_ALL:
+                    List<V> l = new ArrayList<V>();
+                    for (V v; l.size() < op.timeout && (v = sp.inp (op.key)) != null; )
+                        l.add (v);
+                    r[i] = l;
+                    break;
+            }
+        }
+        results = r;
+    }
+
+    /**
+     * @return key/value pairs written by this batch
+     */
+    List<Object[]> getWrites() {
+        List<Object[]> l = new ArrayList<Object[]>();
+        for (Op op : ops) {
+            if (op.value != null)
+                l.add (new Object[] { op.key, op.value });
+        }
+        return l;
+    }
+
+    private SpaceBatch<K,V> add (int type, K key, V value, long timeout) {
+        if (key == null || (value == null && type < INP))
+            throw new NullPointerException ("key=" + key + ", value=" + value);
+        ops.add (new Op (type, key, value, timeout));
+        return this;
+    }
+
+    private class Op {
+        final int type;
+        final K key;
+        final V value;
+        final long timeout;   // max entries for INP_ALL
+
+        Op (int type, K key, V value, long timeout) {
+            this.type = type;
+            this.key = key;
+            this.value = value;
+            this.timeout = timeout;
+        }
+    }
+}
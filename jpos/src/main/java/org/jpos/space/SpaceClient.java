@@ -0,0 +1,456 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Space} client for a {@link SpaceServer}.
+ * <p>
+ * Calls from any number of threads are multiplexed over a single
+ * connection: requests are queued to a writer thread that sends whatever
+ * is pending in one write, and a reader thread hands each response to the
+ * caller waiting for it. The connection is opened on first use and
+ * reopened after a failure; calls pending on a failed connection get a
+ * {@link SpaceError}.
+ * <p>
+ * Blocking <code>in</code> and <code>rd</code> calls are served by the
+ * server; <code>nrd</code> and <code>existAny</code> are implemented by
+ * polling. When a blocking call gives up (it's interrupted, or the response
+ * doesn't arrive in time) the server is asked to cancel it. An entry taken
+ * by the server for an <code>in</code> before the cancel reached it is
+ * pushed back into the space, one whose response had already been read
+ * is handed to the caller.
+ *
+ * @see SpaceServer
+ * @since 2.0.3
+ */
+@SuppressWarnings("unchecked")
+public class SpaceClient<K,V> extends Log implements Space<K,V> {
+    private static final long POLL_INTERVAL = 100L;
+    private final String host;
+    private final int port;
+    private SpaceCodec codec = new CompactSpaceCodec();
+    private long timeout = 30000L;
+    private final AtomicInteger ids = new AtomicInteger();
+    private Connection conn;
+
+    /**
+     * @param host server host
+     * @param port server port
+     */
+    public SpaceClient (String host, int port) {
+        super();
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * @param codec key and value codec, has to match the server's
+     */
+    public void setCodec (SpaceCodec codec) {
+        this.codec = codec;
+    }
+    /**
+     * @param timeout max time to wait for a response, in millis; blocking
+     *        operations wait for their own timeout plus this one
+     */
+    public void setTimeout (long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Closes the connection, failing pending calls
+     */
+    public synchronized void close() {
+        if (conn != null) {
+            conn.close (new SpaceError ("closed"));
+            conn = null;
+        }
+    }
+
+    public void out (K key, V value) {
+        call (SpaceServer.OUT, key, value, 0L);
+    }
+    public void out (K key, V value, long timeout) {
+        call (SpaceServer.OUT, key, value, timeout);
+    }
+    public void push (K key, V value) {
+        call (SpaceServer.PUSH, key, value, 0L);
+    }
+    public void push (K key, V value, long timeout) {
+        call (SpaceServer.PUSH, key, value, timeout);
+    }
+    public void put (K key, V value) {
+        call (SpaceServer.PUT, key, value, 0L);
+    }
+    public void put (K key, V value, long timeout) {
+        call (SpaceServer.PUT, key, value, timeout);
+    }
+    public V inp (K key) {
+        return (V) call (SpaceServer.INP, key, null, 0L);
+    }
+    public V rdp (K key) {
+        return (V) call (SpaceServer.RDP, key, null, 0L);
+    }
+    public V in (K key) {
+        return (V) call (SpaceServer.IN, key, null, -1L);
+    }
+    public V rd (K key) {
+        return (V) call (SpaceServer.RD, key, null, -1L);
+    }
+    public V in (K key, long timeout) {
+        return (V) call (SpaceServer.IN, key, null, Math.max (0L, timeout));
+    }
+    public V rd (K key, long timeout) {
+        return (V) call (SpaceServer.RD, key, null, Math.max (0L, timeout));
+    }
+    public void nrd (K key) {
+        while (rdp (key) != null)
+            sleep (POLL_INTERVAL);
+    }
+    public V nrd (K key, long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        V v;
+        while ((v = rdp (key)) != null && System.currentTimeMillis() < end)
+            sleep (Math.min (POLL_INTERVAL, Math.max (1L, end - System.currentTimeMillis())));
+        return v;
+    }
+    public boolean existAny (K[] keys) {
+        for (K key : keys) {
+            if (rdp (key) != null)
+                return true;
+        }
+        return false;
+    }
+    public boolean existAny (K[] keys, long timeout) {
+        long end = System.currentTimeMillis() + timeout;
+        for (;;) {
+            if (existAny (keys))
+                return true;
+            long now = System.currentTimeMillis();
+            if (now >= end)
+                return false;
+            sleep (Math.min (POLL_INTERVAL, end - now));
+        }
+    }
+
+    /**
+     * Sends every value without waiting for the previous response
+     */
+    @Override
+    public void outAll (K key, Collection<? extends V> values) {
+        List<Pending> l = new ArrayList<Pending>(values.size());
+        for (V value : values)
+            l.add (send (SpaceServer.OUT, key, value, 0L));
+        for (Pending p : l)
+            p.get (timeout);
+    }
+
+    private Object call (byte op, Object key, Object value, long t) {
+        if (key == null || (value == null && op <= SpaceServer.PUT))
+            throw new NullPointerException ("key=" + key + ", value=" + value);
+        Pending p = send (op, key, value, t);
+        if (op == SpaceServer.IN || op == SpaceServer.RD)
+            return p.get (t < 0L ? 0L : t + timeout);
+        return p.get (timeout);
+    }
+
+    private Pending send (byte op, Object key, Object value, long t) {
+        byte[] k, v;
+        try {
+            k = codec.encode (key);
+            v = value != null ? codec.encode (value) : null;
+        } catch (IOException e) {
+            throw new SpaceError (e);
+        }
+        int id = ids.incrementAndGet();
+        Connection c = getConnection();
+        Pending p = new Pending (c, id, op, k);
+        c.pending.put (id, p);
+        c.queue.add (frame (id, op, t, k, v));
+        if (c.closed)
+            p.fail (c.cause);
+        return p;
+    }
+
+    private static byte[] frame (int id, byte op, long t, byte[] k, byte[] v) {
+        int vlen = v != null ? v.length : 0;
+        ByteBuffer b = ByteBuffer.allocate (4 + SpaceServer.HEADER + 4 + k.length + 4 + vlen);
+        b.putInt (b.capacity() - 4);
+        b.putInt (id);
+        b.put (op);
+        b.putLong (t);
+        b.putInt (k.length);
+        b.put (k);
+        b.putInt (v != null ? v.length : -1);
+        if (v != null)
+            b.put (v);
+        return b.array();
+    }
+
+    private synchronized Connection getConnection() {
+        if (conn == null || conn.closed) {
+            try {
+                conn = new Connection();
+            } catch (IOException e) {
+                throw new SpaceError ("unable to connect to " + host + ":" + port, e);
+            }
+        }
+        return conn;
+    }
+
+    private static void sleep (long millis) {
+        try {
+            Thread.sleep (millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SpaceError (e);
+        }
+    }
+
+    private class Connection {
+        final Socket socket;
+        final Map<Integer,Pending> pending = new ConcurrentHashMap<Integer,Pending>();
+        final Map<Integer,byte[]> cancelled = new ConcurrentHashMap<Integer,byte[]>();
+        final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>();
+        volatile boolean closed;
+        volatile SpaceError cause;
+
+        Connection() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay (true);
+            socket.connect (new InetSocketAddress (host, port), (int) Math.min (timeout, Integer.MAX_VALUE));
+            String name = "space-client-" + host + ":" + port;
+            Thread reader = new Thread (name + "-reader") {
+                @Override
+                public void run() {
+                    read();
+                }
+            };
+            Thread writer = new Thread (name + "-writer") {
+                @Override
+                public void run() {
+                    write();
+                }
+            };
+            reader.setDaemon (true);
+            writer.setDaemon (true);
+            reader.start();
+            writer.start();
+        }
+
+        void read() {
+            try {
+                DataInputStream in = new DataInputStream (
+                  new BufferedInputStream (socket.getInputStream(), 65536)
+                );
+                while (!closed) {
+                    in.readInt(); // frame length
+                    int id = in.readInt();
+                    byte status = in.readByte();
+                    int vlen = in.readInt();
+                    byte[] v = null;
+                    if (vlen >= 0) {
+                        v = new byte[vlen];
+                        in.readFully (v);
+                    }
+                    Pending p = pending.remove (id);
+                    if (p == null) {
+                        byte[] k = cancelled.remove (id);
+                        if (k != null && status == SpaceServer.OK && v != null) {
+                            // taken for an 'in' whose caller gave up, put it back
+                            queue.add (frame (ids.incrementAndGet(), SpaceServer.PUSH, 0L, k, v));
+                        }
+                        continue;
+                    }
+                    if (status != SpaceServer.OK) {
+                        p.fail (new SpaceError (new String (v, StandardCharsets.UTF_8)));
+                        continue;
+                    }
+                    try {
+                        p.done (v != null ? codec.decode (v) : null);
+                    } catch (IOException e) {
+                        p.fail (new SpaceError (e));
+                    }
+                }
+            } catch (IOException e) {
+                if (!closed)
+                    warn ("connection to " + host + ":" + port + " lost: " + e);
+                close (new SpaceError ("connection lost", e));
+            }
+        }
+
+        void write() {
+            List<byte[]> l = new ArrayList<byte[]>();
+            try {
+                OutputStream out = new BufferedOutputStream (socket.getOutputStream(), 65536);
+                while (!closed) {
+                    byte[] b = queue.poll (1L, TimeUnit.SECONDS);
+                    if (b == null)
+                        continue;
+                    out.write (b);
+                    queue.drainTo (l);
+                    for (byte[] bb : l)
+                        out.write (bb);
+                    l.clear();
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close (new SpaceError ("connection lost", e));
+            } catch (InterruptedException e) {
+                close (new SpaceError (e));
+            }
+        }
+
+        /**
+         * Asks the server to drop a blocking request whose caller gave up
+         * @return false if the reader has already taken the response,
+         *         it's about to be handed to the caller
+         */
+        boolean cancel (Pending p) {
+            if (pending.remove (p.id) == null)
+                return false;
+            if (p.op == SpaceServer.IN || p.op == SpaceServer.RD) {
+                if (p.op == SpaceServer.IN)
+                    cancelled.put (p.id, p.key);
+                queue.add (frame (p.id, SpaceServer.CANCEL, 0L, p.key, null));
+            }
+            return true;
+        }
+
+        void close (SpaceError e) {
+            synchronized (this) {
+                if (closed)
+                    return;
+                cause = e;
+                closed = true;
+            }
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // already closed
+            }
+            for (Pending p : pending.values())
+                p.fail (e);
+            pending.clear();
+            cancelled.clear();
+            queue.clear();
+        }
+    }
+
+    private class Pending {
+        final Connection c;
+        final int id;
+        final byte op;
+        final byte[] key;
+        private boolean done;
+        private Object value;
+        private SpaceError error;
+
+        Pending (Connection c, int id, byte op, byte[] key) {
+            this.c = c;
+            this.id = id;
+            this.op = op;
+            this.key = key;
+        }
+
+        synchronized void done (Object value) {
+            this.value = value;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized void fail (SpaceError error) {
+            this.error = error;
+            this.done = true;
+            notifyAll();
+        }
+
+        /**
+         * @param timeout max time to wait in millis, 0 to wait forever
+         * @return the response value
+         */
+        synchronized Object get (long timeout) {
+            long end = System.currentTimeMillis() + timeout;
+            try {
+                while (!done) {
+                    if (timeout == 0L) {
+                        wait();
+                        continue;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (now >= end) {
+                        if (c.cancel (this))
+                            throw new SpaceError ("timeout waiting for response " + id);
+                        return result (false);
+                    }
+                    wait (end - now);
+                }
+            } catch (InterruptedException e) {
+                if (c.cancel (this)) {
+                    Thread.currentThread().interrupt();
+                    throw new SpaceError (e);
+                }
+                return result (true);
+            }
+            return result (false);
+        }
+
+        /**
+         * Waits for a response the reader has already taken (an entry taken
+         * by an <code>in</code> would be lost otherwise)
+         * @param interrupted true if the caller was interrupted
+         * @return the response value
+         */
+        private Object result (boolean interrupted) {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (error != null)
+                throw error;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Secondary indexes over the entries of a space.
+ * <p>
+ * Each index belongs to a key and maps the value computed by its indexer
+ * to the handles of the matching entries (whatever the space uses to
+ * locate an entry: the entry itself, a record or an id), in the order
+ * they would be found scanning the key.
+ */
+class SpaceIndex {
+    private final Map<Object,List<Index>> indexes = new HashMap<Object,List<Index>>();
+
+    /**
+     * Declares an index. Existing indexes for the key are cleared as well,
+     * the caller has to report the key's entries again through {@link #added}.
+     * @param key key
+     * @param indexer index key extractor
+     * @return false if the index already existed
+     */
+    synchronized boolean add (Object key, Function<Object,?> indexer) {
+        List<Index> l = indexes.get (key);
+        if (l == null)
+            indexes.put (key, l = new ArrayList<Index>());
+        if (get (l, indexer) != null)
+            return false;
+        for (Index i : l)
+            i.map.clear();
+        l.add (new Index (indexer));
+        return true;
+    }
+
+    synchronized void remove (Object key, Function<Object,?> indexer) {
+        List<Index> l = indexes.get (key);
+        if (l != null) {
+            l.remove (get (l, indexer));
+            if (l.isEmpty())
+                indexes.remove (key);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    synchronized boolean isIndexed (Object key) {
+        return indexes.containsKey (key);
+    }
+
+    /**
+     * Drops every indexed handle, keeping the index declarations
+     * @return indexed keys, whose entries have to be reported again
+     */
+    synchronized List<Object> clear() {
+        for (List<Index> l : indexes.values()) {
+            for (Index i : l)
+                i.map.clear();
+        }
+        return new ArrayList<Object> (indexes.keySet());
+    }
+
+    /**
+     * @param key entry's key
+     * @param handle entry's handle
+     * @param value entry's value
+     * @param head true if the entry was placed ahead of the key's other entries
+     */
+    synchronized void added (Object key, Object handle, Object value, boolean head) {
+        List<Index> l = indexes.get (key);
+        if (l == null)
+            return;
+        for (Index i : l) {
+            Object k = indexKey (i.indexer, value);
+            if (k == null)
+                continue;
+            ArrayDeque<Object> d = i.map.get (k);
+            if (d == null)
+                i.map.put (k, d = new ArrayDeque<Object>());
+            if (head)
+                d.addFirst (handle);
+            else
+                d.addLast (handle);
+        }
+    }
+
+    /**
+     * @param key entry's key
+     * @param handle entry's handle
+     * @param value entry's value
+     */
+    synchronized void removed (Object key, Object handle, Object value) {
+        List<Index> l = indexes.get (key);
+        if (l == null)
+            return;
+        for (Index i : l)
+            i.remove (indexKey (i.indexer, value), handle);
+    }
+
+    /**
+     * Drops a handle found to be stale while resolving a template
+     */
+    void discard (IndexedTemplate tmpl, Object handle) {
+        discard (tmpl.getKey(), tmpl, handle);
+    }
+
+    /**
+     * @param key the key the space indexes the template's entries under
+     * @param tmpl template
+     * @param handle stale handle
+     */
+    synchronized void discard (Object key, IndexedTemplate tmpl, Object handle) {
+        Index i = get (indexes.get (key), tmpl.getIndexer());
+        if (i != null)
+            i.remove (tmpl.getIndexKey(), handle);
+    }
+
+    /**
+     * @param tmpl template
+     * @return handles of the matching entries in key order, null if there's no
+     *         index for the template, in which case the key has to be scanned
+     */
+    Object[] find (IndexedTemplate tmpl) {
+        return find (tmpl.getKey(), tmpl);
+    }
+
+    /**
+     * @param key the key the space indexes the template's entries under
+     * @param tmpl template
+     * @return handles of the matching entries in key order, null if there's no index
+     */
+    synchronized Object[] find (Object key, IndexedTemplate tmpl) {
+        Index i = get (indexes.get (key), tmpl.getIndexer());
+        if (i == null)
+            return null;
+        ArrayDeque<Object> d = i.map.get (tmpl.getIndexKey());
+        return d != null ? d.toArray() : new Object[0];
+    }
+
+    /**
+     * @return the indexer's result, null if it doesn't apply to the value
+     */
+    static Object indexKey (Function<Object,?> indexer, Object value) {
+        try {
+            return value != null ? indexer.apply (value) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Index get (List<Index> l, Function<Object,?> indexer) {
+        if (l != null) {
+            for (Index i : l) {
+                if (i.indexer.equals (indexer))
+                    return i;
+            }
+        }
+        return null;
+    }
+
+    private static class Index {
+        final Function<Object,?> indexer;
+        final Map<Object,ArrayDeque<Object>> map = new HashMap<Object,ArrayDeque<Object>>();
+
+        Index (Function<Object,?> indexer) {
+            this.indexer = indexer;
+        }
+
+        /**
+         * Removes a handle, looking for the same instance before an equal one
+         */
+        void remove (Object k, Object handle) {
+            ArrayDeque<Object> d = k != null ? map.get (k) : null;
+            if (d == null)
+                return;
+            if (!removeFirst (d, handle, true))
+                removeFirst (d, handle, false);
+            if (d.isEmpty())
+                map.remove (k);
+        }
+
+        private static boolean removeFirst (ArrayDeque<Object> d, Object handle, boolean identity) {
+            Iterator<Object> iter = d.iterator();
+            while (iter.hasNext()) {
+                Object h = iter.next();
+                if (identity ? h == handle : h.equals (handle)) {
+                    iter.remove();
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.q2.Q2;
+import org.jpos.util.Log;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Space listener registry.
+ * <p>
+ * Listeners are kept in per-key copy-on-write arrays that are swapped
+ * with compare-and-set, so notifying them takes no lock at all.
+ * <p>
+ * A listener registered with an {@link Executor} is not called on the
+ * writer's thread: notifications are queued and delivered by an executor
+ * task, which drains everything queued so far (a burst of writes costs a
+ * single task). There's at most one task per registration, so a listener
+ * gets its notifications in the order the writes happened. Once its
+ * executor rejects a task (i.e. it has been shut down) the registration
+ * is dropped, so the space's writers never see the rejection.
+ * <p>
+ * Exceptions thrown by executor-delivered listeners are logged.
+ */
+class SpaceListeners {
+    private final ConcurrentHashMap<Object,Registration[]> map = new ConcurrentHashMap<Object,Registration[]>();
+
+    /**
+     * @param key key to listen to
+     * @param listener listener
+     * @param timeout registration timeout in millis, 0 for no timeout
+     * @param executor executor delivering the notifications, null to deliver them on the writer's thread
+     */
+    void add (Object key, SpaceListener listener, long timeout, Executor executor) {
+        Registration r = new Registration (listener,
+          timeout > 0L ? System.currentTimeMillis() + timeout : Long.MAX_VALUE, executor);
+        for (;;) {
+            Registration[] old = map.get (key);
+            if (old == null) {
+                if (map.putIfAbsent (key, new Registration[] { r }) == null)
+                    return;
+                continue;
+            }
+            Registration[] l = Arrays.copyOf (old, old.length + 1);
+            l[old.length] = r;
+            if (map.replace (key, old, l))
+                return;
+        }
+    }
+
+    /**
+     * Removes the first registration of a listener
+     * @param key key
+     * @param listener listener to remove
+     */
+    void remove (Object key, SpaceListener listener) {
+        for (;;) {
+            Registration[] old = map.get (key);
+            int i = old != null ? indexOf (old, listener) : -1;
+            if (i < 0 || remove (key, old, i))
+                return;
+        }
+    }
+
+    /**
+     * Notifies the listeners registered under a key, dropping the expired ones
+     */
+    void notify (Object key, Object value) {
+        Registration[] l = map.get (key);
+        if (l == null)
+            return;
+        long now = 0L;
+        for (Registration r : l) {
+            if (r.expires != Long.MAX_VALUE) {
+                if (now == 0L)
+                    now = System.currentTimeMillis();
+                if (r.expires <= now) {
+                    remove (key, r);
+                    continue;
+                }
+            }
+            if (!r.notify (key, value))
+                remove (key, r);
+        }
+    }
+
+    /**
+     * Drops expired registrations
+     */
+    void gc () {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Object,Registration[]> entry : map.entrySet()) {
+            for (Registration r : entry.getValue()) {
+                if (r.expires <= now)
+                    remove (entry.getKey(), r);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * @return number of listeners registered under a key
+     */
+    int size (Object key) {
+        Registration[] l = map.get (key);
+        return l != null ? l.length : 0;
+    }
+
+    private void remove (Object key, Registration r) {
+        for (;;) {
+            Registration[] old = map.get (key);
+            int i = -1;
+            for (int j=0; old != null && j<old.length; j++) {
+                if (old[j] == r) {
+                    i = j;
+                    break;
+                }
+            }
+            if (i < 0 || remove (key, old, i))
+                return;
+        }
+    }
+
+    private boolean remove (Object key, Registration[] old, int i) {
+        if (old.length == 1)
+            return map.remove (key, old);
+        Registration[] l = new Registration[old.length - 1];
+        System.arraycopy (old, 0, l, 0, i);
+        System.arraycopy (old, i + 1, l, i, old.length - i - 1);
+        return map.replace (key, old, l);
+    }
+
+    /**
+     * Looked up on demand: the logger registry is backed by a TSpace,
+     * a static Log here would make their initialization circular.
+     */
+    private static Log log() {
+        return Log.getLog (Q2.LOGGER_NAME, "space-listeners");
+    }
+
+    private static int indexOf (Registration[] l, SpaceListener listener) {
+        for (int i=0; i<l.length; i++) {
+            if (l[i].listener.equals (listener))
+                return i;
+        }
+        return -1;
+    }
+
+    private static class Registration implements Runnable {
+        final SpaceListener listener;
+        final long expires;
+        final Executor executor;
+        final Queue<Object[]> queue;
+        final AtomicBoolean scheduled;
+
+        Registration (SpaceListener listener, long expires, Executor executor) {
+            this.listener = listener;
+            this.expires = expires;
+            this.executor = executor;
+            this.queue = executor != null ? new ConcurrentLinkedQueue<Object[]>() : null;
+            this.scheduled = executor != null ? new AtomicBoolean() : null;
+        }
+
+        /**
+         * @return false if the registration's executor no longer takes tasks
+         */
+        boolean notify (Object key, Object value) {
+            if (executor == null) {
+                listener.notify (key, value);
+                return true;
+            }
+            queue.add (new Object[] { key, value });
+            return schedule();
+        }
+
+        /**
+         * Delivers every queued notification, then reschedules itself
+         * if more were queued after it stopped looking.
+         */
+        @Override
+        public void run() {
+            try {
+                for (Object[] n; (n = queue.poll()) != null; ) {
+                    try {
+                        listener.notify (n[0], n[1]);
+                    } catch (RuntimeException e) {
+                        // a failing listener must not lose the rest of the batch
+                        log().warn ("listener " + listener + " failed on key " + n[0], e);
+                    }
+                }
+            } finally {
+                scheduled.set (false);
+            }
+            if (!queue.isEmpty())
+                schedule();
+        }
+
+        private boolean schedule() {
+            if (scheduled.compareAndSet (false, true)) {
+                try {
+                    executor.execute (this);
+                } catch (RejectedExecutionException e) {
+                    int dropped = queue.size();
+                    queue.clear();
+                    scheduled.set (false);
+                    log().warn ("executor rejected listener " + listener
+                      + ", dropping it along with " + dropped + " pending notification(s)", e);
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import org.jpos.util.Log;
+import org.jpos.util.Loggeable;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves a local space to {@link SpaceClient}s using a pipelined binary
+ * protocol.
+ * <p>
+ * A single selector thread handles every connection. Clients may send
+ * any number of requests without waiting for their responses; each request
+ * carries an id that is echoed in its response, and responses produced
+ * while processing a read are written back in a single gathering write.
+ * <p>
+ * Blocking <code>in</code> and <code>rd</code> requests that can't be
+ * served right away are parked (no thread is held for them) and served,
+ * in arrival order, when a {@link SpaceListener} registered on their key
+ * reports a new entry, or answered with a null value when their timeout
+ * expires.
+ * <pre>
+ *   request:  len(4) id(4) op(1) timeout(8) klen(4) key vlen(4) value
+ *   response: len(4) id(4) status(1) vlen(4) value
+ * </pre>
+ * A client that gives up on a blocking request sends a <code>CANCEL</code>
+ * carrying the same id and key. If the request is still parked it gets a
+ * null response, otherwise the response has already been sent, so
+ * there is always exactly one response per request.
+ * <p>
+ * A <code>vlen</code> of -1 stands for a null value; keys and values are
+ * encoded by a {@link SpaceCodec}, which has to match the one used by
+ * the clients.
+ *
+ * @see SpaceClient
+ * @since 2.0.3
+ */
+@SuppressWarnings("unchecked")
+public class SpaceServer extends Log implements Runnable, Loggeable {
+    static final byte OUT  = 1;
+    static final byte PUSH = 2;
+    static final byte PUT  = 3;
+    static final byte INP  = 4;
+    static final byte RDP  = 5;
+    static final byte IN   = 6;
+    static final byte RD   = 7;
+    static final byte CANCEL = 8;
+    static final byte OK    = 0;
+    static final byte ERROR = 1;
+    static final int HEADER = 4 + 1 + 8;
+    static final int MAX_FRAME = 16 * 1024 * 1024;
+
+    private final LocalSpace sp;
+    private SpaceCodec codec = new CompactSpaceCodec();
+    private final Map<Object,ArrayDeque<Waiter>> waiters = new HashMap<Object,ArrayDeque<Waiter>>();
+    private final PriorityQueue<Waiter> deadlines = new PriorityQueue<Waiter>(64,
+      new Comparator<Waiter>() {
+          public int compare (Waiter a, Waiter b) {
+              return Long.compare (a.deadline, b.deadline);
+          }
+      }
+    );
+    private final Queue<Object> ready = new ConcurrentLinkedQueue<Object>();
+    private final Set<Connection> dirty = new LinkedHashSet<Connection>();
+    private final SpaceListener listener = new SpaceListener() {
+        public void notify (Object key, Object value) {
+            ready.add (key);
+            Selector s = selector;
+            if (s != null)
+                s.wakeup();
+        }
+    };
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private Thread thread;
+    private int connections;
+    private long requests;
+    private long errors;
+
+    /**
+     * @param sp local space to serve
+     */
+    public SpaceServer (LocalSpace sp) {
+        super();
+        this.sp = sp;
+    }
+
+    /**
+     * @param codec key and value codec (defaults to {@link CompactSpaceCodec})
+     */
+    public void setCodec (SpaceCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Binds the server port and starts the selector thread
+     * @param port server port, 0 for an ephemeral one
+     * @throws IOException if the port can't be bound
+     */
+    public synchronized void start (int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress (true);
+        server.bind (new InetSocketAddress (port));
+        server.configureBlocking (false);
+        server.register (selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread (this, "space-server-" + getPort());
+        thread.setDaemon (true);
+        thread.start();
+    }
+
+    /**
+     * Closes every connection and waits for the selector thread to finish
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            if (selector != null)
+                selector.wakeup();
+        }
+        if (t != null && t != Thread.currentThread()) {
+            try {
+                t.join (5000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getPort() {
+        return server != null ? server.socket().getLocalPort() : -1;
+    }
+    public int getConnectionCount() {
+        return connections;
+    }
+    public long getRequestCount() {
+        return requests;
+    }
+    public long getErrorCount() {
+        return errors;
+    }
+    public int getWaiterCount() {
+        int n = 0;
+        synchronized (waiters) {
+            for (ArrayDeque<Waiter> d : waiters.values())
+                n += d.size();
+        }
+        return n;
+    }
+    public LocalSpace getLocalSpace() {
+        return sp;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                long timeout = 0L;
+                Waiter next = deadlines.peek();
+                if (next != null)
+                    timeout = Math.max (1L, next.deadline - System.currentTimeMillis());
+                selector.select (timeout);
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey k = iter.next();
+                    iter.remove();
+                    try {
+                        if (!k.isValid())
+                            continue;
+                        if (k.isAcceptable())
+                            accept();
+                        else {
+                            Connection c = (Connection) k.attachment();
+                            if (k.isReadable())
+                                read (c);
+                            if (k.isValid() && k.isWritable())
+                                dirty.add (c);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        close ((Connection) k.attachment());
+                    }
+                }
+                for (Object key; (key = ready.poll()) != null; )
+                    serve (key);
+                expire();
+                flush();
+            }
+        } catch (Throwable t) {
+            warn (t);
+        } finally {
+            shutdown();
+        }
+    }
+
+    @Override
+    public void dump (PrintStream p, String indent) {
+        p.println (indent + "<space-server port=\"" + getPort() + "\">");
+        p.println (indent + "  connections=" + connections + ", requests=" + requests
+          + ", errors=" + errors + ", waiters=" + getWaiterCount());
+        p.println (indent + "</space-server>");
+    }
+
+    private void accept() throws IOException {
+        SocketChannel ch = server.accept();
+        if (ch == null)
+            return;
+        ch.configureBlocking (false);
+        ch.socket().setTcpNoDelay (true);
+        Connection c = new Connection (ch);
+        c.key = ch.register (selector, SelectionKey.OP_READ, c);
+        connections++;
+    }
+
+    private void read (Connection c) throws IOException {
+        if (c.ch.read (c.in) < 0) {
+            close (c);
+            return;
+        }
+        ByteBuffer in = c.in;
+        in.flip();
+        while (in.remaining() >= 4) {
+            int len = in.getInt (in.position());
+            if (len < HEADER + 8 || len > MAX_FRAME)
+                throw new IOException ("invalid frame length " + len);
+            if (in.remaining() < 4 + len) {
+                if (in.capacity() < 4 + len) {
+                    ByteBuffer b = ByteBuffer.allocate (4 + len);
+                    b.put (in);
+                    c.in = b;
+                    return;
+                }
+                break;
+            }
+            in.getInt();
+            int id = in.getInt();
+            byte op = in.get();
+            long timeout = in.getLong();
+            byte[] key = bytes (in);
+            byte[] value = bytes (in);
+            process (c, id, op, timeout, key, value);
+        }
+        in.compact();
+    }
+
+    private void process (Connection c, int id, byte op, long timeout, byte[] k, byte[] v) {
+        requests++;
+        try {
+            Object key = codec.decode (k);
+            Object value = v != null ? codec.decode (v) : null;
+            switch (op) {
+                case OUT:
+                    if (timeout > 0L)
+                        sp.out (key, value, timeout);
+                    else
+                        sp.out (key, value);
+                    respond (c, id, OK, null);
+                    break;
+                case PUSH:
+                    if (timeout > 0L)
+                        sp.push (key, value, timeout);
+                    else
+                        sp.push (key, value);
+                    respond (c, id, OK, null);
+                    break;
+                case PUT:
+                    if (timeout > 0L)
+                        sp.put (key, value, timeout);
+                    else
+                        sp.put (key, value);
+                    respond (c, id, OK, null);
+                    break;
+                case INP:
+                    respond (c, id, OK, encode (sp.inp (key)));
+                    break;
+                case RDP:
+                    respond (c, id, OK, encode (sp.rdp (key)));
+                    break;
+                case IN:
+                case RD:
+                    park (new Waiter (c, id, op, key, timeout));
+                    break;
+                case CANCEL:
+                    cancel (c, id, key);
+                    break;
+                default:
+                    throw new IOException ("invalid operation " + op);
+            }
+        } catch (Exception e) {
+            errors++;
+            respond (c, id, ERROR, String.valueOf (e).getBytes (StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Queues a blocking request. The listener is registered before
+     * the first attempt so that an entry written in between isn't missed.
+     */
+    private void park (Waiter w) {
+        ArrayDeque<Waiter> d = waiters.get (w.key);
+        if (d == null) {
+            synchronized (waiters) {
+                waiters.put (w.key, d = new ArrayDeque<Waiter>());
+            }
+            sp.addListener (w.key, listener);
+        }
+        d.addLast (w);
+        if (w.timeout >= 0L) {
+            w.deadline = System.currentTimeMillis() + w.timeout;
+            deadlines.add (w);
+        }
+        serve (w.key);
+    }
+
+    /**
+     * Serves the waiters on a given key, in arrival order, for as long as there are entries
+     */
+    private void serve (Object key) {
+        ArrayDeque<Waiter> d = waiters.get (key);
+        if (d == null)
+            return;
+        try {
+            for (Waiter w; (w = d.peekFirst()) != null; ) {
+                if (!w.done && !w.c.closed) {
+                    Object value = w.op == IN ? sp.inp (key) : sp.rdp (key);
+                    if (value == null)
+                        break;
+                    respond (w.c, w.id, OK, encode (value));
+                }
+                d.pollFirst();
+                w.done = true;
+            }
+        } catch (Exception e) {
+            Waiter w = d.pollFirst();
+            w.done = true;
+            errors++;
+            respond (w.c, w.id, ERROR, String.valueOf (e).getBytes (StandardCharsets.UTF_8));
+        }
+        release (key, d);
+    }
+
+    /**
+     * Answers a parked request with a null value
+     */
+    private void cancel (Connection c, int id, Object key) {
+        ArrayDeque<Waiter> d = waiters.get (key);
+        if (d == null)
+            return;
+        for (Waiter w : d) {
+            if (w.c == c && w.id == id && !w.done) {
+                w.done = true;
+                d.remove (w);
+                respond (c, id, OK, null);
+                release (key, d);
+                return;
+            }
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        for (Waiter w; (w = deadlines.peek()) != null && w.deadline <= now; ) {
+            deadlines.poll();
+            if (w.done)
+                continue;
+            w.done = true;
+            respond (w.c, w.id, OK, null);
+            ArrayDeque<Waiter> d = waiters.get (w.key);
+            if (d != null) {
+                d.remove (w);
+                release (w.key, d);
+            }
+        }
+    }
+
+    private void release (Object key, ArrayDeque<Waiter> d) {
+        if (d.isEmpty()) {
+            synchronized (waiters) {
+                waiters.remove (key);
+            }
+            sp.removeListener (key, listener);
+        }
+    }
+
+    private void respond (Connection c, int id, byte status, byte[] value) {
+        if (c.closed)
+            return;
+        int vlen = value != null ? value.length : 0;
+        ByteBuffer b = ByteBuffer.allocate (4 + 4 + 1 + 4 + vlen);
+        b.putInt (4 + 1 + 4 + vlen);
+        b.putInt (id);
+        b.put (status);
+        b.putInt (value != null ? value.length : -1);
+        if (value != null)
+            b.put (value);
+        b.flip();
+        c.out.addLast (b);
+        dirty.add (c);
+    }
+
+    private void flush() {
+        for (Connection c : dirty) {
+            if (c.closed)
+                continue;
+            try {
+                ByteBuffer[] bufs = c.out.toArray (new ByteBuffer[c.out.size()]);
+                c.ch.write (bufs);
+                while (!c.out.isEmpty() && !c.out.peekFirst().hasRemaining())
+                    c.out.pollFirst();
+                c.key.interestOps (c.out.isEmpty() ?
+                  SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                close (c);
+            }
+        }
+        dirty.clear();
+    }
+
+    private void close (Connection c) {
+        if (c == null || c.closed)
+            return;
+        c.closed = true;
+        c.out.clear();
+        c.key.cancel();
+        try {
+            c.ch.close();
+        } catch (IOException ignored) {
+            // already closed
+        }
+        connections--;
+    }
+
+    private void shutdown() {
+        for (SelectionKey k : selector.keys()) {
+            if (k.attachment() instanceof Connection)
+                close ((Connection) k.attachment());
+        }
+        synchronized (waiters) {
+            for (Object key : waiters.keySet())
+                sp.removeListener (key, listener);
+            waiters.clear();
+        }
+        deadlines.clear();
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException e) {
+            warn (e);
+        }
+    }
+
+    private byte[] encode (Object value) throws IOException {
+        return value != null ? codec.encode (value) : null;
+    }
+
+    private static byte[] bytes (ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        in.get (b);
+        return b;
+    }
+
+    private static class Connection {
+        final SocketChannel ch;
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<ByteBuffer>();
+        ByteBuffer in = ByteBuffer.allocate (8192);
+        SelectionKey key;
+        boolean closed;
+
+        Connection (SocketChannel ch) {
+            this.ch = ch;
+        }
+    }
+
+    private static class Waiter {
+        final Connection c;
+        final int id;
+        final byte op;
+        final Object key;
+        final long timeout;
+        long deadline;
+        boolean done;
+
+        /**
+         * @param timeout max time to wait in millis, negative to wait forever
+         */
+        Waiter (Connection c, int id, byte op, Object key, long timeout) {
+            this.c = c;
+            this.id = id;
+            this.op = op;
+            this.key = key;
+            this.timeout = timeout;
+        }
+    }
+}
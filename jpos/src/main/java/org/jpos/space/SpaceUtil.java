@@ -18,8 +18,6 @@
 
 package org.jpos.space;
 
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * Space related helper methods
@@ -39,15 +37,7 @@ public class SpaceUtil {
      * @return array containing all entries under key
      */
     public static Object[] inpAll (Space sp, Object key) {
-        List list = new ArrayList();
-        Object value;
-        do {
-            value = sp.inp (key);
-            if (value != null) {
-                list.add (value);
-            }
-        } while (value != null);
-        return list.toArray();
+        return sp.inpAll (key, Integer.MAX_VALUE).toArray();
     }
 
     /**
@@ -20,7 +20,9 @@ package org.jpos.space;
 import org.jpos.util.Loggeable;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * TSpace implementation
@@ -32,29 +34,59 @@ import java.util.concurrent.TimeUnit;
 @SuppressWarnings("unchecked")
 public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
     protected Map entries;
-    protected TSpace sl;    // space listeners
+    final SpaceListeners sl = new SpaceListeners();
+    private final SpaceIndex indexes = new SpaceIndex();
     public static final long GCDELAY = 5*1000;
-    private static final long GCLONG = 60*1000;
+    private static final long GC_INTERVAL = 1000L;
+    private static final long GC_RESOLUTION = 100L;
     private static final long NRD_RESOLUTION = 500L;
-    private Set[] expirables;
-    private long lastLongGC = System.currentTimeMillis();
+    private final ExpirationWheel expirables;
+    private static final long ENTRY_OVERHEAD = 64L;
+    private int maxEntries;
+    private int maxEntriesPerKey;
+    private long maxBytes;
+    private Eviction eviction = Eviction.OLDEST;
+    private Space spillSpace;
+    private int count;
+    private long bytes;
+    private long evicted;
+    private long rejected;
+    private EntryList.Node oldest;   // space wide insertion order,
+    private EntryList.Node newest;   // used by the global limits
+
+    /**
+     * What to do with a new entry when a limit has been reached.
+     * @see #setLimits
+     */
+    public enum Eviction {
+        /** discard the entry at the head of the key (or the oldest entry in the space) */
+        OLDEST,
+        /** discard the new entry */
+        REJECT,
+        /** like OLDEST, but the discarded entry is moved to the spill space */
+        SPILL
+    }
 
     public TSpace () {
         super();
         entries = new HashMap ();
-        expirables = new Set[] { new HashSet<K>(), new HashSet<K>() };
-        SpaceFactory.getGCExecutor().scheduleAtFixedRate(this, GCDELAY, GCDELAY, TimeUnit.MILLISECONDS);
+        expirables = new ExpirationWheel (GC_RESOLUTION, System.currentTimeMillis());
+        SpaceFactory.getGCExecutor().scheduleAtFixedRate(this, GC_INTERVAL, GC_INTERVAL, TimeUnit.MILLISECONDS);
     }
     public void out (K key, V value) {
         if (key == null || value == null)
             throw new NullPointerException ("key=" + key + ", value=" + value);
+        List spilled = eviction == Eviction.SPILL ? new ArrayList() : null;
         synchronized(this) {
-            List l = getList(key);
-            l.add (value);
+            if (!admit (key, value, spilled))
+                return;
+            EntryList l = getList(key);
+            added (key, l.addLast (value), false);
             if (l.size() == 1)
                 this.notifyAll ();
         }
-        if (sl != null)
+        spill (spilled);
+        if (!sl.isEmpty())
             notifyListeners(key, value);
     }
     public void out (K key, V value, long timeout) {
@@ -62,18 +94,22 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
             throw new NullPointerException ("key=" + key + ", value=" + value);
         Object v = value;
         if (timeout > 0) {
-            v = new Expirable (value, System.currentTimeMillis() + timeout);
+            v = new Expirable (key, value, System.currentTimeMillis() + timeout);
         }
+        List spilled = eviction == Eviction.SPILL ? new ArrayList() : null;
         synchronized (this) {
-            List l = getList(key);
-            l.add(v);
+            if (!admit (key, v, spilled))
+                return;
+            EntryList l = getList(key);
+            added (key, l.addLast (v), false);
             if (l.size() == 1)
                 this.notifyAll ();
             if (timeout > 0) {
-                registerExpirable(key, timeout);
+                expirables.add ((Expirable) v);
             }
         }
-        if (sl != null)
+        spill (spilled);
+        if (!sl.isEmpty())
             notifyListeners(key, value);
     }
     public synchronized V rdp (Object key) {
@@ -157,32 +193,18 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
             e.printStackTrace(); // this should never happen
         }
     }
+    /**
+     * Removes expired entries.
+     * Called every second by the space factory's GC executor.
+     */
     public void gc () {
-        gc(0);
-        if (System.currentTimeMillis() - lastLongGC > GCLONG) {
-            gc(1);
-            lastLongGC = System.currentTimeMillis();
-        }
-    }
-    private void gc (int generation) {
-        Set<K> exps = expirables[generation];
+        List<Expirable> expired = new ArrayList<Expirable>();
         synchronized (this) {
-            expirables[generation] = new HashSet<K>();
-        }
-        for (K k : exps) {
-            if (rdp(k) != null) {
-                synchronized (this) {
-                    expirables[generation].add(k);
-                }
-            }
-            Thread.yield ();
-        }
-        if (sl != null) {
-            synchronized (this) {
-                if (sl != null && sl.isEmpty())
-                    sl = null;
-            }
+            expirables.expire (System.currentTimeMillis(), expired);
+            for (Expirable e : expired)
+                remove (e);
         }
+        sl.gc();
     }
 
     public synchronized int size (Object key) {
@@ -192,21 +214,58 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
             size = l.size();
         return size;
     }
-    public synchronized void addListener (Object key, SpaceListener listener) {
-        getSL().out (key, listener);
+    public void addListener (Object key, SpaceListener listener) {
+        sl.add (key, listener, 0L, null);
     }
-    public synchronized void addListener 
+    public void addListener 
         (Object key, SpaceListener listener, long timeout) 
     {
-        getSL().out (key, listener, timeout);
+        sl.add (key, listener, timeout, null);
+    }
+    /**
+     * Registers a listener that is notified by <code>executor</code> instead
+     * of the writer's thread.
+     * <p>
+     * Notifications are delivered in the order the writes happened, and
+     * those queued while the listener is busy are delivered by the same
+     * executor task.
+     *
+     * @param key key to listen to
+     * @param listener listener
+     * @param executor executor delivering the notifications
+     */
+    public void addListener (Object key, SpaceListener listener, Executor executor) {
+        sl.add (key, listener, 0L, executor);
     }
-    public synchronized void removeListener 
+    public void removeListener 
         (Object key, SpaceListener listener) 
     {
-        if (sl != null) {
-            sl.inp (new ObjectTemplate (key, listener));
+        sl.remove (key, listener);
+    }
+    /**
+     * Declares a secondary index on the entries under a key; the key's
+     * current entries are indexed right away.
+     * <p>
+     * {@link IndexedTemplate}s using the same indexer are then resolved
+     * with a hash lookup, and the matching entry is unlinked from its key
+     * through its list node instead of a call to the template's equals method
+     * per entry.
+     *
+     * @param key Entry's key
+     * @param indexer function computing the index key of an entry's value
+     */
+    public synchronized void addIndex (K key, Function<Object,?> indexer) {
+        if (indexes.add (key, indexer)) {
+            EntryList l = (EntryList) entries.get (key);
+            if (l != null) {
+                for (EntryList.Node n = l.first(); n != null; n = n.next)
+                    indexes.added (key, n, valueOf (n.value), false);
+            }
         }
     }
+    public synchronized void removeIndex (K key, Function<Object,?> indexer) {
+        indexes.remove (key, indexer);
+    }
     public boolean isEmpty() {
         return entries.isEmpty();
     }
@@ -235,43 +294,34 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
             p.printf("%s<key count='%d'>%s</key>\n", indent, size(key), key);
         }
         p.println(indent+"<keycount>"+(keys.length-1)+"</keycount>");
-        int exp0, exp1;
+        int exp;
         synchronized (this) {
-            exp0 = expirables[0].size();
-            exp1 = expirables[1].size();
+            exp = expirables.size();
         }
-        p.println(String.format("%s<gcinfo>%d,%d</gcinfo>\n", indent, exp0, exp1));
-    }
-    public void notifyListeners (Object key, Object value) {
-        Object[] listeners = null;
+        p.println(String.format("%s<gcinfo>%d</gcinfo>", indent, exp));
         synchronized (this) {
-            if (sl == null)
-                return;
-            List l = (List) sl.entries.get (key);
-            if (l != null)
-                listeners = l.toArray();
-        }
-        if (listeners != null) {
-            for (Object listener : listeners) {
-                Object o = listener;
-                if (o instanceof Expirable)
-                    o = ((Expirable) o).getValue();
-                if (o instanceof SpaceListener)
-                    ((SpaceListener) o).notify(key, value);
-            }
+            p.printf("%s<entries count='%d' bytes='%d' evicted='%d' rejected='%d'/>%n",
+              indent, count, bytes, evicted, rejected);
         }
     }
+    public void notifyListeners (Object key, Object value) {
+        sl.notify (key, value);
+    }
     public void push (K key, V value) {
         if (key == null || value == null)
             throw new NullPointerException ("key=" + key + ", value=" + value);
+        List spilled = eviction == Eviction.SPILL ? new ArrayList() : null;
         synchronized(this) {
-            List l = getList(key);
+            if (!admit (key, value, spilled))
+                return;
+            EntryList l = getList(key);
             boolean wasEmpty = l.isEmpty();
-            l.add (0, value);
+            added (key, l.addFirst (value), true);
             if (wasEmpty)
                 this.notifyAll ();
         }
-        if (sl != null)
+        spill (spilled);
+        if (!sl.isEmpty())
             notifyListeners(key, value);
     }
 
@@ -280,19 +330,23 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
             throw new NullPointerException ("key=" + key + ", value=" + value);
         Object v = value;
         if (timeout > 0) {
-            v = new Expirable (value, System.currentTimeMillis() + timeout);
+            v = new Expirable (key, value, System.currentTimeMillis() + timeout);
         }
+        List spilled = eviction == Eviction.SPILL ? new ArrayList() : null;
         synchronized (this) {
-            List l = getList(key);
+            if (!admit (key, v, spilled))
+                return;
+            EntryList l = getList(key);
             boolean wasEmpty = l.isEmpty();
-            l.add (0, v);
+            added (key, l.addFirst (v), true);
             if (wasEmpty)
                 this.notifyAll ();
             if (timeout > 0) {
-                registerExpirable(key, timeout);
+                expirables.add ((Expirable) v);
             }
         }
-        if (sl != null)
+        spill (spilled);
+        if (!sl.isEmpty())
             notifyListeners(key, value);
     }
 
@@ -300,13 +354,21 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
         if (key == null || value == null)
             throw new NullPointerException ("key=" + key + ", value=" + value);
 
+        List spilled = eviction == Eviction.SPILL ? new ArrayList() : null;
         synchronized (this) {
-            List l = new LinkedList();
-            l.add (value);
+            List old = (List) entries.remove (key);
+            taken (key, old);
+            if (!admit (key, value, spilled)) {
+                restore (key, old);
+                return;
+            }
+            EntryList l = new EntryList();
             entries.put (key, l);
+            added (key, l.addLast (value), false);
             this.notifyAll ();
         }
-        if (sl != null)
+        spill (spilled);
+        if (!sl.isEmpty())
             notifyListeners(key, value);
     }
     public void put (K key, V value, long timeout) {
@@ -314,20 +376,38 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
             throw new NullPointerException ("key=" + key + ", value=" + value);
         Object v = value;
         if (timeout > 0) {
-            v = new Expirable (value, System.currentTimeMillis() + timeout);
+            v = new Expirable (key, value, System.currentTimeMillis() + timeout);
         }
+        List spilled = eviction == Eviction.SPILL ? new ArrayList() : null;
         synchronized (this) {
-            List l = new LinkedList();
-            l.add (v);
+            List old = (List) entries.remove (key);
+            taken (key, old);
+            if (!admit (key, v, spilled)) {
+                restore (key, old);
+                return;
+            }
+            EntryList l = new EntryList();
             entries.put (key, l);
+            added (key, l.addLast (v), false);
             this.notifyAll ();
             if (timeout > 0) {
-                registerExpirable(key, timeout);
+                expirables.add ((Expirable) v);
             }
         }
-        if (sl != null)
+        spill (spilled);
+        if (!sl.isEmpty())
             notifyListeners(key, value);
     }
+    /**
+     * Runs the batch while holding this space's lock, so that other
+     * threads see all of its operations or none
+     * @param batch operations
+     */
+    public void execute (SpaceBatch<K,V> batch) {
+        synchronized (this) {
+            batch.apply (this);
+        }
+    }
     public boolean existAny (K[] keys) {
         for (K key : keys) {
             if (rdp(key) != null)
@@ -360,87 +440,357 @@ public class TSpace<K,V> implements LocalSpace<K,V>, Loggeable, Runnable {
      * unstandard method (required for space replication) - use with care
      * @param entries underlying entry map
      */
-    public void setEntries (Map entries) {
+    public synchronized void setEntries (Map entries) {
+        for (List l : (Collection<List>) this.entries.values()) {
+            for (Object o : l) {
+                if (o instanceof Expirable)
+                    expirables.remove ((Expirable) o);
+            }
+        }
         this.entries = entries;
+        count = 0;
+        bytes = 0L;
+        oldest = newest = null;
+        indexes.clear();
+        for (Map.Entry<Object,List> entry : (Set<Map.Entry<Object,List>>) entries.entrySet()) {
+            EntryList l = entryList (entry.getValue());
+            if (l != entry.getValue())
+                entry.setValue (l);
+            for (EntryList.Node n = l.first(); n != null; n = n.next) {
+                if (n.value instanceof Expirable)
+                    expirables.add ((Expirable) n.value);
+                added (entry.getKey(), n, false);
+            }
+        }
     }
-    private List getList (Object key) {
-        List l = (List) entries.get (key);
+
+    /**
+     * Bounds the space, so that a misbehaving peer (i.e. unmatched responses
+     * piling up in a MUX's unhandled queue) can't exhaust the heap.
+     * Limits are enforced when entries are added; when one is reached the
+     * eviction policy either discards the oldest entry (the head of the key
+     * for the per-key limit, the entry added first, whatever its key, for
+     * the global limits) or the new one.
+     *
+     * @param maxEntries max number of entries in the space, 0 for no limit
+     * @param maxEntriesPerKey max number of entries under a single key, 0 for no limit
+     * @param maxBytes max estimated size of the entries (see {@link #sizeOf}), 0 for no limit
+     * @param eviction eviction policy
+     * @param spillSpace space where evicted entries are moved to when
+     *        eviction is {@link Eviction#SPILL} (i.e. a persistent space)
+     */
+    public synchronized void setLimits
+        (int maxEntries, int maxEntriesPerKey, long maxBytes, Eviction eviction, Space spillSpace)
+    {
+        if (eviction == Eviction.SPILL && spillSpace == null)
+            throw new IllegalArgumentException ("SPILL eviction requires a spill space");
+        this.maxEntries = maxEntries;
+        this.maxEntriesPerKey = maxEntriesPerKey;
+        this.maxBytes = maxBytes;
+        this.eviction = eviction != null ? eviction : Eviction.OLDEST;
+        this.spillSpace = spillSpace;
+    }
+    /**
+     * @return number of entries in the space
+     */
+    public synchronized int size() {
+        return count;
+    }
+    /**
+     * @return estimated size of the entries in the space
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+    /**
+     * @return number of entries evicted (or spilled) due to the space limits
+     */
+    public synchronized long getEvicted() {
+        return evicted;
+    }
+    /**
+     * @return number of entries rejected due to the space limits
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+    /**
+     * @return number of entries per key
+     */
+    public synchronized Map<K,Integer> getKeySizes() {
+        Map<K,Integer> m = new HashMap<K,Integer>();
+        for (Map.Entry<K,List> entry : (Set<Map.Entry<K,List>>) entries.entrySet())
+            m.put (entry.getKey(), entry.getValue().size());
+        return m;
+    }
+    private EntryList getList (Object key) {
+        EntryList l = (EntryList) entries.get (key);
         if (l == null) 
-            entries.put (key, l = new LinkedList());
+            entries.put (key, l = new EntryList());
         return l;
     }
+    /**
+     * @return the list itself if it already is an EntryList, a copy otherwise
+     */
+    private static EntryList entryList (List l) {
+        if (l instanceof EntryList)
+            return (EntryList) l;
+        EntryList el = new EntryList();
+        for (Object o : l)
+            el.addLast (o);
+        return el;
+    }
     private Object getHead (Object key, boolean remove) {
         Object obj = null;
-        List l = (List) entries.get (key);
-        boolean wasExpirable = false;
+        EntryList l = (EntryList) entries.get (key);
         while (obj == null && l != null && l.size() > 0) {
-            obj = l.get(0);
-            if (obj instanceof Expirable) { 
+            EntryList.Node n = l.first();
+            obj = n.value;
+            if (obj instanceof Expirable)
                 obj = ((Expirable) obj).getValue();
-                wasExpirable = true;
-            }
-            if (obj == null) {
-                l.remove (0);
+            if (obj == null || remove) {
+                l.unlink (n);
+                removed (key, n);
                 if (l.isEmpty()) {
                     entries.remove (key);
                 }
             }
         }
-        if (obj != null && remove) {
-            l.remove (0);
-            if (l.isEmpty()) {
-                entries.remove (key);
-                if (wasExpirable)
-                    unregisterExpirable(key);
-            }
-        }
         return obj;
     }
     private Object getObject (Template tmpl, boolean remove) {
         Object obj = null;
-        List l = (List) entries.get (tmpl.getKey());
+        EntryList l = (EntryList) entries.get (tmpl.getKey());
         if (l == null)
             return obj;
+        if (tmpl instanceof IndexedTemplate && !indexes.isEmpty()) {
+            Object[] handles = indexes.find ((IndexedTemplate) tmpl);
+            if (handles != null)
+                return getIndexed ((IndexedTemplate) tmpl, l, handles, remove);
+        }
 
-        Iterator iter = l.iterator();
-        while (iter.hasNext()) {
-            obj = iter.next();
+        for (EntryList.Node n = l.first(); n != null; n = n.next) {
+            obj = n.value;
             if (obj instanceof Expirable) {
                 obj = ((Expirable) obj).getValue();
                 if (obj == null) {
-                    iter.remove();
+                    l.unlink (n);
+                    removed (tmpl.getKey(), n);
                     continue;
                 }
             }
             if (tmpl.equals (obj)) {
-                if (remove)
-                    iter.remove();
+                if (remove) {
+                    l.unlink (n);
+                    removed (tmpl.getKey(), n);
+                }
                 break;
             } else
                 obj = null;
         }
+        if (l.isEmpty())
+            entries.remove (tmpl.getKey());
         return obj;
     }
-    private TSpace getSL() {
-        synchronized (this) {
-            if (sl == null)
-                sl = new TSpace();
+    /**
+     * Resolves a template through an index: the first live handle is the
+     * entry a scan would have found. Handles are the entries' list nodes,
+     * so removal doesn't have to scan the key.
+     */
+    private Object getIndexed (IndexedTemplate tmpl, EntryList l, Object[] handles, boolean remove) {
+        Object obj = null;
+        for (Object h : handles) {
+            EntryList.Node n = (EntryList.Node) h;
+            if (!l.contains (n)) {
+                indexes.discard (tmpl, h);
+                obj = null;
+                continue;
+            }
+            obj = n.value instanceof Expirable ? ((Expirable) n.value).getValue() : n.value;
+            if (obj != null && !remove)
+                break;
+            l.unlink (n);
+            removed (tmpl.getKey(), n);
+            if (obj != null)
+                break;
+        }
+        if (l.isEmpty())
+            entries.remove (tmpl.getKey());
+        return obj;
+    }
+    /**
+     * Removes an expired entry from its key's list
+     */
+    private void remove (Expirable e) {
+        EntryList l = (EntryList) entries.get (e.key);
+        if (l == null)
+            return;
+        EntryList.Node n = e.node;
+        if (!l.contains (n) || n.value != e)
+            return;
+        l.unlink (n);
+        removed (e.key, n);
+        if (l.isEmpty())
+            entries.remove (e.key);
+    }
+    /**
+     * Accounts for the entries of a replaced list
+     */
+    private void taken (Object key, List l) {
+        if (l != null) {
+            for (EntryList.Node n = ((EntryList) l).first(); n != null; n = n.next)
+                removed (key, n);
         }
-        return sl;
     }
-    private void registerExpirable(K k, long t) {
-        expirables[t > GCLONG ? 1 : 0].add(k);
+    /**
+     * Puts back a list replaced by a rejected put
+     */
+    private void restore (Object key, List l) {
+        if (l != null) {
+            entries.put (key, l);
+            for (EntryList.Node n = ((EntryList) l).first(); n != null; n = n.next) {
+                if (n.value instanceof Expirable)
+                    expirables.add ((Expirable) n.value);
+                added (key, n, false);
+            }
+        }
     }
-    private void unregisterExpirable(Object k) {
-        for (Set<K> s : expirables)
-            s.remove(k);
+    private void added (Object key, EntryList.Node n, boolean head) {
+        count++;
+        bytes += sizeOf (n.value);
+        n.key = key;
+        n.older = newest;
+        n.newer = null;
+        if (newest == null)
+            oldest = n;
+        else
+            newest.newer = n;
+        newest = n;
+        if (n.value instanceof Expirable)
+            ((Expirable) n.value).node = n;
+        if (!indexes.isEmpty())
+            indexes.added (key, n, valueOf (n.value), head);
+    }
+    /**
+     * Accounts for an entry no longer in the space, expirable entries
+     * are unlinked from the wheel so they can be collected right away
+     */
+    private void removed (Object key, EntryList.Node n) {
+        if (n.value instanceof Expirable)
+            expirables.remove ((Expirable) n.value);
+        count--;
+        bytes -= sizeOf (n.value);
+        unlinkAge (n);
+        if (!indexes.isEmpty())
+            indexes.removed (key, n, valueOf (n.value));
+    }
+    private void unlinkAge (EntryList.Node n) {
+        if (n.older == null)
+            oldest = n.newer;
+        else
+            n.older.newer = n.newer;
+        if (n.newer == null)
+            newest = n.older;
+        else
+            n.newer.older = n.older;
+        n.older = n.newer = null;
+    }
+    private static Object valueOf (Object o) {
+        return o instanceof Expirable ? ((Expirable) o).value : o;
+    }
+    /**
+     * Enforces the space limits before a new entry is added
+     * @param key new entry's key
+     * @param value new entry
+     * @param spilled evicted entries to be moved to the spill space
+     * @return false if the new entry has to be discarded
+     */
+    private boolean admit (Object key, Object value, List spilled) {
+        if (maxEntries <= 0 && maxEntriesPerKey <= 0 && maxBytes <= 0L)
+            return true;
+        if (maxEntriesPerKey > 0) {
+            List l = (List) entries.get (key);
+            while (l != null && l.size() >= maxEntriesPerKey) {
+                if (eviction == Eviction.REJECT) {
+                    rejected++;
+                    return false;
+                }
+                EntryList el = (EntryList) l;
+                evict (key, el, el.first(), spilled);
+            }
+        }
+        long size = maxBytes > 0L ? sizeOf (value) : 0L;
+        while (count > 0 && (maxEntries > 0 && count >= maxEntries || maxBytes > 0L && bytes + size > maxBytes)) {
+            if (eviction == Eviction.REJECT) {
+                rejected++;
+                return false;
+            }
+            EntryList.Node n = oldest;
+            // skip nodes unlinked through the List interface (see getEntries)
+            while (n != null && n.list == null) {
+                unlinkAge (n);
+                n = oldest;
+            }
+            if (n == null)
+                break;
+            evict (n.key, n.list, n, spilled);
+        }
+        return true;
+    }
+    private void evict (Object key, EntryList l, EntryList.Node n, List spilled) {
+        l.unlink (n);
+        removed (key, n);
+        if (l.isEmpty())
+            entries.remove (key);
+        evicted++;
+        if (spilled != null)
+            spilled.add (new Object[] { key, n.value });
+    }
+    private void spill (List spilled) {
+        Space sp = spillSpace;
+        if (spilled == null || spilled.isEmpty() || sp == null)
+            return;
+        for (Object[] entry : (List<Object[]>) spilled) {
+            Object o = entry[1];
+            if (o instanceof Expirable) {
+                Expirable e = (Expirable) o;
+                long timeout = e.expires - System.currentTimeMillis();
+                if (timeout > 0L)
+                    sp.out (entry[0], e.value, timeout);
+            } else {
+                sp.out (entry[0], o);
+            }
+        }
+    }
+    /**
+     * Estimated heap usage of an entry, used by the <code>maxBytes</code> limit.
+     * Exact for byte arrays and strings, a fixed overhead is used for other objects.
+     * @param o entry (value or Expirable)
+     * @return estimated size in bytes
+     */
+    protected long sizeOf (Object o) {
+        if (o instanceof Expirable)
+            o = ((Expirable) o).value;
+        if (o instanceof byte[])
+            return ENTRY_OVERHEAD + ((byte[]) o).length;
+        if (o instanceof CharSequence)
+            return ENTRY_OVERHEAD + 2L * ((CharSequence) o).length();
+        return ENTRY_OVERHEAD;
     }
     static class Expirable implements Comparable {
+        Object key;
         Object value;
         long expires;
+        Expirable next, prev;  // ExpirationWheel slot chain
+        int slot = -1;         // ExpirationWheel level and slot, -1 if not in the wheel
+        EntryList.Node node;   // node holding this entry in its key's list
 
         public Expirable (Object value, long expires) {
+            this (null, value, expires);
+        }
+        Expirable (Object key, Object value, long expires) {
             super();
+            this.key = key;
             this.value = value;
             this.expires = expires;
         }
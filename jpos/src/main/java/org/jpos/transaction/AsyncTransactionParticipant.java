@@ -0,0 +1,58 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Participant whose prepare phase completes asynchronously
+ * (i.e. waiting for a remote host's response through a MUX).
+ * <p>
+ * If the stage is not complete by the time <code>prepareAsync</code>
+ * returns, the TransactionManager pauses the transaction, releasing
+ * the session, and resumes it when the stage completes. This requires
+ * a {@link Pausable} context (such as {@link Context}), the session
+ * waits for the stage otherwise. The pause timeout (Context's timeout or
+ * the TransactionManager's <code>pause-timeout</code>) applies; a
+ * participant that doesn't complete on time is considered to have
+ * voted ABORTED.
+ *
+ * @since 2.0.3
+ */
+public interface AsyncTransactionParticipant extends TransactionParticipant {
+    /**
+     * Called by TransactionManager in preparation for a transaction
+     * @param id the Transaction identifier
+     * @param context transaction context
+     * @return stage completing with PREPARED or ABORTED (| NO_JOIN | READONLY)
+     */
+    CompletionStage<Integer> prepareAsync (long id, Serializable context);
+
+    /**
+     * Synchronous version, waits for {@link #prepareAsync(long, Serializable)}
+     * @param id the Transaction identifier
+     * @param context transaction context
+     * @return PREPARED or ABORTED (| NO_JOIN | READONLY)
+     */
+    @Override
+    default int prepare (long id, Serializable context) {
+        return prepareAsync (id, context).toCompletableFuture().join();
+    }
+}
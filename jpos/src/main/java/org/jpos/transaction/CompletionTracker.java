@@ -0,0 +1,99 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, in-memory replacement for the TransactionManager's
+ * <code>$STATE.&lt;id&gt;</code>/<code>$TAILLOCK</code> dance, used when
+ * the persistent space is transient and there's nothing to recover.
+ * <p>
+ * Completed ids are flagged in a ring (slot <code>id % size</code> holds
+ * the id itself, so slots never need to be cleared). The thread that
+ * flags an id also tries to move the tail over every consecutive
+ * completed id. Ids too far ahead of the tail to fit in the ring go to
+ * an overflow set.
+ */
+public class CompletionTracker {
+    private final AtomicLongArray ring;
+    private final int mask;
+    private final AtomicLong tail;
+    private final Set<Long> overflow = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param size ring size, rounded up to a power of two
+     * @param tail first id to be completed
+     */
+    public CompletionTracker (int size, long tail) {
+        int n = Integer.highestOneBit (Math.max (size, 2) - 1) << 1;
+        this.ring = new AtomicLongArray (n);
+        this.mask = n - 1;
+        this.tail = new AtomicLong (tail);
+        for (int i=0; i<n; i++)
+            ring.set (i, -1L);
+    }
+
+    /**
+     * Flags <code>id</code> as done and advances the tail if possible.
+     * @param id transaction id
+     * @return current tail
+     */
+    public long done (long id) {
+        if (id - tail.get() >= ring.length())
+            overflow.add (id);
+        else
+            ring.set ((int) id & mask, id);
+        return advance();
+    }
+
+    /**
+     * @return lowest id not yet completed
+     */
+    public long getTail() {
+        return tail.get();
+    }
+
+    /**
+     * @return number of ids waiting in the overflow set
+     */
+    public int getOverflowSize() {
+        return overflow.size();
+    }
+
+    /**
+     * Resets the tail, i.e. after recovery.
+     * @param tail new tail
+     */
+    public void setTail (long tail) {
+        this.tail.set (tail);
+    }
+
+    private long advance() {
+        for (;;) {
+            long t = tail.get();
+            if (ring.get ((int) t & mask) != t && (overflow.isEmpty() || !overflow.remove (t)))
+                return t;
+            tail.compareAndSet (t, t+1);
+        }
+    }
+}
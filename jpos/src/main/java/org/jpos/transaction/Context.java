@@ -21,10 +21,13 @@ package org.jpos.transaction;
 import org.jdom.Element;
 import org.jdom.output.Format;
 import org.jdom.output.XMLOutputter;
+import org.jpos.iso.ISOMsg;
 import org.jpos.iso.ISOUtil;
+import org.jpos.util.CompactSerializer;
 import org.jpos.util.LogEvent;
 import org.jpos.util.Loggeable;
 import org.jpos.util.Profiler;
+import org.jpos.util.Span;
 
 import java.io.*;
 import java.util.*;
@@ -32,17 +35,28 @@ import java.util.*;
 @SuppressWarnings("unchecked")
 public class Context implements Externalizable, Loggeable, Pausable {
     private transient Map map; // transient map
-    private Map pmap;          // persistent (serializable) map
+    private volatile Map pmap; // persistent (serializable) map
     private long timeout;
     private boolean resumeOnPause = false;
     private transient boolean trace = false;
+    private transient volatile int waiters;
+    private transient Span span;
 
     public static String LOGEVT = "LOGEVT";
     public static String PROFILER = "PROFILER";
     public static String PAUSED_TRANSACTION = ":paused_transaction";
+    public static final int DEFAULT_CAPACITY = 16;
 
     public Context () {
+        this (DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity expected number of entries
+     */
+    public Context (int capacity) {
         super ();
+        map = new ContextMap (capacity);
     }
 
     /**
@@ -54,10 +68,11 @@ public class Context implements Externalizable, Loggeable, Pausable {
                 String.format("   %s='%s' [%s]", key, value, Thread.currentThread().getStackTrace()[2])
             );
         }
-        getMap().put (key, value);
-        synchronized (this) {
-            notifyAll();
-        }
+        map.put (key, value);
+        if (span == null && value instanceof ISOMsg)
+            span = ((ISOMsg) value).getSpan();
+        if (waiters > 0)
+            wakeup();
     }
     /**
      * puts an Object in the transient Map
@@ -70,27 +85,59 @@ public class Context implements Externalizable, Loggeable, Pausable {
         }
         if (persist && value instanceof Serializable)
             getPMap().put (key, value);
-        getMap().put(key, value);
+        map.put(key, value);
+        if (span == null && value instanceof ISOMsg)
+            span = ((ISOMsg) value).getSpan();
+        if (waiters > 0)
+            wakeup();
+    }
+    /**
+     * puts an Object in the transient Map
+     */
+    public <T> void put (ContextKey<T> key, T value) {
+        put ((Object) key, (Object) value);
+    }
+    /**
+     * puts an Object in the transient Map, and the persistent one if requested
+     */
+    public <T> void put (ContextKey<T> key, T value, boolean persist) {
+        put ((Object) key, (Object) value, persist);
+    }
+    /**
+     * @return value stored under a typed key
+     */
+    public <T> T get (ContextKey<T> key) {
+        return (T) map.get (key);
+    }
+    /**
+     * @return value stored under a typed key, or defValue.
+     * Beware a primitive long defValue binds to {@link #get(Object, long)}.
+     */
+    public <T> T get (ContextKey<T> key, T defValue) {
+        T obj = (T) map.get (key);
+        return obj != null ? obj : defValue;
     }
     /**
      * Get
      */
     public Object get (Object key) {
-        return getMap().get (key);
+        return map.get (key);
     }
     public Object get (Object key, Object defValue) {
-        Object obj = getMap().get (key);
+        Object obj = map.get (key);
         return obj != null ? obj : defValue;
     }
     /**
      * Transient remove
      */
-    public synchronized Object remove (Object key) {
-        getPMap().remove (key);
-        return getMap().remove (key);
+    public Object remove (Object key) {
+        Map p = pmap;
+        if (p != null)
+            p.remove (key);
+        return map.remove (key);
     }
     public String getString (Object key) {
-        return (String) getMap().get (key);
+        return (String) map.get (key);
     }
     public String getString (Object key, Object defValue) {
         return (String) get (key, defValue);
@@ -111,32 +158,34 @@ public class Context implements Externalizable, Loggeable, Pausable {
         Object obj;
         long now = System.currentTimeMillis();
         long end = now + timeout;
-        while ((obj = map.get (key)) == null &&
-                (now = System.currentTimeMillis()) < end)
-        {
-            try {
-                this.wait (end - now);
-            } catch (InterruptedException e) { }
+        waiters++;
+        try {
+            while ((obj = map.get (key)) == null &&
+                    (now = System.currentTimeMillis()) < end)
+            {
+                try {
+                    this.wait (end - now);
+                } catch (InterruptedException e) { }
+            }
+        } finally {
+            waiters--;
         }
         return obj;
     }
     public void writeExternal (ObjectOutput out) throws IOException {
-        out.writeByte (0);  // reserved for future expansion (version id)
-        Set s = getPMap().entrySet();
-        out.writeInt (s.size());
-        Iterator iter = s.iterator();
-        while (iter.hasNext()) {
-            Map.Entry entry = (Map.Entry) iter.next();
-            out.writeObject(entry.getKey());
-            out.writeObject(entry.getValue());
-        }
+        out.writeByte (1);  // version id, 0 had Java serialized entries
+        writeCompact (out);
     }
     public void readExternal  (ObjectInput in) 
         throws IOException, ClassNotFoundException
     {
-        in.readByte();  // ignore version for now
-        getMap();       // force creation of map
-        getPMap();      // and pmap
+        int version = in.readByte();
+        if (version == 1) {
+            readCompact (in);
+            return;
+        } else if (version != 0)
+            throw new InvalidClassException ("unsupported Context version " + version);
+        getPMap();      // force creation of pmap
         int size = in.readInt();
         for (int i=0; i<size; i++) {
             Object k = in.readObject();
@@ -145,6 +194,39 @@ public class Context implements Externalizable, Loggeable, Pausable {
             pmap.put (k, v);
         }
     }
+    /**
+     * Writes the persistent entries using {@link CompactSerializer}
+     * @param out output
+     * @throws IOException on error
+     */
+    public void writeCompact (DataOutput out) throws IOException {
+        Map p = getPMap();
+        Object[] entries;
+        synchronized (p) {
+            entries = p.entrySet().toArray();
+        }
+        CompactSerializer.writeVarLong (out, entries.length);
+        for (Object o : entries) {
+            Map.Entry entry = (Map.Entry) o;
+            CompactSerializer.writeObject (out, entry.getKey());
+            CompactSerializer.writeObject (out, entry.getValue());
+        }
+    }
+    /**
+     * Reads entries written by {@link #writeCompact(DataOutput)} as persistent entries
+     * @param in input
+     * @throws IOException on error
+     */
+    public void readCompact (DataInput in) throws IOException {
+        Map p = getPMap();
+        long size = CompactSerializer.readVarLong (in);
+        for (long i=0; i<size; i++) {
+            Object k = CompactSerializer.readObject (in);
+            Object v = CompactSerializer.readObject (in);
+            map.put (k, v);
+            p.put (k, v);
+        }
+    }
     /**
      * @return persistent map
      */
@@ -156,15 +238,13 @@ public class Context implements Externalizable, Loggeable, Pausable {
     /**
      * @return transient map
      */
-    public synchronized Map getMap() {
-        if (map == null)
-            map = Collections.synchronizedMap (new HashMap ());
+    public Map getMap() {
         return map;
     }
+    private synchronized void wakeup() {
+        notifyAll();
+    }
     protected void dumpMap (PrintStream p, String indent) {
-        if (map == null)
-            return;
-
         Iterator iter = map.entrySet().iterator();
         while (iter.hasNext()) {
             Map.Entry entry = (Map.Entry) iter.next ();
@@ -280,6 +360,17 @@ public class Context implements Externalizable, Loggeable, Pausable {
             resumeOnPause = true;
         }
     }
+    /**
+     * The Context adopts the span of the first traced ISOMsg placed in it.
+     * @return trace span this transaction belongs to, null if not traced
+     * @see org.jpos.util.Tracer
+     */
+    public Span getSpan() {
+        return span;
+    }
+    public void setSpan (Span span) {
+        this.span = span;
+    }
     public boolean isTrace() {
         return trace;
     }
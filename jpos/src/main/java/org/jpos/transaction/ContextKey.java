@@ -0,0 +1,95 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed {@link Context} key.
+ * <pre>
+ *   public static final ContextKey&lt;ISOMsg&gt; REQUEST = ContextKey.of ("REQUEST");
+ *   ...
+ *   ISOMsg m = ctx.get (REQUEST);
+ * </pre>
+ * Keys are canonical (there's just one instance per name, also after
+ * deserialization), so they are compared by identity and their hash code
+ * is computed once. A typed key and a String with the same name are
+ * different Context entries.
+ *
+ * @param <T> value type
+ */
+public final class ContextKey<T> implements Serializable {
+    private static final ConcurrentMap<String,ContextKey> keys = new ConcurrentHashMap<String,ContextKey>();
+    private static final AtomicInteger sequence = new AtomicInteger();
+    private final String name;
+    private final transient int hash;
+
+    private ContextKey (String name) {
+        this.name = name;
+        this.hash = sequence.incrementAndGet() * 0x61C88647;
+    }
+
+    /**
+     * @param name key name
+     * @param <T> value type
+     * @return the key registered under <code>name</code>, created if needed
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ContextKey<T> of (String name) {
+        if (name == null)
+            throw new NullPointerException ("name");
+        ContextKey<T> k = keys.get (name);
+        if (k == null) {
+            k = new ContextKey<T> (name);
+            ContextKey<T> old = keys.putIfAbsent (name, k);
+            if (old != null)
+                k = old;
+        }
+        return k;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals (Object o) {
+        return o == this;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+        return of (name);
+    }
+
+    private static final long serialVersionUID = -3327423316128931874L;
+}
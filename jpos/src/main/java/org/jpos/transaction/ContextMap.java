@@ -0,0 +1,252 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open addressing (linear probing) map used by {@link Context}.
+ * <p>
+ * Reads never lock. Writers are serialized on the map's monitor, which
+ * is uncontended in the usual case where a single session thread
+ * works on a Context at a time. Key slots are never cleared (removed
+ * entries just get a null value) so readers can probe a table while it
+ * is being written. When the table grows, a new one is built and
+ * published at once.
+ * <p>
+ * Null keys and values are allowed, as they were with the previous
+ * HashMap based implementation. Iterators are weakly consistent.
+ */
+@SuppressWarnings("unchecked")
+class ContextMap extends AbstractMap<Object,Object> {
+    private static final Object NULL = new Object();
+    private volatile AtomicReferenceArray<Object> table; // key at 2i, value at 2i+1
+    private volatile int size;
+    private int used;   // key slots taken, including removed entries
+
+    ContextMap (int capacity) {
+        table = new AtomicReferenceArray<Object> (tableSize (capacity) * 2);
+    }
+
+    @Override
+    public Object get (Object key) {
+        Object v = find (table, mask (key));
+        return v == NULL ? null : v;
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return find (table, mask (key)) != null;
+    }
+
+    @Override
+    public synchronized Object put (Object key, Object value) {
+        Object k = mask (key);
+        Object v = value == null ? NULL : value;
+        AtomicReferenceArray<Object> t = table;
+        int slots = t.length() >> 1;
+        for (int i = index (k, slots);; i = (i + 1) & (slots - 1)) {
+            Object sk = t.get (i << 1);
+            if (sk == null) {
+                if ((used + 1) << 1 > slots) { // keep load factor under .5
+                    rehash (tableSize (size + 1));
+                    return put (key, value);
+                }
+                t.set ((i << 1) + 1, v);  // value first, readers match on key
+                t.set (i << 1, k);
+                used++;
+                size++;
+                return null;
+            }
+            if (sk == k || sk.equals (k)) {
+                Object old = t.getAndSet ((i << 1) + 1, v);
+                if (old == null)
+                    size++;
+                return old == NULL ? null : old;
+            }
+        }
+    }
+
+    @Override
+    public synchronized Object remove (Object key) {
+        AtomicReferenceArray<Object> t = table;
+        int i = slot (t, mask (key));
+        if (i < 0)
+            return null;
+        Object old = t.getAndSet ((i << 1) + 1, null);
+        if (old == null)
+            return null;
+        size--;
+        return old == NULL ? null : old;
+    }
+
+    @Override
+    public synchronized void clear() {
+        table = new AtomicReferenceArray<Object> (table.length());
+        size = used = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<Object,Object>> entrySet() {
+        return new AbstractSet<Map.Entry<Object,Object>>() {
+            @Override
+            public Iterator<Map.Entry<Object,Object>> iterator() {
+                return new EntryIterator (table);
+            }
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Object find (AtomicReferenceArray<Object> t, Object k) {
+        int slots = t.length() >> 1;
+        for (int i = index (k, slots), n = 0; n < slots; i = (i + 1) & (slots - 1), n++) {
+            Object sk = t.get (i << 1);
+            if (sk == null)
+                return null;
+            if (sk == k || sk.equals (k))
+                return t.get ((i << 1) + 1);
+        }
+        return null;
+    }
+
+    private int slot (AtomicReferenceArray<Object> t, Object k) {
+        int slots = t.length() >> 1;
+        for (int i = index (k, slots), n = 0; n < slots; i = (i + 1) & (slots - 1), n++) {
+            Object sk = t.get (i << 1);
+            if (sk == null)
+                return -1;
+            if (sk == k || sk.equals (k))
+                return i;
+        }
+        return -1;
+    }
+
+    private void rehash (int slots) {
+        AtomicReferenceArray<Object> t = table;
+        AtomicReferenceArray<Object> nt = new AtomicReferenceArray<Object> (slots << 1);
+        int n = 0;
+        for (int j = 0; j < t.length(); j += 2) {
+            Object k = t.get (j);
+            Object v = t.get (j + 1);
+            if (k == null || v == null)
+                continue;
+            int i = index (k, slots);
+            while (nt.get (i << 1) != null)
+                i = (i + 1) & (slots - 1);
+            nt.lazySet ((i << 1) + 1, v);
+            nt.lazySet (i << 1, k);
+            n++;
+        }
+        used = n;
+        table = nt; // volatile write publishes the new table
+    }
+
+    private static int index (Object k, int slots) {
+        int h = k.hashCode() * 0x9E3779B9;
+        return (h ^ h >>> 16) & (slots - 1);
+    }
+
+    private static int tableSize (int capacity) {
+        int n = 8;
+        while (n < capacity << 1)
+            n <<= 1;
+        return n;
+    }
+
+    private static Object mask (Object key) {
+        return key == null ? NULL : key;
+    }
+
+    private static Object unmask (Object o) {
+        return o == NULL ? null : o;
+    }
+
+    private class EntryIterator implements Iterator<Map.Entry<Object,Object>> {
+        final AtomicReferenceArray<Object> t;
+        int next = -2;
+        Object lastKey = NULL;
+        Map.Entry<Object,Object> entry;
+
+        EntryIterator (AtomicReferenceArray<Object> t) {
+            this.t = t;
+            advance();
+        }
+
+        private void advance() {
+            entry = null;
+            for (next += 2; next < t.length(); next += 2) {
+                Object k = t.get (next);
+                Object v = t.get (next + 1);
+                if (k != null && v != null) {
+                    entry = new Entry (unmask (k), unmask (v));
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entry != null;
+        }
+
+        @Override
+        public Map.Entry<Object,Object> next() {
+            if (entry == null)
+                throw new NoSuchElementException();
+            Map.Entry<Object,Object> e = entry;
+            lastKey = e.getKey();
+            advance();
+            return e;
+        }
+
+        @Override
+        public void remove() {
+            if (lastKey == NULL)
+                throw new IllegalStateException();
+            ContextMap.this.remove (lastKey);
+            lastKey = NULL;
+        }
+    }
+
+    private class Entry extends AbstractMap.SimpleEntry<Object,Object> {
+        Entry (Object key, Object value) {
+            super (key, value);
+        }
+        @Override
+        public Object setValue (Object value) {
+            ContextMap.this.put (getKey(), value);
+            return super.setValue (value);
+        }
+        private static final long serialVersionUID = -3530964582186297433L;
+    }
+}
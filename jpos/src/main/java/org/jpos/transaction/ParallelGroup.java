@@ -0,0 +1,282 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs the participants of a <code>&lt;group parallel="true"&gt;</code>
+ * concurrently on the TransactionManager's shared pool.
+ * <p>
+ * The first participant runs in the session's thread, the rest are
+ * forked to the pool and joined within <code>timeout</code> millis.
+ * Votes are merged: any ABORTED (or a participant missing the deadline)
+ * aborts the whole group, any RETRY retries it, and the group only
+ * joins the transaction if at least one member did. Commit and abort
+ * are also dispatched in parallel, to joined members only.
+ * <p>
+ * Members are not expected to PAUSE, nor to be GroupSelectors.
+ *
+ * @see TransactionManager
+ */
+public class ParallelGroup implements AbortParticipant {
+    private final TransactionManager txnmgr;
+    private final String name;
+    private final TransactionParticipant[] participants;
+    private final long timeout;
+    private final Executor executor;
+    private final Map<Long,Branch[]> branches = new ConcurrentHashMap<Long,Branch[]>();
+    private final Map<Long,String> summaries = new ConcurrentHashMap<Long,String>();
+
+    public ParallelGroup (TransactionManager txnmgr, String name,
+                          List<TransactionParticipant> participants, long timeout, Executor executor)
+    {
+        this.txnmgr = txnmgr;
+        this.name = name;
+        this.participants = participants.toArray (new TransactionParticipant[participants.size()]);
+        this.timeout = timeout;
+        this.executor = executor;
+    }
+
+    @Override
+    public int prepare (long id, Serializable context) {
+        return prepare (id, context, false);
+    }
+
+    @Override
+    public int prepareForAbort (long id, Serializable context) {
+        return prepare (id, context, true);
+    }
+
+    @Override
+    public void commit (long id, Serializable context) {
+        complete (id, context, true);
+    }
+
+    @Override
+    public void abort (long id, Serializable context) {
+        complete (id, context, false);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public TransactionParticipant[] getParticipants() {
+        return participants.clone();
+    }
+
+    /**
+     * @param id transaction id
+     * @return members' votes and elapsed times of the last prepare
+     * (only recorded while the TransactionManager is in debug mode)
+     */
+    public String getSummary (long id) {
+        String s = summaries.remove (id);
+        return s != null ? s : "       parallel: " + name;
+    }
+
+    protected int prepare (long id, Serializable context, boolean aborting) {
+        Branch[] bb = new Branch[participants.length];
+        for (int i=0; i<bb.length; i++)
+            bb[i] = new Branch (participants[i]);
+        for (int i=1; i<bb.length; i++)
+            bb[i].fork (id, context, aborting);
+        if (bb.length > 0)
+            bb[0].run (id, context, aborting, false);
+
+        long end = System.currentTimeMillis() + timeout;
+        boolean prepared = true;
+        boolean readonly = true;
+        boolean noJoin = true;
+        boolean retry = false;
+        for (Branch b : bb) {
+            b.join (id, end);
+            int action = b.vote();
+            if ((action & RETRY) == RETRY)
+                retry = true;
+            if ((action & PREPARED) == ABORTED)
+                prepared = false;
+            if ((action & READONLY) != READONLY)
+                readonly = false;
+            if ((action & NO_JOIN) != NO_JOIN)
+                noJoin = false;
+        }
+        if (txnmgr.getDebug())
+            summaries.put (id, summary (bb));
+        if (retry) {
+            // the TransactionManager neither commits nor aborts a RETRY
+            return RETRY |
+                   (noJoin   ? NO_JOIN  : 0) |
+                   (readonly ? READONLY : 0);
+        }
+        if (!noJoin)
+            branches.put (id, bb);
+        return (prepared && !aborting ? PREPARED : ABORTED) |
+               (noJoin   ? NO_JOIN  : 0) |
+               (readonly ? READONLY : 0);
+    }
+
+    protected void complete (long id, Serializable context, boolean commit) {
+        Branch[] bb = branches.remove (id);
+        if (bb == null)
+            return;
+        CompletableFuture<?>[] ff = new CompletableFuture<?>[bb.length];
+        for (int i=0; i<bb.length; i++)
+            ff[i] = bb[i].complete (id, context, commit);
+        try {
+            CompletableFuture.allOf (ff).get (timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            txnmgr.getLog().warn (
+              (commit ? "COMMIT: " : "ABORT: ") + id + " parallel group '" + name + "' still running"
+            );
+        } catch (InterruptedException | ExecutionException ignored) { }
+    }
+
+    private String summary (Branch[] bb) {
+        StringBuilder sb = new StringBuilder ("       parallel: " + name);
+        for (Branch b : bb) {
+            sb.append ("\n                 ");
+            sb.append (b.p.getClass().getName());
+            int action = b.vote();
+            if (b.expired)
+                sb.append (" EXPIRED");
+            else if ((action & PREPARED) == ABORTED)
+                sb.append (" ABORTED");
+            if ((action & READONLY) == READONLY)
+                sb.append (" READONLY");
+            if ((action & NO_JOIN) == NO_JOIN)
+                sb.append (" NO_JOIN");
+            sb.append (String.format (" [%.1fms]", b.elapsed / 1000000.0));
+        }
+        return sb.toString();
+    }
+
+    private class Branch {
+        final TransactionParticipant p;
+        CompletableFuture<Void> f;
+        volatile int action = ABORTED | NO_JOIN | READONLY;
+        volatile long elapsed;
+        volatile boolean expired;
+
+        Branch (TransactionParticipant p) {
+            this.p = p;
+        }
+
+        void fork (final long id, final Serializable context, final boolean aborting) {
+            f = CompletableFuture.runAsync (new Runnable() {
+                @Override
+                public void run() {
+                    Branch.this.run (id, context, aborting, true);
+                }
+            }, executor);
+        }
+
+        void run (long id, Serializable context, boolean aborting, boolean forked) {
+            long start = System.nanoTime();
+            if (forked)
+                txnmgr.setThreadLocal (id, context);
+            try {
+                if (!aborting)
+                    action = p.prepare (id, context) & ~PAUSE;
+                else if (p instanceof AbortParticipant)
+                    action = ((AbortParticipant) p).prepareForAbort (id, context) & ~PAUSE;
+            } catch (Throwable t) {
+                txnmgr.getLog().warn ((aborting ? "PREPARE-FOR-ABORT: " : "PREPARE: ") + id, t);
+                action = aborting ? ABORTED | NO_JOIN : ABORTED;
+            } finally {
+                if (forked)
+                    txnmgr.removeThreadLocal();
+                elapsed = System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Waits for a forked prepare. A branch that doesn't make it by
+         * <code>end</code> is flagged as expired; its prepare may still
+         * set <code>action</code> later on, so votes go through {@link #vote()}.
+         */
+        void join (long id, long end) {
+            if (f == null)
+                return;
+            try {
+                f.get (Math.max (end - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                expired = true;
+                txnmgr.getLog().warn ("PREPARE: " + id + " " + p.getClass().getName()
+                  + " expired in parallel group '" + name + "'");
+            } catch (InterruptedException e) {
+                expired = true;
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                action = ABORTED;
+            }
+        }
+
+        /**
+         * @return the branch's vote, an expired branch always aborts and
+         *         joins, getting an abort call once its prepare is done
+         */
+        int vote() {
+            return expired ? ABORTED : action;
+        }
+
+        CompletableFuture<Void> complete (final long id, final Serializable context, final boolean commit) {
+            final Runnable r = new Runnable() {
+                @Override
+                public void run() {
+                    txnmgr.setThreadLocal (id, context);
+                    try {
+                        if (commit)
+                            p.commit (id, context);
+                        else
+                            p.abort (id, context);
+                    } catch (Throwable t) {
+                        txnmgr.getLog().warn ((commit ? "COMMIT: " : "ABORT: ") + id, t);
+                    } finally {
+                        txnmgr.removeThreadLocal();
+                    }
+                }
+            };
+            if (expired) {
+                // don't call abort while the participant is still preparing
+                f.whenCompleteAsync (new BiConsumer<Void,Throwable>() {
+                    @Override
+                    public void accept (Void v, Throwable t) {
+                        if ((action & NO_JOIN) != NO_JOIN)
+                            r.run();
+                    }
+                }, executor);
+                return CompletableFuture.completedFuture (null);
+            }
+            if ((action & NO_JOIN) == NO_JOIN)
+                return CompletableFuture.completedFuture (null);
+            return CompletableFuture.runAsync (r, executor);
+        }
+    }
+}
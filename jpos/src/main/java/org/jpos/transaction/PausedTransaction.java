@@ -35,6 +35,8 @@ public class PausedTransaction implements Loggeable {
     private boolean resumed;
     private TimerTask expirationMonitor;
     private Profiler prof;
+    private TransactionParticipant asyncParticipant;
+    private Integer asyncAction;
     public PausedTransaction (
             TransactionManager txnmgr, long id, List<TransactionParticipant> members
            ,Iterator<TransactionParticipant> iter, boolean aborting
@@ -81,6 +83,27 @@ public class PausedTransaction implements Loggeable {
     public Profiler getProfiler() {
         return prof;
     }
+    /**
+     * @return the {@link AsyncTransactionParticipant} this transaction is waiting for, if any
+     */
+    public TransactionParticipant getAsyncParticipant() {
+        return asyncParticipant;
+    }
+    public void setAsyncParticipant (TransactionParticipant asyncParticipant) {
+        this.asyncParticipant = asyncParticipant;
+    }
+    /**
+     * @return async participant's vote, null if it didn't complete
+     */
+    public Integer getAsyncAction() {
+        return asyncAction;
+    }
+    public void setAsyncAction (Integer asyncAction) {
+        this.asyncAction = asyncAction;
+    }
+    public synchronized void setExpirationMonitor (TimerTask expirationMonitor) {
+        this.expirationMonitor = expirationMonitor;
+    }
     public synchronized void cancelExpirationMonitor() {
         if (expirationMonitor != null)
             expirationMonitor.cancel();
@@ -0,0 +1,270 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TransactionManager input queues.
+ * <p>
+ * Contexts are classified into priority levels, either by an explicit
+ * level name placed in the Context or by the MTI of the request, and
+ * levels are served using smooth weighted round robin, so a level with
+ * weight 8 gets eight transactions for every one of a level with weight 1
+ * when both have work pending, while an idle level takes nothing away
+ * from the others.
+ * <p>
+ * Resumed transactions are queued ahead of every level. Contexts whose
+ * deadline has passed, or that have been waiting longer than their
+ * level's <code>max-wait</code>, are handed back to the caller to be
+ * dropped instead of being processed.
+ * <p>
+ * Queued contexts are held in memory, so the TransactionManager only
+ * accepts priority levels with a transient input space.
+ */
+@SuppressWarnings("unchecked")
+class PriorityScheduler {
+    private final Level[] levels;
+    private final Level defaultLevel;
+    private final Map<String,Level> byName = new HashMap<String,Level>();
+    private final ArrayDeque<Object> urgent = new ArrayDeque<Object>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final String requestName;
+    private final String priorityName;
+    private final String deadlineName;
+    private int size;
+
+    static class Level {
+        final String name;
+        final int weight;
+        final long maxWait;
+        final String[] mtis;
+        final ArrayDeque<Object> queue = new ArrayDeque<Object>();
+        final ArrayDeque<Long> queuedAt = new ArrayDeque<Long>();
+        int current;
+
+        /**
+         * @param name level name
+         * @param weight relative share of the sessions' time
+         * @param maxWait max time in millis a context may wait in this level, 0 for no limit
+         * @param mtis MTIs (or MTI prefixes) served by this level, null for the default level
+         */
+        Level (String name, int weight, long maxWait, String[] mtis) {
+            this.name = name;
+            this.weight = weight;
+            this.maxWait = TimeUnit.MILLISECONDS.toNanos (maxWait);
+            this.mtis = mtis;
+        }
+    }
+
+    /**
+     * @param levels priority levels, the first one without MTIs is the default level
+     * @param requestName Context entry holding the ISOMsg used to classify by MTI
+     * @param priorityName Context entry that can hold a level name
+     * @param deadlineName Context entry that can hold a deadline (Long millis or Date)
+     */
+    PriorityScheduler (List<Level> levels, String requestName, String priorityName, String deadlineName) {
+        Level def = null;
+        for (Level l : levels) {
+            byName.put (l.name, l);
+            if (def == null && l.mtis == null)
+                def = l;
+        }
+        if (def == null) {
+            def = new Level ("default", 1, 0L, null);
+            levels.add (def);
+            byName.put (def.name, def);
+        }
+        this.levels = levels.toArray (new Level[levels.size()]);
+        this.defaultLevel = def;
+        this.requestName = requestName;
+        this.priorityName = priorityName;
+        this.deadlineName = deadlineName;
+    }
+
+    /**
+     * Queues a new transaction
+     * @param obj context
+     */
+    void offer (Object obj) {
+        Level l = classify (obj);
+        lock.lock();
+        try {
+            l.queue.addLast (obj);
+            l.queuedAt.addLast (System.nanoTime());
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a resumed transaction (or a stop token), served before any level
+     * @param obj context
+     */
+    void push (Object obj) {
+        lock.lock();
+        try {
+            urgent.addLast (obj);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param timeout max time to wait in millis
+     * @param dropped expired contexts found while polling are added here
+     * @return next context, or null on timeout
+     */
+    Object poll (long timeout, List<Object> dropped) {
+        long nanos = TimeUnit.MILLISECONDS.toNanos (timeout);
+        lock.lock();
+        try {
+            for (;;) {
+                if (!urgent.isEmpty()) {
+                    size--;
+                    return urgent.pollFirst();
+                }
+                Level l = select();
+                if (l != null) {
+                    Object obj = l.queue.pollFirst();
+                    long queuedAt = l.queuedAt.pollFirst();
+                    size--;
+                    if (isExpired (obj, l, queuedAt)) {
+                        dropped.add (obj);
+                        continue;
+                    }
+                    return obj;
+                }
+                if (nanos <= 0L)
+                    return null;
+                nanos = notEmpty.awaitNanos (nanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return pending transactions per level
+     */
+    String getQueueSizes() {
+        StringBuilder sb = new StringBuilder();
+        lock.lock();
+        try {
+            for (Level l : levels) {
+                if (sb.length() > 0)
+                    sb.append (", ");
+                sb.append (l.name).append ('=').append (l.queue.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return sb.toString();
+    }
+
+    Level classify (Object obj) {
+        if (!(obj instanceof Context))
+            return defaultLevel;
+        Context ctx = (Context) obj;
+        if (priorityName != null) {
+            Object name = ctx.get (priorityName);
+            if (name != null) {
+                Level l = byName.get (name.toString());
+                if (l != null)
+                    return l;
+            }
+        }
+        Object m = requestName != null ? ctx.get (requestName) : null;
+        if (m instanceof ISOMsg) {
+            try {
+                String mti = ((ISOMsg) m).getMTI();
+                for (Level l : levels) {
+                    if (l.mtis == null)
+                        continue;
+                    for (String s : l.mtis) {
+                        if (mti.startsWith (s))
+                            return l;
+                    }
+                }
+            } catch (ISOException ignored) {
+                // no MTI, use default level
+            }
+        }
+        return defaultLevel;
+    }
+
+    /**
+     * smooth weighted round robin over the levels with pending work
+     */
+    private Level select() {
+        Level best = null;
+        int total = 0;
+        for (Level l : levels) {
+            if (l.queue.isEmpty())
+                continue;
+            l.current += l.weight;
+            total += l.weight;
+            if (best == null || l.current > best.current)
+                best = l;
+        }
+        if (best != null)
+            best.current -= total;
+        return best;
+    }
+
+    private boolean isExpired (Object obj, Level l, long queuedAt) {
+        if (l.maxWait > 0L && System.nanoTime() - queuedAt > l.maxWait)
+            return true;
+        if (deadlineName != null && obj instanceof Context) {
+            Object deadline = ((Context) obj).get (deadlineName);
+            if (deadline instanceof Date)
+                return System.currentTimeMillis() > ((Date) deadline).getTime();
+            if (deadline instanceof Number)
+                return System.currentTimeMillis() > ((Number) deadline).longValue();
+        }
+        return false;
+    }
+}
@@ -26,9 +26,17 @@ import org.jpos.q2.QFactory;
 import org.jpos.space.*;
 import org.jpos.util.*;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.jpos.iso.ISOUtil;
 
@@ -51,7 +59,9 @@ public class TransactionManager
     public static final long    MAX_PARTICIPANTS = 1000;  // loop prevention
     public static final long    MAX_WAIT = 15000L;
     public static final long    TIMER_PURGE_INTERVAL = 1000L;
+    private static final int    MAX_CHAINS = 1000;
     protected Map<String,List<TransactionParticipant>> groups;
+    private final Map<String,ParticipantChain> chains = new ConcurrentHashMap<String,ParticipantChain>();
     private static final ThreadLocal<Serializable> tlContext = new ThreadLocal<Serializable>();
     private static final ThreadLocal<Long> tlId = new ThreadLocal<Long>();
 
@@ -67,12 +77,32 @@ public class TransactionManager
     boolean profiler;
     boolean doRecover;
     boolean callSelectorOnAbort;
+    boolean transientState;
+    boolean compactSnapshot;
+    CompletionTracker tracker;
     int sessions;
     int maxSessions;
     int threshold;
     int maxActiveSessions;
+    int contextCapacity = Context.DEFAULT_CAPACITY;
     AtomicInteger activeSessions = new AtomicInteger();
-    long head, tail;
+    AtomicInteger busySessions = new AtomicInteger();
+    AtomicInteger retiring = new AtomicInteger();
+    boolean elastic;
+    long scaleInterval = 500L;
+    long scaleDownDelay = 10000L;
+    long targetLatency;
+    final LongAdder latencySum = new LongAdder();
+    final LongAdder latencyCount = new LongAdder();
+    volatile long avgLatency; // nanos, last scale interval
+    final AtomicLong scaleUps = new AtomicLong();
+    final AtomicLong scaleDowns = new AtomicLong();
+    TimerTask sessionController;
+    PriorityScheduler scheduler;
+    String dropQueue;
+    final LongAdder dropped = new LongAdder();
+    ForkJoinPool parallelPool;
+    volatile long head, tail;
     long retryInterval = 5000L;
     long retryTimeout  = 60000L;
     long pauseTimeout  = 0L;
@@ -91,10 +121,15 @@ public class TransactionManager
         tail = initCounter (TAIL, cfg.getLong ("initial-tail", 1));
         head = Math.max (initCounter (HEAD, tail), tail);
         initTailLock ();
+        transientState = cfg.getBoolean ("transient-state", psp instanceof TSpace);
+        if (transientState)
+            tracker = new CompletionTracker (cfg.getInt ("completion-ring-size", 8192), tail);
 
         groups = new HashMap<String,List<TransactionParticipant>>();
+        chains.clear();
         initParticipants (getPersist());
         initStatusListeners (getPersist());
+        initPriorities (getPersist());
     }
 
     @Override
@@ -108,6 +143,13 @@ public class TransactionManager
         for (int i=0; i<sessions; i++) {
             new Thread(this).start();
         }
+        if (scheduler != null)
+            new Thread (new Dispatcher(), getName() + "-dispatcher").start();
+        retiring.set (0);
+        if (elastic && maxSessions > sessions) {
+            sessionController = new SessionController();
+            timer.schedule (sessionController, scaleInterval, scaleInterval);
+        }
         if (psp.rdp (RETRY_QUEUE) != null)
             checkRetryTask();
     }
@@ -115,11 +157,20 @@ public class TransactionManager
     @Override
     public void stopService () throws Exception {
         NameRegistrar.unregister(getName());
+        if (sessionController != null) {
+            sessionController.cancel();
+            sessionController = null;
+        }
 
         Thread[] tt = threads.toArray(new Thread[threads.size()]);
         for (int i=0; i < tt.length; i++) {
-            isp.out(queue, Boolean.FALSE, 60 * 1000);
+            if (scheduler != null)
+                scheduler.push (Boolean.FALSE);
+            else
+                isp.out(queue, Boolean.FALSE, 60 * 1000);
         }
+        if (scheduler != null)
+            isp.out(queue, Boolean.FALSE, 60 * 1000); // wakes up the dispatcher
         for (Thread thread : tt) {
             try {
                 thread.join (60*1000);
@@ -130,12 +181,44 @@ public class TransactionManager
             }
         }
         tps.stop();
+        if (tracker != null) {
+            tail = tracker.getTail();
+            syncTail();
+        }
+    }
+
+    /**
+     * The parallel pool outlives stop/start cycles, ParallelGroups get
+     * it once, at init time.
+     */
+    @Override
+    protected synchronized void destroyService () throws Exception {
+        if (parallelPool != null) {
+            parallelPool.shutdown();
+            parallelPool = null;
+        }
     }
     public void queue (Serializable context) {
-        isp.out(queue, context);
+        if (scheduler != null)
+            scheduler.offer (context);
+        else
+            isp.out(queue, context);
     }
     public void push (Serializable context) {
-        isp.push(queue, context);
+        if (scheduler != null)
+            scheduler.push (context);
+        else
+            isp.push(queue, context);
+    }
+    /**
+     * @return a new Context sized after this TransactionManager's
+     *         <code>context-capacity</code> property
+     */
+    public Context createContext() {
+        return new Context (contextCapacity);
+    }
+    public int getContextCapacity() {
+        return contextCapacity;
     }
     @SuppressWarnings("unused")
     public String getQueueName() {
@@ -163,7 +246,11 @@ public class TransactionManager
         Profiler prof = null;
         long startTime = 0L;
         boolean paused;
+        boolean busy = false;
+        Span span = null;
+        long busySince = 0L;
         Thread thread = Thread.currentThread();
+        List<Object> expired = scheduler != null ? new ArrayList<Object>() : null;
         if (threads.size() < maxSessions) {
             threads.add(thread);
             session = threads.indexOf(thread);
@@ -182,17 +269,29 @@ public class TransactionManager
                 if (hasStatusListeners)
                     notifyStatusListeners (session, TransactionStatusEvent.State.READY, id, "", null);
 
-                Object obj = isp.in (queue, MAX_WAIT);
+                long wait = elastic ? scaleInterval : MAX_WAIT;
+                Object obj;
+                if (scheduler != null) {
+                    obj = scheduler.poll (wait, expired);
+                    if (!expired.isEmpty())
+                        drop (expired);
+                } else
+                    obj = isp.in (queue, wait);
                 if (obj == Boolean.FALSE)
                     continue;   // stopService ``hack''
 
                 if (obj == null) {
-                    if (session > sessions && getActiveSessions() > sessions)
+                    if (elastic ? session >= sessions && claimRetirement() :
+                        session > sessions && getActiveSessions() > sessions)
                         break; // we are an extra session, exit
                     else
                         continue;
                 }
-                if (session < sessions && // only initial sessions create extra sessions
+                busy = true;
+                busySince = System.nanoTime();
+                busySessions.incrementAndGet();
+                if (!elastic &&
+                    session < sessions && // only initial sessions create extra sessions
                     maxSessions > sessions &&
                     getActiveSessions() < maxSessions &&
                     getOutstandingTransactions() > threshold)
@@ -241,6 +340,14 @@ public class TransactionManager
                     members = new ArrayList ();
                     iter = getParticipants (DEFAULT_GROUP).iterator();
                 }
+                span = context instanceof Context ? ((Context) context).getSpan() : null;
+                if (span != null) {
+                    if (pt == null) {
+                        span = span.child (getName());
+                        ((Context) context).setSpan (span);
+                    }
+                    Tracer.setCurrent (span);
+                }
                 if (debug) {
                     evt = getLog().createLogEvent ("debug",
                         Thread.currentThread().getName() 
@@ -255,7 +362,7 @@ public class TransactionManager
                 }
                 snapshot (id, context, PREPARING);
                 setThreadLocal(id, context);
-                int action = prepare (session, id, context, members, iter, abort, evt, prof);
+                int action = prepare (session, id, context, members, iter, abort, evt, prof, pt);
                 removeThreadLocal();
                 switch (action) {
                     case PAUSE:
@@ -282,11 +389,17 @@ public class TransactionManager
                         break;
                 }
                 if ((action & PAUSE) == 0) {
-                    snapshot (id, null, DONE);
-                    if (id == tail) {
-                        checkTail ();
+                    if (span != null)
+                        span.finish();
+                    if (tracker != null) {
+                        tracker.done (id);
                     } else {
-                        purge (id, false);
+                        snapshot (id, null, DONE);
+                        if (id == tail) {
+                            checkTail ();
+                        } else {
+                            purge (id, false);
+                        }
                     }
                     tps.tick();
                 }
@@ -297,6 +410,16 @@ public class TransactionManager
                     evt.addMessage (t);
             } finally {
                 removeThreadLocal();
+                if (span != null) {
+                    Tracer.setCurrent (null);
+                    span = null;
+                }
+                if (busy) {
+                    busy = false;
+                    busySessions.decrementAndGet();
+                    latencySum.add (System.nanoTime() - busySince);
+                    latencyCount.increment();
+                }
                 if (hasStatusListeners) {
                     notifyStatusListeners (
                         session,
@@ -311,7 +434,7 @@ public class TransactionManager
                 if (evt != null) {
                     evt.addMessage (
                         String.format ("in-transit=%d, head=%d, tail=%d, outstanding=%d, active-sessions=%d/%d, %s, elapsed=%dms",
-                            getInTransit(), head, tail, getOutstandingTransactions(),
+                            getInTransit(), head, getTail(), getOutstandingTransactions(),
                             getActiveSessions(), maxSessions,
                             tps.toString(),
                                 System.currentTimeMillis() - startTime
@@ -331,7 +454,7 @@ public class TransactionManager
 
     @Override
     public long getTail () {
-        return tail;
+        return tracker != null ? tracker.getTail() : tail;
     }
 
     @Override
@@ -340,7 +463,7 @@ public class TransactionManager
     }
 
     public long getInTransit () {
-        return head - tail;
+        return head - getTail();
     }
 
     @Override
@@ -353,6 +476,7 @@ public class TransactionManager
         if (profiler)
             debug = true; // profiler needs debug
         doRecover = cfg.getBoolean ("recover", true);
+        compactSnapshot = cfg.getBoolean ("compact-snapshot", true);
         retryInterval = cfg.getLong ("retry-interval", retryInterval);
         retryTimeout  = cfg.getLong ("retry-timeout", retryTimeout);
         pauseTimeout  = cfg.getLong ("pause-timeout", pauseTimeout);
@@ -369,6 +493,15 @@ public class TransactionManager
                 throw new ConfigurationException("max-active-sessions < max-sessions");
         }
         callSelectorOnAbort = cfg.getBoolean("call-selector-on-abort", true);
+        contextCapacity = cfg.getInt ("context-capacity", Context.DEFAULT_CAPACITY);
+        if (contextCapacity <= 0)
+            throw new ConfigurationException ("Invalid context-capacity " + contextCapacity);
+        elastic = cfg.getBoolean ("elastic", false);
+        scaleInterval = cfg.getLong ("scale-interval", scaleInterval);
+        scaleDownDelay = cfg.getLong ("scale-down-delay", scaleDownDelay);
+        targetLatency = cfg.getLong ("target-latency", 0L) * 1000000L;
+        if (elastic && scaleInterval <= 0L)
+            throw new ConfigurationException ("invalid scale-interval " + scaleInterval);
     }
     public void addListener (TransactionStatusListener l) {
         synchronized (statusListeners) {
@@ -462,52 +595,85 @@ public class TransactionManager
     protected int prepareForAbort
         (TransactionParticipant p, long id, Serializable context) 
     {
+        Span span = null;
         try {
             if (p instanceof AbortParticipant) {
                 setThreadName(id, "prepareForAbort", p);
+                span = startSpan (context, "prepareForAbort", p);
                 return ((AbortParticipant)p).prepareForAbort (id, context);
             }
         } catch (Throwable t) {
             getLog().warn ("PREPARE-FOR-ABORT: " + Long.toString (id), t);
+        } finally {
+            endSpan (context, span);
         }
         return ABORTED | NO_JOIN;
     }
     protected int prepare 
         (TransactionParticipant p, long id, Serializable context) 
     {
+        Span span = startSpan (context, "prepare", p);
         try {
             setThreadName(id, "prepare", p);
             return p.prepare (id, context);
         } catch (Throwable t) {
             getLog().warn ("PREPARE: " + Long.toString (id), t);
+        } finally {
+            endSpan (context, span);
         }
         return ABORTED;
     }
     protected void commit 
         (TransactionParticipant p, long id, Serializable context) 
     {
+        Span span = startSpan (context, "commit", p);
         try {
             setThreadName(id, "commit", p);
             p.commit(id, context);
         } catch (Throwable t) {
             getLog().warn ("COMMIT: " + Long.toString (id), t);
+        } finally {
+            endSpan (context, span);
         }
     }
     protected void abort 
         (TransactionParticipant p, long id, Serializable context) 
     {
+        Span span = startSpan (context, "abort", p);
         try {
             setThreadName(id, "abort", p);
             p.abort(id, context);
         } catch (Throwable t) {
             getLog().warn ("ABORT: " + Long.toString (id), t);
+        } finally {
+            endSpan (context, span);
+        }
+    }
+    private Span startSpan (Serializable context, String phase, TransactionParticipant p) {
+        Span parent = context instanceof Context ? ((Context) context).getSpan() : null;
+        if (parent == null)
+            return null;
+        Span span = parent.child (phase + " " + p.getClass().getName());
+        Tracer.setCurrent (span);
+        return span;
+    }
+    private void endSpan (Serializable context, Span span) {
+        if (span != null) {
+            span.finish();
+            Tracer.setCurrent (((Context) context).getSpan());
         }
     }
     protected int prepare
         (int session, long id, Serializable context, List<TransactionParticipant> members, Iterator<TransactionParticipant> iter, boolean abort, LogEvent evt, Profiler prof)
+    {
+        return prepare (session, id, context, members, iter, abort, evt, prof, null);
+    }
+    protected int prepare
+        (int session, long id, Serializable context, List<TransactionParticipant> members, Iterator<TransactionParticipant> iter, boolean abort, LogEvent evt, Profiler prof, PausedTransaction resumed)
     {
         boolean retry = false;
         boolean pause = false;
+        TransactionParticipant pending = resumed != null ? resumed.getAsyncParticipant() : null;
         for (int i=0; iter.hasNext (); i++) {
             int action;
             if (i > MAX_PARTICIPANTS) {
@@ -517,7 +683,25 @@ public class TransactionManager
                 return ABORTED;
             }
             TransactionParticipant p = iter.next();
-            if (abort) {
+            if (p == pending) {
+                Integer asyncAction = resumed.getAsyncAction();
+                action = asyncAction != null ? asyncAction : ABORTED; // expired
+                pending = null;
+                if (!abort) {
+                    abort  = (action & PREPARED) == ABORTED;
+                    retry  = (action & RETRY) == RETRY;
+                }
+                if (evt != null) {
+                    evt.addMessage ("  prepare-async: "
+                            + p.getClass().getName()
+                            + (asyncAction == null ? " EXPIRED" : "")
+                            + ((action & PREPARED) == ABORTED ? " ABORTED" : "")
+                            + ((action & READONLY) == READONLY ? " READONLY" : "")
+                            + ((action & NO_JOIN) == NO_JOIN ? " NO_JOIN" : ""));
+                    if (prof != null)
+                        prof.checkPoint ("prepare-async: " + p.getClass().getName());
+                }
+            } else if (abort) {
                 if (hasStatusListeners)
                     notifyStatusListeners (
                         session, TransactionStatusEvent.State.PREPARING_FOR_ABORT, id, p.getClass().getName(), context
@@ -525,6 +709,8 @@ public class TransactionManager
                 action = prepareForAbort (p, id, context);
                 if (evt != null && p instanceof AbortParticipant) {
                     evt.addMessage("prepareForAbort: " + p.getClass().getName());
+                    if (p instanceof ParallelGroup)
+                        evt.addMessage (((ParallelGroup) p).getSummary (id));
                     if (prof != null)
                         prof.checkPoint ("prepareForAbort: " + p.getClass().getName());
                 }
@@ -533,7 +719,24 @@ public class TransactionManager
                     notifyStatusListeners (
                         session, TransactionStatusEvent.State.PREPARING, id, p.getClass().getName(), context
                     );
-                action = prepare (p, id, context);
+                if (p instanceof AsyncTransactionParticipant) {
+                    CompletableFuture<Integer> f = prepareAsync ((AsyncTransactionParticipant) p, id, context);
+                    if (!f.isDone() && context instanceof Pausable) {
+                        List<TransactionParticipant> participants = new ArrayList();
+                        participants.add (p);
+                        while (iter.hasNext())
+                            participants.add (iter.next());
+                        pauseAsync ((Pausable) context, p, f, new PausedTransaction (
+                            this, id, members, participants.iterator(), false, null, prof
+                        ));
+                        if (evt != null)
+                            evt.addMessage ("        prepare: " + p.getClass().getName() + " ASYNC");
+                        return PAUSE;
+                    }
+                    action = getAsyncAction (f, id);
+                } else {
+                    action = prepare (p, id, context);
+                }
                 abort  = (action & PREPARED) == ABORTED;
                 retry  = (action & RETRY) == RETRY;
                 pause  = (action & PAUSE) == PAUSE;
@@ -545,6 +748,8 @@ public class TransactionManager
                             + (pause ? " PAUSE" : "")
                             + ((action & READONLY) == READONLY ? " READONLY" : "")
                             + ((action & NO_JOIN) == NO_JOIN ? " NO_JOIN" : ""));
+                    if (p instanceof ParallelGroup)
+                        evt.addMessage (((ParallelGroup) p).getSummary (id));
                     if (prof != null)
                         prof.checkPoint ("prepare: " + p.getClass().getName());
                 }
@@ -569,17 +774,12 @@ public class TransactionManager
                     evt.addMessage ("       selector: " + groupName);
                 }
                 if (groupName != null) {
-                    StringTokenizer st = new StringTokenizer (groupName, " ,");
-                    List participants = new ArrayList();
-                    while (st.hasMoreTokens ()) {
-                        String grp = st.nextToken();
-                        addGroup (id, grp);
-                        participants.addAll (getParticipants (grp));
+                    ParticipantChain chain = getParticipantChain (groupName);
+                    if (!transientState) {
+                        for (String grp : chain.groups)
+                            addGroup (id, grp);
                     }
-                    while (iter.hasNext())
-                        participants.add (iter.next());
-
-                    iter = participants.iterator();
+                    iter = chain.iterator (iter);
                     continue;
                 }
             }
@@ -614,6 +814,85 @@ public class TransactionManager
         return members.isEmpty() ? NO_JOIN :
                 abort ? retry ? RETRY : ABORTED : PREPARED;
     }
+    protected CompletableFuture<Integer> prepareAsync
+        (AsyncTransactionParticipant p, long id, Serializable context)
+    {
+        try {
+            setThreadName(id, "prepareAsync", p);
+            return p.prepareAsync (id, context).toCompletableFuture();
+        } catch (Throwable t) {
+            getLog().warn ("PREPARE: " + Long.toString (id), t);
+        }
+        return CompletableFuture.completedFuture (ABORTED);
+    }
+    protected int getAsyncAction (CompletableFuture<Integer> f, long id) {
+        try {
+            Integer action = f.join();
+            if (action != null)
+                return action & ~PAUSE;
+        } catch (Throwable t) {
+            getLog().warn ("PREPARE: " + Long.toString (id),
+              t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+        }
+        return ABORTED;
+    }
+    /**
+     * Pauses a transaction waiting for an {@link AsyncTransactionParticipant}, the
+     * context gets resumed as soon as the participant's stage completes, or when the
+     * pause timeout expires.
+     */
+    protected void pauseAsync (final Pausable pausable, TransactionParticipant p,
+                               final CompletableFuture<Integer> f, final PausedTransaction pt)
+    {
+        long t = pausable.getTimeout();
+        if (t == 0)
+            t = pauseTimeout;
+        pt.setAsyncParticipant (p);
+        pausable.setPausedTransaction (pt);
+        if (t > 0) {
+            TimerTask expirationMonitor = new PausedMonitor (pausable);
+            pt.setExpirationMonitor (expirationMonitor);
+            synchronized (pausable) {
+                if (!pt.isResumed())
+                    timer.schedule (expirationMonitor, t);
+            }
+        }
+        f.whenComplete (new BiConsumer<Integer,Throwable>() {
+            @Override
+            public void accept (Integer action, Throwable throwable) {
+                synchronized (pausable) {
+                    if (!pt.isResumed() && !pt.isAborting()) {
+                        pt.setAsyncAction (getAsyncAction (f, pt.id()));
+                        pausable.resume();
+                    }
+                }
+            }
+        });
+    }
+    /**
+     * @param selection GroupSelector's result, i.e. "group1 group2"
+     * @return immutable participant chain for the given selection, cached
+     */
+    protected ParticipantChain getParticipantChain (String selection) {
+        ParticipantChain chain = chains.get (selection);
+        if (chain == null) {
+            List<String> names = new ArrayList<String>();
+            List<TransactionParticipant> participants = new ArrayList<TransactionParticipant>();
+            StringTokenizer st = new StringTokenizer (selection, " ,");
+            while (st.hasMoreTokens ()) {
+                String grp = st.nextToken();
+                names.add (grp);
+                participants.addAll (getParticipants (grp));
+            }
+            chain = new ParticipantChain (
+                names.toArray (new String[names.size()]),
+                participants.toArray (new TransactionParticipant[participants.size()])
+            );
+            if (chains.size() < MAX_CHAINS)
+                chains.put (selection, chain);
+        }
+        return chain;
+    }
     protected List<TransactionParticipant> getParticipants (String groupName) {
         List<TransactionParticipant> participants = groups.get (groupName);
         if (participants == null)
@@ -647,6 +926,58 @@ public class TransactionManager
         }
     }
 
+    protected void initPriorities (Element config) throws ConfigurationException {
+        List<Element> l = config.getChildren ("priority");
+        if (l.isEmpty()) {
+            scheduler = null;
+            return;
+        }
+        if (!(isp instanceof TSpace))
+            throw new ConfigurationException (
+              "priorities require a transient input space, queued transactions are held in memory"
+            );
+        List<PriorityScheduler.Level> levels = new ArrayList<PriorityScheduler.Level>();
+        for (Element e : l) {
+            String name = e.getAttributeValue ("name");
+            if (name == null)
+                throw new ConfigurationException ("missing priority name");
+            String mti = e.getAttributeValue ("mti");
+            try {
+                int weight = Integer.parseInt (e.getAttributeValue ("weight", "1"));
+                if (weight <= 0)
+                    throw new ConfigurationException ("invalid weight " + weight + " for priority '" + name + "'");
+                levels.add (new PriorityScheduler.Level (
+                  name, weight, Long.parseLong (e.getAttributeValue ("max-wait", "0")),
+                  mti != null ? mti.trim().split ("[,\\s]+") : null)
+                );
+            } catch (NumberFormatException ex) {
+                throw new ConfigurationException ("priority '" + name + "'", ex);
+            }
+        }
+        scheduler = new PriorityScheduler (levels,
+          cfg.get ("priority-request", "REQUEST"),
+          cfg.get ("priority-name", "PRIORITY"),
+          cfg.get ("deadline-name", "DEADLINE")
+        );
+        dropQueue = cfg.get ("drop-queue", null);
+    }
+
+    /**
+     * Handles transactions dropped by the {@link PriorityScheduler}.
+     * They are sent to the <code>drop-queue</code>, if configured.
+     * @param expired list of dropped transactions, cleared on return
+     */
+    protected void drop (List<Object> expired) {
+        for (Object obj : expired) {
+            dropped.increment();
+            if (dropQueue != null)
+                sp.out (dropQueue, obj);
+            if (debug)
+                getLog().warn ("dropped expired transaction", obj);
+        }
+        expired.clear();
+    }
+
     protected void initParticipants (Element config) 
         throws ConfigurationException
     {
@@ -660,8 +991,35 @@ public class TransactionManager
                     "Group '" + name + "' already defined"
                 );
             }
-            groups.put (name, initGroup (e));
+            List<TransactionParticipant> group = initGroup (e);
+            if ("true".equalsIgnoreCase (e.getAttributeValue ("parallel"))) {
+                TransactionParticipant p = new ParallelGroup (
+                    this, name, group, getParallelTimeout (e), getParallelPool()
+                );
+                group = new ArrayList<TransactionParticipant>();
+                group.add (p);
+            }
+            groups.put (name, group);
+        }
+    }
+    protected long getParallelTimeout (Element e) throws ConfigurationException {
+        String s = e.getAttributeValue ("timeout");
+        try {
+            return s != null ? Long.parseLong (s.trim()) : cfg.getLong ("parallel-timeout", MAX_WAIT);
+        } catch (NumberFormatException ex) {
+            throw new ConfigurationException ("invalid timeout '" + s + "' in group " + e.getAttributeValue ("name"));
+        }
+    }
+    /**
+     * @return work-stealing pool shared by all parallel groups, created on demand
+     */
+    protected synchronized ForkJoinPool getParallelPool() {
+        if (parallelPool == null || parallelPool.isShutdown()) {
+            parallelPool = new ForkJoinPool (
+                cfg.getInt ("parallel-threads", Runtime.getRuntime().availableProcessors() * 2)
+            );
         }
+        return parallelPool;
     }
     protected List<TransactionParticipant> initGroup (Element e) 
         throws ConfigurationException
@@ -688,7 +1046,7 @@ public class TransactionManager
     @Override
     public int getOutstandingTransactions() {
         if (isp instanceof LocalSpace)
-            return ((LocalSpace)isp).size(queue);
+            return ((LocalSpace)isp).size(queue) + (scheduler != null ? scheduler.size() : 0);
         return -1;
     }
     protected String getKey (String prefix, long id) {
@@ -764,50 +1122,70 @@ public class TransactionManager
         snapshot (id, context, null);
     }
     protected void snapshot (long id, Serializable context, Integer status) {
+        if (transientState)
+            return; // nothing to recover from a transient space
         String contextKey = getKey (CONTEXT, id);
-        synchronized (psp) {
-            commitOff (psp);
-            SpaceUtil.wipe(psp, contextKey);
-            if (context != null)
-                psp.out (contextKey, context);
-
-            if (status != null) {
-                String stateKey  = getKey (STATE, id);
-                psp.put (stateKey, status);
+        SpaceBatch batch = new SpaceBatch().inpAll (contextKey, Integer.MAX_VALUE);
+        if (context != null)
+            batch.out (contextKey, compactSnapshot ? compact (context) : context);
+        if (status != null)
+            batch.put (getKey (STATE, id), status);
+        psp.execute (batch);
+    }
+    /**
+     * @param context transaction context
+     * @return {@link CompactSerializer} image of the context, or the context
+     *         itself if it can't be serialized that way
+     */
+    protected Serializable compact (Serializable context) {
+        try {
+            return CompactSerializer.serialize (context);
+        } catch (Exception e) {
+            getLog().warn ("compact-snapshot", e);
+            return context;
+        }
+    }
+    protected Serializable expand (Serializable snapshot) {
+        if (snapshot instanceof byte[] && CompactSerializer.isCompact ((byte[]) snapshot)) {
+            try {
+                return (Serializable) CompactSerializer.deserialize ((byte[]) snapshot);
+            } catch (IOException e) {
+                throw new SpaceError (e);
             }
-            commitOn (psp);
         }
+        return snapshot;
     }
     protected void setState (long id, Integer state) {
+        if (transientState)
+            return;
         String stateKey  = getKey (STATE, id);
-        synchronized (psp) {
-            commitOff (psp);
-            SpaceUtil.wipe(psp, stateKey);
-            if (state!= null)
-                psp.out (stateKey, state);
-            commitOn (psp);
-        }
+        SpaceBatch batch = new SpaceBatch().inpAll (stateKey, Integer.MAX_VALUE);
+        if (state != null)
+            batch.out (stateKey, state);
+        psp.execute (batch);
     }
     protected void addGroup (long id, String groupName) {
         if (groupName != null)
             psp.out (getKey (GROUPS, id), groupName);
     }
     protected void purge (long id, boolean full) {
+        if (transientState)
+            return; // nothing was stored
         String stateKey   = getKey (STATE, id);
         String contextKey = getKey (CONTEXT, id);
         String groupsKey  = getKey (GROUPS, id);
-        synchronized (psp) {
-            commitOff (psp);
-            if (full)
-                SpaceUtil.wipe(psp, stateKey);
-            SpaceUtil.wipe(psp, contextKey);
-            SpaceUtil.wipe(psp, groupsKey);
-            commitOn (psp);
-        }
+        SpaceBatch batch = new SpaceBatch();
+        if (full)
+            batch.inpAll (stateKey, Integer.MAX_VALUE);
+        batch.inpAll (contextKey, Integer.MAX_VALUE).inpAll (groupsKey, Integer.MAX_VALUE);
+        psp.execute (batch);
     }
 
     protected void recover () {
-        if (doRecover) {
+        if (tracker != null) {
+            tail = head;    // transient state, nothing to recover
+            tracker.setTail (tail);
+        } else if (doRecover) {
             if (tail < head) {
                 getLog().info ("recover - tail=" +tail+", head="+head);
             }
@@ -831,7 +1209,7 @@ public class TransactionManager
                 SpaceUtil.wipe (psp, contextKey);   // just in case ...
                 return;
             }
-            Serializable context = (Serializable) psp.rdp (contextKey);
+            Serializable context = expand ((Serializable) psp.rdp (contextKey));
             if (context != null)
                 evt.addMessage (context);
 
@@ -855,6 +1233,122 @@ public class TransactionManager
         }
     }
 
+    /**
+     * Moves transactions from the input queue into the {@link PriorityScheduler}.
+     */
+    protected class Dispatcher implements Runnable {
+        @Override
+        public void run() {
+            while (running()) {
+                Object obj = isp.in (queue, MAX_WAIT);
+                if (obj == Boolean.FALSE)
+                    continue;   // stopService, running() now false
+                if (obj != null) {
+                    if (obj instanceof Pausable && ((Pausable) obj).getPausedTransaction() != null)
+                        scheduler.push (obj);
+                    else
+                        scheduler.offer (obj);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scales sessions between <code>sessions</code> and <code>max-sessions</code>.
+     * <p>
+     * Every <code>scale-interval</code> it looks at the queue depth, the number
+     * of busy sessions and the average time a session spends on a transaction.
+     * Sessions are added right away when all of them are busy and either the
+     * queue is over <code>threshold</code> or latency is over
+     * <code>target-latency</code> with work still queued. Extra sessions are
+     * retired one per interval, and only after the TM has been mostly idle for
+     * <code>scale-down-delay</code> millis since the last scale up.
+     */
+    protected class SessionController extends TimerTask {
+        long lastScaleUp;
+        long idleSince;
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            long n = latencyCount.sumThenReset();
+            long sum = latencySum.sumThenReset();
+            if (n > 0)
+                avgLatency = sum / n;
+            int active = activeSessions.get() - retiring.get();
+            int busy = busySessions.get();
+            int outstanding = getOutstandingTransactions();
+            boolean saturated = busy >= active && (
+                outstanding > threshold ||
+                outstanding < 0 ||
+                targetLatency > 0L && avgLatency > targetLatency && outstanding > 0
+            );
+            if (maxActiveSessions > 0 && getInTransit() >= maxActiveSessions)
+                saturated = false; // more sessions would just hit the emergency retry
+            if (saturated && active < maxSessions) {
+                int add = Math.min (maxSessions - active, Math.max (1, outstanding - threshold));
+                for (int i=0; i<add; i++)
+                    new Thread(TransactionManager.this).start();
+                scaleUps.incrementAndGet();
+                lastScaleUp = now;
+                idleSince = 0L;
+            } else if (outstanding <= 0 && busy < (active+1)/2 && active > sessions) {
+                if (idleSince == 0L)
+                    idleSince = now;
+                if (now - idleSince >= scaleDownDelay && now - lastScaleUp >= scaleDownDelay) {
+                    retiring.incrementAndGet();
+                    scaleDowns.incrementAndGet();
+                }
+            } else {
+                idleSince = 0L;
+            }
+        }
+    }
+
+    boolean claimRetirement() {
+        for (;;) {
+            int r = retiring.get();
+            if (r <= 0)
+                return false;
+            if (retiring.compareAndSet (r, r-1))
+                return true;
+        }
+    }
+
+    /**
+     * Participants selected by a GroupSelector result, compiled once.
+     */
+    protected static class ParticipantChain {
+        final String[] groups;
+        final TransactionParticipant[] participants;
+        ParticipantChain (String[] groups, TransactionParticipant[] participants) {
+            this.groups = groups;
+            this.participants = participants;
+        }
+        /**
+         * @param rest participants still to be called
+         * @return iterator over this chain's participants followed by rest
+         */
+        Iterator<TransactionParticipant> iterator (final Iterator<TransactionParticipant> rest) {
+            if (participants.length == 0)
+                return rest;
+            return new Iterator<TransactionParticipant>() {
+                int i;
+                @Override
+                public boolean hasNext() {
+                    return i < participants.length || rest.hasNext();
+                }
+                @Override
+                public TransactionParticipant next() {
+                    return i < participants.length ? participants[i++] : rest.next();
+                }
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
     public static class PausedMonitor extends TimerTask {
         Pausable context;
         public PausedMonitor (Pausable context) {
@@ -864,8 +1358,13 @@ public class TransactionManager
         @Override
         public void run() {
             cancel();
-            context.getPausedTransaction().forceAbort();
-            context.resume();
+            synchronized (context) {
+                PausedTransaction pt = context.getPausedTransaction();
+                if (pt != null && pt.isResumed())
+                    return; // too late, i.e. async participant just completed
+                pt.forceAbort();
+                context.resume();
+            }
         }
     }
 
@@ -898,8 +1397,48 @@ public class TransactionManager
     public int getActiveSessions() {
         return activeSessions.intValue();
     }
+
+    @Override
+    public int getBusySessions() {
+        return busySessions.intValue();
+    }
+
+    @Override
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    @Override
+    public boolean isElastic() {
+        return elastic;
+    }
+
+    @Override
+    public float getAvgLatency() {
+        return avgLatency / 1000000f;
+    }
+
+    @Override
+    public long getScaleUps() {
+        return scaleUps.get();
+    }
+
+    @Override
+    public long getScaleDowns() {
+        return scaleDowns.get();
+    }
+
+    @Override
+    public long getDroppedTransactions() {
+        return dropped.sum();
+    }
+
+    @Override
+    public String getPriorityQueues() {
+        return scheduler != null ? scheduler.getQueueSizes() : "";
+    }
     public int getRunningSessions() {
-        return (int) (head - tail);
+        return (int) getInTransit();
     }
 
     public static Serializable getSerializable() {
@@ -926,11 +1465,11 @@ public class TransactionManager
             String.format("%s:%d %s %s", getName(), id, method, p.getClass().getName())
         );
     }
-    private void setThreadLocal (long id, Serializable context) {
+    void setThreadLocal (long id, Serializable context) {
         tlId.set(id);
         tlContext.set(context);
     }
-    private void removeThreadLocal() {
+    void removeThreadLocal() {
         tlId.remove();
         tlContext.remove();
     }
@@ -29,6 +29,14 @@ public interface TransactionManagerMBean extends QBeanSupportMBean {
     boolean getDebug();
     int getOutstandingTransactions();
     int getActiveSessions();
+    int getBusySessions();
+    int getMaxSessions();
+    boolean isElastic();
+    float getAvgLatency();
+    long getScaleUps();
+    long getScaleDowns();
+    long getDroppedTransactions();
+    String getPriorityQueues();
     String getTPSAsString();
     float getTPSAvg();
     int getTPSPeak();
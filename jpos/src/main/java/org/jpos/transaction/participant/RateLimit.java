@@ -0,0 +1,115 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction.participant;
+
+import org.jpos.core.Configurable;
+import org.jpos.core.Configuration;
+import org.jpos.core.ConfigurationException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.TransactionParticipant;
+import org.jpos.util.DefaultTimer;
+import org.jpos.util.RateLimiter;
+
+import java.io.Serializable;
+import java.util.TimerTask;
+
+/**
+ * Rate limits transactions per key (terminal, BIN, MTI...) taken from
+ * the ISOMsg found in the Context.
+ * <p>
+ * Transactions over the rate are aborted (the 'result' Context entry
+ * is set to 'rate-limited' so later participants can build a proper
+ * response), unless <code>on-limit=delay</code> and the slot is less than
+ * <code>max-delay</code> millis away, in which case the transaction is
+ * PAUSEd and resumed once the slot is due, so the session thread is free
+ * to process other transactions meanwhile. The TransactionManager's
+ * <code>pause-timeout</code>, if any, should be larger than <code>max-delay</code>.
+ *
+ * @see RateLimiter
+ * @see org.jpos.iso.filter.RateLimitFilter
+ */
+public class RateLimit implements TransactionParticipant, Configurable {
+    public static final String RATE_LIMITED = "rate-limited";
+    RateLimiter limiter;
+    String request;
+    String result;
+    int[] keyFields;
+    int keyLength;
+    boolean delay;
+    long maxDelay;
+
+    public int prepare (long id, Serializable o) {
+        Context ctx = (Context) o;
+        Object m = ctx.get (request);
+        String key = m instanceof ISOMsg ?
+          RateLimiter.getKey ((ISOMsg) m, keyFields, keyLength) : RateLimiter.DEFAULT_KEY;
+        long wait = limiter.reserve (key, maxDelay);
+        if (wait < 0L) {
+            ctx.put (result, RATE_LIMITED);
+            ctx.log ("rate limit exceeded, key='" + key + "'");
+            return ABORTED | NO_JOIN | READONLY;
+        }
+        if (wait > 0L) {
+            final Context pausable = ctx;
+            DefaultTimer.getTimer().schedule (
+                new TimerTask() {
+                    @Override
+                    public void run() {
+                        pausable.resume();
+                    }
+                }, wait
+            );
+            return PREPARED | NO_JOIN | READONLY | PAUSE;
+        }
+        return PREPARED | NO_JOIN | READONLY;
+    }
+    public void commit (long id, Serializable o) { }
+    public void abort  (long id, Serializable o) { }
+
+   /**
+    * @param cfg
+    * <ul>
+    *  <li>rate - transactions per period</li>
+    *  <li>period - in millis, defaults to 1000</li>
+    *  <li>burst - defaults to rate</li>
+    *  <li>request - Context entry holding the ISOMsg, defaults to REQUEST</li>
+    *  <li>result - Context entry set to 'rate-limited' on abort, defaults to RESULT</li>
+    *  <li>key-fields - field making up the key, may be repeated, global limit if not present</li>
+    *  <li>key-length - max length of every key field</li>
+    *  <li>on-limit - reject (default) or delay</li>
+    *  <li>max-delay - longest acceptable delay in millis, when on-limit=delay</li>
+    *  <li>max-keys - number of keys that triggers a purge of idle ones, defaults to 10000</li>
+    * </ul>
+    */
+    public void setConfiguration (Configuration cfg) throws ConfigurationException {
+        int rate = cfg.getInt ("rate");
+        if (rate <= 0)
+            throw new ConfigurationException ("Invalid rate " + rate);
+        limiter = new RateLimiter (
+            rate, cfg.getLong ("period", 1000L), cfg.getInt ("burst", rate), cfg.getInt ("max-keys", 10000)
+        );
+        request = cfg.get ("request", "REQUEST");
+        result = cfg.get ("result", "RESULT");
+        keyFields = cfg.getInts ("key-fields");
+        keyLength = cfg.getInt ("key-length");
+        delay = "delay".equals (cfg.get ("on-limit", "reject"));
+        maxDelay = delay ? cfg.getLong ("max-delay", 1000L) : 0L;
+    }
+}
@@ -0,0 +1,401 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import org.jpos.iso.ISOBinaryField;
+import org.jpos.iso.ISOComponent;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOField;
+import org.jpos.iso.ISOHeader;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOPackager;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.ContextKey;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary serializer for the objects usually found in a
+ * transaction {@link Context} (ISOMsgs, Strings, numbers, dates and
+ * byte arrays).
+ * <p>
+ * Every value is written as a one byte tag followed by a type specific
+ * encoding (variable length integers, ASCII strings written as such,
+ * ISOMsg fields as number/value pairs), so there are no class descriptors
+ * and no per-object handles involved. Objects with no registered codec
+ * fall back to Java serialization.
+ * <p>
+ * Streams produced by {@link #serialize(Object)} start with a magic byte
+ * and a version number. Applications can register their own codecs using
+ * tags from {@link #MIN_USER_TAG} to {@link #MAX_USER_TAG}; tags below that
+ * range are reserved for jPOS.
+ */
+@SuppressWarnings("unchecked")
+public class CompactSerializer {
+    public static final byte MAGIC   = (byte) 0xC5;
+    public static final byte VERSION = 1;
+    public static final int MIN_USER_TAG = 64;
+    public static final int MAX_USER_TAG = 126;
+
+    private static final int NULL         = 0;
+    private static final int STRING       = 1;
+    private static final int LONG         = 2;
+    private static final int INTEGER      = 3;
+    private static final int BOOLEAN      = 4;
+    private static final int BIG_DECIMAL  = 5;
+    private static final int DATE         = 6;
+    private static final int BYTES        = 7;
+    private static final int ISOMSG       = 8;
+    private static final int CONTEXT      = 9;
+    private static final int CONTEXT_KEY  = 10;
+    private static final int SHORT        = 11;
+    private static final int JAVA         = 127;
+
+    private static final Codec[] codecs = new Codec[128];
+    private static final Map<Class,Integer> tags = new ConcurrentHashMap<Class,Integer>();
+
+    /**
+     * Writes and reads values of a given type.
+     * @param <T> value type
+     */
+    public interface Codec<T> {
+        void write (DataOutput out, T value) throws IOException;
+        T read (DataInput in) throws IOException;
+    }
+
+    static {
+        register0 (STRING, String.class, new Codec<String>() {
+            public void write (DataOutput out, String s) throws IOException {
+                writeString (out, s);
+            }
+            public String read (DataInput in) throws IOException {
+                return readString (in);
+            }
+        });
+        register0 (LONG, Long.class, new Codec<Long>() {
+            public void write (DataOutput out, Long l) throws IOException {
+                writeVarLong (out, l << 1 ^ l >> 63);
+            }
+            public Long read (DataInput in) throws IOException {
+                long l = readVarLong (in);
+                return l >>> 1 ^ -(l & 1);
+            }
+        });
+        register0 (INTEGER, Integer.class, new Codec<Integer>() {
+            public void write (DataOutput out, Integer i) throws IOException {
+                writeVarLong (out, (i << 1 ^ i >> 31) & 0xFFFFFFFFL);
+            }
+            public Integer read (DataInput in) throws IOException {
+                int i = (int) readVarLong (in);
+                return i >>> 1 ^ -(i & 1);
+            }
+        });
+        register0 (SHORT, Short.class, new Codec<Short>() {
+            public void write (DataOutput out, Short s) throws IOException {
+                out.writeShort (s);
+            }
+            public Short read (DataInput in) throws IOException {
+                return in.readShort();
+            }
+        });
+        register0 (BOOLEAN, Boolean.class, new Codec<Boolean>() {
+            public void write (DataOutput out, Boolean b) throws IOException {
+                out.writeBoolean (b);
+            }
+            public Boolean read (DataInput in) throws IOException {
+                return in.readBoolean();
+            }
+        });
+        register0 (BIG_DECIMAL, BigDecimal.class, new Codec<BigDecimal>() {
+            public void write (DataOutput out, BigDecimal d) throws IOException {
+                writeVarLong (out, (d.scale() << 1 ^ d.scale() >> 31) & 0xFFFFFFFFL);
+                writeBytes (out, d.unscaledValue().toByteArray());
+            }
+            public BigDecimal read (DataInput in) throws IOException {
+                int scale = (int) readVarLong (in);
+                return new BigDecimal (new BigInteger (readBytes (in)), scale >>> 1 ^ -(scale & 1));
+            }
+        });
+        register0 (DATE, Date.class, new Codec<Date>() {
+            public void write (DataOutput out, Date d) throws IOException {
+                out.writeLong (d.getTime());
+            }
+            public Date read (DataInput in) throws IOException {
+                return new Date (in.readLong());
+            }
+        });
+        register0 (BYTES, byte[].class, new Codec<byte[]>() {
+            public void write (DataOutput out, byte[] b) throws IOException {
+                writeBytes (out, b);
+            }
+            public byte[] read (DataInput in) throws IOException {
+                return readBytes (in);
+            }
+        });
+        register0 (ISOMSG, ISOMsg.class, new Codec<ISOMsg>() {
+            public void write (DataOutput out, ISOMsg m) throws IOException {
+                writeISOMsg (out, m);
+            }
+            public ISOMsg read (DataInput in) throws IOException {
+                return readISOMsg (in, new ISOMsg());
+            }
+        });
+        register0 (CONTEXT, Context.class, new Codec<Context>() {
+            public void write (DataOutput out, Context ctx) throws IOException {
+                ctx.writeCompact (out);
+            }
+            public Context read (DataInput in) throws IOException {
+                Context ctx = new Context();
+                ctx.readCompact (in);
+                return ctx;
+            }
+        });
+        register0 (CONTEXT_KEY, ContextKey.class, new Codec<ContextKey>() {
+            public void write (DataOutput out, ContextKey k) throws IOException {
+                writeString (out, k.name());
+            }
+            public ContextKey read (DataInput in) throws IOException {
+                return ContextKey.of (readString (in));
+            }
+        });
+    }
+
+    /**
+     * Registers an application codec
+     * @param tag from MIN_USER_TAG to MAX_USER_TAG, part of the serialized form, so it can't change
+     * @param type the exact class handled by this codec (subclasses are not)
+     * @param codec the codec
+     */
+    public static synchronized <T> void register (int tag, Class<T> type, Codec<T> codec) {
+        if (tag < MIN_USER_TAG || tag > MAX_USER_TAG)
+            throw new IllegalArgumentException ("invalid tag " + tag);
+        if (codecs[tag] != null)
+            throw new IllegalArgumentException ("tag " + tag + " already registered");
+        register0 (tag, type, codec);
+    }
+
+    public static byte[] serialize (Object obj) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream (baos);
+        out.writeByte (MAGIC);
+        out.writeByte (VERSION);
+        writeObject (out, obj);
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    public static Object deserialize (byte[] b) throws IOException {
+        DataInputStream in = new DataInputStream (new ByteArrayInputStream (b));
+        if (in.readByte() != MAGIC)
+            throw new StreamCorruptedException ("invalid magic");
+        int version = in.readByte();
+        if (version != VERSION)
+            throw new InvalidClassException ("unsupported version " + version);
+        return readObject (in);
+    }
+
+    /**
+     * @param b image
+     * @return true if b looks like the output of {@link #serialize(Object)}
+     */
+    public static boolean isCompact (byte[] b) {
+        return b != null && b.length > 2 && b[0] == MAGIC && b[1] == VERSION;
+    }
+
+    public static void writeObject (DataOutput out, Object obj) throws IOException {
+        if (obj == null) {
+            out.writeByte (NULL);
+            return;
+        }
+        Integer tag = tags.get (obj.getClass());
+        if (tag != null) {
+            out.writeByte (tag);
+            codecs[tag].write (out, obj);
+        } else {
+            out.writeByte (JAVA);
+            writeBytes (out, Serializer.serialize (obj));
+        }
+    }
+
+    public static Object readObject (DataInput in) throws IOException {
+        int tag = in.readByte();
+        if (tag == NULL)
+            return null;
+        if (tag == JAVA) {
+            try {
+                return Serializer.deserialize (readBytes (in));
+            } catch (ClassNotFoundException e) {
+                throw new InvalidClassException (e.getMessage());
+            }
+        }
+        Codec codec = tag > 0 ? codecs[tag] : null;
+        if (codec == null)
+            throw new StreamCorruptedException ("unknown tag " + tag);
+        return codec.read (in);
+    }
+
+    public static void writeVarLong (DataOutput out, long l) throws IOException {
+        while ((l & ~0x7FL) != 0) {
+            out.writeByte ((int) (l & 0x7F | 0x80));
+            l >>>= 7;
+        }
+        out.writeByte ((int) l);
+    }
+
+    public static long readVarLong (DataInput in) throws IOException {
+        long l = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            l |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return l;
+        }
+        throw new StreamCorruptedException ("malformed varint");
+    }
+
+    /**
+     * Strings made of 7-bit chars (most ISO-8583 data) are written one byte
+     * per char, the rest as UTF-8. The length's low bit tells them apart.
+     */
+    public static void writeString (DataOutput out, String s) throws IOException {
+        int len = s.length();
+        boolean ascii = true;
+        for (int i=0; i<len && ascii; i++)
+            ascii = s.charAt(i) < 0x80;
+        if (ascii) {
+            writeVarLong (out, (long) len << 1);
+            out.writeBytes (s);
+        } else {
+            byte[] b = s.getBytes (StandardCharsets.UTF_8);
+            writeVarLong (out, (long) b.length << 1 | 1);
+            out.write (b);
+        }
+    }
+
+    public static String readString (DataInput in) throws IOException {
+        long l = readVarLong (in);
+        byte[] b = new byte[checkLength (l >>> 1)];
+        in.readFully (b);
+        return (l & 1) == 0 ?
+          new String (b, StandardCharsets.ISO_8859_1) : new String (b, StandardCharsets.UTF_8);
+    }
+
+    public static void writeBytes (DataOutput out, byte[] b) throws IOException {
+        writeVarLong (out, b.length);
+        out.write (b);
+    }
+
+    public static byte[] readBytes (DataInput in) throws IOException {
+        byte[] b = new byte[checkLength (readVarLong (in))];
+        in.readFully (b);
+        return b;
+    }
+
+    private static void writeISOMsg (DataOutput out, ISOMsg m) throws IOException {
+        writeVarLong (out, m.getFieldNumber() & 0xFFFFFFFFL);
+        int flags = (m.getDirection() & 0x03)
+          | (m.getISOHeader() != null ? 0x04 : 0)
+          | (m.getPackager() != null ? 0x08 : 0);
+        out.writeByte (flags);
+        if (m.getISOHeader() != null)
+            writeBytes (out, m.getHeader());
+        if (m.getPackager() != null)
+            writeString (out, m.getPackager().getClass().getName());
+        Map children = m.getChildren();
+        for (Object o : children.values()) {
+            ISOComponent c = (ISOComponent) o;
+            try {
+                if (c.getClass() == ISOMsg.class) {
+                    out.writeByte ('M');
+                    writeISOMsg (out, (ISOMsg) c);
+                } else if (c.getClass() == ISOField.class) {
+                    out.writeByte ('F');
+                    writeVarLong (out, ((Integer) c.getKey()) & 0xFFFFFFFFL);
+                    writeString (out, (String) c.getValue());
+                } else if (c.getClass() == ISOBinaryField.class) {
+                    out.writeByte ('B');
+                    writeVarLong (out, ((Integer) c.getKey()) & 0xFFFFFFFFL);
+                    writeBytes (out, c.getBytes());
+                } else if (c instanceof Serializable && !"org.jpos.iso.ISOBitMap".equals (c.getClass().getName())) {
+                    out.writeByte ('O');
+                    writeBytes (out, Serializer.serialize (c));
+                }
+            } catch (ISOException e) {
+                throw new NotSerializableException (e.getMessage());
+            }
+        }
+        out.writeByte ('E');
+    }
+
+    private static ISOMsg readISOMsg (DataInput in, ISOMsg m) throws IOException {
+        m.setFieldNumber ((int) readVarLong (in));
+        int flags = in.readByte();
+        m.setDirection (flags & 0x03);
+        if ((flags & 0x04) != 0)
+            m.setHeader (readBytes (in));
+        if ((flags & 0x08) != 0) {
+            String packager = readString (in);
+            try {
+                m.setPackager ((ISOPackager) Class.forName (packager).getDeclaredConstructor().newInstance());
+            } catch (Exception ignored) {
+                // same as ISOMsg.readPackager
+            }
+        }
+        try {
+            for (byte type; (type = in.readByte()) != 'E'; ) {
+                switch (type) {
+                    case 'M':
+                        m.set (readISOMsg (in, new ISOMsg()));
+                        break;
+                    case 'F':
+                        m.set (new ISOField ((int) readVarLong (in), readString (in)));
+                        break;
+                    case 'B':
+                        m.set (new ISOBinaryField ((int) readVarLong (in), readBytes (in)));
+                        break;
+                    case 'O':
+                        m.set ((ISOComponent) Serializer.deserialize (readBytes (in)));
+                        break;
+                    default:
+                        throw new StreamCorruptedException ("malformed ISOMsg");
+                }
+            }
+        } catch (ISOException | ClassNotFoundException e) {
+            throw new InvalidObjectException (e.getMessage());
+        }
+        return m;
+    }
+
+    private static int checkLength (long len) throws StreamCorruptedException {
+        if (len < 0 || len > Integer.MAX_VALUE - 8)
+            throw new StreamCorruptedException ("invalid length " + len);
+        return (int) len;
+    }
+
+    private static void register0 (int tag, Class type, Codec codec) {
+        codecs[tag] = codec;
+        tags.put (type, tag);
+    }
+}
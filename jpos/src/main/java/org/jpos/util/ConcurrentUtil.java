@@ -18,6 +18,7 @@
 
 package org.jpos.util;
 
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
@@ -36,4 +37,19 @@ public class ConcurrentUtil {
         stpe.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
         return stpe;
     }
+
+    /**
+     * @param name thread name
+     * @return single daemon thread executor
+     */
+    public static ExecutorService newSingleThreadExecutor(final String name) {
+        return Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
 }
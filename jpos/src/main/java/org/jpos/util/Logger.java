@@ -109,7 +109,11 @@ public class Logger implements LogProducer {
      * @return logger instance with given name. Creates one if necessary
      * @see NameRegistrar
      */
-    public synchronized static Logger getLogger (String name) {
+    public static Logger getLogger (String name) {
+        Logger l = (Logger) NameRegistrar.getIfExists (NRPREFIX+name);
+        return l != null ? l : createLogger (name);
+    }
+    private synchronized static Logger createLogger (String name) {
         Logger l;
         try {
             l = (Logger) NameRegistrar.get (NRPREFIX+name);
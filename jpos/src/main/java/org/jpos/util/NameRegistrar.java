@@ -24,9 +24,17 @@ import org.jpos.space.TSpace;
 import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Allow runtime binding of jPOS's components (ISOChannels, Logger, MUXes, etc)
+ * <p>
+ * Lookups don't take any lock. Components resolved on every transaction can
+ * hold a typed {@link Handle}, which always points to the object currently
+ * registered under its key (so it remains valid across redeploys) and costs a
+ * volatile read to resolve.
  * 
  * @author <a href="mailto:apr@cs.com.uy">Alejandro P. Revilla</a>
  * @version $Revision$ $Date$
@@ -34,6 +42,8 @@ import java.util.Map;
 public class NameRegistrar implements Loggeable {
     private static final NameRegistrar instance = new NameRegistrar();
     private static final TSpace<String, Object> sp = new TSpace<String,Object>();
+    private static final ConcurrentMap<String,Object> registry = new ConcurrentHashMap<String,Object>();
+    private static final ConcurrentMap<String,Slot> slots = new ConcurrentHashMap<String,Slot>();
 
     public static class NotFoundException extends Exception {
         private static final long serialVersionUID = 8744022794646381475L;
@@ -51,6 +61,12 @@ public class NameRegistrar implements Loggeable {
         super();
     }
 
+    /**
+     * @return space mirroring the registrar's entries
+     * @deprecated lookups don't go through this space, entries placed
+     * directly in it are not visible to {@link #get(String)}
+     */
+    @Deprecated
     public static TSpace<String, Object> getSpace() {
         return sp;
     }
@@ -59,13 +75,7 @@ public class NameRegistrar implements Loggeable {
      * @return a copy of the NameRegistrar's entries as a Map
      */
     public static Map<String,Object> getAsMap() {
-        Map<String,Object> map = new HashMap<String,Object>();
-        for (String k : sp.getKeySet()) {
-            Object v  = sp.rdp(k);
-            if (v != null)
-                map.put(k,v);
-        }
-        return map;
+        return new HashMap<String,Object>(registry);
     }
 
     /**
@@ -84,7 +94,13 @@ public class NameRegistrar implements Loggeable {
      *            - value to be associated with the specified key
      */
     public static void register(String key, Object value) {
-        sp.put(key, value);
+        synchronized (sp) {
+            registry.put(key, value);
+            Slot slot = slots.get(key);
+            if (slot != null)
+                slot.value = value;
+            sp.put(key, value);
+        }
     }
 
     /**
@@ -92,7 +108,13 @@ public class NameRegistrar implements Loggeable {
      *            key whose mapping is to be removed from registrar.
      */
     public static void unregister(String key) {
-        SpaceUtil.wipe(sp, key);
+        synchronized (sp) {
+            registry.remove(key);
+            Slot slot = slots.get(key);
+            if (slot != null)
+                slot.value = null;
+            SpaceUtil.wipe(sp, key);
+        }
     }
 
     /**
@@ -102,15 +124,23 @@ public class NameRegistrar implements Loggeable {
      *             if key not present in registrar
      */
     public static Object get(String key) throws NotFoundException {
-        Object obj = sp.rdp(key);
+        Object obj = registry.get(key);
         if (obj == null) {
             throw new NotFoundException(key);
         }
         return obj;
     }
 
+    /**
+     * @param key
+     *            key whose associated value is to be returned.
+     * @param timeout
+     *            max time to wait for the key to be registered, in millis
+     * @return value or null if not registered before the timeout
+     */
     public static Object get(String key, long timeout) {
-        return sp.rd (key, timeout);
+        Object obj = registry.get(key);
+        return obj != null ? obj : sp.rd (key, timeout);
     }
 
     /**
@@ -118,7 +148,33 @@ public class NameRegistrar implements Loggeable {
      *            key whose associated value is to be returned, null if not present.
      */
     public static Object getIfExists(String key) {
-        return sp.rdp(key);
+        return registry.get(key);
+    }
+
+    /**
+     * Typed handle to a registrar entry.
+     * <pre>
+     *   private static final NameRegistrar.Handle&lt;MUX&gt; mux = NameRegistrar.handle ("mux.x", MUX.class);
+     *   ...
+     *   ISOMsg resp = mux.get().request (m, 30000L);
+     * </pre>
+     * @param key entry name
+     * @param type expected type
+     * @param <T> value type
+     * @return handle resolving to whatever is registered under <code>key</code> at the time of the call
+     */
+    public static <T> Handle<T> handle(String key, Class<T> type) {
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            synchronized (sp) {
+                slot = slots.get(key);
+                if (slot == null) {
+                    slot = new Slot(registry.get(key));
+                    slots.put(key, slot);
+                }
+            }
+        }
+        return new Handle<T>(key, type, slot);
     }
 
     public void dump(PrintStream p, String indent) {
@@ -128,8 +184,10 @@ public class NameRegistrar implements Loggeable {
     public void dump(PrintStream p, String indent, boolean detail) {
         String inner = indent + "  ";
         p.println(indent + "name-registrar:");
-        for (String key : sp.getKeySet()) {
-            Object obj = sp.rdp(key);
+        for (String key : new TreeSet<String>(registry.keySet())) {
+            Object obj = registry.get(key);
+            if (obj == null)
+                continue;
             String objectClassName = obj == null ? "<NULL>" : obj.getClass().getName();
             p.println(inner + key + ": " + objectClassName);
             if (detail && obj instanceof Loggeable) {
@@ -137,4 +195,65 @@ public class NameRegistrar implements Loggeable {
             }
         }
     }
+
+    private static class Slot {
+        volatile Object value;
+        Slot(Object value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * @see NameRegistrar#handle(String, Class)
+     * @param <T> value type
+     */
+    public static class Handle<T> {
+        private final String key;
+        private final Class<T> type;
+        private final Slot slot;
+
+        private Handle(String key, Class<T> type, Slot slot) {
+            this.key = key;
+            this.type = type;
+            this.slot = slot;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return currently registered value
+         * @throws NotFoundException if nothing is registered under this handle's key
+         * @throws ClassCastException if the registered value is not of the handle's type
+         */
+        public T get() throws NotFoundException {
+            Object obj = slot.value;
+            if (obj == null)
+                throw new NotFoundException(key);
+            return type.cast(obj);
+        }
+
+        /**
+         * @return currently registered value or null
+         * @throws ClassCastException if the registered value is not of the handle's type
+         */
+        public T getIfExists() {
+            return type.cast(slot.value);
+        }
+
+        /**
+         * @param timeout max time to wait for the key to be registered, in millis
+         * @return registered value or null
+         */
+        public T get(long timeout) {
+            Object obj = slot.value;
+            return type.cast(obj != null ? obj : NameRegistrar.get(key, timeout));
+        }
+
+        @Override
+        public String toString() {
+            return "Handle[" + key + "]";
+        }
+    }
 }
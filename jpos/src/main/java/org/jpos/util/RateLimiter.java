@@ -0,0 +1,163 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import org.jpos.iso.ISOMsg;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free, per-key rate limiter based on the Generic Cell Rate
+ * Algorithm (GCRA, a token bucket expressed as a single timestamp).
+ * <p>
+ * Every key (a terminal id, a BIN, an MTI, ...) allows <code>rate</code>
+ * transactions per <code>period</code>, with bursts of up to
+ * <code>burst</code> back-to-back transactions. State per key is a single
+ * AtomicLong updated with CAS, nothing ever blocks or sleeps.
+ * <p>
+ * Unlike {@link ThroughputControl}, callers decide what to do when the
+ * limit is hit: {@link #tryAcquire(String)} rejects, while
+ * {@link #reserve(String, long)} returns how long the caller should
+ * delay the transaction.
+ */
+public class RateLimiter {
+    public static final String DEFAULT_KEY = "";
+    private final long interval;
+    private final long tolerance;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String,AtomicLong> tats = new ConcurrentHashMap<String,AtomicLong>();
+
+    /**
+     * @param rate transactions allowed per period
+     * @param periodInMillis ditto
+     */
+    public RateLimiter (int rate, long periodInMillis) {
+        this (rate, periodInMillis, rate, 10000);
+    }
+
+    /**
+     * @param rate transactions allowed per period
+     * @param periodInMillis ditto
+     * @param burst transactions that can be accepted back to back
+     * @param maxKeys number of tracked keys that triggers a purge of idle ones
+     */
+    public RateLimiter (int rate, long periodInMillis, int burst, int maxKeys) {
+        if (rate <= 0 || periodInMillis <= 0)
+            throw new IllegalArgumentException ("invalid rate " + rate + "/" + periodInMillis + "ms");
+        this.interval  = Math.max (TimeUnit.MILLISECONDS.toNanos (periodInMillis) / rate, 1L);
+        this.tolerance = interval * Math.max (burst, 1);
+        this.maxKeys   = maxKeys;
+    }
+
+    /**
+     * @param key rate limiting key
+     * @return true if the transaction is within limits
+     */
+    public boolean tryAcquire (String key) {
+        return reserve (key, 0L) == 0L;
+    }
+
+    /**
+     * Reserves a slot for <code>key</code> if it is available within
+     * <code>maxDelay</code>.
+     *
+     * @param key rate limiting key
+     * @param maxDelay max acceptable delay, in millis
+     * @return 0 if the transaction can proceed right away, the delay
+     * (in millis) the caller has to wait before proceeding, or -1 if the
+     * slot is further than maxDelay away (nothing is reserved in that case).
+     */
+    public long reserve (String key, long maxDelay) {
+        long now = System.nanoTime();
+        AtomicLong tat = tat (key != null ? key : DEFAULT_KEY, now);
+        long limit = tolerance + TimeUnit.MILLISECONDS.toNanos (Math.max (maxDelay, 0L));
+        for (;;) {
+            long t = tat.get();
+            long start = t - now > 0 ? t : now;
+            long next = start + interval;
+            if (next - now > limit)
+                return -1L;
+            if (tat.compareAndSet (t, next)) {
+                long wait = next - now - tolerance;
+                return wait > 0 ? Math.max (TimeUnit.NANOSECONDS.toMillis (wait), 1L) : 0L;
+            }
+        }
+    }
+
+    /**
+     * @return number of keys currently tracked
+     */
+    public int size() {
+        return tats.size();
+    }
+
+    /**
+     * Forgets keys whose bucket is full again (idle keys behave exactly
+     * as unknown ones).
+     */
+    public void purge() {
+        long now = System.nanoTime();
+        Iterator<AtomicLong> iter = tats.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().get() - now <= 0)
+                iter.remove();
+        }
+    }
+
+    /**
+     * Builds a rate limiting key out of an ISOMsg's fields.
+     * <p>
+     * e.g. fields {41} limits per terminal, {2} with length 6 per BIN,
+     * {0} per MTI.
+     *
+     * @param m the message
+     * @param fields fields to concatenate
+     * @param length max length of each field value (0 means no limit)
+     * @return the key
+     */
+    public static String getKey (ISOMsg m, int[] fields, int length) {
+        if (fields == null || fields.length == 0)
+            return DEFAULT_KEY;
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<fields.length; i++) {
+            if (i > 0)
+                sb.append ('.');
+            String s = m.getString (fields[i]);
+            if (s != null)
+                sb.append (length > 0 && s.length() > length ? s.substring (0, length) : s);
+        }
+        return sb.toString();
+    }
+
+    private AtomicLong tat (String key, long now) {
+        AtomicLong tat = tats.get (key);
+        if (tat == null) {
+            if (tats.size() >= maxKeys)
+                purge();
+            tat = new AtomicLong (now);
+            AtomicLong t = tats.putIfAbsent (key, tat);
+            if (t != null)
+                tat = t;
+        }
+        return tat;
+    }
+}
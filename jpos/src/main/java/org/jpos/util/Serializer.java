@@ -27,7 +27,17 @@ public class Serializer {
         os.writeObject(obj);
         return baos.toByteArray();
     }
+    /**
+     * @param obj object to serialize
+     * @return {@link CompactSerializer} image, understood by {@link #deserialize(byte[])}
+     * @throws IOException on error
+     */
+    public static byte[] serializeCompact (Object obj) throws IOException {
+        return CompactSerializer.serialize (obj);
+    }
     public static Object deserialize (byte[] b) throws IOException, ClassNotFoundException {
+        if (CompactSerializer.isCompact (b))
+            return CompactSerializer.deserialize (b);
         ByteArrayInputStream bais = new ByteArrayInputStream(b);
         ObjectInputStream is = new ObjectInputStream(bais);
         return is.readObject();
@@ -0,0 +1,121 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A timed unit of work (receiving a message, running a transaction,
+ * calling a participant, waiting for a MUX response) that belongs to a
+ * trace.
+ * <p>
+ * Spans are created by {@link Tracer#startTrace(String, long)} for
+ * sampled messages and by {@link #child(String)} along the way, and are
+ * handed to the {@link Tracer}'s {@link SpanExporter} when finished.
+ *
+ * @see Tracer
+ */
+public class Span implements Loggeable {
+    private static final AtomicLongFieldUpdater<Span> END
+      = AtomicLongFieldUpdater.newUpdater (Span.class, "end");
+    private final long traceId;
+    private final long spanId;
+    private final long parentId;
+    private final String name;
+    private final long startMillis;
+    private final long start;
+    private volatile long end;
+
+    Span (long traceId, long parentId, String name, long start) {
+        this.traceId = traceId;
+        this.spanId = ThreadLocalRandom.current().nextLong();
+        this.parentId = parentId;
+        this.name = name;
+        this.start = start;
+        this.startMillis = System.currentTimeMillis() - (System.nanoTime() - start) / 1000000L;
+    }
+
+    /**
+     * @param name child span name
+     * @return a new span, started now, in this span's trace
+     */
+    public Span child (String name) {
+        return new Span (traceId, spanId, name, System.nanoTime());
+    }
+
+    /**
+     * Stops the clock and exports this span. Only the first call has effect,
+     * even when several threads race to finish the span.
+     */
+    public void finish() {
+        if (END.compareAndSet (this, 0L, System.nanoTime()))
+            Tracer.export (this);
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+    public long getSpanId() {
+        return spanId;
+    }
+    /**
+     * @return parent span id, 0 for root spans
+     */
+    public long getParentId() {
+        return parentId;
+    }
+    public String getName() {
+        return name;
+    }
+    /**
+     * @return start time, in millis since the epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+    /**
+     * @return duration in nanos, -1 if not finished
+     */
+    public long getDuration() {
+        long e = end;
+        return e != 0L ? e - start : -1L;
+    }
+    public boolean isFinished() {
+        return end != 0L;
+    }
+
+    @Override
+    public String toString() {
+        return String.format ("%016x:%016x %s", traceId, spanId, name);
+    }
+
+    public void dump (PrintStream p, String indent) {
+        StringBuilder sb = new StringBuilder (indent);
+        sb.append ("<span trace=\"").append (String.format ("%016x", traceId));
+        sb.append ("\" id=\"").append (String.format ("%016x", spanId));
+        if (parentId != 0L)
+            sb.append ("\" parent=\"").append (String.format ("%016x", parentId));
+        sb.append ("\" name=\"").append (name);
+        sb.append ("\" start=\"").append (startMillis);
+        sb.append ("\" duration=\"").append (getDuration()).append ("ns\"/>");
+        p.println (sb.toString());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Trace sampling and propagation.
+ * <p>
+ * When a channel receives a message, {@link #startTrace(String, long)}
+ * decides whether it gets traced according to the sample rate. The root
+ * span travels with the ISOMsg, is adopted by a Context the message is
+ * placed in, and the TransactionManager, its participants, QMUX and
+ * BaseChannel.send add child spans while it's around.
+ * <p>
+ * Tracing is off by default (sample rate 0); in that case the only cost
+ * is a volatile read per received message and a null check elsewhere.
+ *
+ * @see Span
+ * @see org.jpos.q2.qbean.SpanLogger
+ */
+public class Tracer {
+    private static volatile double sampleRate;
+    private static volatile SpanExporter exporter;
+    private static final ThreadLocal<Span> current = new ThreadLocal<Span>();
+
+    private Tracer() { }
+
+    /**
+     * @param rate fraction of received messages to trace, from 0 (off) to 1 (all)
+     */
+    public static void setSampleRate (double rate) {
+        sampleRate = Math.max (0.0, Math.min (1.0, rate));
+    }
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+    public static boolean isEnabled() {
+        return sampleRate > 0.0;
+    }
+    /**
+     * @param exporter receives finished spans, may be null
+     */
+    public static void setExporter (SpanExporter exporter) {
+        Tracer.exporter = exporter;
+    }
+    public static SpanExporter getExporter() {
+        return exporter;
+    }
+
+    /**
+     * @param name root span name
+     * @param start start time, as returned by {@link System#nanoTime()}
+     * @return a new root span, or null if tracing is off or this trace is not sampled
+     */
+    public static Span startTrace (String name, long start) {
+        double rate = sampleRate;
+        if (rate <= 0.0)
+            return null;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (rate < 1.0 && random.nextDouble() >= rate)
+            return null;
+        long traceId;
+        do {
+            traceId = random.nextLong();
+        } while (traceId == 0L);
+        return new Span (traceId, 0L, name, start);
+    }
+
+    /**
+     * @return the span the current thread is working on, or null
+     */
+    public static Span current() {
+        return current.get();
+    }
+    /**
+     * @param span span the current thread is working on, null to clear it
+     */
+    public static void setCurrent (Span span) {
+        if (span != null)
+            current.set (span);
+        else
+            current.remove();
+    }
+
+    static void export (Span span) {
+        SpanExporter e = exporter;
+        if (e != null)
+            e.export (span);
+    }
+}
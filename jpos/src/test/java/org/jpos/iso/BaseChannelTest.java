@@ -1131,4 +1131,33 @@ public class BaseChannelTest {
         byte[] result = aSCIIChannel.streamReceive();
         assertEquals("result.length", 0, result.length);
     }
+
+    @Test
+    public void testUnpackFromLargerBufferHonorsOverrides() throws Throwable {
+        ISOMsg m = new ISOMsg("0800");
+        m.set(11, "000001");
+        m.setPackager(new ISO87APackager());
+        byte[] image = m.pack();
+        byte[] buffer = new byte[image.length + 100];
+        System.arraycopy(image, 0, buffer, 0, image.length);
+
+        final int[] unpacked = new int[1];
+        ISO87APackager packager = new ISO87APackager() {
+            @Override
+            public int unpack(ISOComponent c, byte[] b) throws ISOException {
+                unpacked[0] = b.length;
+                return super.unpack(c, b);
+            }
+        };
+        ISOMsg r = new ISOMsg();
+        r.setPackager(packager);
+        new ASCIIChannel().unpack(r, buffer, image.length);
+        assertEquals(image.length, unpacked[0]);
+        assertEquals("000001", r.getString(11));
+
+        r = new ISOMsg();
+        r.setPackager(new ISO87APackager());
+        new ASCIIChannel().unpack(r, buffer, image.length);
+        assertEquals("0800", r.getMTI());
+    }
 }
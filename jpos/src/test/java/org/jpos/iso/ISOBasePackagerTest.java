@@ -21,8 +21,12 @@ package org.jpos.iso;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 
+import java.util.Arrays;
+
+import org.jpos.iso.packager.ISO87APackager;
 import org.jpos.util.Logger;
 import org.junit.Before;
 import org.junit.Test;
@@ -86,4 +90,36 @@ public class ISOBasePackagerTest {
         assertThat(iSOBasePackager.getFieldPackager(0), is(iSOFieldPackager));
     }
 
+    @Test
+    public void testUnpackFromLargerBuffer() throws ISOException {
+        ISOMsg m = new ISOMsg("0800");
+        m.set(11, "000001");
+        m.set(41, "29110001");
+        m.setPackager(new ISO87APackager());
+        byte[] image = m.pack();
+        byte[] buf = Arrays.copyOf(image, image.length + 64);
+        Arrays.fill(buf, image.length, buf.length, (byte) 'X');
+
+        ISOMsg r = new ISOMsg();
+        int consumed = new ISO87APackager().unpack(r, buf, image.length);
+        assertThat(consumed, is(image.length));
+        assertThat(r.getMTI(), is("0800"));
+        assertThat(r.getString(41), is("29110001"));
+    }
+
+    @Test
+    public void testUnpackOverrunThrowsISOException() throws ISOException {
+        ISOMsg m = new ISOMsg("0800");
+        m.set(11, "000001");
+        m.set(41, "29110001");
+        m.setPackager(new ISO87APackager());
+        byte[] image = m.pack();
+        byte[] buf = Arrays.copyOf(image, image.length + 64);
+        try {
+            new ISO87APackager().unpack(new ISOMsg(), buf, image.length - 4);
+            fail("Expected ISOException to be thrown");
+        } catch (ISOException e) {
+            assertThat(e.getMessage().startsWith("unpack overrun"), is(true));
+        }
+    }
 }
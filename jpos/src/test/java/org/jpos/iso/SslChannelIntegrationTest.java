@@ -25,8 +25,11 @@ import static org.junit.Assert.fail;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Properties;
 
+import javax.net.ssl.SSLSocket;
+
 import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 import org.hamcrest.TypeSafeMatcher;
@@ -80,22 +83,53 @@ public class SslChannelIntegrationTest {
         }
     }
 
+    @Test
+    public void sessionResumption() throws Exception {
+        ISOServer isoServer = newIsoServer(PORT + 1, resumptionConfiguration(false));
+        new Thread(isoServer).start();
+        GenericSSLSocketFactory socketFactory = new GenericSSLSocketFactory();
+        try {
+            byte[][] ids = new byte[2][];
+            for (int i = 0; i < ids.length; i++) {
+                XMLChannel clientChannel = newClientChannel(PORT + 1, socketFactory, resumptionConfiguration(true));
+                clientChannel.connect();
+                clientChannel.send(new ISOMsg("0800"));
+                assertThat(clientChannel.receive(), hasMti("0810"));
+                ids[i] = ((SSLSocket) clientChannel.getSocket()).getSession().getId();
+                clientChannel.disconnect();
+            }
+            assertThat(Arrays.equals(ids[0], ids[1]), is(true));
+        } finally {
+            isoServer.shutdown();
+        }
+    }
+
     private XMLChannel newClientChannel() throws IOException, ISOException {
+        return newClientChannel(PORT, new SunJSSESocketFactory(), clientConfiguration());
+    }
+
+    private XMLChannel newClientChannel(int port, ISOClientSocketFactory socketFactory, Configuration cfg)
+        throws IOException, ISOException
+    {
         XMLChannel clientChannel = new XMLChannel(new XMLPackager());
-        clientChannel.setSocketFactory(new SunJSSESocketFactory());
-        clientChannel.setConfiguration(clientConfiguration());
+        clientChannel.setSocketFactory(socketFactory);
+        clientChannel.setConfiguration(cfg);
         clientChannel.setLogger(logger, "client.channel");
-        clientChannel.setHost("localhost", PORT);
+        clientChannel.setHost("localhost", port);
         return clientChannel;
     }
 
     private ISOServer newIsoServer() throws IOException, ISOException {
+        return newIsoServer(PORT, serverConfiguration());
+    }
+
+    private ISOServer newIsoServer(int port, Configuration cfg) throws IOException, ISOException {
         XMLChannel clientSide = new XMLChannel(new XMLPackager());
         clientSide.setLogger(logger, "server.channel");
 
-        ISOServer isoServer = new ISOServer(PORT, clientSide, new ThreadPool());
+        ISOServer isoServer = new ISOServer(port, clientSide, new ThreadPool());
         isoServer.setSocketFactory(new SunJSSESocketFactory());
-        isoServer.setConfiguration(serverConfiguration());
+        isoServer.setConfiguration(cfg);
         isoServer.setLogger(logger, "server");
         isoServer.addISORequestListener(new TestListener());
         return isoServer;
@@ -143,6 +177,24 @@ public class SslChannelIntegrationTest {
         return new SimpleConfiguration(props);
     }
 
+    private Configuration resumptionConfiguration(boolean client) {
+        Properties props = new Properties();
+        props.put("keystore", "src/test/resources/keystore.jks");
+        props.put("storepassword", "password");
+        props.put("keypassword", "password");
+        props.put("protocol", "TLS");
+        props.put("addEnabledProtocol", "TLSv1.2");
+        props.put("session-cache-size", "100");
+        props.put("session-timeout", "300");
+        props.put("handshake-timeout", "5000");
+        if (client) {
+            props.put("serverauth", "false");
+            props.put("timeout", "5000");
+            props.put("connect-timeout", "5000");
+        }
+        return new SimpleConfiguration(props);
+    }
+
     private class TestListener implements ISORequestListener {
 
         public boolean process(ISOSource source, ISOMsg m) {
@@ -0,0 +1,104 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.ServerSocket;
+import java.util.Random;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.jpos.iso.packager.ISO87BPackager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeflateChannelTest {
+    private static final byte[] DICTIONARY =
+        "0200B2380000000000000000000000000000003030303030300000000000".getBytes();
+
+    ServerSocket serverSocket;
+    DeflateChannel server;
+    DeflateChannel client;
+
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(0);
+        server = new DeflateChannel(new ISO87BPackager(), serverSocket);
+        server.setDictionary(DICTIONARY);
+        client = new DeflateChannel("127.0.0.1", serverSocket.getLocalPort(), new ISO87BPackager());
+        client.setDictionary(DICTIONARY);
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    server.accept(serverSocket);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        t.start();
+        client.connect();
+        t.join(5000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.disconnect();
+        server.disconnect();
+        serverSocket.close();
+    }
+
+    @Test
+    public void testRoundTripKeepsState() throws Throwable {
+        Random random = new Random(1L);
+        for (int i = 0; i < 50; i++) {
+            ISOMsg m = new ISOMsg("0200");
+            m.set(4, ISOUtil.zeropad(i * 100, 12));
+            m.set(11, ISOUtil.zeropad(i + 1, 6));
+            m.set(41, "29110001");
+            m.set(48, i % 10 == 0 ? randomString(random, 999) : "data" + i);
+            client.send(m);
+            ISOMsg r = server.receive();
+            assertEquals("0200", r.getMTI());
+            assertEquals(m.getString(11), r.getString(11));
+            assertEquals(m.getString(48), r.getString(48));
+            r.setResponseMTI();
+            server.send(r);
+            assertEquals("0210", client.receive().getMTI());
+        }
+    }
+
+    private static String randomString(Random random, int len) {
+        StringBuilder sb = new StringBuilder(len);
+        for (int i = 0; i < len; i++)
+            sb.append((char) (' ' + random.nextInt(95)));
+        return sb.toString();
+    }
+
+    @Test
+    public void testDisconnect() throws Throwable {
+        assertTrue("client.isConnected()", client.isConnected());
+        client.disconnect();
+        assertFalse("client.isConnected()", client.isConnected());
+    }
+}
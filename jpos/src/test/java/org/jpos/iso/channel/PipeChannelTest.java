@@ -0,0 +1,205 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.iso.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jpos.iso.ISOChannel;
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.junit.Test;
+
+public class PipeChannelTest {
+
+    @Test
+    public void testSendReceive() throws Throwable {
+        PipeChannel a = new PipeChannel("test.a", "test.b");
+        PipeChannel b = new PipeChannel("test.b", "test.a");
+        a.connect();
+        b.connect();
+        ISOMsg m = new ISOMsg("0800");
+        m.set(11, "000001");
+        a.send(m);
+        ISOMsg r = b.receive();
+        assertNotSame("copy", m, r);
+        assertEquals("000001", r.getString(11));
+        assertSame("r.getSource()", b, r.getSource());
+        assertEquals(ISOMsg.INCOMING, r.getDirection());
+        r.setResponseMTI();
+        b.send(r);
+        assertEquals("0810", a.receive().getMTI());
+        assertEquals(1, a.getCounters()[ISOChannel.RX]);
+        assertEquals(1, a.getCounters()[ISOChannel.TX]);
+    }
+
+    @Test
+    public void testNoCopy() throws Throwable {
+        PipeChannel a = new PipeChannel("test.c", "test.d");
+        PipeChannel b = new PipeChannel("test.d", "test.c");
+        a.setCopy(false);
+        a.connect();
+        b.connect();
+        ISOMsg m = new ISOMsg("0800");
+        a.send(m);
+        assertSame(m, b.receive());
+    }
+
+    @Test
+    public void testSendUnconnected() throws Throwable {
+        PipeChannel a = new PipeChannel("test.e", "test.f");
+        try {
+            a.send(new ISOMsg("0800"));
+            fail("Expected ISOException to be thrown");
+        } catch (ISOException e) {
+            assertEquals("unconnected ISOChannel", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testDisconnectUnblocksReceive() throws Throwable {
+        final PipeChannel a = new PipeChannel("test.g", "test.h");
+        a.connect();
+        new Thread() {
+            public void run() {
+                a.disconnect();
+            }
+        }.start();
+        try {
+            a.receive();
+            fail("Expected IOException to be thrown");
+        } catch (IOException e) {
+            assertFalse("a.isConnected()", a.isConnected());
+        }
+        a.connect();
+        assertTrue("a.isConnected()", a.isConnected());
+    }
+
+    @Test
+    public void testSendWithoutReceiver() throws Throwable {
+        PipeChannel a = new PipeChannel("test.i", "test.j");
+        a.connect();
+        try {
+            a.send(new ISOMsg("0800"));
+            fail("Expected ISOException to be thrown");
+        } catch (ISOException e) {
+            assertEquals("no receiver connected to 'test.j'", e.getMessage());
+        }
+        a.disconnect();
+    }
+
+    @Test
+    public void testInboxFull() throws Throwable {
+        PipeChannel a = new PipeChannel("test.k", "test.l");
+        PipeChannel b = new PipeChannel("test.l", "test.k");
+        b.setMaxPending(2);
+        b.connect();
+        a.connect();
+        a.send(new ISOMsg("0800"));
+        a.send(new ISOMsg("0800"));
+        try {
+            a.send(new ISOMsg("0800"));
+            fail("Expected ISOException to be thrown");
+        } catch (ISOException e) {
+            assertEquals("'test.l' inbox full", e.getMessage());
+        }
+        assertEquals(2, b.getPendingCount());
+        b.receive();
+        a.send(new ISOMsg("0800"));
+        assertEquals(2, b.getPendingCount());
+        a.disconnect();
+        b.disconnect();
+    }
+
+    @Test
+    public void testInboxDroppedWhenBothEndsDisconnect() throws Throwable {
+        PipeChannel a = new PipeChannel("test.m", "test.n");
+        PipeChannel b = new PipeChannel("test.n", "test.m");
+        a.connect();
+        b.connect();
+        a.send(new ISOMsg("0800"));
+        b.disconnect();
+        assertEquals("kept while the sender is connected", 1, b.getPendingCount());
+        b.connect();
+        assertEquals(1, b.getPendingCount());
+        b.disconnect();
+        a.disconnect();
+        assertEquals(0, b.getPendingCount());
+        assertEquals(0, a.getPendingCount());
+    }
+
+    @Test
+    public void testConcurrentSenders() throws Throwable {
+        final int senders = 4;
+        final int count = 2000;
+        PipeChannel b = new PipeChannel("test.o", "test.p");
+        b.setMaxPending(16);
+        b.connect();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[senders];
+        for (int i = 0; i < senders; i++) {
+            final PipeChannel a = new PipeChannel("test.p." + i, "test.o");
+            a.setCopy(false);
+            a.connect();
+            final String id = Integer.toString(i);
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < count; j++) {
+                            ISOMsg m = new ISOMsg("0800");
+                            m.set(11, Integer.toString(j));
+                            m.set(41, id);
+                            for (;;) {
+                                try {
+                                    a.send(m);
+                                    break;
+                                } catch (ISOException e) {
+                                    Thread.yield(); // inbox full
+                                }
+                            }
+                        }
+                        a.disconnect();
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        int[] next = new int[senders];
+        for (int n = 0; n < senders * count; n++) {
+            ISOMsg m = b.receive();
+            int sender = Integer.parseInt(m.getString(41));
+            assertEquals("in order per sender", next[sender]++, Integer.parseInt(m.getString(11)));
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(error.get());
+        assertEquals(0, b.getPendingCount());
+        b.disconnect();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.q2.iso;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.jpos.iso.ISOException;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOResponseListener;
+import org.jpos.iso.MUX;
+import org.jpos.space.Space;
+import org.jpos.space.TSpace;
+import org.jpos.transaction.Context;
+import org.junit.Test;
+
+public class ReplayTest {
+    static final String LOG =
+        "<log realm=\"channel/127.0.0.1:8000\" at=\"Mon Oct 19 10:00:00.000 UTC 2026\">\n" +
+        "  <receive>\n" +
+        "    <isomsg direction=\"incoming\">\n" +
+        "      <field id=\"0\" value=\"0800\"/>\n" +
+        "      <field id=\"11\" value=\"000001\"/>\n" +
+        "      <field id=\"70\" value=\"301\"/>\n" +
+        "    </isomsg>\n" +
+        "  </receive>\n" +
+        "</log>\n" +
+        "<log realm=\"channel/127.0.0.1:8000\" at=\"Mon Oct 19 10:00:00.050 UTC 2026\">\n" +
+        "  <send>\n" +
+        "    <isomsg direction=\"outgoing\">\n" +
+        "      <field id=\"0\" value=\"0810\"/>\n" +
+        "      <field id=\"11\" value=\"000001\"/>\n" +
+        "    </isomsg>\n" +
+        "  </send>\n" +
+        "</log>\n" +
+        "<log realm=\"channel/127.0.0.1:8000\" at=\"Mon Oct 19 10:00:00.200 UTC 2026\">\n" +
+        "  <receive>\n" +
+        "    <isomsg direction=\"incoming\">\n" +
+        "      <field id=\"0\" value=\"0200\"/>\n" +
+        "      <field id=\"4\" value=\"000000001000\"/>\n" +
+        "      <field id=\"11\" value=\"000002\"/>\n" +
+        "      <isomsg id=\"127\">\n" +
+        "        <field id=\"2\" value=\"inner\"/>\n" +
+        "      </isomsg>\n" +
+        "    </isomsg>\n" +
+        "  </receive>\n" +
+        "</log>\n";
+
+    @Test
+    public void testReadLog() throws Exception {
+        List<Replay.Message> l = Replay.readLog(new StringReader(LOG), "receive", true);
+        assertEquals(2, l.size());
+        assertEquals("0800", l.get(0).getISOMsg().getMTI());
+        assertEquals("0200", l.get(1).getISOMsg().getMTI());
+        assertEquals("inner", l.get(1).getISOMsg().getString("127.2"));
+        assertEquals(200L, l.get(1).getAt() - l.get(0).getAt());
+        assertEquals(3, Replay.readLog(new StringReader(LOG), null, false).size());
+    }
+
+    @Test
+    public void testReplayThroughMUX() throws Exception {
+        Replay replay = new Replay();
+        replay.setMessages(Replay.readLog(new StringReader(LOG), "receive", true));
+        replay.setMUX(new EchoMUX());
+        replay.setStreams(2);
+        replay.setSpeed(0);
+        replay.setRepeat(50);
+        replay.setStanField(11);
+        Replay.Report report = replay.run();
+        assertEquals(100L, report.getSent());
+        assertEquals(100L, report.getReceived());
+        assertEquals(0L, report.getErrors());
+        assertTrue(report.getPercentile(50) <= report.getPercentile(99));
+        assertTrue(report.getPercentile(99) <= report.getPercentile(100));
+    }
+
+    @Test
+    public void testOriginalRate() throws Exception {
+        Replay replay = new Replay();
+        replay.setMessages(Replay.readLog(new StringReader(LOG), "receive", true));
+        replay.setMUX(new EchoMUX());
+        Replay.Report report = replay.run();
+        assertEquals(2L, report.getSent());
+        assertTrue("elapsed " + report.getElapsed(), report.getElapsed() >= 200L);
+
+        replay.setSpeed(4.0);
+        report = replay.run();
+        assertTrue("elapsed " + report.getElapsed(), report.getElapsed() < 200L);
+    }
+
+    @Test
+    public void testReplayToQueue() throws Exception {
+        final Space sp = new TSpace();
+        Thread tm = new Thread() {
+            public void run() {
+                for (int i = 0; i < 2; i++) {
+                    Context ctx = (Context) sp.in("TXN", 5000L);
+                    ctx.put("RESPONSE", ctx.get("REQUEST"));
+                }
+            }
+        };
+        tm.start();
+        Replay replay = new Replay();
+        replay.setMessages(Replay.readLog(new StringReader(LOG), "receive", true));
+        replay.setQueue(sp, "TXN");
+        replay.setContextNames("REQUEST", "RESPONSE");
+        replay.setSpeed(0);
+        replay.setTimeout(5000L);
+        Replay.Report report = replay.run();
+        tm.join();
+        assertEquals(2L, report.getReceived());
+        assertEquals(0L, report.getTimeouts());
+    }
+
+    static class EchoMUX implements MUX {
+        public ISOMsg request(ISOMsg m, long timeout) throws ISOException {
+            ISOMsg r = (ISOMsg) m.clone();
+            r.setResponseMTI();
+            return r;
+        }
+        public void request(ISOMsg m, long timeout, ISOResponseListener r, Object handBack) {
+        }
+        public void send(ISOMsg m) {
+        }
+        public boolean isConnected() {
+            return true;
+        }
+    }
+}
@@ -18,13 +18,31 @@
 
 package org.jpos.q2.qbean;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNotNull;
 import static org.mockito.Mockito.mock;
 
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleBindings;
+
 import org.jdom.Element;
+import org.jpos.q2.QFactory;
+import org.jpos.space.Space;
 import org.jpos.space.SpaceError;
+import org.jpos.space.SpaceFactory;
+import org.jpos.space.SpaceInterceptor;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
@@ -153,4 +171,130 @@ public class SpaceLetTest {
         }
     }
 
+    @Test
+    public void testCompiledScripts() throws Throwable {
+        Element config = new Element("spacelet")
+          .addContent(new Element("space").setText("tspace:spacelet-compiled"))
+          .addContent(new Element("engine").setText("javascript"))
+          .addContent(new Element("out").setText(
+            "var handled = key == \"A\"; if (handled) sp.out(\"B\", value); handled;"))
+          .addContent(new Element("in").setText(
+            "var handled = key == \"C\"; value = typeof probe !== \"undefined\" ? \"probe\" : \"c\"; handled;"));
+        assumeNotNull(new ScriptEngineManager().getEngineByName("javascript"));
+        final SpaceLet spaceLet = new SpaceLet();
+        spaceLet.setPersist(config);
+        spaceLet.initService();
+        Space sp = SpaceFactory.getSpace("tspace:spacelet-compiled");
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    for (int j = 0; j < 250; j++)
+                        spaceLet.out("A", Integer.valueOf(j));
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(spaceLet.inp("A"));
+        int count = 0;
+        while (sp.inp("B") != null)
+            count++;
+        assertEquals(1000, count);
+        assertEquals("c", spaceLet.in("C"));
+        assertEquals("probe", spaceLet.inp("C"));
+        spaceLet.out("D", "d");
+        assertEquals("d", spaceLet.rdp("D"));
+        assertEquals("d", sp.inp("D"));
+    }
+
+    @Test(expected = org.jpos.core.ConfigurationException.class)
+    public void testEngineMustCompile() throws Throwable {
+        Element config = new Element("spacelet")
+          .addContent(new Element("space").setText("tspace:spacelet-bsh"))
+          .addContent(new Element("engine").setText("bsh"))
+          .addContent(new Element("out").setText("false;"));
+        SpaceLet spaceLet = new SpaceLet();
+        spaceLet.setPersist(config);
+        spaceLet.initService();
+    }
+
+    @Test(expected = org.jpos.core.ConfigurationException.class)
+    public void testInterceptorScriptsRequireEngine() throws Throwable {
+        Element config = new Element("spacelet")
+          .addContent(new Element("space").setText("tspace:spacelet-noengine"))
+          .addContent(new Element("interceptor").setAttribute("class", CountingInterceptor.class.getName()))
+          .addContent(new Element("out").setText("false;"));
+        SpaceLet spaceLet = new SpaceLet();
+        spaceLet.setPersist(config);
+        spaceLet.initService();
+    }
+
+    @Test
+    public void testInterceptor() throws Throwable {
+        Element config = new Element("spacelet")
+          .addContent(new Element("space").setText("tspace:spacelet-interceptor"))
+          .addContent(new Element("interceptor").setAttribute("class", CountingInterceptor.class.getName()));
+        SpaceLet spaceLet = new SpaceLet() {
+            public QFactory getFactory() {
+                return new QFactory(null, null);
+            }
+        };
+        spaceLet.setPersist(config);
+        spaceLet.initService();
+        CountingInterceptor.outs.set(0);
+        for (int i = 0; i < 10; i++)
+            spaceLet.out("K", Integer.valueOf(i));
+        assertEquals(10, CountingInterceptor.outs.get());
+        assertEquals(Integer.valueOf(0), spaceLet.inp("K"));
+        assertEquals(Integer.valueOf(1), SpaceFactory.getSpace("tspace:spacelet-interceptor").inp("K"));
+    }
+
+    @Test(expected = org.jpos.core.ConfigurationException.class)
+    public void testUnknownEngine() throws Throwable {
+        Element config = new Element("spacelet")
+          .addContent(new Element("engine").setText("no-such-engine"));
+        SpaceLet spaceLet = new SpaceLet();
+        spaceLet.setPersist(config);
+        spaceLet.initService();
+    }
+
+    @Test(expected = StackOverflowError.class)
+    public void testCompileDoesNotHideErrors() throws Throwable {
+        new SpaceLet.Script(new FailingCompileEngine(), "true");
+    }
+
+    static class FailingCompileEngine extends AbstractScriptEngine implements Compilable {
+        public CompiledScript compile(String script) {
+            throw new StackOverflowError();
+        }
+        public CompiledScript compile(Reader script) {
+            throw new StackOverflowError();
+        }
+        public Object eval(String script, ScriptContext context) {
+            return null;
+        }
+        public Object eval(Reader reader, ScriptContext context) {
+            return null;
+        }
+        public Bindings createBindings() {
+            return new SimpleBindings();
+        }
+        public ScriptEngineFactory getFactory() {
+            return null;
+        }
+    }
+
+    public static class CountingInterceptor extends SpaceInterceptor {
+        static final AtomicInteger outs = new AtomicInteger();
+        public CountingInterceptor(Space sp) {
+            super(sp);
+        }
+        public void out(Object key, Object value) {
+            outs.incrementAndGet();
+            super.out(key, value);
+        }
+    }
 }
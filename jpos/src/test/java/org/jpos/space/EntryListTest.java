@@ -0,0 +1,108 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.junit.Test;
+
+public class EntryListTest {
+    @Test
+    public void testUnlink() {
+        EntryList l = new EntryList();
+        EntryList.Node b = l.addLast("B");
+        EntryList.Node c = l.addLast("C");
+        EntryList.Node a = l.addFirst("A");
+        assertEquals(Arrays.asList("A", "B", "C"), l);
+        l.unlink(b);
+        assertFalse("unlinked", l.contains(b));
+        assertTrue(l.contains(a));
+        assertSame("iteration can go on past an unlinked node", c, b.next);
+        assertEquals(Arrays.asList("A", "C"), l);
+        l.unlink(c);
+        l.unlink(a);
+        assertTrue(l.isEmpty());
+        assertEquals(null, l.first());
+    }
+
+    @Test
+    public void testBehavesLikeLinkedList() {
+        EntryList l = new EntryList();
+        List<Object> expected = new LinkedList<Object>();
+        for (int i = 0; i < 10; i++) {
+            l.add(i);
+            expected.add(i);
+        }
+        l.add(0, "head");
+        expected.add(0, "head");
+        l.remove(5);
+        expected.remove(5);
+        Iterator<Object> iter = l.iterator();
+        Iterator<Object> exp = expected.iterator();
+        while (iter.hasNext()) {
+            Object o = iter.next();
+            assertEquals(exp.next(), o);
+            if (o instanceof Integer && (Integer) o % 2 == 0) {
+                iter.remove();
+                exp.remove();
+            }
+        }
+        ListIterator<Object> li = l.listIterator(l.size());
+        ListIterator<Object> le = expected.listIterator(expected.size());
+        while (li.hasPrevious()) {
+            Object o = li.previous();
+            assertEquals(le.previous(), o);
+            if ("head".equals(o)) {
+                li.set("first");
+                le.set("first");
+                li.add("zero");
+                le.add("zero");
+            }
+        }
+        assertEquals(expected, l);
+        assertEquals(expected.size(), l.size());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        EntryList l = new EntryList();
+        for (int i = 0; i < 100000; i++)
+            l.addLast(Integer.toString(i));
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(l);
+        out.close();
+        EntryList r = (EntryList) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals(l, r);
+        assertEquals("99999", r.get(99999));
+    }
+}
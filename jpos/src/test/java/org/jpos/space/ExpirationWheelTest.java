@@ -0,0 +1,96 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExpirationWheelTest {
+    @Test
+    public void testExpiresInOrder() {
+        long now = 1000000L;
+        ExpirationWheel wheel = new ExpirationWheel(100L, now);
+        Random random = new Random(1L);
+        List<TSpace.Expirable> all = new ArrayList<TSpace.Expirable>();
+        for (int i = 0; i < 5000; i++) {
+            // from a few millis up to several days, to exercise every level
+            long timeout = random.nextInt(4) == 0 ? random.nextInt(500) : (long) (random.nextDouble() * 400000000L);
+            TSpace.Expirable e = new TSpace.Expirable("v" + i, now + timeout);
+            all.add(e);
+            wheel.add(e);
+        }
+        assertEquals(5000, wheel.size());
+        List<TSpace.Expirable> expired = new ArrayList<TSpace.Expirable>();
+        int count = 0;
+        for (long t = now; t <= now + 400001000L; t += 1 + random.nextInt(50000)) {
+            expired.clear();
+            wheel.expire(t, expired);
+            for (TSpace.Expirable e : expired)
+                assertTrue("premature expiration", e.expires < t);
+            count += expired.size();
+            all.removeAll(expired);
+            for (TSpace.Expirable e : all)
+                assertTrue("missed expiration", e.expires >= t);
+        }
+        assertEquals(5000, count);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExpiredOnAdd() {
+        ExpirationWheel wheel = new ExpirationWheel(100L, 1000L);
+        List<TSpace.Expirable> expired = new ArrayList<TSpace.Expirable>();
+        wheel.expire(5000L, expired);
+        wheel.add(new TSpace.Expirable("A", 4000L));
+        wheel.add(new TSpace.Expirable("B", 5050L));
+        wheel.expire(5001L, expired);
+        assertEquals(1, expired.size());
+        assertEquals("A", expired.get(0).value);
+        wheel.expire(5051L, expired);
+        assertEquals(2, expired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testRemove() {
+        ExpirationWheel wheel = new ExpirationWheel(100L, 1000L);
+        List<TSpace.Expirable> all = new ArrayList<TSpace.Expirable>();
+        for (int i = 0; i < 100; i++) {
+            TSpace.Expirable e = new TSpace.Expirable("v" + i, 1000L + (i % 10) * 50L);
+            all.add(e);
+            wheel.add(e);
+        }
+        for (int i = 0; i < 100; i += 2)
+            wheel.remove(all.get(i));
+        wheel.remove(all.get(0)); // no longer in the wheel
+        assertEquals(50, wheel.size());
+        List<TSpace.Expirable> expired = new ArrayList<TSpace.Expirable>();
+        wheel.expire(10000L, expired);
+        assertEquals(50, expired.size());
+        for (TSpace.Expirable e : expired)
+            assertTrue(all.indexOf(e) % 2 == 1);
+        assertEquals(0, wheel.size());
+    }
+}
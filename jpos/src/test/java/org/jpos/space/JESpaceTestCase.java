@@ -185,4 +185,40 @@ public class JESpaceTestCase extends TestCase {
         sp.out("CTX", ctx);
         assertNotNull("entry should not be null", sp.in("CTX"));
     }
+    public void testBatch() throws Exception {
+        SpaceBatch<String,Object> batch = new SpaceBatch<String,Object>()
+            .out ("BATCH", "ONE")
+            .out ("BATCH", "TWO")
+            .push ("BATCH", "ZERO")
+            .inp ("BATCH");
+        sp.execute (batch);
+        assertEquals ("ZERO", batch.getResult (3));
+        assertEquals (2, sp.inpAll ("BATCH", 10).size());
+        assertNull (sp.rdp ("BATCH"));
+    }
+    public void testIndex() throws Exception {
+        sp.inpAll ("IDX", 100);
+        sp.out ("IDX", "Value 1");
+        sp.out ("IDX", "Value 2");
+        sp.addIndex ("IDX", MD5Template.DIGEST);
+        sp.out ("IDX", "Value 3");
+        sp.push ("IDX", "Value 2");
+        assertEquals ("Value 2", sp.rdp (new MD5Template ("IDX", "Value 2")));
+        assertEquals ("Value 2", sp.inp (new MD5Template ("IDX", "Value 2")));
+        assertEquals ("Value 3", sp.inp (new MD5Template ("IDX", "Value 3")));
+        assertEquals ("Value 1", sp.inp ("IDX"));
+
+        // a rolled back batch leaves the index as it was
+        SpaceBatch batch = new SpaceBatch()
+            .inp (new MD5Template ("IDX", "Value 2"))
+            .out ("IDX", new Object());
+        try {
+            sp.execute (batch);
+            fail ("batch should fail");
+        } catch (SpaceError expected) { }
+        assertEquals ("Value 2", sp.inp (new MD5Template ("IDX", "Value 2")));
+        assertNull (sp.inp (new MD5Template ("IDX", "Value 2")));
+        assertNull (sp.rdp ("IDX"));
+        sp.removeIndex ("IDX", MD5Template.DIGEST);
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.function.Function;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.ISOUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("unchecked")
+public class MMapSpaceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MMapSpace<String,Object> open(int segmentSize) {
+        return new MMapSpace<String,Object>("test", folder.getRoot().getPath(), segmentSize);
+    }
+
+    @Test
+    public void testQueueOperations() throws Exception {
+        MMapSpace<String,Object> sp = open(4096);
+        sp.out("Q", "A");
+        sp.out("Q", "B");
+        sp.push("Q", "Z");
+        sp.out("Q", "C");
+        assertEquals(4, sp.size("Q"));
+        assertEquals("Z", sp.rdp("Q"));
+        assertEquals("Z", sp.inp("Q"));
+        assertEquals("B", sp.inp(new ObjectTemplate("Q", "B")));
+        assertEquals("A", sp.inp("Q"));
+        assertEquals("C", sp.in("Q", 100L));
+        assertNull(sp.rd("Q", 50L));
+        sp.put("P", "1");
+        sp.put("P", "2");
+        assertEquals(1, sp.size("P"));
+        assertEquals("2", sp.rdp("P"));
+        sp.close();
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        MMapSpace<String,Object> sp = open(4096);
+        ISOMsg m = new ISOMsg("0200");
+        m.set(11, "000001");
+        for (int i = 0; i < 100; i++)
+            sp.out("K", Integer.valueOf(i));
+        for (int i = 0; i < 40; i++)
+            sp.inp("K");
+        sp.push("K", "head");
+        sp.out("M", m);
+        sp.out("T", "expired", 1L);
+        sp.close();
+        Thread.sleep(5L);
+
+        sp = open(4096);
+        assertEquals(61, sp.size("K"));
+        assertEquals("head", sp.inp("K"));
+        for (int i = 40; i < 100; i++)
+            assertEquals(Integer.valueOf(i), sp.inp("K"));
+        assertEquals("000001", ((ISOMsg) sp.inp("M")).getString(11));
+        assertNull(sp.inp("T"));
+        sp.out("K", "last");
+        sp.close();
+
+        sp = open(4096);
+        assertEquals(1, sp.size("K"));
+        assertEquals("last", sp.inp("K"));
+        sp.close();
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        MMapSpace<String,Object> sp = open(1024);
+        sp.out("LONG", "lived");
+        for (int i = 0; i < 500; i++) {
+            sp.out("Q", "entry " + i);
+            assertEquals("entry " + i, sp.inp("Q"));
+        }
+        sp.gc();
+        assertTrue(folder.getRoot().list().length <= 2);
+        assertEquals("lived", sp.rdp("LONG"));
+        sp.close();
+
+        sp = open(1024);
+        assertEquals("lived", sp.inp("LONG"));
+        assertEquals(0, sp.size("Q"));
+        sp.close();
+    }
+
+    @Test
+    public void testTornWrite() throws Exception {
+        MMapSpace<String,Object> sp = open(4096);
+        sp.out("K", "A");
+        sp.out("K", "B");
+        sp.close();
+        File f = folder.getRoot().listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        // find the end of the log, and write half a record
+        int pos = 0;
+        while (raf.length() > pos + 4) {
+            raf.seek(pos);
+            int len = raf.readInt();
+            if (len == 0)
+                break;
+            pos += len + 8;
+        }
+        raf.seek(pos);
+        raf.writeInt(200);
+        raf.writeByte(1);
+        raf.writeLong(3L);
+        raf.close();
+
+        sp = open(4096);
+        assertEquals(2, sp.size("K"));
+        sp.out("K", "C");
+        sp.close();
+        sp = open(4096);
+        assertEquals("A", sp.inp("K"));
+        assertEquals("B", sp.inp("K"));
+        assertEquals("C", sp.inp("K"));
+        sp.close();
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        MMapSpace<String,Object> sp = open(4096);
+        for (int i = 0; i < 50; i++) {
+            ISOMsg m = new ISOMsg("0200");
+            m.set(11, ISOUtil.zeropad(i, 6));
+            sp.out("SAF", m);
+        }
+        sp.close();
+
+        sp = open(4096);
+        Function<Object,?> stan = new Function<Object,Object>() {
+            public Object apply(Object o) {
+                return ((ISOMsg) o).getString(11);
+            }
+        };
+        sp.addIndex("SAF", stan);
+        ISOMsg m = (ISOMsg) sp.inp(new IndexTemplate("SAF", stan, "000042"));
+        assertEquals("000042", m.getString(11));
+        assertNull(sp.inp(new IndexTemplate("SAF", stan, "000042")));
+        m = new ISOMsg("0200");
+        m.set(11, "000042");
+        sp.push("SAF", m);
+        sp.out("SAF", "not an ISOMsg");
+        assertEquals(51, sp.size("SAF"));
+        assertEquals("000042", ((ISOMsg) sp.rdp(new IndexTemplate("SAF", stan, "000042"))).getString(11));
+        assertEquals("000042", ((ISOMsg) sp.inp("SAF")).getString(11));
+        assertNull(sp.rdp(new IndexTemplate("SAF", stan, "000042")));
+        assertEquals("000007", ((ISOMsg) sp.inp(new IndexTemplate("SAF", stan, "000007"))).getString(11));
+        assertEquals(49, sp.size("SAF"));
+        assertEquals("000000", ((ISOMsg) sp.inp("SAF")).getString(11));
+        assertEquals("000008", ((ISOMsg) sp.inp(new IndexTemplate("SAF", stan, "000008"))).getString(11));
+        assertEquals("000001", ((ISOMsg) sp.inp("SAF")).getString(11));
+        sp.close();
+
+        sp = open(4096);
+        assertEquals(46, sp.size("SAF"));
+        sp.close();
+    }
+}
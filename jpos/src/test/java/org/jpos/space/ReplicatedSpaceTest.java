@@ -0,0 +1,156 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.jpos.iso.ISOMsg;
+import org.junit.After;
+import org.junit.Test;
+
+@SuppressWarnings("unchecked")
+public class ReplicatedSpaceTest {
+    private ReplicatedSpace<String,Object> primary;
+    private ReplicatedSpace<String,Object> follower;
+
+    @After
+    public void tearDown() {
+        if (follower != null)
+            follower.stop();
+        if (primary != null)
+            primary.stop();
+    }
+
+    @Test
+    public void testSnapshotAndStream() throws Exception {
+        TSpace<String,Object> p = new TSpace<String,Object>();
+        TSpace<String,Object> f = new TSpace<String,Object>();
+        f.out("STALE", "x");
+        primary = new ReplicatedSpace<String,Object>(p);
+        primary.startPrimary(0);
+        primary.out("Q", "before");
+        primary.out("T", "expiring", 60000L);
+
+        follower = new ReplicatedSpace<String,Object>(f);
+        follower.startFollower("localhost", primary.getPort());
+        waitFor(f, "T");
+        assertNull(f.rdp("STALE"));
+        assertEquals("before", f.rdp("Q"));
+
+        ISOMsg m = new ISOMsg("0200");
+        m.set(11, "000001");
+        primary.out("Q", m);
+        primary.push("Q", "head");
+        primary.put("P", "p");
+        assertEquals("head", primary.inp("Q"));
+        assertEquals("before", primary.inp(new ObjectTemplate("Q", "before")));
+        primary.out("DONE", Boolean.TRUE);
+        waitFor(f, "DONE");
+        assertEquals(1, f.size("Q"));
+        assertEquals("000001", ((ISOMsg) f.rdp("Q")).getString(11));
+        assertEquals("p", f.rdp("P"));
+        long end = System.currentTimeMillis() + 5000L;
+        while (follower.getSeq() != primary.getSeq() && System.currentTimeMillis() < end)
+            Thread.sleep(10L); // the sequence is recorded right after the entry is applied
+        assertEquals(primary.getSeq(), follower.getSeq());
+        try {
+            follower.out("Q", "nope");
+            fail("follower should be read-only");
+        } catch (SpaceError expected) { }
+    }
+
+    @Test
+    public void testSyncOneAndPromote() throws Exception {
+        TSpace<String,Object> p = new TSpace<String,Object>();
+        TSpace<String,Object> f = new TSpace<String,Object>();
+        primary = new ReplicatedSpace<String,Object>(p);
+        primary.setAck(ReplicatedSpace.Ack.SYNC_ONE, 5000L);
+        primary.startPrimary(0);
+        follower = new ReplicatedSpace<String,Object>(f);
+        follower.startFollower("localhost", primary.getPort());
+        long end = System.currentTimeMillis() + 5000L;
+        while (primary.getFollowerCount() == 0 && System.currentTimeMillis() < end)
+            Thread.sleep(10L);
+        for (int i = 0; i < 100; i++) {
+            primary.out("SAF", Integer.valueOf(i));
+            assertEquals(i + 1, f.size("SAF"));
+        }
+        primary.execute(new SpaceBatch<String,Object>().inp("SAF").inp("SAF"));
+        assertEquals(98, f.size("SAF"));
+        assertEquals(0L, primary.getAckTimeouts());
+
+        primary.stop();
+        follower.promote(0);
+        assertTrue(follower.isPrimary());
+        assertEquals(Integer.valueOf(2), follower.inp("SAF"));
+        assertEquals(97, f.size("SAF"));
+    }
+
+    @Test
+    public void testInpRemovesTheTakenEntry() throws Exception {
+        TSpace<String,Object> p = new TSpace<String,Object>();
+        TSpace<String,Object> f = new TSpace<String,Object>();
+        primary = new ReplicatedSpace<String,Object>(p);
+        primary.startPrimary(0);
+        follower = new ReplicatedSpace<String,Object>(f);
+        follower.startFollower("localhost", primary.getPort());
+        primary.out("READY", Boolean.TRUE);
+        waitFor(f, "READY");
+        ISOMsg m = new ISOMsg("0200");
+        m.set(11, "000001");
+        primary.out("Q", m);
+        primary.out("Q", "b");
+        primary.out("SYNC1", Boolean.TRUE);
+        waitFor(f, "SYNC1");
+        f.push("Q", "expired-on-primary"); // heads differ
+        assertEquals("000001", ((ISOMsg) primary.inp("Q")).getString(11));
+        primary.out("SYNC2", Boolean.TRUE);
+        waitFor(f, "SYNC2");
+        assertEquals(2, f.size("Q"));
+        assertEquals("expired-on-primary", f.inp("Q"));
+        assertEquals("b", f.inp("Q"));
+    }
+
+    @Test
+    public void testSnapshotFailureKeepsAccepting() throws Exception {
+        TSpace<String,Object> p = new TSpace<String,Object>();
+        p.out("BAD", new Object());
+        primary = new ReplicatedSpace<String,Object>(p);
+        primary.startPrimary(0);
+        follower = new ReplicatedSpace<String,Object>(new TSpace<String,Object>());
+        follower.startFollower("localhost", primary.getPort());
+        Thread.sleep(200L);
+        assertEquals(0, primary.getFollowerCount());
+        follower.stop();
+
+        p.inp("BAD");
+        primary.out("OK", "ok");
+        TSpace<String,Object> f = new TSpace<String,Object>();
+        follower = new ReplicatedSpace<String,Object>(f);
+        follower.startFollower("localhost", primary.getPort());
+        waitFor(f, "OK");
+    }
+
+    private void waitFor(Space sp, String key) throws InterruptedException {
+        assertTrue("timeout waiting for " + key, sp.rd(key, 5000L) != null);
+    }
+}
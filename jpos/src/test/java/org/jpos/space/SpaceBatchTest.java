@@ -0,0 +1,102 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+@SuppressWarnings("unchecked")
+public class SpaceBatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTSpace() {
+        testBatch(new TSpace<String,Object>());
+    }
+
+    @Test
+    public void testMMapSpace() {
+        MMapSpace<String,Object> sp = new MMapSpace<String,Object>("batch", folder.getRoot().getPath(), 4096);
+        testBatch(sp);
+        sp.close();
+    }
+
+    @Test
+    public void testJDBMSpace() throws Exception {
+        JDBMSpace<String,Object> sp = JDBMSpace.getSpace("batch-test", folder.newFile("batch").getPath());
+        testBatch(sp);
+        sp.close();
+    }
+
+    @Test
+    public void testDefaultImplementation() {
+        testBatch(new SpaceInterceptor<String,Object>(new TSpace<String,Object>()));
+    }
+
+    @Test
+    public void testBatchIsAtomic() throws Exception {
+        final TSpace<String,Object> sp = new TSpace<String,Object>();
+        final SpaceBatch<String,Object> batch = new SpaceBatch<String,Object>();
+        for (int i = 0; i < 1000; i++)
+            batch.out("Q", Integer.valueOf(i));
+        Thread t = new Thread() {
+            public void run() {
+                sp.execute(batch);
+            }
+        };
+        t.start();
+        int size;
+        while ((size = sp.size("Q")) == 0)
+            Thread.yield();
+        assertEquals(1000, size);
+        t.join();
+    }
+
+    private void testBatch(Space<String,Object> sp) {
+        sp.outAll("A", Arrays.asList("1", "2", "3"));
+        SpaceBatch<String,Object> batch = new SpaceBatch<String,Object>()
+            .inp("A")
+            .out("B", "b1")
+            .push("B", "b0")
+            .put("C", "c")
+            .inpAll("A", 10);
+        assertNull(batch.getResult(0));
+        sp.execute(batch);
+        assertEquals(5, batch.size());
+        assertEquals("1", batch.getResult(0));
+        assertNull(batch.getResult(1));
+        assertEquals(Arrays.asList("2", "3"), batch.getResult(4));
+        assertNull(sp.rdp("A"));
+        assertEquals("c", sp.rdp("C"));
+        List<Object> l = sp.inpAll("B", 1);
+        assertEquals(Arrays.asList((Object) "b0"), l);
+        l = sp.inpAll("B", Integer.MAX_VALUE);
+        assertEquals(Arrays.asList((Object) "b1"), l);
+        assertTrue(sp.inpAll("B", 10).isEmpty());
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.space;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jpos.iso.ISOMsg;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("unchecked")
+public class SpaceServerTest {
+    private TSpace<String,Object> local;
+    private SpaceServer server;
+    private SpaceClient<String,Object> client;
+
+    @Before
+    public void setUp() throws Exception {
+        local = new TSpace<String,Object>();
+        server = new SpaceServer(local);
+        server.start(0);
+        client = new SpaceClient<String,Object>("localhost", server.getPort());
+        client.setTimeout(5000L);
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void testOperations() throws Exception {
+        ISOMsg m = new ISOMsg("0200");
+        m.set(11, "000001");
+        client.out("Q", m);
+        client.out("Q", "second");
+        client.push("Q", "first");
+        assertEquals("first", client.rdp("Q"));
+        assertEquals("first", client.inp("Q"));
+        assertEquals("000001", ((ISOMsg) client.in("Q")).getString(11));
+        assertEquals("second", local.inp("Q"));
+        assertNull(client.inp("Q"));
+
+        client.put("P", "a");
+        client.put("P", "b");
+        assertEquals("b", client.rd("P", 1000L));
+        assertEquals("b", local.inp("P"));
+
+        client.outAll("A", Arrays.asList("1", "2", "3"));
+        assertEquals(Arrays.asList("1", "2", "3"), local.inpAll("A", 10));
+        assertTrue(!client.existAny(new String[] { "A", "Q" }));
+    }
+
+    @Test
+    public void testBlockingInIsServedByOut() throws Exception {
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread t = new Thread() {
+            public void run() {
+                result.set(client.in("W", 10000L));
+            }
+        };
+        t.start();
+        for (int i = 0; i < 100 && server.getWaiterCount() == 0; i++)
+            Thread.sleep(10L);
+        assertEquals(1, server.getWaiterCount());
+
+        SpaceClient<String,Object> other = new SpaceClient<String,Object>("localhost", server.getPort());
+        try {
+            other.out("W", "value");
+        } finally {
+            other.close();
+        }
+        t.join(5000L);
+        assertEquals("value", result.get());
+        assertNull(local.rdp("W"));
+        assertEquals(0, server.getWaiterCount());
+    }
+
+    @Test
+    public void testInterruptedInIsCancelled() throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    client.in("C");
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        };
+        t.start();
+        for (int i = 0; i < 100 && server.getWaiterCount() == 0; i++)
+            Thread.sleep(10L);
+        assertEquals(1, server.getWaiterCount());
+        t.interrupt();
+        t.join(5000L);
+        assertTrue(error.get() instanceof SpaceError);
+        for (int i = 0; i < 100 && server.getWaiterCount() > 0; i++)
+            Thread.sleep(10L);
+        assertEquals(0, server.getWaiterCount());
+        client.out("C", "kept");
+        assertEquals("kept", local.rdp("C"));
+    }
+
+    @Test
+    public void testLateResponseIsNotLost() {
+        client.setCodec(new CompactSpaceCodec() {
+            public Object decode(byte[] b) throws IOException {
+                Object o = super.decode(b);
+                if ("slow".equals(o)) {
+                    try {
+                        Thread.sleep(500L);
+                    } catch (InterruptedException ignored) { }
+                }
+                return o;
+            }
+        });
+        client.setTimeout(100L);
+        local.out("S", "slow");
+        assertEquals("response read before the timeout", "slow", client.inp("S"));
+        assertNull(local.rdp("S"));
+    }
+
+    @Test
+    public void testInTimeout() {
+        long start = System.currentTimeMillis();
+        assertNull(client.in("NONE", 200L));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("elapsed " + elapsed, elapsed >= 190L && elapsed < 3000L);
+        assertEquals(0, server.getWaiterCount());
+    }
+
+    @Test
+    public void testPipelinedClients() throws Exception {
+        final int threads = 8;
+        final int count = 500;
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        Thread[] producers = new Thread[threads];
+        Thread[] consumers = new Thread[threads];
+        final int[] received = new int[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            producers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < count; j++)
+                            client.out("K" + n, Integer.valueOf(j));
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            consumers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < count; j++) {
+                            Object o = client.in("K" + n, 5000L);
+                            if (!Integer.valueOf(j).equals(o))
+                                fail("expected " + j + " got " + o);
+                            received[n]++;
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            };
+            consumers[i].start();
+            producers[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            producers[i].join();
+            consumers[i].join();
+        }
+        assertEquals(errors.toString(), 0, errors.size());
+        for (int r : received)
+            assertEquals(count, r);
+    }
+
+    @Test
+    public void testConnectionLoss() throws Exception {
+        client.out("X", "1");
+        server.stop();
+        try {
+            client.inp("X");
+            fail("SpaceError expected");
+        } catch (SpaceError expected) {
+            // connection lost or refused
+        }
+        server = new SpaceServer(local);
+        server.start(0);
+        SpaceClient<String,Object> c = new SpaceClient<String,Object>("localhost", server.getPort());
+        try {
+            assertEquals("1", c.inp("X"));
+        } finally {
+            c.close();
+        }
+    }
+}
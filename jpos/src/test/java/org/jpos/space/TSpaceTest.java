@@ -28,8 +28,15 @@ import static org.junit.Assert.fail;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import org.jpos.iso.ISOUtil;
 import org.junit.Test;
@@ -46,6 +53,116 @@ public class TSpaceTest {
         assertEquals("tSpace.entries.size()", 0, tSpace.entries.size());
     }
 
+    @Test
+    public void testGCRemovesOnlyExpiredEntries() throws Throwable {
+        TSpace tSpace = new TSpace();
+        for (int i = 0; i < 100; i++) {
+            tSpace.out("K", "short" + i, 20L);
+            tSpace.out("K", "long" + i, 60000L);
+            tSpace.out("L" + i, "short", 20L);
+        }
+        tSpace.out("M", "forever");
+        assertEquals("short0", tSpace.inp("K"));
+        Thread.sleep(50L);
+        tSpace.gc();
+        assertEquals(2, tSpace.getKeySet().size());
+        assertEquals(100, ((List) tSpace.entries.get("K")).size());
+        assertEquals("long0", tSpace.rdp("K"));
+    }
+
+    @Test
+    public void testTakenEntriesLeaveTheWheel() throws Throwable {
+        TSpace tSpace = new TSpace();
+        for (int i = 0; i < 100; i++) {
+            tSpace.put("P", "v" + i, 86400000L);
+            tSpace.out("K", "v" + i, 86400000L);
+        }
+        for (int i = 0; i < 50; i++)
+            tSpace.inp("K");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tSpace.dump(new PrintStream(out), "");
+        assertTrue(out.toString(), out.toString().contains("<gcinfo>51</gcinfo>"));
+        tSpace.setEntries(new java.util.HashMap());
+        out.reset();
+        tSpace.dump(new PrintStream(out), "");
+        assertTrue(out.toString(), out.toString().contains("<gcinfo>0</gcinfo>"));
+    }
+
+    @Test
+    public void testMaxEntriesPerKeyEvictsOldest() throws Throwable {
+        TSpace tSpace = new TSpace();
+        tSpace.setLimits(0, 3, 0L, TSpace.Eviction.OLDEST, null);
+        for (int i = 0; i < 10; i++)
+            tSpace.out("K", Integer.valueOf(i));
+        tSpace.out("L", "x");
+        assertEquals(3, tSpace.size("K"));
+        assertEquals(4, tSpace.size());
+        assertEquals(7L, tSpace.getEvicted());
+        assertEquals(Integer.valueOf(7), tSpace.inp("K"));
+        assertEquals(3, tSpace.size());
+    }
+
+    @Test
+    public void testMaxEntriesEvictsOldestAcrossKeys() throws Throwable {
+        TSpace tSpace = new TSpace();
+        tSpace.setLimits(4, 0, 0L, TSpace.Eviction.OLDEST, null);
+        tSpace.out("A", "a1");
+        tSpace.out("B", "b1");
+        tSpace.out("B", "b2");
+        tSpace.push("B", "b0");
+        tSpace.out("C", "c1");
+        assertEquals("oldest entry evicted, not the largest key's head", 0, tSpace.size("A"));
+        assertEquals(3, tSpace.size("B"));
+        tSpace.out("C", "c2");
+        assertEquals(2, tSpace.size("B"));
+        assertEquals("b0", tSpace.inp("B"));
+        assertEquals("b2", tSpace.inp("B"));
+        tSpace.out("D", "d1");
+        tSpace.out("D", "d2");
+        tSpace.out("D", "d3");
+        assertEquals(3, tSpace.size("D"));
+        assertEquals("c2", tSpace.rdp("C"));
+        assertEquals(4, tSpace.size());
+        assertEquals(3L, tSpace.getEvicted());
+    }
+
+    @Test
+    public void testMaxEntriesRejectsNew() throws Throwable {
+        TSpace tSpace = new TSpace();
+        tSpace.setLimits(5, 0, 0L, TSpace.Eviction.REJECT, null);
+        for (int i = 0; i < 10; i++)
+            tSpace.out("K" + (i % 2), Integer.valueOf(i));
+        assertEquals(5, tSpace.size());
+        assertEquals(5L, tSpace.getRejected());
+        assertEquals(Integer.valueOf(0), tSpace.rdp("K0"));
+        tSpace.put("K0", "replaced");
+        assertEquals(3, tSpace.size());
+        assertEquals("replaced", tSpace.rdp("K0"));
+        tSpace.out("K2", "a");
+        tSpace.out("K2", "b");
+        tSpace.out("K2", "c");
+        assertEquals(2, tSpace.size("K2"));
+        assertEquals(6L, tSpace.getRejected());
+    }
+
+    @Test
+    public void testMaxBytesSpills() throws Throwable {
+        TSpace tSpace = new TSpace();
+        TSpace spill = new TSpace();
+        tSpace.setLimits(0, 0, 1000L, TSpace.Eviction.SPILL, spill);
+        for (int i = 0; i < 10; i++)
+            tSpace.out("big", new byte[100], 60000L);
+        tSpace.out("small", new byte[10]);
+        assertTrue(tSpace.getBytes() <= 1000L);
+        assertEquals(Integer.valueOf(1), tSpace.getKeySizes().get("small"));
+        assertEquals(11, tSpace.size() + spill.size("big"));
+        assertEquals(tSpace.getEvicted(), (long) spill.size("big"));
+        while (tSpace.inp("big") != null);
+        tSpace.inp("small");
+        assertEquals(0, tSpace.size());
+        assertEquals(0L, tSpace.getBytes());
+    }
+
     @Test
     public void testDump() throws Throwable {
         TSpace tSpace = new TSpace();
@@ -238,4 +355,156 @@ public class TSpaceTest {
         ISOUtil.sleep(500L);
         assertTrue("Counter should be zero", ai.get() == 0);
     }
+
+    @Test
+    public void testExecutorListenerKeepsOrderOffWriterThread() throws Throwable {
+        TSpace sp = new TSpace();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Thread writer = Thread.currentThread();
+        final List<Object> received = Collections.synchronizedList(new ArrayList<Object>());
+        final AtomicInteger onWriter = new AtomicInteger();
+        SpaceListener listener = new SpaceListener() {
+            public void notify(Object key, Object value) {
+                if (Thread.currentThread() == writer)
+                    onWriter.incrementAndGet();
+                received.add(value);
+            }
+        };
+        try {
+            sp.addListener("K", listener, executor);
+            for (int i = 0; i < 1000; i++)
+                sp.out("K", Integer.valueOf(i));
+            for (int i = 0; i < 100 && received.size() < 1000; i++)
+                Thread.sleep(20L);
+            assertEquals(1000, received.size());
+            for (int i = 0; i < 1000; i++)
+                assertEquals(Integer.valueOf(i), received.get(i));
+            assertEquals(0, onWriter.get());
+
+            sp.removeListener("K", listener);
+            assertTrue(sp.sl.isEmpty());
+            sp.out("K", "after");
+            executor.shutdown();
+            executor.awaitTermination(1L, TimeUnit.SECONDS);
+            assertEquals(1000, received.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShutdownExecutorDropsListener() throws Throwable {
+        TSpace sp = new TSpace();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final AtomicInteger count = new AtomicInteger();
+        sp.addListener("K", new SpaceListener() {
+            public void notify(Object key, Object value) {
+                count.incrementAndGet();
+            }
+        }, executor);
+        executor.shutdown();
+        executor.awaitTermination(1L, TimeUnit.SECONDS);
+        sp.out("K", "v");
+        assertEquals("the write goes through", 1, sp.size("K"));
+        assertTrue("registration is dropped", sp.sl.isEmpty());
+        assertEquals(0, count.get());
+    }
+
+    @Test
+    public void testListenerTimeout() throws Throwable {
+        TSpace sp = new TSpace();
+        final AtomicInteger count = new AtomicInteger();
+        SpaceListener listener = new SpaceListener() {
+            public void notify(Object key, Object value) {
+                count.incrementAndGet();
+            }
+        };
+        sp.addListener("K", listener, 100L);
+        sp.addListener("K", listener);
+        assertEquals(2, sp.sl.size("K"));
+        sp.out("K", "1");
+        assertEquals(2, count.get());
+        Thread.sleep(150L);
+        sp.out("K", "2");
+        assertEquals(3, count.get());
+        assertEquals(1, sp.sl.size("K"));
+        sp.removeListener("K", listener);
+        assertTrue(sp.sl.isEmpty());
+    }
+
+    @Test
+    public void testIndexedTemplatesMatchScan() throws Throwable {
+        Function<Object,?> mod = new Function<Object,Object>() {
+            public Object apply(Object o) {
+                return Integer.valueOf(((Integer) o).intValue() % 10);
+            }
+        };
+        TSpace indexed = new TSpace();
+        TSpace scanned = new TSpace();
+        indexed.out("K", Integer.valueOf(3));
+        indexed.addIndex("K", mod);
+        indexed.addIndex("K", ObjectTemplate.VALUE);
+        scanned.out("K", Integer.valueOf(3));
+        Random random = new Random(1L);
+        for (int i = 0; i < 20000; i++) {
+            Integer v = Integer.valueOf(random.nextInt(100));
+            Template t = random.nextBoolean()
+              ? new IndexTemplate("K", mod, Integer.valueOf(random.nextInt(10)))
+              : new ObjectTemplate("K", v);
+            switch (random.nextInt(7)) {
+                case 0:
+                case 1:
+                    indexed.out("K", v);
+                    scanned.out("K", v);
+                    break;
+                case 2:
+                    indexed.push("K", v);
+                    scanned.push("K", v);
+                    break;
+                case 3:
+                    assertEquals(scanned.inp(t), indexed.inp(t));
+                    break;
+                case 4:
+                    assertEquals(scanned.rdp(t), indexed.rdp(t));
+                    break;
+                case 5:
+                    assertEquals(scanned.inp("K"), indexed.inp("K"));
+                    break;
+                default:
+                    if (random.nextInt(100) == 0) {
+                        indexed.put("K", v);
+                        scanned.put("K", v);
+                    }
+            }
+            assertEquals(scanned.size("K"), indexed.size("K"));
+        }
+    }
+
+    @Test
+    public void testIndexedLookupDoesNotScan() throws Throwable {
+        final AtomicInteger calls = new AtomicInteger();
+        Function<Object,?> stan = new Function<Object,Object>() {
+            public Object apply(Object o) {
+                calls.incrementAndGet();
+                return ((String) o).substring(0, 6);
+            }
+        };
+        TSpace sp = new TSpace();
+        sp.addIndex("SAF", stan);
+        for (int i = 0; i < 1000; i++)
+            sp.out("SAF", ISOUtil.zeropad(i, 6) + "-data");
+        sp.out("SAF", "000500-dup", 60000L);
+        calls.set(0);
+        assertEquals("000500-data", sp.rdp(new IndexTemplate("SAF", stan, "000500")));
+        assertEquals("000500-data", sp.inp(new IndexTemplate("SAF", stan, "000500")));
+        assertEquals("000500-dup", sp.inp(new IndexTemplate("SAF", stan, "000500")));
+        assertNull(sp.inp(new IndexTemplate("SAF", stan, "000500")));
+        assertEquals(2, calls.get()); // one per removed entry
+        assertEquals(999, sp.size("SAF"));
+
+        sp.removeIndex("SAF", stan);
+        calls.set(0);
+        assertEquals("000999-data", sp.rdp(new IndexTemplate("SAF", stan, "000999")));
+        assertEquals(999, calls.get()); // scans the whole key
+    }
 }
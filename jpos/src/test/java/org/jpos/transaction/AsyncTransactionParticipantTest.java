@@ -0,0 +1,131 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import org.jpos.space.TSpace;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings("unchecked")
+public class AsyncTransactionParticipantTest implements TransactionConstants {
+    static final String QUEUE = "ASYNC.TXN";
+    TransactionManager txnmgr;
+
+    @Before
+    public void setUp() {
+        txnmgr = new TransactionManager();
+        txnmgr.psp = new TSpace();
+        txnmgr.sp = txnmgr.psp;
+        txnmgr.isp = new TSpace();
+        txnmgr.queue = QUEUE;
+        txnmgr.transientState = true;
+    }
+
+    @Test
+    public void testCompletedStageDoesNotPause() {
+        AsyncParticipant p = new AsyncParticipant(CompletableFuture.completedFuture(PREPARED));
+        List<TransactionParticipant> members = new ArrayList();
+        int action = txnmgr.prepare(0, 1L, new Context(), members,
+            Arrays.<TransactionParticipant>asList(p).iterator(), false, null, null);
+        assertEquals(PREPARED, action);
+        assertEquals(1, members.size());
+        assertNull(txnmgr.isp.rdp(QUEUE));
+    }
+
+    @Test
+    public void testPauseAndResume() {
+        CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+        AsyncParticipant p = new AsyncParticipant(f);
+        AsyncParticipant next = new AsyncParticipant(CompletableFuture.completedFuture(PREPARED | READONLY));
+        Context ctx = new Context();
+        List<TransactionParticipant> members = new ArrayList();
+        int action = txnmgr.prepare(0, 1L, ctx, members,
+            Arrays.<TransactionParticipant>asList(p, next).iterator(), false, null, null);
+        assertEquals(PAUSE, action);
+        assertEquals(0, next.calls);
+        assertNull(txnmgr.isp.rdp(QUEUE));
+
+        f.complete(PREPARED);
+        assertSame(ctx, txnmgr.isp.in(QUEUE, 1000L));
+        PausedTransaction pt = ctx.getPausedTransaction();
+        assertFalse(pt.isAborting());
+        action = txnmgr.prepare(0, pt.id(), ctx, pt.members(), pt.iterator(), pt.isAborting(), null, null, pt);
+        assertEquals(PREPARED, action);
+        assertEquals(1, p.calls);
+        assertEquals(1, next.calls);
+        assertEquals(Arrays.asList(p, next), members);
+    }
+
+    @Test
+    public void testExpiredStageAborts() {
+        AsyncParticipant p = new AsyncParticipant(new CompletableFuture<Integer>());
+        AsyncParticipant next = new AsyncParticipant(CompletableFuture.completedFuture(PREPARED));
+        Context ctx = new Context();
+        ctx.setTimeout(100L);
+        List<TransactionParticipant> members = new ArrayList();
+        int action = txnmgr.prepare(0, 1L, ctx, members,
+            Arrays.<TransactionParticipant>asList(p, next).iterator(), false, null, null);
+        assertEquals(PAUSE, action);
+
+        assertSame(ctx, txnmgr.isp.in(QUEUE, 5000L));
+        PausedTransaction pt = ctx.getPausedTransaction();
+        assertTrue(pt.isAborting());
+        action = txnmgr.prepare(0, pt.id(), ctx, pt.members(), pt.iterator(), pt.isAborting(), null, null, pt);
+        assertEquals(ABORTED, action);
+        assertEquals(0, next.calls);
+        assertEquals(Arrays.asList(p), members);
+    }
+
+    @Test
+    public void testFailedStageAborts() {
+        CompletableFuture<Integer> f = new CompletableFuture<Integer>();
+        f.completeExceptionally(new IllegalStateException("no route"));
+        AsyncParticipant p = new AsyncParticipant(f);
+        int action = txnmgr.prepare(0, 1L, new Context(), new ArrayList(),
+            Arrays.<TransactionParticipant>asList(p).iterator(), false, null, null);
+        assertEquals(ABORTED, action);
+    }
+
+    static class AsyncParticipant implements AsyncTransactionParticipant {
+        CompletableFuture<Integer> f;
+        int calls;
+        AsyncParticipant(CompletableFuture<Integer> f) {
+            this.f = f;
+        }
+        public CompletionStage<Integer> prepareAsync(long id, Serializable context) {
+            calls++;
+            return f;
+        }
+        public void commit(long id, Serializable context) { }
+        public void abort(long id, Serializable context) { }
+    }
+}
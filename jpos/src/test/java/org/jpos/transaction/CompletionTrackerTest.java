@@ -0,0 +1,78 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CompletionTrackerTest {
+    @Test
+    public void testInOrder() {
+        CompletionTracker t = new CompletionTracker(16, 1L);
+        for (long id = 1; id <= 100; id++)
+            assertEquals(id + 1, t.done(id));
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        CompletionTracker t = new CompletionTracker(16, 1L);
+        assertEquals(1L, t.done(3));
+        assertEquals(1L, t.done(2));
+        assertEquals(4L, t.done(1));
+        assertEquals(4L, t.getTail());
+    }
+
+    @Test
+    public void testOverflow() {
+        CompletionTracker t = new CompletionTracker(4, 1L);
+        for (long id = 2; id <= 20; id++)
+            assertEquals(1L, t.done(id));
+        assertEquals(16, t.getOverflowSize());
+        assertEquals(21L, t.done(1));
+        assertEquals(0, t.getOverflowSize());
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        final CompletionTracker t = new CompletionTracker(64, 0L);
+        final AtomicLong ids = new AtomicLong();
+        final int count = 100000;
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    long id;
+                    while ((id = ids.getAndIncrement()) < count) {
+                        if (id % 7 == 0)
+                            Thread.yield();
+                        t.done(id);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(count, t.getTail());
+        assertEquals(0, t.getOverflowSize());
+    }
+}
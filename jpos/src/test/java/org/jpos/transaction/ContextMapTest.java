@@ -0,0 +1,108 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ContextMapTest {
+    @Test
+    public void testBehavesLikeHashMap() {
+        Random random = new Random(1L);
+        Map<Object,Object> expected = new HashMap<Object,Object>();
+        ContextMap map = new ContextMap(4);
+        for (int i = 0; i < 20000; i++) {
+            Object key = random.nextInt(10) == 0 ? null : "K" + random.nextInt(300);
+            switch (random.nextInt(3)) {
+                case 0:
+                    Object value = random.nextInt(20) == 0 ? null : Integer.valueOf(i);
+                    assertEquals(expected.put(key, value), map.put(key, value));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<Object,Object>(map));
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        ContextMap map = new ContextMap(16);
+        for (int i = 0; i < 10; i++)
+            map.put(Integer.valueOf(i), "v" + i);
+        Iterator<Map.Entry<Object,Object>> iter = map.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (((Integer) iter.next().getKey()) % 2 == 0)
+                iter.remove();
+        }
+        assertEquals(5, map.size());
+        assertFalse(map.containsKey(Integer.valueOf(2)));
+        assertTrue(map.containsKey(Integer.valueOf(3)));
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(Integer.valueOf(3)));
+    }
+
+    @Test
+    public void testConcurrentReaders() throws InterruptedException {
+        final ContextMap map = new ContextMap(2);
+        final ContextKey<String> key = ContextKey.of("STABLE");
+        map.put(key, "stable");
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    while (!done.get()) {
+                        if (!"stable".equals(map.get(key)))
+                            error.set("missing stable entry");
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (int i = 0; i < 50000; i++) {
+            map.put("K" + (i % 500), Integer.valueOf(i));
+            if (i % 3 == 0)
+                map.remove("K" + ((i + 7) % 500));
+        }
+        done.set(true);
+        for (Thread t : readers)
+            t.join();
+        assertNull(error.get());
+    }
+}
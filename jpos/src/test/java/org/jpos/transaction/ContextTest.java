@@ -25,7 +25,9 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.util.Locale;
@@ -349,4 +351,52 @@ public class ContextTest {
             assertNull("ex.getMessage()", ex.getMessage());
         }
     }
+
+    @Test
+    public void testTypedKeys() throws Throwable {
+        ContextKey<Long> amount = ContextKey.of("AMOUNT");
+        assertSame(amount, ContextKey.of("AMOUNT"));
+        Context context = new Context(4);
+        context.put(amount, 100L);
+        long l = context.get(amount);
+        assertEquals(100L, l);
+        assertNull("typed keys and names are different entries", context.get("AMOUNT"));
+        assertEquals(Long.valueOf(5L), context.get(ContextKey.<Long>of("MISSING"), Long.valueOf(5L)));
+    }
+
+    @Test
+    public void testTypedKeySerialization() throws Throwable {
+        ContextKey<String> key = ContextKey.of("PERSISTENT");
+        Context context = new Context();
+        context.put(key, "value", true);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeObject(context);
+        out.close();
+        Context c = (Context) new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())).readObject();
+        assertEquals("value", c.get(key));
+    }
+
+    @Test
+    public void testGetWithTimeoutWakesUp() throws Throwable {
+        final Context context = new Context();
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException ignored) { }
+                context.put("LATE", "here");
+            }
+        }.start();
+        assertEquals("here", context.get("LATE", 5000L));
+    }
+
+    @Test
+    public void testNullValue() throws Throwable {
+        Context context = new Context();
+        context.put("NULL", null);
+        assertTrue(context.getMap().containsKey("NULL"));
+        assertNull(context.get("NULL"));
+        assertEquals("def", context.get("NULL", "def"));
+    }
 }
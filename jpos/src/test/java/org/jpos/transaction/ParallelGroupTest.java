@@ -0,0 +1,206 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.Element;
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.q2.QBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelGroupTest implements TransactionConstants {
+    ForkJoinPool pool;
+    TransactionManager txnmgr;
+
+    @Before
+    public void setUp() {
+        pool = new ForkJoinPool(4);
+        txnmgr = new TransactionManager();
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testRunsConcurrently() {
+        Member a = new Member(PREPARED, 200L);
+        Member b = new Member(PREPARED | READONLY, 200L);
+        Member c = new Member(PREPARED | NO_JOIN, 200L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a, b, c), 5000L, pool);
+        long start = System.currentTimeMillis();
+        int action = group.prepare(1L, new Context());
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(PREPARED, action);
+        assertTrue("elapsed " + elapsed, elapsed < 550L);
+
+        group.commit(1L, new Context());
+        assertEquals(1, a.commits);
+        assertEquals(1, b.commits);
+        assertEquals(0, c.commits);
+    }
+
+    @Test
+    public void testAnyAbortAborts() {
+        Member a = new Member(PREPARED, 0L);
+        Member b = new Member(ABORTED, 0L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a, b), 5000L, pool);
+        assertEquals(ABORTED, group.prepare(1L, new Context()));
+        group.abort(1L, new Context());
+        assertEquals(1, a.aborts);
+        assertEquals(1, b.aborts);
+        assertEquals(0, a.commits);
+    }
+
+    @Test
+    public void testRetryKeepsNoBranches() {
+        Member a = new Member(PREPARED | NO_JOIN | READONLY, 0L);
+        Member b = new Member(RETRY | NO_JOIN | READONLY, 0L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a, b), 5000L, pool);
+        assertEquals(RETRY | NO_JOIN | READONLY, group.prepare(1L, new Context()));
+
+        Member c = new Member(PREPARED, 0L);
+        Member d = new Member(RETRY, 0L);
+        group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(c, d), 5000L, pool);
+        assertEquals(RETRY, group.prepare(2L, new Context()));
+        group.abort(2L, new Context());
+        assertEquals("retried branches are not kept", 0, c.aborts);
+        assertEquals(0, d.aborts);
+    }
+
+    @Test
+    public void testAllNoJoin() {
+        Member a = new Member(PREPARED | NO_JOIN | READONLY, 0L);
+        Member b = new Member(PREPARED | NO_JOIN | READONLY, 0L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a, b), 5000L, pool);
+        assertEquals(PREPARED | NO_JOIN | READONLY, group.prepare(1L, new Context()));
+    }
+
+    @Test
+    public void testExpiredMemberAborts() throws InterruptedException {
+        Member a = new Member(PREPARED, 0L);
+        Member slow = new Member(PREPARED, 1000L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a, slow), 100L, pool);
+        long start = System.currentTimeMillis();
+        assertEquals(ABORTED, group.prepare(1L, new Context()));
+        assertTrue(System.currentTimeMillis() - start < 900L);
+        group.abort(1L, new Context());
+        assertEquals(1, a.aborts);
+        assertTrue("slow member aborted after its prepare", slow.aborted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExpiredNoJoinMemberIsNotAborted() throws InterruptedException {
+        Member a = new Member(PREPARED, 0L);
+        Member slow = new Member(PREPARED | NO_JOIN | READONLY, 300L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a, slow), 50L, pool);
+        assertEquals("an expired member votes ABORTED", ABORTED, group.prepare(1L, new Context()));
+        group.abort(1L, new Context());
+        assertEquals(1, a.aborts);
+        assertFalse("late NO_JOIN vote is honored", slow.aborted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testPrepareForAbort() {
+        Member a = new Member(PREPARED, 0L);
+        ParallelGroup group = new ParallelGroup(txnmgr, "checks", Arrays.<TransactionParticipant>asList(a), 5000L, pool);
+        assertEquals(ABORTED | NO_JOIN | READONLY, group.prepareForAbort(1L, new Context()));
+    }
+
+    @Test
+    public void testSurvivesStopStart() throws Throwable {
+        TransactionManager tm = new TransactionManager() {
+            public TransactionParticipant createParticipant(Element e) {
+                return new Prepared();
+            }
+        };
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("queue", "ParallelGroupTest.TXN");
+        cfg.put("space", "tspace:ParallelGroupTest");
+        cfg.put("persistent-space", "tspace:ParallelGroupTest");
+        tm.setName("ParallelGroupTest");
+        tm.setConfiguration(cfg);
+        tm.setPersist(new Element("txnmgr").addContent(
+          new Element("group").setAttribute("name", "checks").setAttribute("parallel", "true")
+            .addContent(new Element("participant").setAttribute("class", "Prepared"))
+            .addContent(new Element("participant").setAttribute("class", "Prepared"))
+        ));
+        tm.init();
+        assertEquals(QBean.STOPPED, tm.getState());
+        ParallelGroup group = (ParallelGroup) tm.groups.get("checks").get(0);
+        try {
+            tm.start();
+            tm.stop();
+            tm.start();
+            assertEquals(QBean.STARTED, tm.getState());
+            assertEquals("forks still run after a restart", PREPARED, group.prepare(1L, new Context()));
+            group.commit(1L, new Context());
+        } finally {
+            tm.destroy();
+        }
+    }
+
+    static class Prepared implements TransactionParticipant {
+        public int prepare(long id, Serializable context) {
+            return PREPARED;
+        }
+        public void commit(long id, Serializable context) { }
+        public void abort(long id, Serializable context) { }
+    }
+
+    static class Member implements TransactionParticipant {
+        final int action;
+        final long delay;
+        volatile int commits;
+        volatile int aborts;
+        final CountDownLatch aborted = new CountDownLatch(1);
+
+        Member(int action, long delay) {
+            this.action = action;
+            this.delay = delay;
+        }
+        public int prepare(long id, Serializable context) {
+            if (delay > 0L) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ignored) { }
+            }
+            return action;
+        }
+        public void commit(long id, Serializable context) {
+            commits++;
+        }
+        public void abort(long id, Serializable context) {
+            aborts++;
+            aborted.countDown();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jpos.iso.ISOMsg;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrioritySchedulerTest {
+    PriorityScheduler scheduler;
+    List<Object> dropped;
+
+    @Before
+    public void setUp() {
+        List<PriorityScheduler.Level> levels = new ArrayList<PriorityScheduler.Level>();
+        levels.add(new PriorityScheduler.Level("auth", 3, 0L, new String[] { "01", "02" }));
+        levels.add(new PriorityScheduler.Level("batch", 1, 50L, new String[] { "0500", "0320" }));
+        scheduler = new PriorityScheduler(levels, "REQUEST", "PRIORITY", "DEADLINE");
+        dropped = new ArrayList<Object>();
+    }
+
+    @Test
+    public void testClassify() {
+        assertEquals("auth", scheduler.classify(context("0200")).name);
+        assertEquals("auth", scheduler.classify(context("0100")).name);
+        assertEquals("batch", scheduler.classify(context("0500")).name);
+        assertEquals("default", scheduler.classify(context("0800")).name);
+        assertEquals("default", scheduler.classify(new Context()).name);
+        Context ctx = context("0500");
+        ctx.put("PRIORITY", "auth");
+        assertEquals("auth", scheduler.classify(ctx).name);
+    }
+
+    @Test
+    public void testWeightedFairness() {
+        for (int i = 0; i < 100; i++) {
+            scheduler.offer(context("0320"));
+            scheduler.offer(context("0200"));
+        }
+        int auth = 0;
+        for (int i = 0; i < 40; i++) {
+            Context ctx = (Context) scheduler.poll(0L, dropped);
+            if (((ISOMsg) ctx.get("REQUEST")).getString(0).equals("0200"))
+                auth++;
+        }
+        assertEquals(30, auth);
+        assertEquals(160, scheduler.size());
+        assertTrue(dropped.isEmpty());
+    }
+
+    @Test
+    public void testResumedFirst() {
+        Context ctx = context("0200");
+        scheduler.offer(context("0200"));
+        scheduler.push(ctx);
+        assertSame(ctx, scheduler.poll(0L, dropped));
+    }
+
+    @Test
+    public void testDeadline() {
+        Context late = context("0200");
+        late.put("DEADLINE", System.currentTimeMillis() - 1L);
+        Context onTime = context("0200");
+        onTime.put("DEADLINE", System.currentTimeMillis() + 60000L);
+        scheduler.offer(late);
+        scheduler.offer(onTime);
+        assertSame(onTime, scheduler.poll(0L, dropped));
+        assertEquals(1, dropped.size());
+        assertSame(late, dropped.get(0));
+        assertNull(scheduler.poll(10L, dropped));
+    }
+
+    @Test
+    public void testMaxWait() throws InterruptedException {
+        Context ctx = context("0500");
+        scheduler.offer(ctx);
+        Thread.sleep(100L);
+        assertNull(scheduler.poll(0L, dropped));
+        assertSame(ctx, dropped.get(0));
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void testPollWaits() throws InterruptedException {
+        final Context ctx = context("0200");
+        new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                } catch (InterruptedException ignored) { }
+                scheduler.offer(ctx);
+            }
+        }.start();
+        assertSame(ctx, scheduler.poll(5000L, dropped));
+    }
+
+    private static Context context(String mti) {
+        Context ctx = new Context();
+        ctx.put("REQUEST", new ISOMsg(mti));
+        return ctx;
+    }
+}
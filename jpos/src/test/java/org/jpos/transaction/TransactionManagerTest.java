@@ -33,7 +33,11 @@ import java.io.SerializablePermission;
 import java.io.UnsupportedEncodingException;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jdom.Comment;
 import org.jdom.Element;
@@ -41,6 +45,7 @@ import org.jpos.core.Configuration;
 import org.jpos.core.ConfigurationException;
 import org.jpos.core.SimpleConfiguration;
 import org.jpos.core.SubConfiguration;
+import org.jpos.space.TSpace;
 import org.jpos.transaction.participant.BSHTransactionParticipant;
 import org.jpos.transaction.participant.CheckPoint;
 import org.jpos.transaction.participant.Debug;
@@ -597,4 +602,121 @@ public class TransactionManagerTest {
             assertNull("transactionManager.psp", transactionManager.psp);
         }
     }
+
+    @Test
+    public void testParticipantChainIsCached() throws Throwable {
+        TransactionParticipant a = new Debug();
+        TransactionParticipant b = new Trace();
+        TransactionParticipant c = new CheckPoint();
+        transactionManager.groups = new HashMap<String,List<TransactionParticipant>>();
+        transactionManager.groups.put("a", Arrays.asList(a));
+        transactionManager.groups.put("b", Arrays.asList(b));
+        TransactionManager.ParticipantChain chain = transactionManager.getParticipantChain("a b,unknown");
+        assertSame("cached chain", chain, transactionManager.getParticipantChain("a b,unknown"));
+        assertEquals(3, chain.groups.length);
+
+        Iterator<TransactionParticipant> iter = chain.iterator(Arrays.asList(c).iterator());
+        List<TransactionParticipant> l = new ArrayList<TransactionParticipant>();
+        while (iter.hasNext())
+            l.add(iter.next());
+        assertEquals(Arrays.asList(a, b, c), l);
+    }
+
+    @Test
+    public void testPrioritiesRequireTransientInputSpace() throws Throwable {
+        Element config = new Element("txnmgr").addContent(
+            new Element("priority").setAttribute("name", "auth").setAttribute("mti", "0100"));
+        transactionManager.setConfiguration(new SimpleConfiguration());
+        transactionManager.isp = new org.jpos.space.SpaceInterceptor(new org.jpos.space.TSpace());
+        try {
+            transactionManager.initPriorities(config);
+            fail("Expected ConfigurationException to be thrown");
+        } catch (ConfigurationException ex) {
+            assertNull(transactionManager.scheduler);
+        }
+        transactionManager.isp = new org.jpos.space.TSpace();
+        transactionManager.initPriorities(config);
+        assertNotNull(transactionManager.scheduler);
+    }
+
+    @Test
+    public void testElasticScalesUpWhenSaturated() throws Throwable {
+        AtomicInteger started = new AtomicInteger();
+        TransactionManager tm = elasticTransactionManager(started, 0);
+        tm.activeSessions.set(2);
+        tm.busySessions.set(2);
+        for (int i = 0; i < 3; i++)
+            tm.isp.out(tm.queue, new Context());
+        tm.latencySum.add(6000000L);
+        tm.latencyCount.add(2L);
+        tm.new SessionController().run();
+        assertEquals(1L, tm.getScaleUps());
+        assertEquals(0L, tm.getScaleDowns());
+        for (int i = 0; i < 500 && started.get() < 2; i++)
+            Thread.sleep(10L);
+        assertEquals("sessions added up to max-sessions", 2, started.get());
+        assertEquals(3f, tm.getAvgLatency(), 0.001f);
+        assertEquals(2, tm.getActiveSessions());
+        assertEquals(2, tm.getBusySessions());
+        assertEquals(4, tm.getMaxSessions());
+        assertTrue(tm.isElastic());
+    }
+
+    @Test
+    public void testElasticDoesNotScaleAtMaxActiveSessions() throws Throwable {
+        AtomicInteger started = new AtomicInteger();
+        TransactionManager tm = elasticTransactionManager(started, 4);
+        tm.activeSessions.set(2);
+        tm.busySessions.set(2);
+        tm.head = 4L;
+        for (int i = 0; i < 3; i++)
+            tm.isp.out(tm.queue, new Context());
+        tm.new SessionController().run();
+        assertEquals(0L, tm.getScaleUps());
+        assertEquals(0, started.get());
+    }
+
+    @Test
+    public void testElasticRetiresOneSessionPerInterval() throws Throwable {
+        TransactionManager tm = elasticTransactionManager(new AtomicInteger(), 0);
+        tm.activeSessions.set(4);
+        TransactionManager.SessionController controller = tm.new SessionController();
+        controller.run();
+        assertEquals("idle, but not for scale-down-delay", 0L, tm.getScaleDowns());
+        assertFalse(tm.claimRetirement());
+        Thread.sleep(150L);
+        controller.run();
+        assertEquals(1L, tm.getScaleDowns());
+        assertEquals(1, tm.retiring.get());
+        controller.run();
+        assertEquals(2L, tm.getScaleDowns());
+        controller.run();
+        assertEquals("never below sessions", 2L, tm.getScaleDowns());
+        assertTrue(tm.claimRetirement());
+        assertTrue(tm.claimRetirement());
+        assertFalse(tm.claimRetirement());
+    }
+
+    private static TransactionManager elasticTransactionManager(final AtomicInteger started, int maxActiveSessions)
+      throws ConfigurationException
+    {
+        TransactionManager tm = new TransactionManager() {
+            @Override
+            public void run() {
+                started.incrementAndGet(); // stands for a new session
+            }
+        };
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("elastic", "true");
+        cfg.put("sessions", "2");
+        cfg.put("max-sessions", "4");
+        cfg.put("threshold", "0");
+        cfg.put("scale-down-delay", "100");
+        if (maxActiveSessions > 0)
+            cfg.put("max-active-sessions", Integer.toString(maxActiveSessions));
+        tm.setConfiguration(cfg);
+        tm.queue = "TransactionManagerTest.TXN";
+        tm.isp = new TSpace();
+        return tm;
+    }
 }
@@ -0,0 +1,64 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.transaction.participant;
+
+import static org.jpos.transaction.TransactionConstants.ABORTED;
+import static org.jpos.transaction.TransactionConstants.NO_JOIN;
+import static org.jpos.transaction.TransactionConstants.PAUSE;
+import static org.jpos.transaction.TransactionConstants.PREPARED;
+import static org.jpos.transaction.TransactionConstants.READONLY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.jpos.core.SimpleConfiguration;
+import org.jpos.transaction.Context;
+import org.junit.Test;
+
+public class RateLimitTest {
+
+    @Test
+    public void testReject() throws Exception {
+        RateLimit p = new RateLimit();
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("rate", "1");
+        cfg.put("period", "60000");
+        p.setConfiguration(cfg);
+        Context ctx = new Context();
+        assertEquals(PREPARED | NO_JOIN | READONLY, p.prepare(1L, ctx));
+        assertEquals(ABORTED | NO_JOIN | READONLY, p.prepare(2L, ctx));
+        assertEquals(RateLimit.RATE_LIMITED, ctx.getString("RESULT"));
+    }
+
+    @Test
+    public void testDelayPausesInsteadOfSleeping() throws Exception {
+        RateLimit p = new RateLimit();
+        SimpleConfiguration cfg = new SimpleConfiguration();
+        cfg.put("rate", "1");
+        cfg.put("period", "500");
+        cfg.put("on-limit", "delay");
+        cfg.put("max-delay", "1000");
+        p.setConfiguration(cfg);
+        assertEquals(PREPARED | NO_JOIN | READONLY, p.prepare(1L, new Context()));
+        long start = System.currentTimeMillis();
+        int action = p.prepare(2L, new Context());
+        long elapsed = System.currentTimeMillis() - start;
+        assertEquals(PREPARED | NO_JOIN | READONLY | PAUSE, action);
+        assertTrue("prepare should not block, took " + elapsed + "ms", elapsed < 250L);
+    }
+}
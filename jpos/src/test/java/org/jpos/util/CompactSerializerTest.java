@@ -0,0 +1,174 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Locale;
+
+import org.jpos.iso.ISOAmount;
+import org.jpos.iso.ISOBinaryField;
+import org.jpos.iso.ISOMsg;
+import org.jpos.iso.packager.ISO87APackager;
+import org.jpos.transaction.Context;
+import org.jpos.transaction.ContextKey;
+import org.junit.Test;
+
+public class CompactSerializerTest {
+    @Test
+    public void testScalars() throws Exception {
+        Object[] values = {
+            null, "", "0200", "ñandú", Long.MIN_VALUE, -1L, 0L, 300L, Long.MAX_VALUE,
+            Integer.MIN_VALUE, -5, 70000, (short) -2, Boolean.TRUE,
+            new BigDecimal("-123.45"), new BigDecimal("1E+10"), new Date(1338522478056L),
+            Locale.US
+        };
+        for (Object v : values)
+            assertEquals(v, roundTrip(v));
+        assertArrayEquals(new byte[] { 0, 1, (byte) 0xFF },
+          (byte[]) roundTrip(new byte[] { 0, 1, (byte) 0xFF }));
+    }
+
+    @Test
+    public void testISOMsg() throws Exception {
+        ISOMsg m = new ISOMsg("0200");
+        m.setPackager(new ISO87APackager());
+        m.setDirection(ISOMsg.INCOMING);
+        m.setHeader("ISO026000050".getBytes());
+        m.set(2, "4111111111111111");
+        m.set(4, "000000010000");
+        m.set(new ISOAmount(5, 840, new BigDecimal("12.34")));
+        m.set(new ISOBinaryField(52, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 }));
+        m.set("127.2", "inner");
+        m.set("127.3.1", "deep");
+
+        ISOMsg r = (ISOMsg) roundTrip(m);
+        assertEquals("0200", r.getMTI());
+        assertEquals(ISOMsg.INCOMING, r.getDirection());
+        assertArrayEquals(m.getHeader(), r.getHeader());
+        assertEquals(ISO87APackager.class, r.getPackager().getClass());
+        assertEquals("4111111111111111", r.getString(2));
+        assertEquals("000000010000", r.getString(4));
+        assertEquals(new BigDecimal("12.34"), ((ISOAmount) r.getComponent(5)).getAmount());
+        assertArrayEquals(m.getBytes(52), r.getBytes(52));
+        assertEquals("inner", r.getString("127.2"));
+        assertEquals("deep", r.getString("127.3.1"));
+        assertTrue(CompactSerializer.serialize(m).length < Serializer.serialize(m).length);
+    }
+
+    @Test
+    public void testContext() throws Exception {
+        ContextKey<ISOMsg> request = ContextKey.of("REQUEST");
+        ISOMsg m = new ISOMsg("0100");
+        m.set(11, "000001");
+        Context ctx = new Context();
+        ctx.put(request, m, true);
+        ctx.put("AMOUNT", new BigDecimal("10.00"), true);
+        ctx.put("TRANSIENT", "not persisted");
+
+        Context c = (Context) Serializer.deserialize(Serializer.serializeCompact(ctx));
+        assertEquals("000001", c.get(request).getString(11));
+        assertEquals(new BigDecimal("10.00"), c.get("AMOUNT"));
+        assertNull(c.get("TRANSIENT"));
+
+        // Externalizable form, as used by persistent spaces
+        c = (Context) Serializer.deserialize(Serializer.serialize(ctx));
+        assertEquals("000001", c.get(request).getString(11));
+        assertEquals(new BigDecimal("10.00"), c.get("AMOUNT"));
+    }
+
+    @Test
+    public void testLegacyContext() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(baos);
+        out.writeByte(0);
+        out.writeInt(1);
+        out.writeObject("K");
+        out.writeObject("V");
+        out.flush();
+        Context c = new Context();
+        c.readExternal(new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertEquals("V", c.get("K"));
+    }
+
+    @Test
+    public void testUserCodec() throws Exception {
+        CompactSerializer.register(100, Point.class, new CompactSerializer.Codec<Point>() {
+            public void write(DataOutput out, Point p) throws IOException {
+                out.writeInt(p.x);
+                out.writeInt(p.y);
+            }
+            public Point read(DataInput in) throws IOException {
+                return new Point(in.readInt(), in.readInt());
+            }
+        });
+        Point p = (Point) roundTrip(new Point(3, 4));
+        assertEquals(3, p.x);
+        assertEquals(4, p.y);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedTag() {
+        CompactSerializer.register(8, Point.class, null);
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testUnknownTag() throws Exception {
+        CompactSerializer.deserialize(new byte[] { CompactSerializer.MAGIC, CompactSerializer.VERSION, 120 });
+    }
+
+    @Test
+    public void testVarLong() throws Exception {
+        long[] values = { 0L, 127L, 128L, 16384L, Long.MAX_VALUE, -1L };
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        for (long l : values)
+            CompactSerializer.writeVarLong(out, l);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        for (long l : values)
+            assertEquals(l, CompactSerializer.readVarLong(in));
+    }
+
+    private static Object roundTrip(Object o) throws Exception {
+        return Serializer.deserialize(CompactSerializer.serialize(o));
+    }
+
+    static class Point {
+        final int x, y;
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+}
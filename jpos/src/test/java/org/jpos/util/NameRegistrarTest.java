@@ -25,6 +25,7 @@ import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
@@ -115,4 +116,45 @@ public class NameRegistrarTest {
         NameRegistrar.NotFoundException notFoundException = new NameRegistrar.NotFoundException("testNotFoundExceptionDetail");
         assertEquals("notFoundException.getMessage()", "testNotFoundExceptionDetail", notFoundException.getMessage());
     }
+
+    @Test
+    public void testHandleFollowsRegistrations() throws Exception {
+        NameRegistrar.Handle<String> handle = NameRegistrar.handle("test4", String.class);
+        assertThat(handle.getIfExists(), is(nullValue()));
+        try {
+            handle.get();
+            fail("Expected NotFoundException to be thrown");
+        } catch (NameRegistrar.NotFoundException ex) {
+            assertEquals("test4", ex.getMessage());
+        }
+        NameRegistrar.register("test4", "v1");
+        assertThat(handle.get(), is("v1"));
+        NameRegistrar.unregister("test4");
+        assertThat(handle.getIfExists(), is(nullValue()));
+        NameRegistrar.register("test4", "v2");
+        assertThat(handle.get(), is("v2"));
+        assertThat(NameRegistrar.handle("test4", String.class).get(), is("v2"));
+        assertThat(NameRegistrar.handle("test1", String.class).get(), is("testValue1"));
+        NameRegistrar.unregister("test4");
+    }
+
+    @Test(expected = ClassCastException.class)
+    public void testHandleWrongType() throws Exception {
+        NameRegistrar.handle("test1", Integer.class).get();
+    }
+
+    @Test
+    public void testGetWithTimeout() throws Exception {
+        final NameRegistrar.Handle<String> handle = NameRegistrar.handle("test5", String.class);
+        new Thread() {
+            public void run() {
+                org.jpos.iso.ISOUtil.sleep(100L);
+                NameRegistrar.register("test5", "later");
+            }
+        }.start();
+        assertThat(handle.get(5000L), is("later"));
+        assertThat((String) NameRegistrar.get("test5", 10L), is("later"));
+        NameRegistrar.unregister("test5");
+        assertThat(NameRegistrar.get("test5", 10L), is(nullValue()));
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jpos.iso.ISOMsg;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testBurstThenReject() {
+        RateLimiter rl = new RateLimiter(5, 60000L);
+        for (int i=0; i<5; i++)
+            assertTrue("transaction " + i + " should be accepted", rl.tryAcquire("t1"));
+        assertFalse("6th transaction should be rejected", rl.tryAcquire("t1"));
+        assertTrue("other keys are not affected", rl.tryAcquire("t2"));
+    }
+
+    @Test
+    public void testRefill() throws Exception {
+        RateLimiter rl = new RateLimiter(10, 1000L, 1, 100);
+        assertTrue(rl.tryAcquire("k"));
+        assertFalse(rl.tryAcquire("k"));
+        Thread.sleep(150L);
+        assertTrue("bucket should have refilled", rl.tryAcquire("k"));
+    }
+
+    @Test
+    public void testReserve() {
+        RateLimiter rl = new RateLimiter(10, 1000L, 1, 100);
+        assertEquals(0L, rl.reserve("k", 500L));
+        long wait = rl.reserve("k", 500L);
+        assertTrue("wait should be about 100ms but was " + wait, wait > 0L && wait <= 100L);
+        assertEquals("slot too far away", -1L, rl.reserve("k", 50L));
+    }
+
+    @Test
+    public void testPurge() throws Exception {
+        RateLimiter rl = new RateLimiter(1000, 1000L, 1, 2);
+        rl.tryAcquire("a");
+        rl.tryAcquire("b");
+        assertEquals(2, rl.size());
+        Thread.sleep(10L);
+        rl.tryAcquire("c");
+        assertEquals("idle keys should have been purged", 1, rl.size());
+    }
+
+    @Test
+    public void testGetKey() throws Exception {
+        ISOMsg m = new ISOMsg("0200");
+        m.set(2, "4111111111111111");
+        m.set(41, "29110001");
+        assertEquals("411111", RateLimiter.getKey(m, new int[] { 2 }, 6));
+        assertEquals("0200.29110001", RateLimiter.getKey(m, new int[] { 0, 41 }, 0));
+        assertEquals(RateLimiter.DEFAULT_KEY, RateLimiter.getKey(m, new int[0], 0));
+    }
+}
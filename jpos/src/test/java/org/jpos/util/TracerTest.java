@@ -0,0 +1,132 @@
+/*
+ * jPOS Project [http://jpos.org]
+ * Copyright (C) 2000-2015 Alejandro P. Revilla
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jpos.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.jpos.iso.ISOMsg;
+import org.jpos.transaction.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracerTest {
+    final List<Span> exported = Collections.synchronizedList(new ArrayList<Span>());
+
+    @Before
+    public void setUp() {
+        Tracer.setExporter(new SpanExporter() {
+            public void export(Span span) {
+                exported.add(span);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.setSampleRate(0.0);
+        Tracer.setExporter(null);
+        Tracer.setCurrent(null);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertFalse(Tracer.isEnabled());
+        assertNull(Tracer.startTrace("receive", System.nanoTime()));
+    }
+
+    @Test
+    public void testSpans() {
+        Tracer.setSampleRate(1.0);
+        Span root = Tracer.startTrace("receive", System.nanoTime());
+        assertNotNull(root);
+        assertEquals(0L, root.getParentId());
+        Span child = root.child("txnmgr");
+        assertEquals(root.getTraceId(), child.getTraceId());
+        assertEquals(root.getSpanId(), child.getParentId());
+        assertEquals(-1L, child.getDuration());
+        child.finish();
+        child.finish();
+        root.finish();
+        assertEquals(2, exported.size());
+        assertSame(child, exported.get(0));
+        assertTrue(child.getDuration() >= 0L);
+    }
+
+    @Test
+    public void testConcurrentFinishExportsOnce() throws Exception {
+        Tracer.setSampleRate(1.0);
+        Span root = Tracer.startTrace("receive", System.nanoTime());
+        for (int i = 0; i < 200; i++) {
+            final Span span = root.child("mux");
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[4];
+            for (int j = 0; j < threads.length; j++) {
+                threads[j] = new Thread() {
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException ignored) { }
+                        span.finish();
+                    }
+                };
+                threads[j].start();
+            }
+            start.countDown();
+            for (Thread t : threads)
+                t.join();
+        }
+        assertEquals(200, exported.size());
+    }
+
+    @Test
+    public void testSampling() {
+        Tracer.setSampleRate(0.25);
+        int sampled = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (Tracer.startTrace("receive", System.nanoTime()) != null)
+                sampled++;
+        }
+        assertTrue("sampled " + sampled, sampled > 2000 && sampled < 3000);
+    }
+
+    @Test
+    public void testContextAdoptsMessageSpan() {
+        Tracer.setSampleRate(1.0);
+        Span root = Tracer.startTrace("receive", System.nanoTime());
+        ISOMsg m = new ISOMsg("0200");
+        m.setSpan(root);
+        assertSame(root, ((ISOMsg) m.clone()).getSpan());
+        Context ctx = new Context();
+        ctx.put("AMOUNT", "100");
+        assertNull(ctx.getSpan());
+        ctx.put("REQUEST", m);
+        assertSame(root, ctx.getSpan());
+    }
+}